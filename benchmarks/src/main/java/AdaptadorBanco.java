@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Scanner;
+
+import banco.jmh.OperacionesBanco;
+
+/**
+ * Da acceso a Banco desde las pruebas de rendimiento del paquete banco.jmh (ver OperacionesBanco).
+ * Cada método delega directamente en el de Banco.
+ */
+public class AdaptadorBanco implements OperacionesBanco {
+
+    private final Banco banco = new Banco();
+
+    @Override
+    public int cargarFichero(Path fichero) throws IOException {
+        return banco.cargarFichero(fichero);
+    }
+
+    @Override
+    public int cargarFicheroParalelo(Path fichero) throws IOException {
+        return banco.cargarFicheroParalelo(fichero);
+    }
+
+    @Override
+    public int anyadirCuentas(String lineas) {
+        return banco.cargarFichero(new Scanner(lineas));
+    }
+
+    @Override
+    public boolean tieneCuenta(String dni) {
+        return banco.tieneCuenta(dni);
+    }
+
+    @Override
+    public int buscarCuentas(String dni, String nombre) {
+        return banco.buscarCuentas(new Cliente(dni, nombre)).size();
+    }
+
+    @Override
+    public boolean transferencia(String dniOrigen, String dniDestino, double cantidad) {
+        return banco.transferencia(dniOrigen, dniDestino, cantidad);
+    }
+
+    @Override
+    public double addInteres(double interes) {
+        return banco.addInteres(interes);
+    }
+
+    @Override
+    public int reset() {
+        return banco.reset();
+    }
+
+    @Override
+    public void ordenarCuentas() {
+        banco.ordenarCuentas();
+    }
+
+    @Override
+    public int eliminarCliente(String dni, String nombre) {
+        return banco.eliminarCliente(new Cliente(dni, nombre));
+    }
+
+    @Override
+    public String informe() {
+        return banco.toString();
+    }
+}
@@ -0,0 +1,235 @@
+package banco.jmh;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Pruebas de rendimiento de las operaciones principales de Banco, con bancos de 10^3 a 10^7 cuentas
+ * (ver CuentasSinteticas). Cada prueba se ejecuta en su propia JVM, así que las que modifican el banco
+ * no afectan a las demás.
+ *
+ * main las lanza con el perfilador de memoria de JMH (-prof gc), que añade a cada resultado los bytes
+ * reservados por operación y la velocidad de reserva. Acepta las mismas opciones que benchmarks.jar,
+ * por ejemplo para medir un solo tamaño:
+ *   java -jar benchmarks/target/benchmarks.jar -p numCuentas=100000 transferencia
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class BancoBenchmark {
+
+    /**
+     * Número de DNI distintos que usan las búsquedas, transferencias y borrados. Se eligen al azar
+     * entre todas las cuentas del banco para no medir siempre las mismas.
+     */
+    private static final int TAMANYO_MUESTRA = 4096;
+
+    /**
+     * Fichero de cuentas de cada tamaño.
+     */
+    @State(Scope.Benchmark)
+    public static class Fichero {
+
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        public int numCuentas;
+
+        public Path fichero;
+
+        @Setup(Level.Trial)
+        public void generar() throws IOException {
+            fichero = CuentasSinteticas.fichero(numCuentas);
+        }
+    }
+
+    /**
+     * Banco con las cuentas del fichero ya cargadas y una muestra de sus cuentas.
+     */
+    @State(Scope.Benchmark)
+    public static class Cargado {
+
+        public OperacionesBanco banco;
+        public int[] muestra;
+        private int siguiente;
+
+        @Setup(Level.Trial)
+        public void cargar(Fichero fichero) throws IOException {
+            banco = OperacionesBanco.nuevo();
+            banco.cargarFichero(fichero.fichero);
+            Random aleatorio = new Random(42);
+            muestra = new int[TAMANYO_MUESTRA];
+            for (int i = 0; i < TAMANYO_MUESTRA; i++) {
+                muestra[i] = aleatorio.nextInt(fichero.numCuentas);
+            }
+        }
+
+        /**
+         * Devuelve la siguiente cuenta de la muestra, dando la vuelta al llegar al final.
+         *
+         * @return Número de cuenta.
+         */
+        public int siguienteCuenta() {
+            siguiente = (siguiente + 1) & (TAMANYO_MUESTRA - 1);
+            return muestra[siguiente];
+        }
+    }
+
+    /**
+     * DNI y nombre de la muestra ya calculados, para no medir su formato en las búsquedas.
+     */
+    @State(Scope.Benchmark)
+    public static class Clientes {
+
+        public String[] dnis;
+        public String[] nombres;
+        private int siguiente;
+
+        @Setup(Level.Trial)
+        public void preparar(Cargado cargado) {
+            dnis = new String[TAMANYO_MUESTRA];
+            nombres = new String[TAMANYO_MUESTRA];
+            for (int i = 0; i < TAMANYO_MUESTRA; i++) {
+                dnis[i] = CuentasSinteticas.dni(cargado.muestra[i]);
+                nombres[i] = CuentasSinteticas.nombre(cargado.muestra[i]);
+            }
+        }
+
+        /**
+         * Avanza a la siguiente posición de la muestra.
+         *
+         * @return Posición en dnis y nombres.
+         */
+        public int siguiente() {
+            siguiente = (siguiente + 1) & (TAMANYO_MUESTRA - 1);
+            return siguiente;
+        }
+    }
+
+    /**
+     * Cliente borrado en la última llamada a eliminarCliente, que se vuelve a dar de alta con todas sus
+     * cuentas (fuera de la medida) para que el banco no se vacíe.
+     */
+    @State(Scope.Benchmark)
+    public static class Borrado {
+
+        private Cargado cargado;
+        private int numCuentas;
+        private int cuenta;
+        public String dni;
+        public String nombre;
+
+        @Setup(Level.Trial)
+        public void preparar(Cargado cargado, Fichero fichero) {
+            this.cargado = cargado;
+            this.numCuentas = fichero.numCuentas;
+        }
+
+        @Setup(Level.Invocation)
+        public void elegir() {
+            cuenta = cargado.siguienteCuenta();
+            dni = CuentasSinteticas.dni(cuenta);
+            nombre = CuentasSinteticas.nombre(cuenta);
+        }
+
+        @TearDown(Level.Invocation)
+        public void reponer() {
+            cargado.banco.anyadirCuentas(CuentasSinteticas.lineasCliente(cuenta, numCuentas));
+        }
+    }
+
+    @Benchmark
+    public int cargarFichero(Fichero fichero) throws IOException {
+        return OperacionesBanco.nuevo().cargarFichero(fichero.fichero);
+    }
+
+    @Benchmark
+    public int cargarFicheroParalelo(Fichero fichero) throws IOException {
+        return OperacionesBanco.nuevo().cargarFicheroParalelo(fichero.fichero);
+    }
+
+    @Benchmark
+    public boolean buscarCuenta(Cargado cargado, Clientes clientes) {
+        return cargado.banco.tieneCuenta(clientes.dnis[clientes.siguiente()]);
+    }
+
+    @Benchmark
+    public int buscarCuentasCliente(Cargado cargado, Clientes clientes) {
+        int i = clientes.siguiente();
+        return cargado.banco.buscarCuentas(clientes.dnis[i], clientes.nombres[i]);
+    }
+
+    @Benchmark
+    public boolean transferencia(Cargado cargado, Clientes clientes) {
+        int origen = clientes.siguiente();
+        int destino = clientes.siguiente();
+        return cargado.banco.transferencia(clientes.dnis[origen], clientes.dnis[destino], 0.01);
+    }
+
+    @Benchmark
+    public double addInteres(Cargado cargado) {
+        return cargado.banco.addInteres(0.0001);
+    }
+
+    @Benchmark
+    public int reset(Cargado cargado) {
+        return cargado.banco.reset();
+    }
+
+    @Benchmark
+    public void ordenarCuentas(Cargado cargado) {
+        cargado.banco.ordenarCuentas();
+    }
+
+    @Benchmark
+    public int eliminarCliente(Cargado cargado, Borrado borrado) {
+        return cargado.banco.eliminarCliente(borrado.dni, borrado.nombre);
+    }
+
+    /**
+     * Banco.toString, con el informe completo en una cadena.
+     */
+    @Benchmark
+    public String informe(Cargado cargado) {
+        return cargado.banco.informe();
+    }
+
+    /**
+     * Lanza todas las pruebas (o las elegidas en la línea de órdenes) con el perfilador de memoria.
+     *
+     * @param args Opciones de JMH.
+     * @throws RunnerException si falla alguna prueba.
+     * @throws CommandLineOptionException si las opciones no son válidas.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions opciones = new CommandLineOptions(args);
+        OptionsBuilder constructor = new OptionsBuilder();
+        constructor.parent(opciones).addProfiler(GCProfiler.class);
+        if (opciones.getIncludes().isEmpty()) {
+            constructor.include(BancoBenchmark.class.getSimpleName());
+        }
+        new Runner(constructor.build()).run();
+    }
+}
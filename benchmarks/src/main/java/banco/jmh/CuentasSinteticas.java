@@ -0,0 +1,113 @@
+package banco.jmh;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Ficheros de cuentas sintéticos para las pruebas de rendimiento, con el formato de Banco.cargarFichero.
+ *
+ * La cuenta i se calcula solo a partir de i, así que las pruebas pueden sacar el DNI, el nombre o la
+ * línea de cualquier cuenta sin guardar el fichero en memoria:
+ * - Una de cada cinco cuentas es del mismo cliente que la anterior; el resto son de clientes nuevos.
+ * - El DNI sale de multiplicar el número de cliente por una constante impar y no múltiplo de 5 módulo
+ *   10^8, que no repite DNI y los reparte sin orden.
+ * - Las cuentas pares son de ahorro y las impares corrientes.
+ */
+public final class CuentasSinteticas {
+
+    private static final long MODULO_DNI = 100_000_000L;
+    private static final long MULTIPLICADOR_DNI = 2_654_435_761L;
+
+    private CuentasSinteticas() {
+    }
+
+    /**
+     * Devuelve un fichero con las primeras cuentas indicadas. Se genera en el directorio temporal la
+     * primera vez y se reutiliza después, porque los de 10^7 cuentas tardan en escribirse.
+     *
+     * @param numCuentas Número de cuentas del fichero.
+     * @return Fichero de cuentas.
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    public static Path fichero(int numCuentas) throws IOException {
+        Path fichero = Paths.get(System.getProperty("java.io.tmpdir"), "banco-jmh-" + numCuentas + ".txt");
+        if (Files.exists(fichero)) {
+            return fichero;
+        }
+        Path temporal = Files.createTempFile(fichero.getParent(), "banco-jmh-", ".tmp");
+        try (BufferedWriter salida = Files.newBufferedWriter(temporal, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < numCuentas; i++) {
+                salida.write(linea(i));
+                salida.newLine();
+            }
+        }
+        Files.move(temporal, fichero, StandardCopyOption.ATOMIC_MOVE);
+        return fichero;
+    }
+
+    /**
+     * Número de cliente de una cuenta.
+     *
+     * @param cuenta Número de cuenta.
+     * @return Número de cliente.
+     */
+    private static long cliente(int cuenta) {
+        return (cuenta % 5 == 4) ? cuenta - 1 : cuenta;
+    }
+
+    /**
+     * DNI del titular de una cuenta.
+     *
+     * @param cuenta Número de cuenta.
+     * @return DNI de 8 dígitos y una letra.
+     */
+    public static String dni(int cuenta) {
+        long cliente = cliente(cuenta);
+        long numero = (cliente * MULTIPLICADOR_DNI) % MODULO_DNI;
+        return String.format(Locale.ROOT, "%08d%c", numero, (char) ('A' + cliente % 26));
+    }
+
+    /**
+     * Nombre del titular de una cuenta.
+     *
+     * @param cuenta Número de cuenta.
+     * @return Nombre del titular.
+     */
+    public static String nombre(int cuenta) {
+        return "Nombre" + cliente(cuenta) % 1000;
+    }
+
+    /**
+     * Línea del fichero de una cuenta.
+     *
+     * @param cuenta Número de cuenta.
+     * @return Línea "DNI Nombre Saldo Tipo", sin salto de línea.
+     */
+    public static String linea(int cuenta) {
+        long centimos = (cuenta * 48_271L) % 1_000_000L;
+        return dni(cuenta) + " " + nombre(cuenta) + " " + centimos / 100 + "." + String.format(Locale.ROOT, "%02d", centimos % 100)
+                + " " + ((cuenta % 2 == 0) ? 'A' : 'C');
+    }
+
+    /**
+     * Líneas del fichero de todas las cuentas del titular de una cuenta, en el orden del fichero.
+     *
+     * @param cuenta     Número de cuenta.
+     * @param numCuentas Número de cuentas del fichero.
+     * @return Una línea por cuenta del cliente, separadas por saltos de línea.
+     */
+    public static String lineasCliente(int cuenta, int numCuentas) {
+        int primera = (int) cliente(cuenta);
+        String lineas = linea(primera);
+        if (primera % 5 == 3 && primera + 1 < numCuentas) {
+            lineas += "\n" + linea(primera + 1);
+        }
+        return lineas;
+    }
+}
@@ -0,0 +1,119 @@
+package banco.jmh;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+
+/**
+ * Operaciones de Banco que miden las pruebas de rendimiento.
+ *
+ * JMH no admite pruebas en el paquete por defecto y desde un paquete con nombre no se puede usar una
+ * clase del paquete por defecto, que es donde está Banco. Por eso las pruebas trabajan con esta interfaz,
+ * que implementa la clase AdaptadorBanco del paquete por defecto delegando en un Banco.
+ * Como solo hay una implementación, el compilador JIT resuelve las llamadas sin coste.
+ */
+public interface OperacionesBanco {
+
+    /**
+     * Crea un banco vacío a través de AdaptadorBanco.
+     *
+     * @return Operaciones sobre un banco nuevo.
+     */
+    static OperacionesBanco nuevo() {
+        try {
+            return (OperacionesBanco) Class.forName("AdaptadorBanco").getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException | NoSuchMethodException | InstantiationException
+                 | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("No se encuentra AdaptadorBanco", e);
+        }
+    }
+
+    /**
+     * Banco.cargarFichero(Path).
+     *
+     * @param fichero Fichero de cuentas.
+     * @return Número de cuentas leídas.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    int cargarFichero(Path fichero) throws IOException;
+
+    /**
+     * Banco.cargarFicheroParalelo.
+     *
+     * @param fichero Fichero de cuentas.
+     * @return Número de cuentas leídas.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    int cargarFicheroParalelo(Path fichero) throws IOException;
+
+    /**
+     * Añade cuentas escritas con el formato del fichero de cuentas (Banco.cargarFichero(Scanner)).
+     *
+     * @param lineas Cuentas, una por línea.
+     * @return Número de cuentas añadidas.
+     */
+    int anyadirCuentas(String lineas);
+
+    /**
+     * Búsqueda de la primera cuenta de un DNI en el índice (Banco.tieneCuenta).
+     *
+     * @param dni DNI del titular.
+     * @return true si el DNI tiene cuentas.
+     */
+    boolean tieneCuenta(String dni);
+
+    /**
+     * Búsqueda de todas las cuentas de un cliente (Banco.buscarCuentas).
+     *
+     * @param dni    DNI del cliente.
+     * @param nombre Nombre del cliente.
+     * @return Número de cuentas del cliente.
+     */
+    int buscarCuentas(String dni, String nombre);
+
+    /**
+     * Banco.transferencia.
+     *
+     * @param dniOrigen  DNI de origen.
+     * @param dniDestino DNI de destino.
+     * @param cantidad   Cantidad en euros.
+     * @return true si se ha hecho la transferencia.
+     */
+    boolean transferencia(String dniOrigen, String dniDestino, double cantidad);
+
+    /**
+     * Banco.addInteres.
+     *
+     * @param interes Interés en porcentaje.
+     * @return Total de intereses pagados.
+     */
+    double addInteres(double interes);
+
+    /**
+     * Banco.reset.
+     *
+     * @return Número de cuentas corrientes reseteadas.
+     */
+    int reset();
+
+    /**
+     * Banco.ordenarCuentas.
+     */
+    void ordenarCuentas();
+
+    /**
+     * Banco.eliminarCliente.
+     *
+     * @param dni    DNI del cliente.
+     * @param nombre Nombre del cliente.
+     * @return Número de cuentas eliminadas.
+     */
+    int eliminarCliente(String dni, String nombre);
+
+    /**
+     * Banco.toString.
+     *
+     * @return Informe del banco.
+     */
+    String informe();
+}
@@ -1,177 +1,2408 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class Banco {
 
      /*
      *  Atributos
      * 	- ArrayList que almacena todas las cuentas gestionadas por el banco.
-     * 	  Puede contener objetos de tipo CuentaCorriente o CuentaAhorro.
+     * 	  Puede contener objetos de tipo CuentaCorriente o CuentaAhorro. Es la vista unificada, en el orden
+     * 	  del listado y de la instantánea.
+     * 	- Las mismas cuentas separadas por tipo, para que los recorridos de fin de mes solo visiten las
+     * 	  cuentas que les interesan y sin comprobar el tipo de cada una. Se mantienen junto con el ArrayList
+     * 	  y con su mismo monitor.
+     * 	- Columnas opcionales (ver Banco(boolean) y ColumnasCuentas): el saldo, el tipo, las retiradas y el mes
+     * 	  de cada cuenta en arrays de tipos primitivos, sobre los que trabajan las cuentas y los recorridos
+     * 	  de todo el banco. Con ellas las listas por tipo no se usan y se quedan vacías. Las filas se añaden
+     * 	  y se quitan con el monitor del ArrayList, y sus arrays solo crecen con todas las franjas tomadas.
+     * 	- Índice por DNI: para cada DNI, sus cuentas en el mismo orden relativo que en el ArrayList.
+     * 	  Se mantiene sincronizado en cargarFichero, ordenarCuentas y eliminarCliente.
+     * 	  Hace también de registro de clientes: todas las cuentas de un mismo cliente (DNI y nombre)
+     * 	  comparten la misma instancia de Cliente, la de la primera que llegó al banco.
+     * 	- Conjunto ordenado con todas las cuentas por DNI, saldo (de mayor a menor) e identificador,
+     * 	  que se actualiza en cada cambio de saldo. ordenarCuentas solo tiene que recorrerlo.
+     * 	  Se construye en la primera ordenación (hasta entonces es null), para no encarecer las cargas.
+     * 	- Índice por saldo: las mismas cuentas ordenadas por saldo (de menor a mayor) e identificador, para
+     * 	  las consultas por rango de saldo. Se mantiene igual que el conjunto ordenado y se construye en la
+     * 	  primera consulta por saldo (hasta entonces es null).
+     * 	- Último identificador de cuenta asignado (protegido por el monitor del ArrayList).
+     * 	- Número de cuentas borradas que siguen en el ArrayList y en las listas por tipo, marcadas como
+     * 	  borradas hasta la próxima compactación (protegido por el monitor del ArrayList).
+     * 	- Cerrojos por franjas: cada DNI pertenece a una franja y todas sus cuentas se protegen con su cerrojo.
      *  - Interés aplicado a las cuentas de ahorro.
+     *  - Diario de transacciones opcional donde se anotan las operaciones que modifican el banco.
+     *  - Cierre de mes: monitor que lo serializa con el resto de operaciones sobre todo el banco, número
+     *    del último cierre empezado, su tasa y los intereses pagados por las operaciones que se adelantan
+     *    al barrido (ver cierreMesCentimos).
+     *  - Reservas de transferencias a otras particiones que todavía no se han confirmado ni anulado
+     *    (ver reservarSalida), por identificador.
+     *  - Registro de auditoría opcional donde se anotan los movimientos de dinero, ya fuera de los cerrojos.
+     *  - Guardado incremental (ver guardarCambios): fichero de cambios donde se guardan las cuentas
+     *    modificadas (null hasta el primer guardado o carga incremental; se asigna con todas las franjas
+     *    tomadas) y cola de las cuentas modificadas desde el último guardado. Cada cuenta entra en la cola
+     *    una sola vez, con el cerrojo de su franja, cuando cambia su saldo, su contador de retiradas o se
+     *    añade o borra.
+     *
+     *  Concurrencia:
+     *  - transferencia, ingreso y retirada solo toman los cerrojos de las franjas de sus DNI,
+     *    siempre en orden creciente de franja, así que nunca se bloquean en un cerrojo global.
+     *  - Las listas del índice y el saldo de las cuentas solo se leen o modifican con el cerrojo de su franja.
+     *    Una cuenta se saca del conjunto ordenado antes de cambiar su saldo y se vuelve a meter después,
+     *    salvo que sea la única de su DNI: entonces su posición no puede cambiar, porque el DNI manda
+     *    en el orden, y basta con cambiar el saldo (las demás cuentas del conjunto solo la comparan por DNI).
+     *    Del índice por saldo se saca siempre.
+     *    Los dos se asignan con todas las franjas tomadas, así que basta cualquier cerrojo de franja para verlos.
+     *  - El ArrayList se protege con su propio monitor y solo lo usan las operaciones de carga,
+     *    listado, borrado y las de fin de mes, que toman después los cerrojos de franja necesarios.
+     *  - El cierre de mes no para las operaciones sobre saldos: toma todas las franjas solo un instante
+     *    para fijar el punto de corte y luego recorre el ArrayList en paralelo, con su monitor y el cerrojo
+     *    de la franja de cada cuenta. Las operaciones que llegan a una cuenta todavía sin cerrar la cierran
+     *    antes de operar.
+     *  - Las operaciones que recorren el ArrayList o las listas por tipo las compactan antes,
+     *    así que nunca ven cuentas borradas.
+     *  - El orden de los cerrojos es siempre: monitor del cierre, monitor del ArrayList y franjas.
+     *  - Cada operación se anota en el diario con sus cerrojos todavía tomados, y se espera a que
+     *    esté en disco después de soltarlos, para que otras operaciones compartan el mismo fsync.
+     */
+    private static final int NUM_FRANJAS = 1024;
+
+    /**
+     * Número de cuentas a partir del cual el barrido del cierre de mes se reparte entre los hilos
+     * del ForkJoinPool común, y tramos por hilo (más de uno para repartir mejor la carga).
+     */
+    private static final int UMBRAL_PARALELO = 10_000;
+    private static final int TRAMOS_POR_HILO = 4;
+
+    /**
+     * Orden del conjunto de cuentas: el de Cuenta.compareTo (DNI y saldo de mayor a menor) y, a igualdad,
+     * el identificador, para que dos cuentas con el mismo DNI y saldo no se confundan en una.
+     */
+    private static final Comparator<Cuenta> ORDEN = (cuenta, otra) -> {
+        int comparacion = cuenta.compareTo(otra);
+        return (comparacion != 0) ? comparacion : Long.compare(cuenta.id, otra.id);
+    };
+
+    /**
+     * Orden del índice por saldo: saldo de menor a mayor y, a igualdad, el identificador.
+     */
+    private static final Comparator<Cuenta> POR_SALDO = (cuenta, otra) -> {
+        int comparacion = Long.compare(cuenta.getSaldoCentimos(), otra.getSaldoCentimos());
+        return (comparacion != 0) ? comparacion : Long.compare(cuenta.id, otra.id);
+    };
+
+    private final ArrayList<Cuenta> cuentas;
+    private final ArrayList<CuentaAhorro> ahorros;
+    private final ArrayList<CuentaCorriente> corrientes;
+    private final ColumnasCuentas columnas;
+    private final ConcurrentHashMap<String, ArrayList<Cuenta>> indiceDni;
+    private ConcurrentSkipListSet<Cuenta> ordenadas;
+    private ConcurrentSkipListSet<Cuenta> porSaldo;
+    private long ultimoId;
+    private int numBorradas;
+    private final ReentrantLock[] franjas;
+    private volatile double interesAhorro;
+    private volatile DiarioTransacciones diario;
+    private volatile MetricasBanco metricas;
+    private volatile LibroMayor libro;
+    private volatile RegistroAuditoria auditoria;
+    private final Object cierre;
+    private int mesActual;
+    private long tasaCierre;
+    private final LongAdder interesesCierre;
+    private final ConcurrentHashMap<Long, Reserva> reservas;
+    private final Set<Long> abonadas;
+    private CambiosCuentas cambios;
+    private final ConcurrentLinkedQueue<Cuenta> modificadas;
+    private final ConcurrentLinkedQueue<Apunte> interesesPorAuditar;
+
+    /**
+     * Movimiento de una cuenta que se anota en la auditoría después de soltar los cerrojos.
+     */
+    private static final class Apunte {
+        private final String dni;
+        private final long centimos;
+
+        /**
+         * @param dni      DNI del titular de la cuenta.
+         * @param centimos Cantidad en céntimos.
+         */
+        private Apunte(String dni, long centimos) {
+            this.dni = dni;
+            this.centimos = centimos;
+        }
+    }
+
+    /**
+     * Salida reservada de una transferencia a otra partición: el dinero ya no está en la cuenta de origen
+     * pero todavía no se sabe si la transferencia se completa.
+     */
+    private static final class Reserva {
+        private final Cuenta cuenta;
+        private final long debito;
+        private final int mes;
+
+        /**
+         * @param cuenta Cuenta de origen.
+         * @param debito Cantidad descontada de la cuenta, comisión incluida, en céntimos.
+         * @param mes    Cierre de mes de la cuenta cuando se reservó.
+         */
+        private Reserva(Cuenta cuenta, long debito, int mes) {
+            this.cuenta = cuenta;
+            this.debito = debito;
+            this.mes = mes;
+        }
+    }
+
+    /**
+     * Constructor de la clase Banco.
+     * Inicializa el ArrayList de cuentas, el índice por DNI, los cerrojos de franja y el interés de ahorro.
+     */
+    public Banco() {
+        this(false);
+    }
+
+    /**
+     * Constructor de un banco que puede guardar los datos de sus cuentas por columnas (ver ColumnasCuentas).
+     * Por columnas, el saldo, el tipo, las retiradas y el mes de las cuentas están en arrays de tipos
+     * primitivos, y los recorridos de todo el banco (addInteres, reset, el cierre de mes, resumenPorTipo,
+     * mayoresSaldos y las ordenaciones) van por ellos sin pasar por las cuentas. Las cuentas siguen
+     * siendo las del resto de operaciones, que dan los mismos resultados de las dos formas.
+     *
+     * @param porColumnas true para guardar las cuentas por columnas.
+     */
+    public Banco(boolean porColumnas) {
+        cuentas = new ArrayList<>();
+        ahorros = new ArrayList<>();
+        corrientes = new ArrayList<>();
+        columnas = porColumnas ? new ColumnasCuentas() : null;
+        indiceDni = new ConcurrentHashMap<>();
+        franjas = new ReentrantLock[NUM_FRANJAS];
+        for (int i = 0; i < NUM_FRANJAS; i++) {
+            franjas[i] = new ReentrantLock();
+        }
+        interesAhorro = 0;
+        cierre = new Object();
+        interesesCierre = new LongAdder();
+        reservas = new ConcurrentHashMap<>();
+        abonadas = ConcurrentHashMap.newKeySet();
+        modificadas = new ConcurrentLinkedQueue<>();
+        interesesPorAuditar = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Asigna el diario donde se anotarán las operaciones a partir de ahora.
+     * Para recuperar un diario existente, se reproduce antes de asignarlo (ver DiarioTransacciones.abrir).
+     *
+     * @param diario Diario de transacciones, o null para dejar de anotar.
+     */
+    public void setDiario(DiarioTransacciones diario) {
+        this.diario = diario;
+    }
+
+    /**
+     * Asigna las métricas donde se anotarán las operaciones a partir de ahora (ver MetricasBanco).
+     * Sin métricas, cada operación solo lee el campo y lo compara con null.
+     *
+     * @param metricas Métricas del banco, o null para dejar de medir.
+     */
+    public void setMetricas(MetricasBanco metricas) {
+        this.metricas = metricas;
+    }
+
+    /**
+     * Devuelve las métricas donde se anotan las operaciones.
+     *
+     * @return Métricas del banco, o null si no se mide.
+     */
+    public MetricasBanco getMetricas() {
+        return metricas;
+    }
+
+    /**
+     * Empieza a anotar los movimientos de todas las cuentas en un libro mayor (ver LibroMayor).
+     * Las cuentas que ya están en el banco se abren en el libro con su saldo actual; se hace con todas
+     * las franjas tomadas y fuera de un cierre de mes, así que ningún movimiento queda a medias.
+     *
+     * @param libro Libro mayor, o null para dejar de anotar.
+     */
+    public void setLibroMayor(LibroMayor libro) {
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                compactar();
+                bloquearTodas();
+                try {
+                    if (libro != null) {
+                        for (Cuenta cuenta : cuentas) {
+                            libro.abrir(cuenta);
+                        }
+                    }
+                    this.libro = libro;
+                } finally {
+                    desbloquearTodas();
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve el libro mayor donde se anotan los movimientos.
+     *
+     * @return Libro mayor, o null si no se anotan.
+     */
+    public LibroMayor getLibroMayor() {
+        return libro;
+    }
+
+    /**
+     * Asigna el registro de auditoría donde se anotarán los movimientos de dinero a partir de ahora
+     * (ver RegistroAuditoria). Cada movimiento se anota después de soltar sus cerrojos, así que si el
+     * registro bloquea por estar lleno no retiene a las demás operaciones.
+     *
+     * @param auditoria Registro de auditoría, o null para dejar de anotar.
+     */
+    public void setAuditoria(RegistroAuditoria auditoria) {
+        this.auditoria = auditoria;
+    }
+
+    /**
+     * Devuelve el registro de auditoría donde se anotan los movimientos.
+     *
+     * @return Registro de auditoría, o null si no se anotan.
+     */
+    public RegistroAuditoria getAuditoria() {
+        return auditoria;
+    }
+
+    /**
+     * Instante en que empieza una operación, si hay métricas.
+     *
+     * @param lasMetricas Métricas leídas al empezar la operación, o null.
+     * @return System.nanoTime, o 0 si no hay métricas.
+     */
+    private static long empezar(MetricasBanco lasMetricas) {
+        return (lasMetricas == null) ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Anota en las métricas, si las hay, que ha terminado una operación.
+     *
+     * @param lasMetricas Métricas leídas al empezar la operación, o null.
+     * @param operacion   Operación terminada.
+     * @param inicio      Valor devuelto por empezar.
+     */
+    private static void terminar(MetricasBanco lasMetricas, MetricasBanco.Operacion operacion, long inicio) {
+        if (lasMetricas != null) {
+            lasMetricas.anotar(operacion, inicio);
+        }
+    }
+
+    /**
+     * Anota en las métricas, si las hay, por qué no se ha hecho una operación.
+     *
+     * @param lasMetricas Métricas leídas al empezar la operación, o null.
+     * @param operacion   Operación fallida.
+     * @param motivo      Motivo del fallo.
+     * @return false, para devolverlo directamente desde la operación.
+     */
+    private static boolean fallo(MetricasBanco lasMetricas, MetricasBanco.Operacion operacion, MetricasBanco.Motivo motivo) {
+        if (lasMetricas != null) {
+            lasMetricas.anotarFallo(operacion, motivo);
+        }
+        return false;
+    }
+
+    /**
+     * Espera a que una operación anotada en el diario esté en disco.
+     * Debe llamarse sin cerrojos tomados.
+     *
+     * @param elDiario  Diario donde se anotó la operación, o null si no se anotó.
+     * @param secuencia Secuencia devuelta al anotar.
+     */
+    private static void confirmar(DiarioTransacciones elDiario, long secuencia) {
+        if (elDiario == null || secuencia == 0) {
+            return;
+        }
+        try {
+            elDiario.sincronizar(secuencia);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se ha podido escribir el diario de transacciones", e);
+        }
+    }
+
+    /**
+     * Anota un movimiento en el registro de auditoría, si lo hay. Debe llamarse sin cerrojos tomados.
+     *
+     * @param laAuditoria Registro leído al empezar la operación, o null.
+     * @param tipo        Tipo de movimiento.
+     * @param dni         DNI del titular (de origen en las transferencias).
+     * @param destino     DNI de destino en las transferencias, o null.
+     * @param centimos    Cantidad en céntimos.
+     */
+    private static void auditar(RegistroAuditoria laAuditoria, RegistroAuditoria.Tipo tipo, String dni,
+                                String destino, long centimos) {
+        if (laAuditoria != null) {
+            laAuditoria.anotar(tipo, dni, destino, centimos);
+        }
+    }
+
+    /**
+     * Anota en la auditoría, si la hay, un movimiento de cada apunte. Debe llamarse sin cerrojos tomados.
+     *
+     * @param laAuditoria Registro leído al empezar la operación, o null.
+     * @param tipo        Tipo de movimiento.
+     * @param apuntes     DNI y céntimos de cada movimiento.
+     */
+    private static void auditar(RegistroAuditoria laAuditoria, RegistroAuditoria.Tipo tipo, Iterable<Apunte> apuntes) {
+        if (laAuditoria != null) {
+            for (Apunte apunte : apuntes) {
+                laAuditoria.anotar(tipo, apunte.dni, null, apunte.centimos);
+            }
+        }
+    }
+
+    /**
+     * Comisión que ha cobrado el último ingreso en una cuenta.
+     *
+     * @param cuenta Cuenta del ingreso.
+     * @return Comisión en céntimos (0 si no cobra).
+     */
+    private static long comisionIngreso(Cuenta cuenta) {
+        return cuenta.comisionEnIngreso() ? CuentaCorriente.COMISION_INGRESO_CENTIMOS : 0;
+    }
+
+    /**
+     * Comisión que ha cobrado la última retirada de una cuenta.
+     *
+     * @param cuenta Cuenta de la retirada.
+     * @return Comisión en céntimos (0 si no cobra).
+     */
+    private static long comisionRetirada(Cuenta cuenta) {
+        return cuenta.comisionEnRetirada() ? Cuenta.COMISION_RETIRADA_CENTIMOS : 0;
+    }
+
+    /**
+     * Anota en la auditoría, si la hay y es distinta de 0, la comisión cobrada en una operación.
+     * Debe llamarse sin cerrojos tomados.
+     *
+     * @param laAuditoria Registro leído al empezar la operación, o null.
+     * @param dni         DNI del titular de la cuenta que paga la comisión.
+     * @param centimos    Comisión en céntimos.
+     */
+    private static void auditarComision(RegistroAuditoria laAuditoria, String dni, long centimos) {
+        if (centimos != 0) {
+            auditar(laAuditoria, RegistroAuditoria.Tipo.COMISION, dni, null, centimos);
+        }
+    }
+
+    /**
+     * Calcula la franja de cerrojo a la que pertenece un DNI.
+     *
+     * @param dni DNI del titular.
+     * @return Índice de la franja, entre 0 y NUM_FRANJAS - 1.
+     */
+    private static int franja(String dni) {
+        int hash = dni.hashCode();
+        return (hash ^ (hash >>> 16)) & (NUM_FRANJAS - 1);
+    }
+
+    /**
+     * Toma los cerrojos de dos franjas en orden creciente (una sola vez si coinciden).
+     * Bloquear siempre en el mismo orden evita interbloqueos entre transferencias cruzadas.
+     * Se ordena por franja y no por el DNI en sí porque dos DNI distintos pueden compartir franja.
+     *
+     * @param franjaA Primera franja.
+     * @param franjaB Segunda franja.
+     */
+    private void bloquear(int franjaA, int franjaB) {
+        franjas[Math.min(franjaA, franjaB)].lock();
+        if (franjaA != franjaB) {
+            franjas[Math.max(franjaA, franjaB)].lock();
+        }
+    }
+
+    /**
+     * Libera los cerrojos tomados con bloquear, en orden inverso.
+     *
+     * @param franjaA Primera franja.
+     * @param franjaB Segunda franja.
+     */
+    private void desbloquear(int franjaA, int franjaB) {
+        if (franjaA != franjaB) {
+            franjas[Math.max(franjaA, franjaB)].unlock();
+        }
+        franjas[Math.min(franjaA, franjaB)].unlock();
+    }
+
+    /**
+     * Toma los cerrojos de todas las franjas, en orden creciente.
+     */
+    private void bloquearTodas() {
+        for (ReentrantLock unaFranja : franjas) {
+            unaFranja.lock();
+        }
+    }
+
+    /**
+     * Libera los cerrojos de todas las franjas, en orden inverso.
+     */
+    private void desbloquearTodas() {
+        for (int i = NUM_FRANJAS - 1; i >= 0; i--) {
+            franjas[i].unlock();
+        }
+    }
+
+    /**
+     * Apunta que una cuenta ha cambiado desde el último guardado incremental, si el banco se guarda así.
+     * La llaman las propias cuentas al cambiar (ver Cuenta.cambiada) y el banco al añadirlas o borrarlas.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado, después del cambio.
+     *
+     * @param cuenta Cuenta modificada, añadida o borrada.
+     */
+    void anotarCambio(Cuenta cuenta) {
+        if (cambios != null && !cuenta.modificada) {
+            cuenta.modificada = true;
+            modificadas.add(cuenta);
+        }
+    }
+
+    /**
+     * Añade una cuenta al final del ArrayList y la registra en el índice por DNI.
+     * Debe llamarse con el monitor del ArrayList tomado.
+     *
+     * @param cuenta Cuenta que se añade al banco.
+     */
+    private void anyadirCuenta(Cuenta cuenta) {
+        String dni = cuenta.titular.getDni();
+        int franjaDni = franja(dni);
+
+        // Antes del cerrojo de la franja: si las columnas tienen que crecer se toman todas
+        reservarFilas(1);
+        franjas[franjaDni].lock();
+        try {
+            anyadirCuentaBloqueada(cuenta);
+        } finally {
+            franjas[franjaDni].unlock();
+        }
+    }
+
+    /**
+     * Añade una cuenta al ArrayList, al índice y al conjunto ordenado cuando el llamante ya tiene tomados
+     * el monitor del ArrayList y el cerrojo de la franja del DNI (o todas las franjas, en las cargas masivas).
+     * Si la cuenta no tiene identificador se le asigna el siguiente; si ya lo tiene (al restaurar una
+     * instantánea) se conserva. Con columnas, el llamante ya ha hecho sitio en ellas con reservarFilas.
+     *
+     * @param cuenta Cuenta que se añade al banco.
+     */
+    private void anyadirCuentaBloqueada(Cuenta cuenta) {
+        if (cuenta.id == 0) {
+            cuenta.id = ++ultimoId;
+        } else {
+            ultimoId = Math.max(ultimoId, cuenta.id);
+        }
+        // Una cuenta nueva no participa en el cierre de mes que pueda estar en curso
+        cuenta.setMes(mesActual);
+        cuenta.banco = this;
+        cuentas.add(cuenta);
+        anyadirAParticion(cuenta);
+        if (ordenadas != null) {
+            ordenadas.add(cuenta);
+        }
+        if (porSaldo != null) {
+            porSaldo.add(cuenta);
+        }
+        registrarEnIndice(cuenta);
+        if (columnas != null) {
+            // Después del índice, que le da a la cuenta el titular compartido de su cliente
+            columnas.anyadir(cuenta, franja(cuenta.titular.getDni()));
+        }
+        abrirEnLibro(cuenta);
+        anotarCambio(cuenta);
+    }
+
+    /**
+     * Hace sitio en las columnas, si el banco las tiene, para n cuentas más. Si sus arrays tienen que crecer
+     * toma todas las franjas, así que debe llamarse con el monitor del ArrayList y, o ningún cerrojo de
+     * franja, o todos (los cerrojos son reentrantes).
+     *
+     * @param n Número de cuentas que se van a añadir.
+     */
+    private void reservarFilas(int n) {
+        if (columnas != null && !columnas.caben(n)) {
+            bloquearTodas();
+            try {
+                columnas.crecer(n);
+            } finally {
+                desbloquearTodas();
+            }
+        }
+    }
+
+    /**
+     * Añade una cuenta al final de la lista de su DNI en el índice. Si el banco ya tiene otra cuenta
+     * del mismo cliente, la nueva pasa a compartir su instancia de Cliente.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta Cuenta que se añade al banco.
+     */
+    private void registrarEnIndice(Cuenta cuenta) {
+        String dni = cuenta.titular.getDni();
+        ArrayList<Cuenta> cuentasDni = indiceDni.get(dni);
+        if (cuentasDni == null) {
+            cuentasDni = new ArrayList<>(1);
+            indiceDni.put(dni, cuentasDni);
+        } else {
+            Cliente registrado = clienteRegistrado(cuentasDni, cuenta.titular);
+            if (registrado != null) {
+                cuenta.titular = registrado;
+            }
+        }
+        cuentasDni.add(cuenta);
+    }
+
+    /**
+     * Busca entre las cuentas de un DNI la instancia compartida de un cliente.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuentasDni Cuentas del DNI del cliente en el índice, o null si no tiene.
+     * @param cliente    Cliente que se busca (mismo DNI y nombre).
+     * @return Titular compartido por las cuentas del cliente, o null si no tiene cuentas en el banco.
+     */
+    private static Cliente clienteRegistrado(ArrayList<Cuenta> cuentasDni, Cliente cliente) {
+        if (cuentasDni != null) {
+            for (Cuenta cuenta : cuentasDni) {
+                if (cuenta.esDe(cliente)) {
+                    return cuenta.titular;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Devuelve las cuentas de un cliente (mismo DNI y nombre) en el orden del banco.
+     * Usa el índice por DNI, así que no recorre el resto de cuentas.
+     *
+     * @param cliente Cliente cuyas cuentas se buscan.
+     * @return Lista nueva con las cuentas del cliente; vacía si no tiene ninguna.
+     */
+    public List<Cuenta> buscarCuentas(Cliente cliente) {
+        List<Cuenta> encontradas = new ArrayList<>();
+        int franjaDni = franja(cliente.getDni());
+        franjas[franjaDni].lock();
+        try {
+            ArrayList<Cuenta> cuentasDni = indiceDni.get(cliente.getDni());
+            Cliente registrado = clienteRegistrado(cuentasDni, cliente);
+            if (registrado != null) {
+                for (Cuenta cuenta : cuentasDni) {
+                    if (cuenta.titular == registrado) {
+                        encontradas.add(cuenta);
+                    }
+                }
+            }
+        } finally {
+            franjas[franjaDni].unlock();
+        }
+        return encontradas;
+    }
+
+    /**
+     * Añade una cuenta a la lista de su tipo, salvo con columnas, que ya tienen el tipo de cada cuenta.
+     * Debe llamarse con el monitor del ArrayList tomado.
+     *
+     * @param cuenta Cuenta que se añade al banco.
+     */
+    private void anyadirAParticion(Cuenta cuenta) {
+        if (columnas != null) {
+            return;
+        }
+        if (cuenta instanceof CuentaAhorro) {
+            ahorros.add((CuentaAhorro) cuenta);
+        } else if (cuenta instanceof CuentaCorriente) {
+            corrientes.add((CuentaCorriente) cuenta);
+        }
+    }
+
+    /**
+     * Abre una cuenta nueva en el libro mayor, si lo hay, con su saldo inicial.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta Cuenta que se añade al banco.
+     */
+    private void abrirEnLibro(Cuenta cuenta) {
+        LibroMayor elLibro = libro;
+        if (elLibro != null) {
+            elLibro.abrir(cuenta);
+        }
+    }
+
+    /**
+     * Lee las cuentas desde un fichero y las guarda en el ArrayList.
+     * En el fichero hay cuentas de la clase CuentaAhorro y otras de la clase CuentaCorriente.
+     * Usa diferentes constructores para crear cada una de ellas.
+     *
+     *  El fichero debe tener el formato:
+     *  DNI NombreCliente SaldoInicial TipoCuenta
+     *  Ejemplo: 12345678A Alice 1000.50 C
+     *
+     * @param leerDatos Scanner conectado al fichero que se va a leer.
+     * @return Número de cuentas leídas del fichero.
+     */
+    public int cargarFichero(Scanner leerDatos) {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        int cont;
+        synchronized (cuentas) {
+            cont = cargarCuentas(leerDatos);
+        }
+        terminar(lasMetricas, MetricasBanco.Operacion.CARGA, comienzo);
+        return cont;
+    }
+
+    /**
+     * Lectura del fichero para cargarFichero, con el monitor del ArrayList ya tomado.
+     *
+     * @param leerDatos Scanner conectado al fichero que se va a leer.
+     * @return Número de cuentas leídas del fichero.
+     */
+    private int cargarCuentas(Scanner leerDatos) {
+        int cont = 0;
+        // hasNext y no hasNextLine: con una línea en blanco al final, hasNextLine es cierto pero next falla
+        while (leerDatos.hasNext()){
+
+            String dni = leerDatos.next();
+            String nombreCliente = leerDatos.next();
+            Cliente unCliente = new Cliente(dni, nombreCliente);
+
+            double depositoInicial = Double.parseDouble(leerDatos.next());
+            char tipoDeCuenta = leerDatos.next().charAt(0);
+
+            switch (tipoDeCuenta){
+                case 'A':
+                    anyadirCuenta(new CuentaAhorro(unCliente, depositoInicial));
+                    cont++;
+                    break;
+                case 'C':
+                    anyadirCuenta(new CuentaCorriente(unCliente, depositoInicial));
+                    cont++;
+                    break;
+                default:
+                    System.out.printf("%s \nCuenta erronea: %s en la linea %d.", dni, tipoDeCuenta, cont + 1);
+                    break;
+            }
+        }
+        return cont;
+    }
+
+    /**
+     * Lee las cuentas desde un fichero con LectorCuentas y las guarda en el ArrayList.
+     * Es equivalente a cargarFichero(Scanner) pero mucho más rápido con ficheros grandes.
+     * Las líneas mal formadas no detienen la carga: se informa de cada una con su número de línea.
+     *
+     * @param fichero Fichero de cuentas con el formato de cargarFichero(Scanner).
+     * @return Número de cuentas leídas del fichero.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    public int cargarFichero(Path fichero) throws IOException {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        LectorCuentas lector = LectorCuentas.leer(fichero);
+        synchronized (cuentas) {
+            // Para una carga masiva sale más barato tomar todas las franjas una vez que una por cuenta
+            bloquearTodas();
+            try {
+                cuentas.ensureCapacity(cuentas.size() + lector.getCuentas().size());
+                reservarFilas(lector.getCuentas().size());
+                for (Cuenta cuenta : lector.getCuentas()) {
+                    anyadirCuentaBloqueada(cuenta);
+                }
+            } finally {
+                desbloquearTodas();
+            }
+        }
+        for (LectorCuentas.LineaErronea error : lector.getErrores()) {
+            System.out.println(error);
+        }
+        terminar(lasMetricas, MetricasBanco.Operacion.CARGA, comienzo);
+        return lector.getCuentas().size();
+    }
+
+    /**
+     * Lee las cuentas desde un fichero en paralelo y las guarda en el ArrayList.
+     * Los trozos del fichero se analizan en el ForkJoinPool común (ver LectorCuentas.leerEnParalelo) y el
+     * índice por DNI también se construye en paralelo: las cuentas se reparten en una sola pasada por
+     * grupos de franjas, en el orden del fichero, y cada tarea recorre solo las de su grupo, así que las
+     * listas del índice quedan igual que con una carga secuencial. El orden de las cuentas y el informe
+     * de líneas erróneas son los mismos que con cargarFichero(Path).
+     *
+     * @param fichero Fichero de cuentas con el formato de cargarFichero(Scanner).
+     * @return Número de cuentas leídas del fichero.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    public int cargarFicheroParalelo(Path fichero) throws IOException {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        LectorCuentas lector = LectorCuentas.leerEnParalelo(fichero, pool);
+        List<Cuenta> leidas = lector.getCuentas();
+
+        synchronized (cuentas) {
+            // Este hilo toma todas las franjas en nombre de las tareas; join garantiza que sus
+            // escrituras en el índice son visibles al terminar
+            bloquearTodas();
+            try {
+                // Una sola pasada reparte las cuentas por grupos de franjas, en el orden del fichero
+                int grupos = pool.getParallelism();
+                List<List<Cuenta>> porGrupo = new ArrayList<>(grupos);
+                for (int g = 0; g < grupos; g++) {
+                    porGrupo.add(new ArrayList<>(leidas.size() / grupos + 1));
+                }
+                for (Cuenta cuenta : leidas) {
+                    cuenta.id = ++ultimoId;
+                    cuenta.setMes(mesActual);
+                    cuenta.banco = this;
+                    anyadirAParticion(cuenta);
+                    abrirEnLibro(cuenta);
+                    anotarCambio(cuenta);
+                    porGrupo.get(franja(cuenta.titular.getDni()) % grupos).add(cuenta);
+                }
+                cuentas.addAll(leidas);
+
+                List<ForkJoinTask<?>> tareas = new ArrayList<>(grupos);
+                for (List<Cuenta> grupo : porGrupo) {
+                    tareas.add(pool.submit(() -> {
+                        for (Cuenta cuenta : grupo) {
+                            registrarEnIndice(cuenta);
+                            if (ordenadas != null) {
+                                ordenadas.add(cuenta);
+                            }
+                            if (porSaldo != null) {
+                                porSaldo.add(cuenta);
+                            }
+                        }
+                    }));
+                }
+                for (ForkJoinTask<?> tarea : tareas) {
+                    tarea.join();
+                }
+                if (columnas != null) {
+                    // Después del índice, que da a las cuentas el titular compartido de su cliente
+                    columnas.crecer(leidas.size());
+                    for (Cuenta cuenta : leidas) {
+                        columnas.anyadir(cuenta, franja(cuenta.titular.getDni()));
+                    }
+                }
+            } finally {
+                desbloquearTodas();
+            }
+        }
+        for (LectorCuentas.LineaErronea error : lector.getErrores()) {
+            System.out.println(error);
+        }
+        terminar(lasMetricas, MetricasBanco.Operacion.CARGA, comienzo);
+        return leidas.size();
+    }
+
+    /**
+     * Guarda una instantánea binaria de todas las cuentas (ver InstantaneaBanco).
+     * Se escribe con todas las franjas tomadas y nunca a mitad de un cierre de mes, así que refleja
+     * un estado consistente del banco.
+     *
+     * @param fichero Fichero de la instantánea.
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    public void guardarInstantanea(Path fichero) throws IOException {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                compactar();
+                bloquearTodas();
+                try {
+                    InstantaneaBanco.escribir(fichero, cuentas, interesAhorro);
+                } finally {
+                    desbloquearTodas();
+                }
+            }
+        }
+        terminar(lasMetricas, MetricasBanco.Operacion.INSTANTANEA, comienzo);
+    }
+
+    /**
+     * Restaura las cuentas de una instantánea binaria y las añade al banco, en el mismo orden
+     * en que se guardaron, junto con el interés de ahorro.
+     * Las cuentas conservan su identificador si el banco estaba vacío; si no, reciben uno nuevo.
+     *
+     * @param fichero Fichero de la instantánea.
+     * @return Número de cuentas restauradas.
+     * @throws IOException si no se puede leer o la instantánea está cortada o dañada.
+     */
+    public int cargarInstantanea(Path fichero) throws IOException {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        InstantaneaBanco instantanea = InstantaneaBanco.leer(fichero);
+        synchronized (cuentas) {
+            compactar();
+            bloquearTodas();
+            try {
+                boolean conservarIds = cuentas.isEmpty();
+                cuentas.ensureCapacity(cuentas.size() + instantanea.getCuentas().size());
+                reservarFilas(instantanea.getCuentas().size());
+                for (Cuenta cuenta : instantanea.getCuentas()) {
+                    if (!conservarIds) {
+                        cuenta.id = 0;
+                    }
+                    anyadirCuentaBloqueada(cuenta);
+                }
+                interesAhorro = instantanea.getInteresAhorro();
+            } finally {
+                desbloquearTodas();
+            }
+        }
+        terminar(lasMetricas, MetricasBanco.Operacion.INSTANTANEA, comienzo);
+        return instantanea.getCuentas().size();
+    }
+
+    /**
+     * Guarda las cuentas de forma incremental (ver CambiosCuentas): añade al fichero de cambios solo las
+     * cuentas modificadas, añadidas o borradas desde el último guardado, así que cuesta en proporción a
+     * ellas y no al número de cuentas.
+     * Si el banco todavía no tiene fichero de cambios (no se ha cargado ni guardado así), tiene el de otros
+     * ficheros o los cambios ya ocupan más de la mitad que la base, consolida: escribe la base entera con
+     * el formato de cargarFichero y empieza un fichero de cambios nuevo.
+     * Igual que guardarInstantanea, se escribe con todas las franjas tomadas y nunca a mitad de un cierre de mes.
+     *
+     * @param base           Fichero base, con el formato de cargarFichero.
+     * @param ficheroCambios Fichero de cambios.
+     * @return Número de cuentas escritas.
+     * @throws IOException si no se pueden escribir los ficheros. El siguiente guardado consolida.
+     */
+    public int guardarCambios(Path base, Path ficheroCambios) throws IOException {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        int guardadas;
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                compactar();
+                bloquearTodas();
+                try {
+                    if (cambios == null || !cambios.esDe(base, ficheroCambios) || cambios.hayQueConsolidar()) {
+                        guardadas = consolidarCambios(base, ficheroCambios);
+                    } else {
+                        guardadas = guardarModificadas();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Las cuentas sacadas de la cola ya no se guardarían: el siguiente guardado lo escribe todo
+                    cambios = null;
+                    throw e;
+                } finally {
+                    desbloquearTodas();
+                }
+            }
+        }
+        terminar(lasMetricas, MetricasBanco.Operacion.INSTANTANEA, comienzo);
+        return guardadas;
+    }
+
+    /**
+     * Añade al fichero de cambios un segmento con las cuentas de la cola de modificadas y la vacía.
+     * Las cuentas nuevas reciben su ranura en el orden en que llegaron al banco.
+     * Debe llamarse con el monitor del ArrayList y todas las franjas tomados.
+     *
+     * @return Número de cuentas escritas.
+     * @throws IOException si no se puede escribir el fichero de cambios.
+     */
+    private int guardarModificadas() throws IOException {
+        List<Cuenta> guardadas = new ArrayList<>(modificadas.size());
+        List<CambiosCuentas.Registro> registros = new ArrayList<>(modificadas.size());
+        Cuenta cuenta;
+        while ((cuenta = modificadas.poll()) != null) {
+            cuenta.modificada = false;
+            if (cuenta.borrada) {
+                // Una cuenta borrada antes de guardarla por primera vez no llegó a estar en los ficheros
+                if (cuenta.ranura >= 0) {
+                    registros.add(CambiosCuentas.Registro.baja(cuenta.ranura));
+                }
+            } else if (cuenta.ranura < 0) {
+                cuenta.ranura = cambios.nuevaRanura();
+                registros.add(CambiosCuentas.Registro.alta(cuenta.ranura, cuenta));
+                guardadas.add(cuenta);
+            } else {
+                registros.add(CambiosCuentas.Registro.saldo(cuenta.ranura,
+                        cuenta.getSaldoCentimos() - cuenta.saldoGuardado, cuenta.getRetiradasMes()));
+                guardadas.add(cuenta);
+            }
+        }
+        registros.sort(Comparator.comparingInt(registro -> registro.ranura));
+        CambiosCuentas.Segmento segmento = new CambiosCuentas.Segmento(interesAhorro, registros);
+        if (cambios.cambia(segmento)) {
+            cambios.escribir(segmento);
+        }
+        for (Cuenta guardada : guardadas) {
+            guardada.saldoGuardado = guardada.getSaldoCentimos();
+        }
+        return registros.size();
+    }
+
+    /**
+     * Escribe la base con todas las cuentas y empieza un fichero de cambios nuevo para ella.
+     * La base tiene el formato de cargarFichero, que abre las cuentas: el primer segmento corrige los saldos
+     * en los que la apertura no da el saldo actual (el bonus de las cuentas de ahorro) y guarda las
+     * retiradas del mes, que la base no tiene. La base y ese segmento se escriben juntos antes de sustituir
+     * a los ficheros anteriores (ver CambiosCuentas.crear), así que una caída a mitad no los mezcla.
+     * Debe llamarse con el monitor del ArrayList y todas las franjas tomados, y con las listas compactadas.
+     *
+     * @param base           Fichero base.
+     * @param ficheroCambios Fichero de cambios.
+     * @return Número de cuentas escritas.
+     * @throws IOException si no se pueden escribir los ficheros.
+     */
+    private int consolidarCambios(Path base, Path ficheroCambios) throws IOException {
+        cambios = null;
+        List<CambiosCuentas.Registro> ajustes = new ArrayList<>();
+        for (int i = 0; i < cuentas.size(); i++) {
+            Cuenta cuenta = cuentas.get(i);
+            long diferencia = cuenta.getSaldoCentimos() - cuenta.saldoAlAbrir();
+            int retiradas = cuenta.getRetiradasMes();
+            if (diferencia != 0 || retiradas != 0) {
+                ajustes.add(CambiosCuentas.Registro.saldo(i, diferencia, retiradas));
+            }
+        }
+        CambiosCuentas nuevos = CambiosCuentas.crear(base, ficheroCambios, cuentas,
+                new CambiosCuentas.Segmento(interesAhorro, ajustes));
+        modificadas.clear();
+        for (int i = 0; i < cuentas.size(); i++) {
+            Cuenta cuenta = cuentas.get(i);
+            cuenta.ranura = i;
+            cuenta.modificada = false;
+            cuenta.saldoGuardado = cuenta.getSaldoCentimos();
+        }
+        cambios = nuevos;
+        return cuentas.size();
+    }
+
+    /**
+     * Carga las cuentas guardadas con guardarCambios: lee la base y le aplica los segmentos del fichero
+     * de cambios en orden, junto con el interés de ahorro del último. Las cuentas quedan en el orden de
+     * la base, sin las borradas y con las nuevas al final, y los siguientes guardarCambios a los mismos
+     * ficheros siguen añadiendo segmentos.
+     * Todo se lee y se comprueba antes de tocar el banco, que debe estar vacío. Si el último segmento
+     * está cortado (el programa se paró mientras se guardaba), se descarta.
+     *
+     * @param base           Fichero base.
+     * @param ficheroCambios Fichero de cambios.
+     * @return Número de cuentas cargadas.
+     * @throws IOException si no se pueden leer los ficheros, los cambios son de otra base o están dañados.
+     * @throws IllegalStateException si el banco ya tiene cuentas.
+     */
+    public int cargarCambios(Path base, Path ficheroCambios) throws IOException {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        List<CambiosCuentas.Segmento> segmentos = new ArrayList<>();
+        CambiosCuentas leidos = CambiosCuentas.abrir(base, ficheroCambios, segmentos);
+        LectorCuentas lector = LectorCuentas.leer(base);
+        if (!lector.getErrores().isEmpty() || lector.getCuentas().size() != leidos.getNumCuentasBase()) {
+            throw new IOException("La base " + base + " no tiene las " + leidos.getNumCuentasBase() + " cuentas de sus cambios");
+        }
+        int numCuentas = comprobarCambios(segmentos, leidos.getNumCuentasBase());
+
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                if (!cuentas.isEmpty()) {
+                    throw new IllegalStateException("Los cambios solo se pueden cargar en un banco vacio");
+                }
+                bloquearTodas();
+                try {
+                    cambios = null;
+                    modificadas.clear();
+                    ArrayList<Cuenta> porRanura = new ArrayList<>(lector.getCuentas());
+                    cuentas.ensureCapacity(numCuentas);
+                    reservarFilas(porRanura.size());
+                    for (Cuenta cuenta : porRanura) {
+                        anyadirCuentaBloqueada(cuenta);
+                    }
+                    for (CambiosCuentas.Segmento segmento : segmentos) {
+                        aplicarCambios(segmento, porRanura);
+                        interesAhorro = segmento.interesAhorro;
+                    }
+                    compactar();
+                    for (int i = 0; i < porRanura.size(); i++) {
+                        Cuenta cuenta = porRanura.get(i);
+                        if (cuenta != null) {
+                            cuenta.ranura = i;
+                            cuenta.saldoGuardado = cuenta.getSaldoCentimos();
+                        }
+                    }
+                    leidos.setSiguienteRanura(porRanura.size());
+                    cambios = leidos;
+                } finally {
+                    desbloquearTodas();
+                }
+            }
+        }
+        terminar(lasMetricas, MetricasBanco.Operacion.INSTANTANEA, comienzo);
+        return numCuentas;
+    }
+
+    /**
+     * Comprueba que los segmentos se pueden aplicar a una base: que cada registro se refiere a una cuenta
+     * que existe en ese momento y que las cuentas nuevas ocupan las ranuras siguientes.
+     *
+     * @param segmentos      Segmentos en orden.
+     * @param numCuentasBase Cuentas de la base.
+     * @return Número de cuentas después de aplicarlos.
+     * @throws IOException si algún registro no se puede aplicar.
+     */
+    private static int comprobarCambios(List<CambiosCuentas.Segmento> segmentos, int numCuentasBase) throws IOException {
+        BitSet borradas = new BitSet();
+        int ranuras = numCuentasBase;
+        int vivas = numCuentasBase;
+        for (CambiosCuentas.Segmento segmento : segmentos) {
+            for (CambiosCuentas.Registro registro : segmento.registros) {
+                if (registro.tipo == CambiosCuentas.ALTA) {
+                    if (registro.ranura != ranuras || (registro.tipoCuenta != 'A' && registro.tipoCuenta != 'C')) {
+                        throw new IOException("Cuenta nueva no valida en la ranura " + registro.ranura);
+                    }
+                    ranuras++;
+                    vivas++;
+                } else if (registro.ranura >= ranuras || borradas.get(registro.ranura)) {
+                    throw new IOException("Cambio de una cuenta que no existe en la ranura " + registro.ranura);
+                } else if (registro.tipo == CambiosCuentas.BAJA) {
+                    borradas.set(registro.ranura);
+                    vivas--;
+                }
+            }
+        }
+        return vivas;
+    }
+
+    /**
+     * Aplica los registros de un segmento ya comprobado.
+     * Debe llamarse con el monitor del ArrayList y todas las franjas tomados.
+     *
+     * @param segmento  Segmento de cambios.
+     * @param porRanura Cuentas por ranura (null las borradas); se añaden al final las nuevas.
+     */
+    private void aplicarCambios(CambiosCuentas.Segmento segmento, ArrayList<Cuenta> porRanura) {
+        for (CambiosCuentas.Registro registro : segmento.registros) {
+            switch (registro.tipo) {
+                case CambiosCuentas.ALTA: {
+                    Cuenta nueva = (registro.tipoCuenta == 'C')
+                            ? CuentaCorriente.restaurar(registro.titular, registro.saldoCentimos, registro.retiradas)
+                            : CuentaAhorro.restaurar(registro.titular, registro.saldoCentimos);
+                    reservarFilas(1);
+                    anyadirCuentaBloqueada(nueva);
+                    porRanura.add(nueva);
+                    break;
+                }
+                case CambiosCuentas.BAJA:
+                    quitarCuenta(porRanura.set(registro.ranura, null));
+                    break;
+                default: {
+                    Cuenta cuenta = porRanura.get(registro.ranura);
+                    if (!hayQueRecolocar(cuenta)) {
+                        cuenta.setSaldoCentimos(cuenta.getSaldoCentimos() + registro.saldoCentimos);
+                    } else {
+                        sacarDeConjuntos(cuenta);
+                        try {
+                            cuenta.setSaldoCentimos(cuenta.getSaldoCentimos() + registro.saldoCentimos);
+                        } finally {
+                            meterEnConjuntos(cuenta);
+                        }
+                    }
+                    cuenta.restaurarRetiradasMes(registro.retiradas);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Establece el interés aplicado a las cuentas de ahorro.
+     *
+     * @param interesAhorro Interés en porcentaje que se aplicará a las cuentas de ahorro.
+     */
+    public void setInteresAhorro(double interesAhorro) {
+        this.interesAhorro = interesAhorro;
+    }
+
+    /**
+     * Genera una representación formateada del estado del banco para su visualización.
+     * Incluye:
+     * - El título principal "B A N C O" centrado en un ancho de 25 caracteres.
+     * - La tasa de interés aplicable a las cuentas de ahorro, expresada con un decimal y el símbolo '%'.
+     * - Un listado detallado de todas las cuentas gestionadas por el banco
+     *   utilizando el formato de `toString()` de cada cuenta.
+     * Para listados grandes es mejor escribirInforme, que no construye la cadena completa.
+     *
+     * @return Una cadena (String) que representa el estado completo del banco, incluyendo intereses y datos de las cuentas.
+     */
+    @Override
+    public String toString() {
+        StringBuilder formato = new StringBuilder();
+        try {
+            escribirInforme(formato);
+        } catch (IOException e) {
+            // Un StringBuilder nunca lanza IOException
+            throw new UncheckedIOException(e);
+        }
+        return formato.toString();
+    }
+
+    /**
+     * Escribe el mismo informe que toString directamente sobre un destino (un Writer, System.out...),
+     * sin construirlo en memoria.
+     *
+     * @param destino Destino donde se escribe el informe.
+     * @throws IOException Si no se puede escribir en el destino.
+     */
+    public void escribirInforme(Appendable destino) throws IOException {
+        escribirInforme(destino, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Escribe una página del informe sobre un destino: la cabecera y, como mucho, limite cuentas
+     * a partir de la posición desde (en el orden actual de las cuentas).
+     * Mientras se escribe no se pueden añadir ni eliminar cuentas, así que un destino lento
+     * retrasa esas operaciones; las operaciones sobre saldos no se bloquean.
+     *
+     * @param destino Destino donde se escribe el informe.
+     * @param desde   Posición de la primera cuenta a escribir.
+     * @param limite  Número máximo de cuentas a escribir.
+     * @return Número de cuentas escritas.
+     * @throws IOException Si no se puede escribir en el destino.
+     */
+    public int escribirInforme(Appendable destino, int desde, int limite) throws IOException {
+        if (desde < 0 || limite < 0) {
+            throw new IllegalArgumentException("Pagina no valida: desde " + desde + ", limite " + limite);
+        }
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        InformeBanco informe = new InformeBanco(destino);
+        informe.cabecera(interesAhorro);
+        int escritas = 0;
+        synchronized (cuentas) {
+            compactar();
+            int hasta = (int) Math.min(cuentas.size(), (long) desde + limite);
+            for (int i = desde; i < hasta; i++) {
+                informe.cuenta(cuentas.get(i));
+                escritas++;
+            }
+        }
+        informe.terminar();
+        terminar(lasMetricas, MetricasBanco.Operacion.INFORME, comienzo);
+        return escritas;
+    }
+
+    /**
+     * Ordena las cuentas según los criterios definidos en el metodo compareTo de la interfaz Comparable
+     * (y, a igualdad de DNI y saldo, por identificador).
+     * No hace falta ordenar: el ArrayList se rellena recorriendo el conjunto ordenado, en tiempo lineal.
+     * Solo la primera vez se ordena el ArrayList y con él se construye el conjunto (insertar en orden
+     * es mucho más rápido que en desorden). Con columnas se ordenan sus filas, sin pasar por las cuentas.
+     * Las listas del índice con más de una cuenta se recolocan con el mismo orden (sus cuentas son
+     * consecutivas en el conjunto), de modo que la primera cuenta de cada DNI sigue siendo la misma
+     * que en el ArrayList.
+     * Se toman todas las franjas para que ningún saldo cambie mientras se recorre el conjunto.
+     */
+    public void ordenarCuentas() {
+        // Se anota porque la ordenación cambia cuál es la primera cuenta de cada DNI
+        DiarioTransacciones elDiario = diario;
+        long secuencia = 0;
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        // Espera a que termine el cierre de mes: el diario lo reproduce entero en su punto de corte
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                compactar();
+                bloquearTodas();
+                try {
+                    if (ordenadas == null) {
+                        if (columnas == null) {
+                            cuentas.sort(ORDEN);
+                        } else {
+                            List<Cuenta> enOrden = cuentasDeFilas(columnas.filasPorDni());
+                            cuentas.clear();
+                            cuentas.addAll(enOrden);
+                        }
+                        ConcurrentSkipListSet<Cuenta> conjunto = new ConcurrentSkipListSet<>(ORDEN);
+                        conjunto.addAll(cuentas);
+                        ordenadas = conjunto;
+                    } else {
+                        // Se recorre una sola vez: addAll pediría antes el tamaño, que en el conjunto cuesta otro recorrido
+                        cuentas.clear();
+                        for (Cuenta cuenta : ordenadas) {
+                            cuentas.add(cuenta);
+                        }
+                    }
+                    int numCuentas = cuentas.size();
+                    int inicio = 0;
+                    while (inicio < numCuentas) {
+                        String dni = cuentas.get(inicio).titular.getDni();
+                        int fin = inicio + 1;
+                        while (fin < numCuentas && cuentas.get(fin).mismoDni(dni)) {
+                            fin++;
+                        }
+                        if (fin - inicio > 1) {
+                            ArrayList<Cuenta> cuentasDni = indiceDni.get(dni);
+                            for (int i = inicio; i < fin; i++) {
+                                cuentasDni.set(i - inicio, cuentas.get(i));
+                            }
+                        }
+                        inicio = fin;
+                    }
+                    if (elDiario != null) {
+                        secuencia = elDiario.anotar(DiarioTransacciones.ORDENAR);
+                    }
+                } finally {
+                    desbloquearTodas();
+                }
+            }
+        }
+        confirmar(elDiario, secuencia);
+        terminar(lasMetricas, MetricasBanco.Operacion.ORDENAR, comienzo);
+    }
+
+    /**
+     * Indica si algún cliente con ese DNI tiene cuentas en el banco.
+     * Consulta el índice sin cerrojos, así que el resultado puede cambiar justo después.
+     *
+     * @param dni DNI del titular.
+     * @return true si el DNI tiene al menos una cuenta.
+     */
+    public boolean tieneCuenta(String dni) {
+        return indiceDni.containsKey(dni);
+    }
+
+    /**
+     * Aplica una consulta a cada cuenta de un DNI, en el orden del índice, con el cerrojo de su franja
+     * tomado: la consulta ve los saldos de todas ellas en un mismo instante. No debe modificar las cuentas.
+     *
+     * @param dni      DNI del titular.
+     * @param consulta Datos que se sacan de cada cuenta.
+     * @param <T>      Tipo del resultado de la consulta.
+     * @return Resultado de la consulta para cada cuenta del DNI (vacío si no tiene ninguna).
+     */
+    public <T> List<T> consultarCuentas(String dni, Function<? super Cuenta, ? extends T> consulta) {
+        List<T> resultados = new ArrayList<>();
+        int franjaDni = franja(dni);
+        franjas[franjaDni].lock();
+        try {
+            ArrayList<Cuenta> cuentasDni = indiceDni.get(dni);
+            if (cuentasDni != null) {
+                for (Cuenta cuenta : cuentasDni) {
+                    resultados.add(consulta.apply(cuenta));
+                }
+            }
+        } finally {
+            franjas[franjaDni].unlock();
+        }
+        return resultados;
+    }
+
+    /**
+     * Recorre una página de las cuentas en el orden actual, como escribirInforme pero sin formato:
+     * como mucho limite cuentas a partir de la posición desde.
+     * Mientras se recorre no se pueden añadir ni eliminar cuentas; las operaciones sobre saldos no se bloquean.
+     *
+     * @param desde  Posición de la primera cuenta.
+     * @param limite Número máximo de cuentas.
+     * @param accion Acción que se aplica a cada cuenta. No debe modificarla.
+     * @return Número de cuentas recorridas.
+     */
+    public int recorrerCuentas(int desde, int limite, Consumer<? super Cuenta> accion) {
+        if (desde < 0 || limite < 0) {
+            throw new IllegalArgumentException("Pagina no valida: desde " + desde + ", limite " + limite);
+        }
+        synchronized (cuentas) {
+            compactar();
+            int hasta = (int) Math.min(cuentas.size(), (long) desde + limite);
+            for (int i = desde; i < hasta; i++) {
+                accion.accept(cuentas.get(i));
+            }
+            return Math.max(0, hasta - desde);
+        }
+    }
+
+    /**
+     * Recorre una página de las cuentas en el orden de ordenarCuentas sin cambiar el orden del banco
+     * (ni anotar nada en el diario): si ya hay conjunto ordenado se recorre, y si no se ordena una copia.
+     * Espera a que termine el cierre de mes y toma todas las franjas mientras recorre, para que ningún
+     * saldo cambie de posición a mitad.
+     *
+     * @param desde  Posición de la primera cuenta en el orden.
+     * @param limite Número máximo de cuentas.
+     * @param accion Acción que se aplica a cada cuenta. No debe modificarla.
+     * @return Número de cuentas recorridas.
+     */
+    public int recorrerCuentasOrdenadas(int desde, int limite, Consumer<? super Cuenta> accion) {
+        if (desde < 0 || limite < 0) {
+            throw new IllegalArgumentException("Pagina no valida: desde " + desde + ", limite " + limite);
+        }
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                compactar();
+                bloquearTodas();
+                try {
+                    Iterable<Cuenta> enOrden = ordenadas;
+                    if (enOrden == null && columnas != null) {
+                        enOrden = cuentasDeFilas(columnas.filasPorDni());
+                    } else if (enOrden == null) {
+                        ArrayList<Cuenta> copia = new ArrayList<>(cuentas);
+                        copia.sort(ORDEN);
+                        enOrden = copia;
+                    }
+                    int posicion = 0;
+                    int escritas = 0;
+                    for (Cuenta cuenta : enOrden) {
+                        if (escritas == limite) {
+                            break;
+                        }
+                        if (posicion++ >= desde) {
+                            accion.accept(cuenta);
+                            escritas++;
+                        }
+                    }
+                    return escritas;
+                } finally {
+                    desbloquearTodas();
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve el número de cuentas del banco.
+     *
+     * @return Número de cuentas.
+     */
+    public int getNumCuentas() {
+        synchronized (cuentas) {
+            return cuentas.size() - numBorradas;
+        }
+    }
+
+    /**
+     * Devuelve las n cuentas de mayor saldo de un tipo, de mayor a menor (a igual saldo, la de menor
+     * identificador). Recorre la lista del tipo (o las columnas) una sola vez con un montículo de n cuentas
+     * (ver MonticuloSaldos), sin ordenar ni copiar el resto.
+     * Espera a que termine el cierre de mes en curso, para no mezclar saldos de antes y después del cierre;
+     * mientras se recorre no se pueden añadir ni eliminar cuentas y las operaciones sobre saldos no se bloquean.
+     *
+     * @param n    Número de cuentas.
+     * @param tipo CuentaAhorro.class, CuentaCorriente.class o Cuenta.class para todas.
+     * @return Lista nueva con como mucho n cuentas.
+     * @throws IllegalArgumentException si n es negativo o el tipo no es uno de los anteriores.
+     */
+    public List<Cuenta> mayoresSaldos(int n, Class<? extends Cuenta> tipo) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Numero de cuentas no valido: " + n);
+        }
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        MonticuloSaldos monticulo;
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                compactar();
+                if (columnas != null) {
+                    monticulo = mayoresSaldos(columnas, n, tipoEnColumnas(tipo));
+                } else {
+                    // El montículo no pasa del número de cuentas del tipo, aunque se pidan más
+                    long numCuentas = 0;
+                    for (List<? extends Cuenta> lista : listasDe(tipo)) {
+                        numCuentas += lista.size();
+                    }
+                    monticulo = new MonticuloSaldos((int) Math.min(n, numCuentas));
+                    for (List<? extends Cuenta> lista : listasDe(tipo)) {
+                        for (Cuenta cuenta : lista) {
+                            monticulo.anotar(cuenta, cuenta.getSaldoCentimos());
+                        }
+                    }
+                }
+            }
+        }
+        List<Cuenta> mayores = monticulo.extraer();
+        terminar(lasMetricas, MetricasBanco.Operacion.CONSULTA, comienzo);
+        return mayores;
+    }
+
+    /**
+     * Recorre las cuentas de un tipo con saldo dentro de un rango, de menor a mayor saldo (a igual saldo,
+     * por identificador), sin recorrer las de fuera del rango. Usa el índice por saldo, que se construye
+     * en la primera llamada con todas las franjas tomadas; a partir de entonces cada cambio de saldo lo
+     * mantiene, igual que el conjunto ordenado.
+     * Espera a que termine el cierre de mes en curso; mientras se recorre no se pueden añadir ni eliminar
+     * cuentas, y las operaciones sobre saldos no se bloquean: una cuenta cuyo saldo cambia durante el
+     * recorrido se ve con el saldo de antes o con el de después, y si cambia de sitio en el índice puede
+     * saltarse o verse dos veces.
+     *
+     * @param minimoCentimos Saldo mínimo incluido, en céntimos.
+     * @param maximoCentimos Saldo máximo incluido, en céntimos.
+     * @param tipo           CuentaAhorro.class, CuentaCorriente.class o Cuenta.class para todas.
+     * @param accion         Acción que se aplica a cada cuenta. No debe modificarla.
+     * @return Número de cuentas recorridas.
+     * @throws IllegalArgumentException si el tipo no es uno de los anteriores.
+     */
+    public int recorrerPorSaldo(long minimoCentimos, long maximoCentimos, Class<? extends Cuenta> tipo,
+                                Consumer<? super Cuenta> accion) {
+        // Comprueba el tipo antes de construir nada
+        listasDe(tipo);
+        if (minimoCentimos > maximoCentimos) {
+            return 0;
+        }
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        int recorridas = 0;
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                compactar();
+                if (porSaldo == null) {
+                    construirIndicePorSaldo();
+                }
+                NavigableSet<Cuenta> rango = porSaldo.subSet(cotaSaldo(minimoCentimos, Long.MIN_VALUE), true,
+                        cotaSaldo(maximoCentimos, Long.MAX_VALUE), true);
+                for (Cuenta cuenta : rango) {
+                    if (tipo.isInstance(cuenta)) {
+                        accion.accept(cuenta);
+                        recorridas++;
+                    }
+                }
+            }
+        }
+        terminar(lasMetricas, MetricasBanco.Operacion.CONSULTA, comienzo);
+        return recorridas;
+    }
+
+    /**
+     * Número de cuentas, saldo total, mínimo, máximo y medio de cada tipo de cuenta, en céntimos.
+     * Recorre cada lista por tipo una sola vez, sin copiarla (con columnas, la de saldos una vez).
+     * Espera a que termine el cierre de mes en curso; mientras se recorre no se pueden añadir ni eliminar
+     * cuentas y las operaciones sobre saldos no se bloquean.
+     *
+     * @return Resumen de saldos de CuentaAhorro.class y de CuentaCorriente.class, en ese orden.
+     */
+    public Map<Class<? extends Cuenta>, LongSummaryStatistics> resumenPorTipo() {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        Map<Class<? extends Cuenta>, LongSummaryStatistics> resumen = new LinkedHashMap<>();
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                compactar();
+                if (columnas != null) {
+                    resumirSaldos(columnas, resumen);
+                } else {
+                    resumen.put(CuentaAhorro.class, resumirSaldos(ahorros));
+                    resumen.put(CuentaCorriente.class, resumirSaldos(corrientes));
+                }
+            }
+        }
+        terminar(lasMetricas, MetricasBanco.Operacion.CONSULTA, comienzo);
+        return resumen;
+    }
+
+    /**
+     * Resume los saldos de una lista de cuentas.
+     *
+     * @param lista Lista de cuentas de un tipo.
+     * @return Número de cuentas y saldo total, mínimo, máximo y medio en céntimos.
+     */
+    private static LongSummaryStatistics resumirSaldos(List<? extends Cuenta> lista) {
+        LongSummaryStatistics resumen = new LongSummaryStatistics();
+        for (Cuenta cuenta : lista) {
+            resumen.accept(cuenta.getSaldoCentimos());
+        }
+        return resumen;
+    }
+
+    /**
+     * Resume los saldos de cada tipo recorriendo las columnas una sola vez.
+     *
+     * @param lasColumnas Columnas del banco.
+     * @param resumen     Mapa donde se pone el resumen de CuentaAhorro.class y de CuentaCorriente.class.
+     */
+    private static void resumirSaldos(ColumnasCuentas lasColumnas,
+                                      Map<Class<? extends Cuenta>, LongSummaryStatistics> resumen) {
+        LongSummaryStatistics deAhorro = new LongSummaryStatistics();
+        LongSummaryStatistics corriente = new LongSummaryStatistics();
+        long[] saldos = lasColumnas.saldos;
+        byte[] tipos = lasColumnas.tipos;
+        for (int fila = 0; fila < lasColumnas.numFilas; fila++) {
+            if (tipos[fila] == ColumnasCuentas.AHORRO) {
+                deAhorro.accept(saldos[fila]);
+            } else if (tipos[fila] == ColumnasCuentas.CORRIENTE) {
+                corriente.accept(saldos[fila]);
+            }
+        }
+        resumen.put(CuentaAhorro.class, deAhorro);
+        resumen.put(CuentaCorriente.class, corriente);
+    }
+
+    /**
+     * Las n cuentas de mayor saldo de un tipo recorriendo las columnas, para mayoresSaldos.
+     *
+     * @param lasColumnas Columnas del banco.
+     * @param n           Número de cuentas.
+     * @param tipo        Tipo de fila (ver tipoEnColumnas).
+     * @return Montículo con las cuentas.
+     */
+    private MonticuloSaldos mayoresSaldos(ColumnasCuentas lasColumnas, int n, byte tipo) {
+        // Las borradas ya no están en el ArrayList compactado: su tamaño es el número de filas en uso
+        MonticuloSaldos monticulo = new MonticuloSaldos(Math.min(n, cuentas.size()));
+        long[] saldos = lasColumnas.saldos;
+        byte[] tipos = lasColumnas.tipos;
+        for (int fila = 0; fila < lasColumnas.numFilas; fila++) {
+            if (tipos[fila] != ColumnasCuentas.LIBRE && (tipo == ColumnasCuentas.LIBRE || tipos[fila] == tipo)) {
+                monticulo.anotar(lasColumnas.cuentas[fila], saldos[fila]);
+            }
+        }
+        return monticulo;
+    }
+
+    /**
+     * Tipo de fila de las columnas que corresponde a un tipo de cuenta.
+     *
+     * @param tipo CuentaAhorro.class, CuentaCorriente.class o Cuenta.class para todas.
+     * @return AHORRO, CORRIENTE o LIBRE para todas las filas en uso.
+     * @throws IllegalArgumentException si el tipo no es uno de los anteriores.
+     */
+    private static byte tipoEnColumnas(Class<? extends Cuenta> tipo) {
+        if (tipo == CuentaAhorro.class) {
+            return ColumnasCuentas.AHORRO;
+        } else if (tipo == CuentaCorriente.class) {
+            return ColumnasCuentas.CORRIENTE;
+        } else if (tipo == Cuenta.class) {
+            return ColumnasCuentas.LIBRE;
+        }
+        throw new IllegalArgumentException("Tipo de cuenta no valido: " + tipo);
+    }
+
+    /**
+     * Cuentas de unas filas de las columnas, en el mismo orden.
+     *
+     * @param filas Filas en uso.
+     * @return Lista nueva con las cuentas.
+     */
+    private List<Cuenta> cuentasDeFilas(int[] filas) {
+        List<Cuenta> enOrden = new ArrayList<>(filas.length);
+        for (int fila : filas) {
+            enOrden.add(columnas.cuentas[fila]);
+        }
+        return enOrden;
+    }
+
+    /**
+     * Listas por tipo que hay que recorrer para un tipo de cuenta.
+     *
+     * @param tipo CuentaAhorro.class, CuentaCorriente.class o Cuenta.class para todas.
+     * @return Lista de ahorro, de corrientes o las dos.
+     * @throws IllegalArgumentException si el tipo no es uno de los anteriores.
+     */
+    private List<List<? extends Cuenta>> listasDe(Class<? extends Cuenta> tipo) {
+        if (tipo == CuentaAhorro.class) {
+            return List.of(ahorros);
+        } else if (tipo == CuentaCorriente.class) {
+            return List.of(corrientes);
+        } else if (tipo == Cuenta.class) {
+            return List.of(ahorros, corrientes);
+        }
+        throw new IllegalArgumentException("Tipo de cuenta no valido: " + tipo);
+    }
+
+    /**
+     * Cuenta ficticia que solo sirve de cota para cortar el índice por saldo.
+     *
+     * @param centimos Saldo de la cota.
+     * @param id       Identificador de la cota, fuera del rango de los reales para incluir o no su saldo.
+     * @return Cuenta que no pertenece al banco.
+     */
+    private static Cuenta cotaSaldo(long centimos, long id) {
+        Cuenta cota = CuentaCorriente.deCentimos(new Cliente("", ""), centimos);
+        cota.id = id;
+        return cota;
+    }
+
+    /**
+     * Construye el índice por saldo con todas las cuentas.
+     * Debe llamarse con los monitores del cierre y del ArrayList tomados y el ArrayList compactado.
+     */
+    private void construirIndicePorSaldo() {
+        bloquearTodas();
+        try {
+            ConcurrentSkipListSet<Cuenta> indice = new ConcurrentSkipListSet<>(POR_SALDO);
+            // Con el monitor del cierre tomado no quedan cuentas sin cerrar: los saldos ya son los del mes.
+            // Insertar en orden es mucho más rápido: cada búsqueda recorre la parte del índice recién tocada
+            if (columnas == null) {
+                Cuenta[] enOrden = cuentas.toArray(new Cuenta[0]);
+                Arrays.sort(enOrden, POR_SALDO);
+                for (Cuenta cuenta : enOrden) {
+                    indice.add(cuenta);
+                }
+            } else {
+                for (int fila : columnas.filasPorSaldo()) {
+                    indice.add(columnas.cuentas[fila]);
+                }
+            }
+            porSaldo = indice;
+        } finally {
+            desbloquearTodas();
+        }
+    }
+
+    /**
+     * Busca una cuenta por el DNI del titular utilizando el índice por DNI.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param dniCuenta DNI del titular de la cuenta que se desea buscar.
+     * @return Primera cuenta (según el orden del ArrayList) con el DNI indicado. Devuelve null si no se encuentra.
+     */
+    private Cuenta buscarCuenta(String dniCuenta) {
+        ArrayList<Cuenta> cuentasDni = indiceDni.get(dniCuenta);
+        return (cuentasDni == null) ? null : cuentasDni.get(0);
+    }
+
+    /**
+     * Indica si un cambio de saldo de la cuenta puede moverla dentro del conjunto ordenado o del índice
+     * por saldo: siempre que el índice esté construido, y en el conjunto solo si ya está construido y
+     * el DNI de la cuenta tiene más cuentas en el banco.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta Cuenta del banco.
+     * @return true si hay que sacar la cuenta con sacarDeConjuntos antes de cambiar su saldo.
+     */
+    private boolean hayQueRecolocar(Cuenta cuenta) {
+        return porSaldo != null || recolocarEnOrdenadas(cuenta);
+    }
+
+    /**
+     * Indica si un cambio de saldo de la cuenta puede moverla dentro del conjunto ordenado.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta Cuenta del banco.
+     * @return true si el conjunto está construido y el DNI de la cuenta tiene más cuentas.
+     */
+    private boolean recolocarEnOrdenadas(Cuenta cuenta) {
+        return ordenadas != null && indiceDni.get(cuenta.titular.getDni()).size() > 1;
+    }
+
+    /**
+     * Saca una cuenta del conjunto ordenado y del índice por saldo antes de cambiar su saldo.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado y seguido de meterEnConjuntos.
+     *
+     * @param cuenta Cuenta del banco.
+     */
+    private void sacarDeConjuntos(Cuenta cuenta) {
+        if (recolocarEnOrdenadas(cuenta)) {
+            ordenadas.remove(cuenta);
+        }
+        if (porSaldo != null) {
+            porSaldo.remove(cuenta);
+        }
+    }
+
+    /**
+     * Vuelve a meter una cuenta en el conjunto ordenado y en el índice por saldo con su saldo nuevo.
+     * Debe llamarse con el mismo cerrojo de franja que sacarDeConjuntos, así que ve los mismos conjuntos.
+     *
+     * @param cuenta Cuenta del banco.
+     */
+    private void meterEnConjuntos(Cuenta cuenta) {
+        if (recolocarEnOrdenadas(cuenta)) {
+            ordenadas.add(cuenta);
+        }
+        if (porSaldo != null) {
+            porSaldo.add(cuenta);
+        }
+    }
+
+    /**
+     * Aplica a una cuenta el cierre de mes en curso si todavía no lo tiene, manteniendo el conjunto ordenado.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta Cuenta del banco.
+     * @return Intereses pagados, en céntimos (0 si la cuenta ya estaba cerrada o si su saldo con los
+     *         intereses no cabría en un long).
+     */
+    private long cerrarMes(Cuenta cuenta) {
+        if (columnas != null) {
+            return cerrarMes(columnas, cuenta.fila);
+        }
+        if (cuenta.getMes() == mesActual) {
+            return 0;
+        }
+        cuenta.setMes(mesActual);
+        long intereses;
+        try {
+            if (!hayQueRecolocar(cuenta)) {
+                intereses = cuenta.cierreMesCentimos(tasaCierre);
+            } else {
+                sacarDeConjuntos(cuenta);
+                try {
+                    intereses = cuenta.cierreMesCentimos(tasaCierre);
+                } finally {
+                    meterEnConjuntos(cuenta);
+                }
+            }
+        } catch (ArithmeticException e) {
+            // Como un ingreso que no cabe (ver ingresar): la cuenta se queda sin los intereses
+            intereses = 0;
+        }
+        LibroMayor elLibro = libro;
+        if (elLibro != null) {
+            elLibro.anotar(cuenta, LibroMayor.Tipo.INTERESES, intereses, null);
+        }
+        return intereses;
+    }
+
+    /**
+     * Cierre de mes de una fila de las columnas, como cerrarMes(Cuenta) pero sobre la fila: la cuenta solo
+     * se toca si hay que recolocarla en los conjuntos o anotarla en el libro mayor o en los cambios.
+     * Debe llamarse con el cerrojo de la franja de la fila tomado.
+     *
+     * @param lasColumnas Columnas del banco.
+     * @param fila        Fila en uso.
+     * @return Intereses pagados, en céntimos, como cerrarMes(Cuenta).
+     */
+    private long cerrarMes(ColumnasCuentas lasColumnas, int fila) {
+        if (lasColumnas.meses[fila] == mesActual) {
+            return 0;
+        }
+        lasColumnas.meses[fila] = mesActual;
+        long intereses = 0;
+        if (lasColumnas.tipos[fila] == ColumnasCuentas.AHORRO) {
+            intereses = pagarIntereses(lasColumnas, fila, tasaCierre);
+        } else if (lasColumnas.retiradas[fila] != 0) {
+            lasColumnas.retiradas[fila] = 0;
+            anotarCambio(lasColumnas.cuentas[fila]);
+        }
+        LibroMayor elLibro = libro;
+        if (elLibro != null) {
+            elLibro.anotar(lasColumnas.cuentas[fila], LibroMayor.Tipo.INTERESES, intereses, null);
+        }
+        return intereses;
+    }
+
+    /**
+     * Paga intereses a una fila de ahorro de las columnas manteniendo los conjuntos y lo anota en los
+     * cambios. Si el saldo con los intereses no cabría en un long, la fila se queda como está.
+     * Debe llamarse con el cerrojo de la franja de la fila tomado.
+     *
+     * @param lasColumnas Columnas del banco.
+     * @param fila        Fila de una cuenta de ahorro.
+     * @param tasaPpm     Interés en partes por millón.
+     * @return Intereses pagados, en céntimos.
+     */
+    private long pagarIntereses(ColumnasCuentas lasColumnas, int fila, long tasaPpm) {
+        Cuenta cuenta = lasColumnas.cuentas[fila];
+        boolean recolocar = hayQueRecolocar(cuenta);
+        if (recolocar) {
+            sacarDeConjuntos(cuenta);
+        }
+        long intereses;
+        try {
+            intereses = lasColumnas.pagarIntereses(fila, tasaPpm);
+        } catch (ArithmeticException e) {
+            // Como en cerrarMes(Cuenta): si el saldo no cabría, la cuenta no cobra intereses
+            intereses = 0;
+        } finally {
+            if (recolocar) {
+                meterEnConjuntos(cuenta);
+            }
+        }
+        if (intereses != 0) {
+            anotarCambio(cuenta);
+        }
+        return intereses;
+    }
+
+    /**
+     * Cierra el mes de una cuenta antes de que una operación la modifique, si el barrido del cierre
+     * todavía no ha llegado a ella. Los intereses se suman al total del cierre.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta Cuenta del banco.
+     */
+    private void ponerAlDia(Cuenta cuenta) {
+        if (cuenta.getMes() != mesActual) {
+            long intereses = cerrarMes(cuenta);
+            if (intereses != 0) {
+                interesesCierre.add(intereses);
+                // Se anota en la auditoría al terminar el cierre, sin el cerrojo de la operación
+                if (auditoria != null) {
+                    interesesPorAuditar.add(new Apunte(cuenta.titular.getDni(), intereses));
+                }
+            }
+        }
+    }
+
+    /**
+     * Ingresa en una cuenta manteniendo el conjunto ordenado y, si se hace, lo anota en el libro mayor, si lo hay.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta        Cuenta del banco.
+     * @param centimos      Cantidad en céntimos.
+     * @param tipo          Movimiento para el libro mayor: INGRESO o TRANSFERENCIA_ENTRADA.
+     * @param contrapartida Cuenta de origen de una transferencia, o null.
+     * @return true si se ha ingresado, false si el saldo no cabría en un long (la cuenta no cambia).
+     */
+    private boolean ingresar(Cuenta cuenta, long centimos, LibroMayor.Tipo tipo, Cuenta contrapartida) {
+        ponerAlDia(cuenta);
+        long saldoAntes = cuenta.getSaldoCentimos();
+        try {
+            if (!hayQueRecolocar(cuenta)) {
+                cuenta.ingresoCentimos(centimos);
+            } else {
+                sacarDeConjuntos(cuenta);
+                try {
+                    cuenta.ingresoCentimos(centimos);
+                } finally {
+                    meterEnConjuntos(cuenta);
+                }
+            }
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        LibroMayor elLibro = libro;
+        if (elLibro != null) {
+            elLibro.anotarIngreso(cuenta, tipo, centimos, saldoAntes, contrapartida);
+        }
+        return true;
+    }
+
+    /**
+     * Retira de una cuenta manteniendo el conjunto ordenado y, si se hace, lo anota en el libro mayor, si lo hay.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta        Cuenta del banco.
+     * @param centimos      Cantidad en céntimos.
+     * @param tipo          Movimiento para el libro mayor: RETIRADA o TRANSFERENCIA_SALIDA.
+     * @param contrapartida Cuenta de destino de una transferencia, o null.
+     * @return true si la retirada se realizó correctamente, false en caso contrario.
+     */
+    private boolean retirar(Cuenta cuenta, long centimos, LibroMayor.Tipo tipo, Cuenta contrapartida) {
+        ponerAlDia(cuenta);
+        long saldoAntes = cuenta.getSaldoCentimos();
+        boolean hecha;
+        if (!hayQueRecolocar(cuenta)) {
+            hecha = cuenta.retiradaCentimos(centimos);
+        } else {
+            sacarDeConjuntos(cuenta);
+            try {
+                hecha = cuenta.retiradaCentimos(centimos);
+            } finally {
+                meterEnConjuntos(cuenta);
+            }
+        }
+        LibroMayor elLibro = libro;
+        if (hecha && elLibro != null) {
+            elLibro.anotarRetirada(cuenta, tipo, centimos, saldoAntes, contrapartida);
+        }
+        return hecha;
+    }
+
+    /**
+     * Ingresa una cantidad en la cuenta con el DNI indicado.
+     * Busca el DNI en el índice y realiza el ingreso si lo encuentra.
+     *
+     * @param idCuenta DNI del titular de la cuenta en la que se quiere hacer el ingreso.
+     * @param cantidad Cantidad en euros que se quiere ingresar.
+     * @return true si el ingreso se realizó correctamente, false en caso contrario.
+     */
+    public boolean ingreso(String idCuenta, double cantidad) {
+        return ingresoCentimos(idCuenta, Dinero.aCentimos(cantidad));
+    }
+
+    /**
+     * Ingresa una cantidad en céntimos en la cuenta con el DNI indicado.
+     *
+     * @param idCuenta DNI del titular de la cuenta en la que se quiere hacer el ingreso.
+     * @param centimos Cantidad en céntimos que se quiere ingresar.
+     * @return true si el ingreso se realizó correctamente, false en caso contrario.
+     */
+    public boolean ingresoCentimos(String idCuenta, long centimos) {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        boolean hecho = ingresoCentimos(idCuenta, centimos, lasMetricas);
+        terminar(lasMetricas, MetricasBanco.Operacion.INGRESO, comienzo);
+        return hecho;
+    }
+
+    /**
+     * Ingreso en céntimos, anotando en las métricas el motivo si no se hace y la comisión si se cobra.
+     *
+     * @param idCuenta    DNI del titular de la cuenta en la que se quiere hacer el ingreso.
+     * @param centimos    Cantidad en céntimos que se quiere ingresar.
+     * @param lasMetricas Métricas leídas al empezar la operación, o null.
+     * @return true si el ingreso se realizó correctamente, false en caso contrario.
+     */
+    private boolean ingresoCentimos(String idCuenta, long centimos, MetricasBanco lasMetricas) {
+        if (centimos <= 0) {
+            return fallo(lasMetricas, MetricasBanco.Operacion.INGRESO, MetricasBanco.Motivo.IMPORTE_NO_VALIDO);
+        }
+
+        DiarioTransacciones elDiario = diario;
+        RegistroAuditoria laAuditoria = auditoria;
+        long secuencia = 0;
+        long comision;
+        int franjaCuenta = franja(idCuenta);
+        franjas[franjaCuenta].lock();
+        try {
+            Cuenta cuentaAIngresar = buscarCuenta(idCuenta);
+
+            if (cuentaAIngresar == null) {
+                return fallo(lasMetricas, MetricasBanco.Operacion.INGRESO, MetricasBanco.Motivo.DNI_DESCONOCIDO);
+            }
+            if (!ingresar(cuentaAIngresar, centimos, LibroMayor.Tipo.INGRESO, null)) {
+                return fallo(lasMetricas, MetricasBanco.Operacion.INGRESO, MetricasBanco.Motivo.IMPORTE_NO_VALIDO);
+            }
+            comision = comisionIngreso(cuentaAIngresar);
+            if (lasMetricas != null && comision != 0) {
+                lasMetricas.anotarComision();
+            }
+            if (elDiario != null) {
+                secuencia = elDiario.anotarMovimiento(DiarioTransacciones.INGRESO, idCuenta, centimos);
+            }
+        } finally {
+            franjas[franjaCuenta].unlock();
+        }
+        confirmar(elDiario, secuencia);
+        auditar(laAuditoria, RegistroAuditoria.Tipo.INGRESO, idCuenta, null, centimos);
+        auditarComision(laAuditoria, idCuenta, comision);
+        return true;
+    }
+
+    /**
+     * Retira una cantidad de la cuenta con el DNI indicado.
+     * Busca el DNI en el índice y trata de realizar la retirada si lo encuentra.
+     *
+     * @param idCuenta DNI del titular de la cuenta de la que se quiere retirar dinero.
+     * @param cantidad Cantidad en euros que se quiere retirar.
+     * @return true si la retirada se realizó correctamente, false en caso contrario.
+     */
+    public boolean retirada(String idCuenta, double cantidad) {
+        return retiradaCentimos(idCuenta, Dinero.aCentimos(cantidad));
+    }
+
+    /**
+     * Retira una cantidad en céntimos de la cuenta con el DNI indicado.
+     *
+     * @param idCuenta DNI del titular de la cuenta de la que se quiere retirar dinero.
+     * @param centimos Cantidad en céntimos que se quiere retirar.
+     * @return true si la retirada se realizó correctamente, false en caso contrario.
+     */
+    public boolean retiradaCentimos(String idCuenta, long centimos) {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        boolean hecho = retiradaCentimos(idCuenta, centimos, lasMetricas);
+        terminar(lasMetricas, MetricasBanco.Operacion.RETIRADA, comienzo);
+        return hecho;
+    }
+
+    /**
+     * Retirada en céntimos, anotando en las métricas el motivo si no se hace y la comisión si se cobra.
+     *
+     * @param idCuenta    DNI del titular de la cuenta de la que se quiere retirar dinero.
+     * @param centimos    Cantidad en céntimos que se quiere retirar.
+     * @param lasMetricas Métricas leídas al empezar la operación, o null.
+     * @return true si la retirada se realizó correctamente, false en caso contrario.
      */
-    private final ArrayList<Cuenta> cuentas;
-    private double interesAhorro;
+    private boolean retiradaCentimos(String idCuenta, long centimos, MetricasBanco lasMetricas) {
+        if (centimos <= 0) {
+            return fallo(lasMetricas, MetricasBanco.Operacion.RETIRADA, MetricasBanco.Motivo.IMPORTE_NO_VALIDO);
+        }
+
+        DiarioTransacciones elDiario = diario;
+        RegistroAuditoria laAuditoria = auditoria;
+        long secuencia = 0;
+        long comision;
+        int franjaCuenta = franja(idCuenta);
+        franjas[franjaCuenta].lock();
+        try {
+            Cuenta cuentaARetirar = buscarCuenta(idCuenta);
+
+            if (cuentaARetirar == null) {
+                return fallo(lasMetricas, MetricasBanco.Operacion.RETIRADA, MetricasBanco.Motivo.DNI_DESCONOCIDO);
+            }
+            if (!retirar(cuentaARetirar, centimos, LibroMayor.Tipo.RETIRADA, null)) {
+                if (lasMetricas != null) {
+                    lasMetricas.anotarFallo(MetricasBanco.Operacion.RETIRADA, cuentaARetirar.motivoRechazo(centimos));
+                }
+                return false;
+            }
+            comision = comisionRetirada(cuentaARetirar);
+            if (lasMetricas != null && comision != 0) {
+                lasMetricas.anotarComision();
+            }
+            if (elDiario != null) {
+                secuencia = elDiario.anotarMovimiento(DiarioTransacciones.RETIRADA, idCuenta, centimos);
+            }
+        } finally {
+            franjas[franjaCuenta].unlock();
+        }
+        confirmar(elDiario, secuencia);
+        auditar(laAuditoria, RegistroAuditoria.Tipo.RETIRADA, idCuenta, null, centimos);
+        auditarComision(laAuditoria, idCuenta, comision);
+        return true;
+    }
 
     /**
-     * Constructor de la clase Banco.
-     * Inicializa el ArrayList de cuentas y el interés de ahorro.
+     * Realiza una transferencia entre dos cuentas.
+     * Toma los cerrojos de las franjas de ambos DNI y, con ellos tomados, resuelve cada DNI
+     * una sola vez en el índice y opera directamente sobre las cuentas encontradas.
+     * La operación es atómica: la cantidad y las dos cuentas se validan antes de retirar,
+     * así que el ingreso posterior ya no puede fallar y el dinero retirado nunca se pierde.
+     *
+     * @param dniOrigen  DNI del titular de la cuenta de origen.
+     * @param dniDestino DNI del titular de la cuenta de destino.
+     * @param cantidad   Cantidad en euros que se quiere transferir.
+     * @return true si la transferencia se realizó correctamente, false en caso contrario.
      */
-    public Banco() {
-        cuentas = new ArrayList<>();
-        interesAhorro = 0;
+    public boolean transferencia(String dniOrigen, String dniDestino, double cantidad) {
+        return transferenciaCentimos(dniOrigen, dniDestino, Dinero.aCentimos(cantidad));
     }
 
     /**
-     * Lee las cuentas desde un fichero y las guarda en el ArrayList.
-     * En el fichero hay cuentas de la clase CuentaAhorro y otras de la clase CuentaCorriente.
-     * Usa diferentes constructores para crear cada una de ellas.
+     * Realiza una transferencia entre dos cuentas con la cantidad en céntimos.
      *
-     *  El fichero debe tener el formato:
-     *  DNI NombreCliente SaldoInicial TipoCuenta
-     *  Ejemplo: 12345678A Alice 1000.50 C
+     * @param dniOrigen  DNI del titular de la cuenta de origen.
+     * @param dniDestino DNI del titular de la cuenta de destino.
+     * @param centimos   Cantidad en céntimos que se quiere transferir.
+     * @return true si la transferencia se realizó correctamente, false en caso contrario.
+     */
+    public boolean transferenciaCentimos(String dniOrigen, String dniDestino, long centimos) {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        boolean hecha = transferenciaCentimos(dniOrigen, dniDestino, centimos, lasMetricas);
+        terminar(lasMetricas, MetricasBanco.Operacion.TRANSFERENCIA, comienzo);
+        return hecha;
+    }
+
+    /**
+     * Transferencia en céntimos, anotando en las métricas el motivo si no se hace y las comisiones
+     * que se cobren.
      *
-     * @param leerDatos Scanner conectado al fichero que se va a leer.
-     * @return Número de cuentas leídas del fichero.
+     * @param dniOrigen   DNI del titular de la cuenta de origen.
+     * @param dniDestino  DNI del titular de la cuenta de destino.
+     * @param centimos    Cantidad en céntimos que se quiere transferir.
+     * @param lasMetricas Métricas leídas al empezar la operación, o null.
+     * @return true si la transferencia se realizó correctamente, false en caso contrario.
      */
-    public int cargarFichero(Scanner leerDatos) {
-        int cont = 0;
-        while (leerDatos.hasNextLine()){
+    private boolean transferenciaCentimos(String dniOrigen, String dniDestino, long centimos, MetricasBanco lasMetricas) {
+        // Una cantidad no positiva no se puede ingresar y haría que la retirada sumara dinero
+        if (centimos <= 0) {
+            return fallo(lasMetricas, MetricasBanco.Operacion.TRANSFERENCIA, MetricasBanco.Motivo.IMPORTE_NO_VALIDO);
+        }
 
-            String dni = leerDatos.next();
-            String nombreCliente = leerDatos.next();
-            Cliente unCliente = new Cliente(dni, nombreCliente);
+        DiarioTransacciones elDiario = diario;
+        RegistroAuditoria laAuditoria = auditoria;
+        long secuencia = 0;
+        long comisionOrigen;
+        long comisionDestino;
+        int franjaOrigen = franja(dniOrigen);
+        int franjaDestino = franja(dniDestino);
+        bloquear(franjaOrigen, franjaDestino);
+        try {
+            Cuenta origen = buscarCuenta(dniOrigen);
+            Cuenta destino = buscarCuenta(dniDestino);
 
-            double depositoInicial = Double.parseDouble(leerDatos.next());
-            char tipoDeCuenta = leerDatos.next().charAt(0);
+            //Devulve false si alguno de los dni no exite en el banco
+            if (origen == null || destino == null) {
+                return fallo(lasMetricas, MetricasBanco.Operacion.TRANSFERENCIA, MetricasBanco.Motivo.DNI_DESCONOCIDO);
+            }
 
-            switch (tipoDeCuenta){
-                case 'A':
-                    cuentas.add(new CuentaAhorro(unCliente, depositoInicial));
-                    cont++;
-                    break;
-                case 'C':
-                    cuentas.add(new CuentaCorriente(unCliente, depositoInicial));
-                    cont++;
-                    break;
-                default:
-                    System.out.printf("%s \nCuenta erronea: %s en la linea %d.", dni, tipoDeCuenta, cont + 1);
-                    break;
+            // Saldo ya cerrado, para saber cuánto devolver si el destino no admite el ingreso
+            ponerAlDia(origen);
+            long saldoOrigen = origen.getSaldoCentimos();
+            if (!retirar(origen, centimos, LibroMayor.Tipo.TRANSFERENCIA_SALIDA, destino)){
+                if (lasMetricas != null) {
+                    lasMetricas.anotarFallo(MetricasBanco.Operacion.TRANSFERENCIA, origen.motivoRechazo(centimos));
+                }
+                return false;
+            }
+            if (!ingresar(destino, centimos, LibroMayor.Tipo.TRANSFERENCIA_ENTRADA, origen)) {
+                devolver(origen, saldoOrigen - origen.getSaldoCentimos(), true);
+                return fallo(lasMetricas, MetricasBanco.Operacion.TRANSFERENCIA, MetricasBanco.Motivo.IMPORTE_NO_VALIDO);
             }
+            comisionOrigen = comisionRetirada(origen);
+            comisionDestino = comisionIngreso(destino);
+            if (lasMetricas != null) {
+                if (comisionOrigen != 0) {
+                    lasMetricas.anotarComision();
+                }
+                if (comisionDestino != 0) {
+                    lasMetricas.anotarComision();
+                }
+            }
+            if (elDiario != null) {
+                secuencia = elDiario.anotarTransferencia(dniOrigen, dniDestino, centimos);
+            }
+        } finally {
+            desbloquear(franjaOrigen, franjaDestino);
         }
-        return cont;
+        confirmar(elDiario, secuencia);
+        auditar(laAuditoria, RegistroAuditoria.Tipo.TRANSFERENCIA, dniOrigen, dniDestino, centimos);
+        auditarComision(laAuditoria, dniOrigen, comisionOrigen);
+        auditarComision(laAuditoria, dniDestino, comisionDestino);
+        return true;
     }
 
     /**
-     * Establece el interés aplicado a las cuentas de ahorro.
+     * Primera fase de una transferencia a una cuenta de otra partición (ver BancoParticionado): retira
+     * la cantidad de la primera cuenta del DNI con las mismas reglas y comisiones que transferencia y la
+     * deja reservada hasta que se confirme con confirmarSalida o se anule con anularSalida. Mientras
+     * tanto el dinero no está en ninguna cuenta; getCentimosReservados lo cuenta.
      *
-     * @param interesAhorro Interés en porcentaje que se aplicará a las cuentas de ahorro.
+     * @param idReserva Identificador de la reserva, único en el banco.
+     * @param dni       DNI del titular de la cuenta de origen.
+     * @param centimos  Cantidad en céntimos.
+     * @return true si se ha reservado, false si la cantidad no es válida, el DNI no tiene cuentas o la
+     *         cuenta rechaza la retirada.
      */
-    public void setInteresAhorro(double interesAhorro) {
-        this.interesAhorro = interesAhorro;
+    boolean reservarSalida(long idReserva, String dni, long centimos) {
+        if (centimos <= 0) {
+            return false;
+        }
+        DiarioTransacciones elDiario = diario;
+        RegistroAuditoria laAuditoria = auditoria;
+        long secuencia = 0;
+        long debito;
+        int franjaCuenta = franja(dni);
+        franjas[franjaCuenta].lock();
+        try {
+            Cuenta origen = buscarCuenta(dni);
+            if (origen == null) {
+                return false;
+            }
+            ponerAlDia(origen);
+            long saldoAntes = origen.getSaldoCentimos();
+            if (!retirar(origen, centimos, LibroMayor.Tipo.TRANSFERENCIA_SALIDA, null)) {
+                return false;
+            }
+            debito = saldoAntes - origen.getSaldoCentimos();
+            reservas.put(idReserva, new Reserva(origen, debito, origen.getMes()));
+            if (elDiario != null) {
+                secuencia = elDiario.anotarReserva(DiarioTransacciones.RESERVA, idReserva, dni, centimos);
+            }
+        } finally {
+            franjas[franjaCuenta].unlock();
+        }
+        confirmar(elDiario, secuencia);
+        auditar(laAuditoria, RegistroAuditoria.Tipo.RESERVA, dni, null, centimos);
+        // Si se anula, ANULAR_RESERVA devuelve el débito entero, comisión incluida
+        auditarComision(laAuditoria, dni, debito - centimos);
+        return true;
     }
 
     /**
-     * Genera una representación formateada del estado del banco para su visualización.
-     * Incluye:
-     * - El título principal "B A N C O" centrado en un ancho de 25 caracteres.
-     * - La tasa de interés aplicable a las cuentas de ahorro, expresada con un decimal y el símbolo '%'.
-     * - Un listado detallado de todas las cuentas gestionadas por el banco
-     *   utilizando el metodo `toString()` de cada cuenta.
+     * Segunda fase de una transferencia desde otra partición: ingresa la cantidad en la primera cuenta
+     * del DNI, con las mismas comisiones que transferencia.
+     * El identificador de la reserva queda apuntado como entrada abonada hasta que se olvida con
+     * olvidarEntrada: así, si la transferencia se queda a medias, se sabe si hay que confirmar o anular
+     * su reserva (ver BancoParticionado.resolverReservas), y repetir el abono no ingresa dos veces.
      *
-     * @return Una cadena (String) que representa el estado completo del banco, incluyendo intereses y datos de las cuentas.
+     * @param idReserva Identificador de la reserva de la partición de origen.
+     * @param dni       DNI del titular de la cuenta de destino.
+     * @param centimos  Cantidad en céntimos.
+     * @return true si se ha ingresado (ahora o antes, con el mismo identificador), false si la cantidad no
+     *         es válida, el DNI no tiene cuentas o el saldo de la cuenta no la admite.
      */
-    @Override
-    public String toString() {
-        String formato = "";
-        formato += String.format("%25s\n", "B A N C O");
-        formato += String.format("Intereses de las cuentas de ahorro: %.1f%% \n\n", interesAhorro);
-
-        for (Cuenta cuenta : cuentas){
-            formato += cuenta.toString() + "\n";
+    boolean abonarEntrada(long idReserva, String dni, long centimos) {
+        if (centimos <= 0) {
+            return false;
+        }
+        DiarioTransacciones elDiario = diario;
+        RegistroAuditoria laAuditoria = auditoria;
+        long secuencia = 0;
+        long comision;
+        int franjaCuenta = franja(dni);
+        franjas[franjaCuenta].lock();
+        try {
+            // Un mismo identificador siempre viene con el mismo DNI, así que su franja protege también el apunte
+            if (abonadas.contains(idReserva)) {
+                return true;
+            }
+            Cuenta destino = buscarCuenta(dni);
+            if (destino == null) {
+                return false;
+            }
+            if (!ingresar(destino, centimos, LibroMayor.Tipo.TRANSFERENCIA_ENTRADA, null)) {
+                return false;
+            }
+            comision = comisionIngreso(destino);
+            abonadas.add(idReserva);
+            if (elDiario != null) {
+                secuencia = elDiario.anotarReserva(DiarioTransacciones.ABONO, idReserva, dni, centimos);
+            }
+        } finally {
+            franjas[franjaCuenta].unlock();
         }
-        return formato;
+        confirmar(elDiario, secuencia);
+        auditar(laAuditoria, RegistroAuditoria.Tipo.ABONO, dni, null, centimos);
+        auditarComision(laAuditoria, dni, comision);
+        return true;
     }
 
     /**
-     * Ordena las cuentas según los criterios definidos en el metodo compareTo de la interfaz Comparable.
-     * Utiliza Collections.sort para ordenar el ArrayList de cuentas.
+     * Confirma una reserva: la transferencia se ha completado en la otra partición y el dinero reservado
+     * ya no vuelve. No hace nada si la reserva no existe.
+     *
+     * @param idReserva Identificador de la reserva.
      */
-    public void ordenarCuentas() {
-        Collections.sort(cuentas);
+    void confirmarSalida(long idReserva) {
+        DiarioTransacciones elDiario = diario;
+        RegistroAuditoria laAuditoria = auditoria;
+        long secuencia = 0;
+        Reserva reserva;
+        // El diario se anota dentro del bloque, como si fuera un cerrojo: así queda detrás de la reserva
+        synchronized (reservas) {
+            reserva = reservas.remove(idReserva);
+            if (reserva == null) {
+                return;
+            }
+            if (elDiario != null) {
+                secuencia = elDiario.anotarFinReserva(DiarioTransacciones.CONFIRMAR_RESERVA, idReserva);
+            }
+        }
+        confirmar(elDiario, secuencia);
+        auditar(laAuditoria, RegistroAuditoria.Tipo.CONFIRMAR_RESERVA, reserva.cuenta.titular.getDni(), null, reserva.debito);
     }
 
     /**
-     * Busca una cuenta por el DNI del titular.
+     * Anula una reserva: devuelve a la cuenta de origen todo lo que se le descontó, comisión incluida, y
+     * deshace la retirada en el contador de las cuentas corrientes si no ha habido cierre de mes entretanto.
+     * Si la cuenta se ha eliminado, se devuelve a la primera cuenta que le quede al DNI; si no le queda
+     * ninguna, la reserva sigue pendiente.
      *
-     * @param dniCuenta DNI del titular de la cuenta que se desea buscar.
-     * @return Índice de la primera cuenta encontrada con el DNI indicado. Devuelve -1 si no se encuentra.
+     * @param idReserva Identificador de la reserva.
+     * @return true si se ha devuelto o la reserva no existía, false si sigue pendiente.
      */
-    private int buscarCuenta(String dniCuenta) {
-        for (int i = 0; i < cuentas.size(); i++) {
-            Cuenta unaCuenta = cuentas.get(i); // Obtenemos la cuenta que queremos comprobar
-            if (unaCuenta.mismoDni(dniCuenta)) {
-                return i;
+    boolean anularSalida(long idReserva) {
+        Reserva reserva = reservas.get(idReserva);
+        if (reserva == null) {
+            return true;
+        }
+        DiarioTransacciones elDiario = diario;
+        RegistroAuditoria laAuditoria = auditoria;
+        long secuencia = 0;
+        String dni = reserva.cuenta.titular.getDni();
+        int franjaCuenta = franja(dni);
+        franjas[franjaCuenta].lock();
+        try {
+            Cuenta origen = reserva.cuenta.borrada ? buscarCuenta(dni) : reserva.cuenta;
+            if (origen == null) {
+                return false;
+            }
+            synchronized (reservas) {
+                if (reservas.remove(idReserva) == null) {
+                    return true;
+                }
+                ponerAlDia(origen);
+                devolver(origen, reserva.debito, origen == reserva.cuenta && origen.getMes() == reserva.mes);
+                if (elDiario != null) {
+                    secuencia = elDiario.anotarFinReserva(DiarioTransacciones.ANULAR_RESERVA, idReserva);
+                }
             }
+        } finally {
+            franjas[franjaCuenta].unlock();
         }
-        return -1;
+        confirmar(elDiario, secuencia);
+        auditar(laAuditoria, RegistroAuditoria.Tipo.ANULAR_RESERVA, dni, null, reserva.debito);
+        return true;
     }
 
     /**
-     * Ingresa una cantidad en la cuenta con el DNI indicado.
-     * Busca el DNI en el ArrayList y realiza el ingreso si lo encuentra.
+     * Devuelve a una cuenta una retirada anulada manteniendo el conjunto ordenado y lo anota en el libro mayor.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
      *
-     * @param idCuenta DNI del titular de la cuenta en la que se quiere hacer el ingreso.
-     * @param cantidad Cantidad en euros que se quiere ingresar.
-     * @return true si el ingreso se realizó correctamente, false en caso contrario.
+     * @param cuenta   Cuenta del banco.
+     * @param debito   Cantidad que se descontó, comisión incluida, en céntimos.
+     * @param mismoMes true si la cuenta no ha pasado por un cierre de mes desde la retirada.
      */
-    private boolean ingreso(String idCuenta, double cantidad) {
-        int indexCuenta = buscarCuenta(idCuenta);
-
-        if (indexCuenta != -1) {
-            Cuenta cuentaAIngresar = cuentas.get(indexCuenta);
-            cuentaAIngresar.ingreso(cantidad);
-            return true;
+    private void devolver(Cuenta cuenta, long debito, boolean mismoMes) {
+        if (!hayQueRecolocar(cuenta)) {
+            cuenta.deshacerRetirada(debito, mismoMes);
         } else {
-            return false;
+            sacarDeConjuntos(cuenta);
+            try {
+                cuenta.deshacerRetirada(debito, mismoMes);
+            } finally {
+                meterEnConjuntos(cuenta);
+            }
+        }
+        LibroMayor elLibro = libro;
+        if (elLibro != null) {
+            elLibro.anotar(cuenta, LibroMayor.Tipo.DEVOLUCION, debito, null);
         }
     }
 
     /**
-     * Retira una cantidad de la cuenta con el DNI indicado.
-     * Busca el DNI en el ArrayList y trata de realizar la retirada si lo encuentra.
+     * Indica si se ha abonado la entrada de una reserva y todavía no se ha olvidado.
      *
-     * @param idCuenta DNI del titular de la cuenta de la que se quiere retirar dinero.
-     * @param cantidad Cantidad en euros que se quiere retirar.
-     * @return true si la retirada se realizó correctamente, false en caso contrario.
+     * @param idReserva Identificador de la reserva de la partición de origen.
+     * @return true si se ha abonado.
      */
-    private boolean retirada(String idCuenta, double cantidad) {
-        int indexCuenta = buscarCuenta(idCuenta);
+    boolean entradaAbonada(long idReserva) {
+        return abonadas.contains(idReserva);
+    }
 
-        if (indexCuenta != -1) {
-            Cuenta cuentaARetirar = cuentas.get(indexCuenta);
-            return cuentaARetirar.retirada(cantidad);
-        } else {
-            return false;
-        }
+    /**
+     * Olvida una entrada abonada cuando su reserva ya está confirmada. No se anota en el diario: si al
+     * reproducirlo vuelve a aparecer, BancoParticionado.resolverReservas la olvida otra vez.
+     *
+     * @param idReserva Identificador de la reserva de la partición de origen.
+     */
+    void olvidarEntrada(long idReserva) {
+        abonadas.remove(idReserva);
     }
 
     /**
-     * Realiza una transferencia entre dos cuentas.
-     * Utiliza los métodos ingreso y retirada para realizar la operación.
+     * Devuelve los identificadores de las entradas abonadas y no olvidadas.
      *
-     * @param dniOrigen  DNI del titular de la cuenta de origen.
-     * @param dniDestino DNI del titular de la cuenta de destino.
-     * @param cantidad   Cantidad en euros que se quiere transferir.
-     * @return true si la transferencia se realizó correctamente, false en caso contrario.
+     * @return Identificadores de reserva, en cualquier orden.
      */
-    public boolean transferencia(String dniOrigen, String dniDestino, double cantidad) {
-        //Devulve false si alguno de los dni no exite en el Array
-        if (buscarCuenta(dniOrigen) == -1 || buscarCuenta(dniDestino) == -1) { return false;}
+    long[] getEntradasAbonadas() {
+        return abonadas.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Devuelve los identificadores de las reservas pendientes: sin confirmar ni anular.
+     *
+     * @return Identificadores de reserva, en cualquier orden.
+     */
+    long[] getReservasPendientes() {
+        return reservas.keySet().stream().mapToLong(Long::longValue).toArray();
+    }
 
-        if (retirada(dniOrigen, cantidad)){
-            return ingreso(dniDestino, cantidad);
+    /**
+     * Devuelve el dinero de las reservas pendientes: retirado de sus cuentas de origen y todavía sin
+     * confirmar ni anular.
+     *
+     * @return Total reservado en céntimos.
+     */
+    public long getCentimosReservados() {
+        long total = 0;
+        for (Reserva reserva : reservas.values()) {
+            total += reserva.debito;
         }
+        return total;
+    }
 
-        return false;
+    /**
+     * Devuelve el número de reservas pendientes.
+     *
+     * @return Reservas sin confirmar ni anular.
+     */
+    public int getNumReservas() {
+        return reservas.size();
     }
 
     /**
@@ -182,54 +2413,503 @@ public class Banco {
      * @return Total de intereses pagados a todas las cuentas de ahorro.
      */
     public double addInteres(double interes) {
-        double total = 0;
-        for (Cuenta cuenta : cuentas){
-            if (cuenta instanceof CuentaAhorro){
-                CuentaAhorro cuentaCasteada = (CuentaAhorro) cuenta;
-                total += cuentaCasteada.addInteres(interes);
+        return Dinero.aEuros(addInteresCentimos(Dinero.tasaEnPpm(interes)));
+    }
+
+    /**
+     * Paga el interés indicado, en partes por millón, a todas las cuentas de ahorro.
+     * Solo recorre la lista de cuentas de ahorro, o con columnas las de saldos y tipos.
+     * El total se acumula en céntimos, así que es exactamente la suma de lo abonado a cada cuenta.
+     * El pago se hace con todas las franjas tomadas, de modo que ninguna transferencia queda a medias
+     * entre cuentas ya pagadas y sin pagar y el diario lo puede reproducir como un único paso.
+     * Lo abonado a cada cuenta se anota en la auditoría al soltar las franjas. Una cuenta cuyo saldo con
+     * los intereses no cabría en un long se queda como está, igual que con un ingreso demasiado grande.
+     *
+     * @param tasaPpm Interés en partes por millón (ej: 55000 para 5.5%).
+     * @return Total de intereses pagados a todas las cuentas de ahorro, en céntimos.
+     */
+    public long addInteresCentimos(long tasaPpm) {
+        long total = 0;
+        DiarioTransacciones elDiario = diario;
+        RegistroAuditoria laAuditoria = auditoria;
+        List<Apunte> abonos = new ArrayList<>();
+        long secuencia = 0;
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                compactar();
+                bloquearTodas();
+                try {
+                    LibroMayor elLibro = libro;
+                    List<Apunte> losAbonos = (laAuditoria != null) ? abonos : null;
+                    if (columnas == null) {
+                        for (CuentaAhorro cuenta : ahorros){
+                            total += abonarIntereses(cuenta, pagarIntereses(cuenta, tasaPpm), elLibro, losAbonos);
+                        }
+                    } else {
+                        byte[] tipos = columnas.tipos;
+                        for (int fila = 0; fila < columnas.numFilas; fila++) {
+                            if (tipos[fila] == ColumnasCuentas.AHORRO) {
+                                long intereses = pagarIntereses(columnas, fila, tasaPpm);
+                                total += abonarIntereses(columnas.cuentas[fila], intereses, elLibro, losAbonos);
+                            }
+                        }
+                    }
+                    if (elDiario != null) {
+                        secuencia = elDiario.anotarInteres(tasaPpm);
+                    }
+                } finally {
+                    desbloquearTodas();
+                }
             }
         }
+        confirmar(elDiario, secuencia);
+        auditar(laAuditoria, RegistroAuditoria.Tipo.INTERESES, abonos);
+        terminar(lasMetricas, MetricasBanco.Operacion.INTERESES, comienzo);
         return total;
     }
 
+    /**
+     * Paga intereses a una cuenta de ahorro manteniendo los conjuntos, para addInteresCentimos.
+     * Debe llamarse con todas las franjas tomadas.
+     *
+     * @param cuenta  Cuenta de ahorro del banco.
+     * @param tasaPpm Interés en partes por millón.
+     * @return Intereses pagados, en céntimos (0 si el saldo con ellos no cabría en un long).
+     */
+    private long pagarIntereses(CuentaAhorro cuenta, long tasaPpm) {
+        try {
+            if (!hayQueRecolocar(cuenta)) {
+                return cuenta.addInteresCentimos(tasaPpm);
+            }
+            sacarDeConjuntos(cuenta);
+            try {
+                return cuenta.addInteresCentimos(tasaPpm);
+            } finally {
+                meterEnConjuntos(cuenta);
+            }
+        } catch (ArithmeticException e) {
+            // Como en cerrarMes: si el saldo no cabría, la cuenta no cobra intereses
+            return 0;
+        }
+    }
+
+    /**
+     * Anota los intereses pagados a una cuenta en el libro mayor y en los abonos para la auditoría.
+     *
+     * @param cuenta    Cuenta de ahorro del banco.
+     * @param intereses Intereses pagados, en céntimos.
+     * @param elLibro   Libro mayor, o null.
+     * @param abonos    Lista de abonos para la auditoría, o null.
+     * @return Los intereses, para sumarlos al total.
+     */
+    private static long abonarIntereses(Cuenta cuenta, long intereses, LibroMayor elLibro, List<Apunte> abonos) {
+        if (intereses != 0 && abonos != null) {
+            abonos.add(new Apunte(cuenta.titular.getDni(), intereses));
+        }
+        if (elLibro != null) {
+            elLibro.anotar(cuenta, LibroMayor.Tipo.INTERESES, intereses, null);
+        }
+        return intereses;
+    }
+
     /**
      * Resetea el número de retiradas de todas las cuentas corrientes.
-     * Identifica las cuentas corrientes y utiliza el metodo reseteaNumeroRetiradas.
+     * Recorre solo la lista de cuentas corrientes y utiliza el metodo reseteaNumeroRetiradas; con columnas
+     * recorre la de retiradas.
+     * Igual que addInteres, se hace con todas las franjas tomadas para que sea un único paso en el diario.
      *
      * @return Número de cuentas corrientes cuyo contador de retiradas ha sido reseteado.
      */
     public int reset() {
         int total = 0;
-        for (Cuenta cuenta : cuentas){
-            if (cuenta instanceof CuentaCorriente){
-                CuentaCorriente cuentaCasteada = (CuentaCorriente) cuenta;
-                cuentaCasteada.reseteaNumeroRetiradas();
-                total++;
+        DiarioTransacciones elDiario = diario;
+        long secuencia = 0;
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        synchronized (cierre) {
+            synchronized (cuentas) {
+                compactar();
+                bloquearTodas();
+                try {
+                    if (columnas == null) {
+                        for (CuentaCorriente cuenta : corrientes){
+                            cuenta.reseteaNumeroRetiradas();
+                        }
+                        total = corrientes.size();
+                    } else {
+                        byte[] tipos = columnas.tipos;
+                        int[] retiradas = columnas.retiradas;
+                        for (int fila = 0; fila < columnas.numFilas; fila++) {
+                            if (tipos[fila] == ColumnasCuentas.CORRIENTE) {
+                                total++;
+                                if (retiradas[fila] != 0) {
+                                    retiradas[fila] = 0;
+                                    anotarCambio(columnas.cuentas[fila]);
+                                }
+                            }
+                        }
+                    }
+                    if (elDiario != null) {
+                        secuencia = elDiario.anotar(DiarioTransacciones.RESET);
+                    }
+                } finally {
+                    desbloquearTodas();
+                }
+            }
+        }
+        confirmar(elDiario, secuencia);
+        terminar(lasMetricas, MetricasBanco.Operacion.RESET, comienzo);
+
+        return total;
+    }
+
+    /**
+     * Cierre de mes en una sola pasada y en paralelo: paga el interés indicado a las cuentas de ahorro
+     * y resetea el número de retiradas de las cuentas corrientes.
+     *
+     * @param interes Interés en porcentaje que se aplicará a las cuentas de ahorro.
+     * @return Total de intereses pagados a todas las cuentas de ahorro.
+     */
+    public double cierreMes(double interes) {
+        return Dinero.aEuros(cierreMesCentimos(Dinero.tasaEnPpm(interes)));
+    }
+
+    /**
+     * Cierre de mes con el interés en partes por millón. Equivale a addInteresCentimos seguido de reset,
+     * pero no detiene el banco mientras recorre las cuentas:
+     * - Con todas las franjas tomadas solo un instante, fija el punto de corte: empieza un mes nuevo y lo
+     *   anota en el diario. Cada cuenta se cierra con el saldo que tenga en ese punto.
+     * - Después recorre las listas de cada tipo en paralelo, por tramos en el ForkJoinPool común, y cierra cada cuenta
+     *   con el cerrojo de su franja. Las transferencias, ingresos y retiradas siguen entretanto; solo
+     *   esperan las operaciones que necesitan el monitor del ArrayList (cargas, listados y borrados).
+     * - Una operación que llegue antes que el barrido a una cuenta la cierra primero (ver ponerAlDia),
+     *   así que nunca opera sobre un saldo sin cerrar. Por eso reproducir el diario da el mismo resultado:
+     *   allí el cierre se aplica entero en su punto de corte.
+     * El total se suma en céntimos, así que es exactamente la suma de lo abonado a cada cuenta.
+     * Lo abonado a cada cuenta se anota en la auditoría: el barrido lo hace al soltar el cerrojo de la
+     * cuenta, y lo que cierran las operaciones se anota al terminar.
+     *
+     * @param tasaPpm Interés en partes por millón (ej: 55000 para 5.5%).
+     * @return Total de intereses pagados a todas las cuentas de ahorro, en céntimos.
+     */
+    public long cierreMesCentimos(long tasaPpm) {
+        long total;
+        DiarioTransacciones elDiario = diario;
+        RegistroAuditoria laAuditoria = auditoria;
+        long secuencia = 0;
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
+        synchronized (cierre) {
+            bloquearTodas();
+            try {
+                mesActual++;
+                tasaCierre = tasaPpm;
+                interesesCierre.reset();
+                if (elDiario != null) {
+                    secuencia = elDiario.anotarCierreMes(tasaPpm);
+                }
+            } finally {
+                desbloquearTodas();
+            }
+
+            synchronized (cuentas) {
+                compactar();
+                total = barrerCierreMes(laAuditoria);
+            }
+            // Lo que hayan cerrado las operaciones ya está sumado: cada cuenta se cierra una sola vez
+            total += interesesCierre.sum();
+        }
+        confirmar(elDiario, secuencia);
+        for (Apunte abono = interesesPorAuditar.poll(); abono != null; abono = interesesPorAuditar.poll()) {
+            auditar(laAuditoria, RegistroAuditoria.Tipo.INTERESES, abono.dni, null, abono.centimos);
+        }
+        terminar(lasMetricas, MetricasBanco.Operacion.CIERRE_MES, comienzo);
+        return total;
+    }
+
+    /**
+     * Barrido del cierre de mes: reparte las listas de cada tipo (o las filas de las columnas) en tramos
+     * entre los hilos del ForkJoinPool común y suma lo pagado en cada uno. Se recorren las listas y no el
+     * índice porque sus cuentas están en memoria en el mismo orden y el recorrido es mucho más rápido.
+     * Debe llamarse con el monitor del ArrayList tomado y sin cerrojos de franja.
+     *
+     * @param laAuditoria Registro donde se anota lo abonado a cada cuenta, o null.
+     * @return Intereses pagados en el barrido, en céntimos.
+     */
+    private long barrerCierreMes(RegistroAuditoria laAuditoria) {
+        ColumnasCuentas lasColumnas = columnas;
+        if (cuentas.size() < UMBRAL_PARALELO) {
+            return (lasColumnas != null)
+                    ? cerrarMes(lasColumnas, 0, lasColumnas.numFilas, laAuditoria)
+                    : cerrarMes(ahorros, 0, ahorros.size(), laAuditoria)
+                            + cerrarMes(corrientes, 0, corrientes.size(), laAuditoria);
+        }
+        // Las tareas leen las listas sin su monitor: este hilo lo tiene tomado y no cambian hasta que terminen
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        List<ForkJoinTask<Long>> tareas = new ArrayList<>();
+        if (lasColumnas != null) {
+            repartirCierreMes(pool, lasColumnas.numFilas,
+                    (desde, hasta) -> cerrarMes(lasColumnas, desde, hasta, laAuditoria), tareas);
+        } else {
+            repartirCierreMes(pool, ahorros.size(),
+                    (desde, hasta) -> cerrarMes(ahorros, desde, hasta, laAuditoria), tareas);
+            repartirCierreMes(pool, corrientes.size(),
+                    (desde, hasta) -> cerrarMes(corrientes, desde, hasta, laAuditoria), tareas);
+        }
+        long total = 0;
+        for (ForkJoinTask<Long> tarea : tareas) {
+            total += tarea.join();
+        }
+        return total;
+    }
+
+    /**
+     * Cierre de mes de un tramo de cuentas, entre dos posiciones.
+     */
+    private interface CierreTramo {
+        long cerrar(int desde, int hasta);
+    }
+
+    /**
+     * Reparte unas cuentas en tramos y lanza una tarea de cierre de mes por tramo.
+     *
+     * @param pool        Pool donde se lanzan las tareas.
+     * @param numCuentas  Número de cuentas (o de filas) que se reparten.
+     * @param cierreTramo Cierre de mes de cada tramo.
+     * @param tareas      Lista donde se añaden las tareas lanzadas.
+     */
+    private static void repartirCierreMes(ForkJoinPool pool, int numCuentas, CierreTramo cierreTramo,
+                                          List<ForkJoinTask<Long>> tareas) {
+        int tramos = pool.getParallelism() * TRAMOS_POR_HILO;
+        for (int t = 0; t < tramos; t++) {
+            int desde = (int) ((long) numCuentas * t / tramos);
+            int hasta = (int) ((long) numCuentas * (t + 1) / tramos);
+            tareas.add(pool.submit(() -> cierreTramo.cerrar(desde, hasta)));
+        }
+    }
+
+    /**
+     * Cierra el mes de un tramo de una lista, tomando el cerrojo de la franja de cada cuenta, y anota en
+     * la auditoría lo abonado a cada una después de soltarlo.
+     *
+     * @param lista       Lista de cuentas de un tipo.
+     * @param desde       Posición de la primera cuenta del tramo.
+     * @param hasta       Posición siguiente a la última cuenta del tramo.
+     * @param laAuditoria Registro de auditoría, o null.
+     * @return Intereses pagados en el tramo, en céntimos.
+     */
+    private long cerrarMes(List<? extends Cuenta> lista, int desde, int hasta, RegistroAuditoria laAuditoria) {
+        long total = 0;
+        for (int i = desde; i < hasta; i++) {
+            Cuenta cuenta = lista.get(i);
+            String dni = cuenta.titular.getDni();
+            int franjaCuenta = franja(dni);
+            long intereses;
+            franjas[franjaCuenta].lock();
+            try {
+                intereses = cerrarMes(cuenta);
+            } finally {
+                franjas[franjaCuenta].unlock();
+            }
+            if (intereses != 0) {
+                total += intereses;
+                auditar(laAuditoria, RegistroAuditoria.Tipo.INTERESES, dni, null, intereses);
             }
         }
+        return total;
+    }
 
+    /**
+     * Cierra el mes de un tramo de filas de las columnas, como cerrarMes sobre una lista. Las filas libres
+     * y las que ya ha cerrado una operación se saltan sin tomar el cerrojo: un mes ya cerrado no vuelve atrás.
+     *
+     * @param lasColumnas Columnas del banco.
+     * @param desde       Primera fila del tramo.
+     * @param hasta       Fila siguiente a la última del tramo.
+     * @param laAuditoria Registro de auditoría, o null.
+     * @return Intereses pagados en el tramo, en céntimos.
+     */
+    private long cerrarMes(ColumnasCuentas lasColumnas, int desde, int hasta, RegistroAuditoria laAuditoria) {
+        long total = 0;
+        byte[] tipos = lasColumnas.tipos;
+        int[] meses = lasColumnas.meses;
+        for (int fila = desde; fila < hasta; fila++) {
+            if (tipos[fila] == ColumnasCuentas.LIBRE || meses[fila] == mesActual) {
+                continue;
+            }
+            int franjaFila = lasColumnas.franjas[fila];
+            long intereses;
+            franjas[franjaFila].lock();
+            try {
+                intereses = cerrarMes(lasColumnas, fila);
+            } finally {
+                franjas[franjaFila].unlock();
+            }
+            if (intereses != 0) {
+                total += intereses;
+                auditar(laAuditoria, RegistroAuditoria.Tipo.INTERESES, lasColumnas.cuentas[fila].titular.getDni(),
+                        null, intereses);
+            }
+        }
         return total;
     }
 
     /**
      * Elimina todas las cuentas asociadas a un cliente específico.
-     * U
+     * Cuesta lo proporcional a las cuentas del DNI del cliente: se quitan del índice y del conjunto
+     * ordenado y se marcan como borradas, sin recorrer el ArrayList. Las listas se compactan de una vez
+     * cuando las borradas llegan a la mitad, o antes si alguna operación tiene que recorrerlas.
      *
      * @param elCliente Datos del cliente cuyas cuentas se desean eliminar.
      * @return Número total de cuentas eliminadas.
      */
     public int eliminarCliente(Cliente elCliente) {
-        Iterator<Cuenta> it = cuentas.iterator();
+        return eliminarClientes(Collections.singletonList(elCliente), false);
+    }
+
+    /**
+     * Elimina todas las cuentas de varios clientes, pensado para los ficheros de cierre de cuentas.
+     * Cada cliente cuesta lo mismo que con eliminarCliente y al final las listas se compactan en una
+     * sola pasada. Cada cliente se anota en el diario por separado.
+     *
+     * @param losClientes Clientes cuyas cuentas se desean eliminar.
+     * @return Número total de cuentas eliminadas.
+     */
+    public int eliminarClientes(Collection<Cliente> losClientes) {
+        return eliminarClientes(losClientes, true);
+    }
+
+    /**
+     * Elimina las cuentas de varios clientes y compacta las listas si hace falta.
+     *
+     * @param losClientes Clientes cuyas cuentas se desean eliminar.
+     * @param compactarSiempre Si hay que compactar las listas al final aunque haya pocas cuentas borradas.
+     * @return Número total de cuentas eliminadas.
+     */
+    private int eliminarClientes(Collection<Cliente> losClientes, boolean compactarSiempre) {
         int cont = 0;
+        DiarioTransacciones elDiario = diario;
+        RegistroAuditoria laAuditoria = auditoria;
+        List<Apunte> bajas = new ArrayList<>();
+        long secuencia = 0;
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = empezar(lasMetricas);
 
-        while (it.hasNext()) {
-            Cliente clienteAEliminar = it.next().getTitular();
-            if (clienteAEliminar.equals(elCliente)) {
-                it.remove();
-                cont++;
+        synchronized (cuentas) {
+            for (Cliente elCliente : losClientes) {
+                String dni = elCliente.getDni();
+                int franjaDni = franja(dni);
+                franjas[franjaDni].lock();
+                try {
+                    int borradas = quitarCliente(elCliente, laAuditoria != null ? bajas : null);
+                    if (borradas > 0) {
+                        cont += borradas;
+                        if (elDiario != null) {
+                            secuencia = elDiario.anotarEliminacion(elCliente);
+                        }
+                    }
+                } finally {
+                    franjas[franjaDni].unlock();
+                }
+            }
+            numBorradas += cont;
+            if (compactarSiempre || numBorradas > cuentas.size() / 2) {
+                compactar();
             }
         }
+        // Las secuencias son crecientes: con la última están en disco todas las eliminaciones
+        confirmar(elDiario, secuencia);
+        auditar(laAuditoria, RegistroAuditoria.Tipo.BAJA, bajas);
+        terminar(lasMetricas, MetricasBanco.Operacion.ELIMINAR, comienzo);
 
         return cont;
     }
-}
\ No newline at end of file
+
+    /**
+     * Quita del índice y del conjunto ordenado las cuentas de un cliente y las marca como borradas:
+     * a partir de aquí ninguna transferencia las encuentra. Siguen en las listas hasta que se compacten;
+     * sus filas de las columnas, si las hay, quedan libres enseguida.
+     * Debe llamarse con el monitor del ArrayList y el cerrojo de la franja del DNI tomados.
+     *
+     * @param elCliente Cliente cuyas cuentas se quitan.
+     * @param bajas     Lista donde se añade el saldo de cada cuenta quitada, para la auditoría, o null.
+     * @return Número de cuentas quitadas.
+     */
+    private int quitarCliente(Cliente elCliente, List<Apunte> bajas) {
+        String dni = elCliente.getDni();
+        ArrayList<Cuenta> cuentasDni = indiceDni.get(dni);
+        Cliente titular = clienteRegistrado(cuentasDni, elCliente);
+        if (titular == null) {
+            return 0;
+        }
+        int antes = cuentasDni.size();
+        // Las cuentas del cliente comparten su instancia: basta comparar referencias
+        cuentasDni.removeIf(cuenta -> {
+            if (cuenta.titular != titular) {
+                return false;
+            }
+            if (ordenadas != null) {
+                ordenadas.remove(cuenta);
+            }
+            if (porSaldo != null) {
+                porSaldo.remove(cuenta);
+            }
+            cuenta.borrada = true;
+            anotarCambio(cuenta);
+            if (bajas != null) {
+                bajas.add(new Apunte(dni, cuenta.getSaldoCentimos()));
+            }
+            if (columnas != null) {
+                columnas.quitar(cuenta);
+            }
+            return true;
+        });
+        if (cuentasDni.isEmpty()) {
+            indiceDni.remove(dni);
+        }
+        return antes - cuentasDni.size();
+    }
+
+    /**
+     * Quita del índice y del conjunto ordenado una sola cuenta y la marca como borrada, como quitarCliente.
+     * Debe llamarse con el monitor del ArrayList y el cerrojo de la franja del DNI tomados.
+     *
+     * @param cuenta Cuenta del banco.
+     */
+    private void quitarCuenta(Cuenta cuenta) {
+        String dni = cuenta.titular.getDni();
+        ArrayList<Cuenta> cuentasDni = indiceDni.get(dni);
+        if (ordenadas != null) {
+            ordenadas.remove(cuenta);
+        }
+        if (porSaldo != null) {
+            porSaldo.remove(cuenta);
+        }
+        // Por referencia: equals compara solo el DNI
+        cuentasDni.removeIf(otra -> otra == cuenta);
+        if (cuentasDni.isEmpty()) {
+            indiceDni.remove(dni);
+        }
+        cuenta.borrada = true;
+        if (columnas != null) {
+            columnas.quitar(cuenta);
+        }
+        numBorradas++;
+    }
+
+    /**
+     * Saca de las listas las cuentas marcadas como borradas, en una sola pasada por lista.
+     * Debe llamarse con el monitor del ArrayList tomado.
+     */
+    private void compactar() {
+        if (numBorradas == 0) {
+            return;
+        }
+        cuentas.removeIf(cuenta -> cuenta.borrada);
+        ahorros.removeIf(cuenta -> cuenta.borrada);
+        corrientes.removeIf(cuenta -> cuenta.borrada);
+        numBorradas = 0;
+    }
+}
@@ -1,6 +1,12 @@
 import java.util.*;
 import java.io.*;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.*;
+import javax.management.JMException;
 
 public class BancoMain {
 
@@ -39,17 +45,30 @@ public class BancoMain {
      * Metodo principal donde comienza la ejecución del programa.
      * Carga los datos del banco desde un fichero, muestra un menú interactivo y realiza operaciones según la opción elegida.
      *
-     * @param args Argumentos de línea de comandos (no utilizados en este programa).
+     * Con argumentos no es interactivo: ejecuta un guion de operaciones (ver ejecutarGuion).
+     * En los dos modos, con -Dbanco.columnas=true el banco guarda sus cuentas por columnas (ver Banco(boolean)).
+     *
+     * @param args Sin argumentos, modo interactivo; si no: fichero de cuentas, guion y, opcionalmente,
+     *             fichero de salida.
      */
     public static void main(String[] args) {
 
+        if (args.length > 0) {
+            ejecutarGuion(args);
+            return;
+        }
+
         Scanner leerTeclado = new Scanner(System.in);
 
         presentacion();
 
         // Creamos un objeto del banco y cargamos los datos de las cuentas desde un fichero
-        Banco unBanco = new Banco();
-        cargarCuentas(unBanco, leerTeclado);
+        Banco unBanco = new Banco(Boolean.getBoolean("banco.columnas"));
+        File fichero = cargarCuentas(unBanco, leerTeclado);
+
+        // Recuperamos las operaciones de sesiones anteriores y anotamos las nuevas en el diario
+        DiarioTransacciones diario = abrirDiario(unBanco, fichero);
+        RegistroAuditoria auditoria = abrirAuditoria(unBanco);
 
         // La opcion debe ser del tipo enum que hemos definido
         Opciones opcion;
@@ -61,11 +80,13 @@ public class BancoMain {
             opcion = Opciones.values()[indiceEnum];
             switch (opcion) {
                 case FIN:
+                    cerrarAuditoria(unBanco, auditoria);
+                    guardarCuentas(unBanco, diario, fichero);
                     System.out.println(opcion.getTexto());
                     break;
                 case MOSTRAR:
                     unBanco.ordenarCuentas();
-                    System.out.println(unBanco);
+                    mostrarCuentas(unBanco);
                     break;
                 case INTERESES:
                     pagarIntereses(unBanco, leerTeclado);
@@ -88,7 +109,8 @@ public class BancoMain {
         System.out.println("Utiliza las clase Cliente, Cuenta, CuentaAhorro, CuentaCorriente y Banco");
         System.out.println("Lee las cuentas iniciales del fichero cuentas.txt");
         System.out.println("Mediante un menu permite elegir diferentes opciones");
-        System.out.println("Al final guarda las cuentas en el fichero cuentas.txt");
+        System.out.println("Las operaciones se guardan en el diario cuentas.txt.diario y se recuperan al volver a empezar");
+        System.out.println("Al final guarda las cuentas en la instantanea cuentas.txt.instantanea");
         System.out.println();
     }
 
@@ -114,12 +136,15 @@ public class BancoMain {
 
     /**
      * Pide al usuario el nombre de un fichero válido y carga las cuentas del fichero en el objeto Banco.
+     * Si existe una instantánea guardada al final de una sesión anterior (mismo nombre con la extensión
+     * .instantanea), se restaura esa en lugar del fichero de texto. Si lo último que se guardó fue un
+     * guardado incremental (extensiones .base y .cambios), se cargan esos.
      *
      * @param unBanco   Objeto Banco donde se cargarán las cuentas.
      * @param leerDatos Scanner utilizado para leer datos desde el teclado.
+     * @return Fichero de cuentas elegido por el usuario.
      */
-    public static void cargarCuentas(Banco unBanco, Scanner leerDatos) {
-        int numCuentas = 0;
+    public static File cargarCuentas(Banco unBanco, Scanner leerDatos) {
         // Pide un fichero valido
         File fichero;
         do {
@@ -128,17 +153,283 @@ public class BancoMain {
             fichero = new File(nombre);
         } while (!fichero.canRead());
 
-        Scanner leerFichero = null;
+        return cargarCuentas(unBanco, fichero);
+    }
+
+    /**
+     * Carga en el objeto Banco las cuentas de un fichero, o de su instantánea si existe
+     * (ver cargarCuentas(Banco, Scanner)).
+     *
+     * @param unBanco Objeto Banco donde se cargarán las cuentas.
+     * @param fichero Fichero de cuentas.
+     * @return El mismo fichero de cuentas.
+     */
+    public static File cargarCuentas(Banco unBanco, File fichero) {
+        int numCuentas = 0;
+        File instantanea = ficheroInstantanea(fichero);
+        File cambios = ficheroCambios(fichero);
         try {
-            leerFichero = new Scanner(fichero);
-            numCuentas = unBanco.cargarFichero(leerFichero);
+            if (ficheroCargado(fichero).equals(cambios)) {
+                try {
+                    System.out.println("Cargando los cambios " + cambios);
+                    numCuentas = unBanco.cargarCambios(ficheroBase(fichero).toPath(), cambios.toPath());
+                    System.out.println("Se han anyadido " + numCuentas + " cuentas");
+                    return fichero;
+                } catch (IOException e) {
+                    // Como con la instantánea: se apartan y se sigue con lo que haya
+                    File descartado = new File(cambios.getPath() + ".descartado");
+                    System.out.println("Los cambios no son validos (" + e.getMessage() + "); se guardan como " + descartado);
+                    if (!cambios.renameTo(descartado)) {
+                        throw e;
+                    }
+                }
+            }
+            if (instantanea.exists()) {
+                try {
+                    System.out.println("Restaurando la instantanea " + instantanea);
+                    return cargarInstantanea(unBanco, instantanea, fichero);
+                } catch (IOException e) {
+                    // Una instantánea dañada se aparta para no sobrescribirla y se vuelve al fichero de texto
+                    File descartada = new File(instantanea.getPath() + ".descartada");
+                    System.out.println("La instantanea no es valida (" + e.getMessage() + "); se guarda como " + descartada);
+                    if (!instantanea.renameTo(descartada)) {
+                        throw e;
+                    }
+                }
+            }
+            numCuentas = unBanco.cargarFicheroParalelo(fichero.toPath());
         } catch (Exception e) {
             System.out.print("Se ha producido un error");
         }
-        if (leerFichero != null) {
-            leerFichero.close();
-        }
         System.out.println("Se han anyadido " + numCuentas + " cuentas");
+        return fichero;
+    }
+
+    /**
+     * Restaura las cuentas de una instantánea e informa del número de cuentas cargadas.
+     *
+     * @param unBanco     Objeto Banco donde se cargarán las cuentas.
+     * @param instantanea Fichero de la instantánea.
+     * @param fichero     Fichero de cuentas elegido por el usuario.
+     * @return Fichero de cuentas elegido por el usuario.
+     * @throws IOException Si la instantánea no se puede leer o está dañada.
+     */
+    private static File cargarInstantanea(Banco unBanco, File instantanea, File fichero) throws IOException {
+        int numCuentas = unBanco.cargarInstantanea(instantanea.toPath());
+        System.out.println("Se han anyadido " + numCuentas + " cuentas");
+        return fichero;
+    }
+
+    /**
+     * Devuelve el fichero de la instantánea asociada a un fichero de cuentas.
+     *
+     * @param fichero Fichero de cuentas.
+     * @return Fichero con el mismo nombre y la extensión .instantanea.
+     */
+    public static File ficheroInstantanea(File fichero) {
+        return new File(fichero.getPath() + ".instantanea");
+    }
+
+    /**
+     * Devuelve el fichero base del guardado incremental asociado a un fichero de cuentas.
+     *
+     * @param fichero Fichero de cuentas.
+     * @return Fichero con el mismo nombre y la extensión .base.
+     */
+    public static File ficheroBase(File fichero) {
+        return new File(fichero.getPath() + ".base");
+    }
+
+    /**
+     * Devuelve el fichero de cambios del guardado incremental asociado a un fichero de cuentas.
+     *
+     * @param fichero Fichero de cuentas.
+     * @return Fichero con el mismo nombre y la extensión .cambios.
+     */
+    public static File ficheroCambios(File fichero) {
+        return new File(fichero.getPath() + ".cambios");
+    }
+
+    /**
+     * Decide qué se carga al empezar: los cambios del guardado incremental, la instantánea o el fichero de
+     * texto. Cada forma de guardar borra la otra al terminar; si el programa se paró antes, se elige la
+     * más reciente.
+     *
+     * @param fichero Fichero de cuentas.
+     * @return Fichero de cambios, instantánea o el propio fichero de cuentas.
+     */
+    private static File ficheroCargado(File fichero) {
+        File instantanea = ficheroInstantanea(fichero);
+        File cambios = ficheroCambios(fichero);
+        if (cambios.exists() && ficheroBase(fichero).exists()) {
+            try {
+                if (!instantanea.exists() || Files.getLastModifiedTime(cambios.toPath())
+                        .compareTo(Files.getLastModifiedTime(instantanea.toPath())) > 0) {
+                    return cambios;
+                }
+            } catch (IOException e) {
+                // Si no se puede comparar, se usa la instantánea
+            }
+        }
+        return instantanea.exists() ? instantanea : fichero;
+    }
+
+    /**
+     * Devuelve el fichero del diario de transacciones asociado a un fichero de cuentas.
+     *
+     * @param fichero Fichero de cuentas.
+     * @return Fichero con el mismo nombre y la extensión .diario.
+     */
+    public static File ficheroDiario(File fichero) {
+        return new File(fichero.getPath() + ".diario");
+    }
+
+    /**
+     * Abre el diario de transacciones del fichero de cuentas.
+     * Si ya existe, reproduce sobre el banco las operaciones de las sesiones anteriores, que se aplican
+     * sobre lo cargado por cargarCuentas (los cambios o la instantánea si los hay, o el fichero de texto).
+     * Si el diario no corresponde a lo cargado (por ejemplo, si el programa se cortó justo después de
+     * guardar la instantánea), se aparta con la extensión .descartado y se empieza uno nuevo.
+     * Si aun así no se puede usar, avisa y el programa sigue sin diario.
+     *
+     * @param unBanco Objeto Banco con las cuentas ya cargadas.
+     * @param fichero Fichero de cuentas elegido por el usuario.
+     * @return El diario abierto, o null si no se ha podido abrir.
+     */
+    public static DiarioTransacciones abrirDiario(Banco unBanco, File fichero) {
+        File base = ficheroCargado(fichero);
+        File diarioFichero = ficheroDiario(fichero);
+        try {
+            long huella = DiarioTransacciones.huella(base.toPath());
+            DiarioTransacciones diario;
+            try {
+                diario = DiarioTransacciones.abrir(diarioFichero.toPath(), base.length(), huella, unBanco);
+            } catch (IOException e) {
+                File descartado = new File(diarioFichero.getPath() + ".descartado");
+                System.out.println("El diario " + diarioFichero + " no se puede aplicar (" + e.getMessage()
+                        + "); se guarda como " + descartado);
+                if (!diarioFichero.renameTo(descartado)) {
+                    throw e;
+                }
+                diario = DiarioTransacciones.abrir(diarioFichero.toPath(), base.length(), huella, unBanco);
+            }
+            unBanco.setDiario(diario);
+            if (diario.getRecuperadas() > 0) {
+                System.out.println("Se han recuperado " + diario.getRecuperadas() + " operaciones del diario");
+            }
+            return diario;
+        } catch (Exception e) {
+            System.out.println("No se puede usar el diario " + diarioFichero + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Abre el registro de auditoría indicado con -Dbanco.auditoria=fichero y lo asigna al banco.
+     * Por defecto, si el registro no da abasto las operaciones esperan; con
+     * -Dbanco.auditoria.politica=descartar no esperan y los movimientos que no caben se cuentan como descartados.
+     * Si no se puede abrir, avisa y el programa sigue sin auditoría.
+     *
+     * @param unBanco Objeto Banco cuyos movimientos se auditan.
+     * @return El registro abierto, o null si no se ha pedido o no se ha podido abrir.
+     */
+    public static RegistroAuditoria abrirAuditoria(Banco unBanco) {
+        String fichero = System.getProperty("banco.auditoria");
+        if (fichero == null || fichero.isEmpty()) {
+            return null;
+        }
+        try {
+            RegistroAuditoria.Politica politica = RegistroAuditoria.Politica.valueOf(
+                    System.getProperty("banco.auditoria.politica", "bloquear").toUpperCase(Locale.ROOT));
+            RegistroAuditoria auditoria = new RegistroAuditoria(new File(fichero).toPath(), politica);
+            unBanco.setAuditoria(auditoria);
+            return auditoria;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("No se puede usar la auditoria " + fichero + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Quita el registro de auditoría del banco y lo cierra después de escribir lo pendiente.
+     * Avisa si se ha descartado algún movimiento.
+     *
+     * @param unBanco   Objeto Banco.
+     * @param auditoria Registro de la sesión, o null si no hay auditoría.
+     */
+    public static void cerrarAuditoria(Banco unBanco, RegistroAuditoria auditoria) {
+        if (auditoria == null) {
+            return;
+        }
+        unBanco.setAuditoria(null);
+        auditoria.close();
+        if (auditoria.getDescartados() > 0) {
+            System.err.println("La auditoria ha descartado " + auditoria.getDescartados() + " movimientos");
+        }
+    }
+
+    /**
+     * Guarda el estado del banco al final de la sesión: cierra el diario, escribe una instantánea con
+     * todas las cuentas y, una vez escrita, borra el diario, que ya está incluido en ella.
+     * Con -Dbanco.incremental=true, en lugar de la instantánea añade al fichero de cambios solo las
+     * cuentas que han cambiado en la sesión (ver Banco.guardarCambios).
+     * Si quedan transferencias entre particiones a medias (reservas pendientes o entradas abonadas), ni la
+     * instantánea ni los cambios las guardan: no se guarda nada y se conserva el diario, que las recupera
+     * junto con todo lo demás al volver a arrancar.
+     *
+     * @param unBanco Objeto Banco que se guarda.
+     * @param diario  Diario de la sesión, o null si no hay diario.
+     * @param fichero Fichero de cuentas elegido por el usuario.
+     */
+    public static void guardarCuentas(Banco unBanco, DiarioTransacciones diario, File fichero) {
+        try {
+            unBanco.setDiario(null);
+            if (diario != null) {
+                diario.close();
+                int reservas = unBanco.getNumReservas();
+                int abonadas = unBanco.getEntradasAbonadas().length;
+                if (reservas > 0 || abonadas > 0) {
+                    System.out.printf("Quedan %d reservas pendientes (%.2f euros) y %d entradas abonadas sin resolver:"
+                                    + " se conserva el diario %s en lugar de guardar las cuentas%n", reservas,
+                            Dinero.aEuros(unBanco.getCentimosReservados()), abonadas, ficheroDiario(fichero));
+                    return;
+                }
+            } else if (unBanco.getNumReservas() > 0) {
+                System.out.printf("Quedan %d reservas pendientes (%.2f euros) que no se guardan: no hay diario%n",
+                        unBanco.getNumReservas(), Dinero.aEuros(unBanco.getCentimosReservados()));
+            }
+            File instantanea = ficheroInstantanea(fichero);
+            File cambios = ficheroCambios(fichero);
+            if (Boolean.getBoolean("banco.incremental")) {
+                int guardadas = unBanco.guardarCambios(ficheroBase(fichero).toPath(), cambios.toPath());
+                Files.deleteIfExists(instantanea.toPath());
+                Files.deleteIfExists(ficheroDiario(fichero).toPath());
+                System.out.println(guardadas + " cuentas guardadas en " + cambios);
+                return;
+            }
+            unBanco.guardarInstantanea(instantanea.toPath());
+            Files.deleteIfExists(cambios.toPath());
+            Files.deleteIfExists(ficheroBase(fichero).toPath());
+            Files.deleteIfExists(ficheroDiario(fichero).toPath());
+            System.out.println("Cuentas guardadas en " + instantanea);
+        } catch (IOException e) {
+            System.out.println("Error al guardar las cuentas: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Muestra por pantalla el informe del banco con todas sus cuentas.
+     * Se escribe directamente sobre System.out, sin construir el texto completo con toString.
+     *
+     * @param unBanco Objeto Banco que se muestra.
+     */
+    public static void mostrarCuentas(Banco unBanco) {
+        try {
+            unBanco.escribirInforme(System.out);
+        } catch (IOException e) {
+            System.out.print("Se ha producido un error");
+        }
+        System.out.println();
     }
 
     /**
@@ -152,13 +443,11 @@ public class BancoMain {
         System.out.println("Interes a pagar: ");
         double interes = leerTeclado.nextDouble();
 
-        // Se pagan los intereses de las cuentas de ahorro
-        double total = unBanco.addInteres(interes);
+        // En una sola pasada se pagan los intereses de las cuentas de ahorro
+        // y se resetea el numero de retirada de dinero de las cuentas corrientes
+        double total = unBanco.cierreMes(interes);
         System.out.printf("En total se han pagado %.2f euros", total);
         unBanco.setInteresAhorro(interes);
-
-        // Se resetea el numero de retirada de dinero de las cuentas corrientes
-        unBanco.reset();
     }
 
     /**
@@ -217,4 +506,244 @@ public class BancoMain {
         int borrados = unBanco.eliminarCliente(elCliente);
         System.out.println("Se han borrado " + borrados + " cuentas");
     }
-}
\ No newline at end of file
+
+    /**
+     * Modo sin interacción, para procesos programados y pruebas de carga:
+     * java BancoMain fichero-de-cuentas guion [salida]
+     *
+     * Carga las cuentas y el diario igual que el modo interactivo, ejecuta las órdenes del guion, una por
+     * línea, y al acabar guarda la instantánea como la opción FIN. Las órdenes son las del menú, con sus
+     * datos en la misma línea:
+     *   MOSTRAR
+     *   INTERESES interes
+     *   TRANSFERENCIA dniOrigen dniDestino cantidad
+     *   BORRAR dni nombre
+     *   LOTE fichero-de-transferencias   (ver LoteTransferencias)
+     *   EXTRACTO dni AAAA-MM             (con -Dbanco.libro=true, ver LibroMayor)
+     *   SALDO dni AAAA-MM-DDThh:mm:ssZ   (con -Dbanco.libro=true)
+     *   FIN                              (opcional: termina el guion)
+     * Las líneas en blanco y las que empiezan por # se ignoran.
+     *
+     * Los mensajes van a la salida (por defecto, la salida estándar) con un buffer que solo se vacía al
+     * final, y el tiempo de cada fase (carga, cada orden y guardado) se escribe en la salida de error.
+     *
+     * Las operaciones del banco se miden con MetricasBanco, que se publica por JMX mientras dura el guion
+     * y cuyo informe se escribe al final en la salida de error. Con -Dbanco.metricas.periodo=segundos
+     * el informe se escribe además cada esos segundos.
+     *
+     * Con -Dbanco.libro=true los movimientos del guion se anotan en un LibroMayor, que se puede consultar
+     * con EXTRACTO y SALDO. No está activo por defecto porque ocupa memoria por cada cuenta y movimiento.
+     *
+     * Con -Dbanco.auditoria=fichero los movimientos de dinero se anotan en un registro de auditoría
+     * (ver abrirAuditoria).
+     *
+     * @param args Fichero de cuentas, guion y, opcionalmente, fichero de salida ("-" o nada para la salida estándar).
+     */
+    public static void ejecutarGuion(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Uso: java BancoMain [fichero-de-cuentas guion [salida]]");
+            System.exit(2);
+        }
+        File fichero = new File(args[0]);
+        File guion = new File(args[1]);
+        if (!fichero.canRead() || !guion.canRead()) {
+            System.err.println("No se puede leer " + (fichero.canRead() ? guion : fichero));
+            System.exit(2);
+        }
+
+        PrintStream consola = System.out;
+        PrintStream salida;
+        try {
+            OutputStream destino = (args.length < 3 || args[2].equals("-"))
+                    ? new FileOutputStream(FileDescriptor.out)
+                    : new FileOutputStream(args[2]);
+            // Sin autoflush: los mensajes se acumulan y se escriben por bloques
+            salida = new PrintStream(new BufferedOutputStream(destino, 64 * 1024), false);
+        } catch (IOException e) {
+            System.err.println("No se puede escribir en " + args[2] + ": " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        System.setOut(salida);
+        try {
+            long inicio = System.nanoTime();
+            Banco unBanco = new Banco(Boolean.getBoolean("banco.columnas"));
+            MetricasBanco metricas = new MetricasBanco();
+            unBanco.setMetricas(metricas);
+            try {
+                metricas.registrarJmx();
+            } catch (JMException e) {
+                System.err.println("No se pueden publicar las metricas por JMX: " + e.getMessage());
+            }
+            int periodo = Integer.getInteger("banco.metricas.periodo", 0);
+            if (periodo > 0) {
+                metricas.volcarPeriodicamente(System.err, periodo, TimeUnit.SECONDS);
+            }
+            cargarCuentas(unBanco, fichero);
+            DiarioTransacciones diario = abrirDiario(unBanco, fichero);
+            if (Boolean.getBoolean("banco.libro")) {
+                unBanco.setLibroMayor(new LibroMayor());
+            }
+            RegistroAuditoria auditoria = abrirAuditoria(unBanco);
+            long marca = anotarFase("carga", inicio);
+
+            try (BufferedReader leerGuion = new BufferedReader(new FileReader(guion))) {
+                String linea;
+                int numLinea = 0;
+                boolean fin = false;
+                while (!fin && (linea = leerGuion.readLine()) != null) {
+                    numLinea++;
+                    String[] campos = linea.trim().split("\\s+");
+                    if (campos[0].isEmpty() || campos[0].startsWith("#")) {
+                        continue;
+                    }
+                    fin = ejecutarOrden(unBanco, campos, numLinea);
+                    marca = anotarFase(numLinea + ":" + campos[0], marca);
+                }
+            } catch (IOException e) {
+                System.out.println("Error al leer el guion: " + e.getMessage());
+            }
+
+            cerrarAuditoria(unBanco, auditoria);
+            guardarCuentas(unBanco, diario, fichero);
+            anotarFase("guardado", marca);
+            anotarFase("total", inicio);
+            System.err.print(metricas.informe());
+        } finally {
+            salida.flush();
+            System.setOut(consola);
+        }
+    }
+
+    /**
+     * Ejecuta una orden del guion y escribe su resultado con los mismos mensajes que el modo interactivo.
+     *
+     * @param unBanco  Objeto Banco sobre el que se ejecuta la orden.
+     * @param campos   Orden y sus datos.
+     * @param numLinea Número de línea de la orden en el guion.
+     * @return true si la orden es FIN.
+     */
+    private static boolean ejecutarOrden(Banco unBanco, String[] campos, int numLinea) {
+        try {
+            switch (campos[0]) {
+                case "FIN":
+                    return true;
+                case "MOSTRAR":
+                    unBanco.ordenarCuentas();
+                    mostrarCuentas(unBanco);
+                    break;
+                case "INTERESES":
+                    comprobarCampos(campos, 2);
+                    double interes = Double.parseDouble(campos[1]);
+                    double total = unBanco.cierreMes(interes);
+                    System.out.printf("En total se han pagado %.2f euros%n", total);
+                    unBanco.setInteresAhorro(interes);
+                    break;
+                case "TRANSFERENCIA":
+                    comprobarCampos(campos, 4);
+                    comprobarDni(campos[1]);
+                    comprobarDni(campos[2]);
+                    if (unBanco.transferencia(campos[1], campos[2], Double.parseDouble(campos[3]))) {
+                        System.out.println("Transferencia realizada con exito");
+                    } else {
+                        System.out.println("Problemas con la transferencia");
+                    }
+                    break;
+                case "BORRAR":
+                    comprobarCampos(campos, 3);
+                    comprobarDni(campos[1]);
+                    int borrados = unBanco.eliminarCliente(new Cliente(campos[1], campos[2]));
+                    System.out.println("Se han borrado " + borrados + " cuentas");
+                    break;
+                case "LOTE":
+                    comprobarCampos(campos, 2);
+                    // Solo se informa de las transferencias que no se han hecho, con su motivo
+                    LoteTransferencias.Resumen resumen = LoteTransferencias.ejecutar(unBanco, new File(campos[1]).toPath(),
+                            resultado -> {
+                                if (resultado.getEstado() != LoteTransferencias.Estado.REALIZADA) {
+                                    System.out.println(resultado);
+                                }
+                            });
+                    System.out.println(resumen);
+                    break;
+                case "EXTRACTO":
+                    comprobarCampos(campos, 3);
+                    comprobarDni(campos[1]);
+                    List<LibroMayor.Movimiento> movimientos = libroMayor(unBanco).extracto(campos[1], YearMonth.parse(campos[2]));
+                    for (LibroMayor.Movimiento movimiento : movimientos) {
+                        System.out.println(movimiento);
+                    }
+                    System.out.println("Movimientos en " + campos[2] + ": " + movimientos.size());
+                    break;
+                case "SALDO":
+                    comprobarCampos(campos, 3);
+                    comprobarDni(campos[1]);
+                    Map<Long, Long> saldos = libroMayor(unBanco).saldosEn(campos[1], Instant.parse(campos[2]));
+                    for (Map.Entry<Long, Long> saldo : saldos.entrySet()) {
+                        System.out.printf("Cuenta %d: %.2f euros%n", saldo.getKey(), Dinero.aEuros(saldo.getValue()));
+                    }
+                    System.out.println("Cuentas con saldo en " + campos[2] + ": " + saldos.size());
+                    break;
+                default:
+                    System.out.println("Orden desconocida en la linea " + numLinea + ": " + campos[0]);
+                    break;
+            }
+        } catch (IllegalArgumentException | IllegalStateException | DateTimeParseException | IOException e) {
+            System.out.println("Orden erronea en la linea " + numLinea + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Devuelve el libro mayor del banco para las órdenes que lo consultan.
+     *
+     * @param unBanco Objeto Banco del guion.
+     * @return Libro mayor del banco.
+     * @throws IllegalStateException si no se activó con -Dbanco.libro=true.
+     */
+    private static LibroMayor libroMayor(Banco unBanco) {
+        LibroMayor libro = unBanco.getLibroMayor();
+        if (libro == null) {
+            throw new IllegalStateException("el libro mayor no esta activo (-Dbanco.libro=true)");
+        }
+        return libro;
+    }
+
+    /**
+     * Comprueba que una orden del guion tiene el número de campos esperado.
+     *
+     * @param campos    Orden y sus datos.
+     * @param numCampos Número de campos, contando la orden.
+     * @throws IllegalArgumentException si no coincide.
+     */
+    private static void comprobarCampos(String[] campos, int numCampos) {
+        if (campos.length != numCampos) {
+            throw new IllegalArgumentException(campos[0] + " necesita " + (numCampos - 1) + " datos");
+        }
+    }
+
+    /**
+     * Comprueba el formato de un DNI del guion, con la misma regla que leerDni.
+     *
+     * @param dni DNI a comprobar.
+     * @throws IllegalArgumentException si no es válido.
+     */
+    private static void comprobarDni(String dni) {
+        if (!LoteTransferencias.dniValido(dni)) {
+            throw new IllegalArgumentException("DNI no valido " + dni);
+        }
+    }
+
+    /**
+     * Escribe en la salida de error el tiempo de una fase del guion.
+     *
+     * @param fase   Nombre de la fase.
+     * @param inicio Instante de inicio de la fase (System.nanoTime).
+     * @return Instante actual, inicio de la fase siguiente.
+     */
+    private static long anotarFase(String fase, long inicio) {
+        long ahora = System.nanoTime();
+        System.err.printf("%-20s %10.1f ms%n", fase, (ahora - inicio) / 1e6);
+        return ahora;
+    }
+}
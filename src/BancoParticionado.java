@@ -0,0 +1,560 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Banco repartido en varias particiones, cada una un Banco con las cuentas de parte de los DNI (por el
+ * hash del DNI, ver particion) y sus propios hilos. Así el banco no está limitado a un montón de memoria
+ * ni a un único conjunto de cerrojos: las particiones pueden estar en este proceso (enMemoria, deBancos) o
+ * en otros procesos de la misma máquina (conectar, con un ServidorParticion por partición).
+ *
+ * Las operaciones sobre un DNI, y las transferencias entre dos DNI de la misma partición, se ejecutan
+ * enteras en los hilos de su partición. Una transferencia entre particiones se hace en dos fases:
+ * 1. A la vez, la partición de origen reserva la salida (retira la cantidad con sus comisiones y la
+ *    guarda aparte, ver Banco.reservarSalida) y la de destino comprueba que el DNI tiene cuentas.
+ * 2. Si las dos responden que sí, la de destino ingresa la cantidad y apunta el identificador de la
+ *    reserva como entrada abonada, y la de origen confirma la reserva; si el destino no existe o no se
+ *    puede ingresar, la de origen anula la reserva y devuelve todo.
+ * 3. Confirmada la reserva, la de destino olvida la entrada abonada, sin esperar a que termine.
+ * En todo momento el dinero está en una cuenta o en una reserva, así que nunca se crea ni se pierde.
+ * Si una partición remota falla a mitad (la operación devuelve un futuro con UncheckedIOException),
+ * no se sabe si la fase se hizo: la reserva se queda pendiente en la partición de origen, a la vista en
+ * getNumReservas, en vez de arriesgarse a devolver un dinero ya ingresado. resolverReservas la confirma
+ * o la anula según si alguna partición tiene su entrada abonada; se ejecuta al crear la fachada, así que
+ * basta con volver a arrancar el coordinador (las particiones conservan las reservas en su diario).
+ *
+ * Todas las operaciones devuelven un CompletableFuture y no bloquean al llamante; las versiones
+ * ...Centimos esperan el resultado.
+ */
+public class BancoParticionado implements Closeable {
+
+    /**
+     * Atributos:
+     * - Particiones y hilos de cada una.
+     * - Siguiente identificador de reserva.
+     * - Operaciones en curso, para que close espere a que terminen.
+     * - Transferencias dentro de una partición, entre particiones y entre particiones anuladas.
+     * - Métricas opcionales, como en Banco.
+     */
+    private final Particion[] particiones;
+    private final ExecutorService[] hilos;
+    private final AtomicLong siguienteReserva;
+    private final AtomicInteger enCurso;
+    private final LongAdder locales;
+    private final LongAdder entreParticiones;
+    private final LongAdder anuladas;
+    private volatile MetricasBanco metricas;
+
+    /**
+     * Crea la fachada sobre particiones ya preparadas, en el orden de particion.
+     *
+     * @param particiones       Particiones.
+     * @param hilosPorParticion Hilos que ejecutan las operaciones de cada partición.
+     */
+    BancoParticionado(List<? extends Particion> particiones, int hilosPorParticion) {
+        if (particiones.isEmpty() || hilosPorParticion < 1) {
+            throw new IllegalArgumentException("Hacen falta al menos una particion y un hilo por particion");
+        }
+        this.particiones = particiones.toArray(new Particion[0]);
+        this.hilos = new ExecutorService[this.particiones.length];
+        for (int p = 0; p < hilos.length; p++) {
+            String prefijo = "particion-" + p + "-";
+            AtomicInteger contador = new AtomicInteger();
+            hilos[p] = Executors.newFixedThreadPool(hilosPorParticion, tarea -> {
+                Thread hilo = new Thread(tarea, prefijo + contador.incrementAndGet());
+                hilo.setDaemon(true);
+                return hilo;
+            });
+        }
+        // Con la hora, los identificadores no se repiten aunque el coordinador se reinicie
+        siguienteReserva = new AtomicLong(System.currentTimeMillis() << 20);
+        enCurso = new AtomicInteger();
+        locales = new LongAdder();
+        entreParticiones = new LongAdder();
+        anuladas = new LongAdder();
+    }
+
+    /**
+     * Crea un banco particionado en este proceso con bancos ya cargados. Cada banco debe tener solo
+     * cuentas de DNI de su partición (ver particion).
+     *
+     * @param bancos            Bancos de las particiones, en orden.
+     * @param hilosPorParticion Hilos que ejecutan las operaciones de cada partición.
+     * @return Banco particionado.
+     */
+    public static BancoParticionado deBancos(List<Banco> bancos, int hilosPorParticion) {
+        List<Particion> particiones = new ArrayList<>(bancos.size());
+        for (Banco banco : bancos) {
+            particiones.add(new ParticionLocal(banco));
+        }
+        BancoParticionado banco = new BancoParticionado(particiones, hilosPorParticion);
+        banco.resolverReservas();
+        return banco;
+    }
+
+    /**
+     * Crea un banco particionado en este proceso con las cuentas de un fichero: lo reparte con
+     * repartirFichero y carga cada parte en su Banco, todas a la vez.
+     *
+     * @param fichero           Fichero de cuentas con el formato de Banco.cargarFichero.
+     * @param numParticiones    Número de particiones.
+     * @param hilosPorParticion Hilos que ejecutan las operaciones de cada partición.
+     * @return Banco particionado.
+     * @throws IOException si no se puede leer el fichero o escribir sus partes.
+     */
+    public static BancoParticionado enMemoria(Path fichero, int numParticiones, int hilosPorParticion) throws IOException {
+        List<Path> partes = repartirFichero(fichero, numParticiones);
+        try {
+            List<CompletableFuture<Banco>> cargas = new ArrayList<>(numParticiones);
+            for (Path parte : partes) {
+                cargas.add(CompletableFuture.supplyAsync(() -> {
+                    Banco banco = new Banco();
+                    try {
+                        banco.cargarFichero(parte);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return banco;
+                }));
+            }
+            List<Banco> bancos = new ArrayList<>(numParticiones);
+            for (CompletableFuture<Banco> carga : cargas) {
+                bancos.add(esperar(carga));
+            }
+            return deBancos(bancos, hilosPorParticion);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (Path parte : partes) {
+                Files.deleteIfExists(parte);
+            }
+        }
+    }
+
+    /**
+     * Crea un banco particionado con particiones en otros procesos, cada una con su ServidorParticion,
+     * y resuelve las transferencias que quedaron a medias (ver resolverReservas).
+     *
+     * @param direcciones       Direcciones de los servidores de las particiones, en orden.
+     * @param hilosPorParticion Hilos (y conexiones) que ejecutan las operaciones de cada partición.
+     * @return Banco particionado.
+     * @throws IOException si no se puede conectar con alguna partición o falla al resolver las reservas.
+     */
+    public static BancoParticionado conectar(List<InetSocketAddress> direcciones, int hilosPorParticion) throws IOException {
+        List<Particion> particiones = new ArrayList<>(direcciones.size());
+        try {
+            for (InetSocketAddress direccion : direcciones) {
+                particiones.add(new ParticionRemota(direccion));
+            }
+        } catch (IOException e) {
+            for (Particion particion : particiones) {
+                particion.close();
+            }
+            throw e;
+        }
+        BancoParticionado banco = new BancoParticionado(particiones, hilosPorParticion);
+        try {
+            banco.resolverReservas();
+        } catch (UncheckedIOException e) {
+            banco.close();
+            throw e.getCause();
+        }
+        return banco;
+    }
+
+    /**
+     * Partición a la que pertenece un DNI. Se mezclan los bits del hash para que las cuentas de cada
+     * partición sigan repartiéndose entre todas las franjas de cerrojo de su Banco, que usan los bits bajos.
+     *
+     * @param dni            DNI del titular.
+     * @param numParticiones Número de particiones.
+     * @return Partición, entre 0 y numParticiones - 1.
+     */
+    public static int particion(String dni, int numParticiones) {
+        int hash = dni.hashCode() * 0x9E3779B9;
+        hash ^= hash >>> 15;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return Math.floorMod(hash, numParticiones);
+    }
+
+    /**
+     * Reparte un fichero de cuentas en un fichero por partición, junto al original y con su nombre
+     * seguido de ".particion-N". Las líneas se copian tal cual, en el mismo orden.
+     *
+     * @param fichero        Fichero de cuentas con el formato de Banco.cargarFichero.
+     * @param numParticiones Número de particiones.
+     * @return Ficheros de las particiones, en orden.
+     * @throws IOException si no se puede leer el fichero o escribir sus partes.
+     */
+    public static List<Path> repartirFichero(Path fichero, int numParticiones) throws IOException {
+        List<Path> partes = new ArrayList<>(numParticiones);
+        BufferedWriter[] salidas = new BufferedWriter[numParticiones];
+        try (BufferedReader entrada = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+            for (int p = 0; p < numParticiones; p++) {
+                Path parte = fichero.resolveSibling(fichero.getFileName() + ".particion-" + p);
+                partes.add(parte);
+                salidas[p] = Files.newBufferedWriter(parte, StandardCharsets.UTF_8);
+            }
+            String linea;
+            while ((linea = entrada.readLine()) != null) {
+                String limpia = linea.trim();
+                if (limpia.isEmpty()) {
+                    continue;
+                }
+                int espacio = limpia.indexOf(' ');
+                String dni = (espacio > 0) ? limpia.substring(0, espacio) : limpia;
+                BufferedWriter salida = salidas[particion(dni, numParticiones)];
+                salida.write(linea);
+                salida.newLine();
+            }
+        } finally {
+            IOException error = null;
+            for (BufferedWriter salida : salidas) {
+                if (salida != null) {
+                    try {
+                        salida.close();
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+        return partes;
+    }
+
+    /**
+     * Empieza a medir las operaciones con las métricas indicadas (ver Banco.setMetricas). Cada operación
+     * se mide desde que se pide hasta que termina, incluidas las dos fases de las transferencias entre
+     * particiones.
+     *
+     * @param metricas Métricas, o null para dejar de medir.
+     */
+    public void setMetricas(MetricasBanco metricas) {
+        this.metricas = metricas;
+    }
+
+    /**
+     * Ingreso en céntimos (ver Banco.ingresoCentimos), en los hilos de la partición del DNI.
+     *
+     * @param dni      DNI del titular.
+     * @param centimos Cantidad en céntimos.
+     * @return Futuro con true si se ha realizado.
+     */
+    public CompletableFuture<Boolean> ingreso(String dni, long centimos) {
+        int p = particion(dni, particiones.length);
+        return seguir(MetricasBanco.Operacion.INGRESO, enParticion(p, particion -> particion.ingreso(dni, centimos)));
+    }
+
+    /**
+     * Retirada en céntimos (ver Banco.retiradaCentimos), en los hilos de la partición del DNI.
+     *
+     * @param dni      DNI del titular.
+     * @param centimos Cantidad en céntimos.
+     * @return Futuro con true si se ha realizado.
+     */
+    public CompletableFuture<Boolean> retirada(String dni, long centimos) {
+        int p = particion(dni, particiones.length);
+        return seguir(MetricasBanco.Operacion.RETIRADA, enParticion(p, particion -> particion.retirada(dni, centimos)));
+    }
+
+    /**
+     * Transferencia en céntimos con las reglas de Banco.transferenciaCentimos: directa si los dos DNI
+     * son de la misma partición y en dos fases si no.
+     *
+     * @param dniOrigen  DNI del titular de la cuenta de origen.
+     * @param dniDestino DNI del titular de la cuenta de destino.
+     * @param centimos   Cantidad en céntimos.
+     * @return Futuro con true si se ha realizado.
+     */
+    public CompletableFuture<Boolean> transferencia(String dniOrigen, String dniDestino, long centimos) {
+        int origen = particion(dniOrigen, particiones.length);
+        int destino = particion(dniDestino, particiones.length);
+        CompletableFuture<Boolean> resultado;
+        if (origen == destino) {
+            locales.increment();
+            resultado = enParticion(origen, particion -> particion.transferencia(dniOrigen, dniDestino, centimos));
+        } else if (centimos <= 0) {
+            resultado = CompletableFuture.completedFuture(false);
+        } else {
+            entreParticiones.increment();
+            resultado = transferirEntreParticiones(origen, destino, dniOrigen, dniDestino, centimos);
+        }
+        return seguir(MetricasBanco.Operacion.TRANSFERENCIA, resultado);
+    }
+
+    /**
+     * Las dos fases de una transferencia entre particiones.
+     *
+     * @param origen     Partición de origen.
+     * @param destino    Partición de destino.
+     * @param dniOrigen  DNI del titular de la cuenta de origen.
+     * @param dniDestino DNI del titular de la cuenta de destino.
+     * @param centimos   Cantidad en céntimos (positiva).
+     * @return Futuro con true si se ha realizado.
+     */
+    private CompletableFuture<Boolean> transferirEntreParticiones(int origen, int destino, String dniOrigen,
+                                                                  String dniDestino, long centimos) {
+        long idReserva = siguienteReserva.incrementAndGet();
+        CompletableFuture<Boolean> reservada = enParticion(origen, particion -> particion.reservarSalida(idReserva, dniOrigen, centimos));
+        // Si no se puede comprobar el destino, todavía no se ha ingresado nada y se puede anular sin riesgo
+        CompletableFuture<Boolean> destinoExiste = enParticion(destino, particion -> particion.tieneCuenta(dniDestino))
+                .handle((existe, error) -> error == null && existe);
+        return reservada.thenCompose(hecha -> {
+            if (!hecha) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return destinoExiste
+                    .thenCompose(existe -> existe
+                            ? enParticion(destino, particion -> particion.abonarEntrada(idReserva, dniDestino, centimos))
+                            : CompletableFuture.completedFuture(false))
+                    .thenCompose(abonada -> enParticion(origen, particion -> {
+                        if (abonada) {
+                            particion.confirmarSalida(idReserva);
+                            // No se espera, pero cuenta como en curso para que close no cierre antes la
+                            // partición; si aun así se pierde, la entrada se olvida al resolver las reservas
+                            enCurso.incrementAndGet();
+                            enParticion(destino, otra -> {
+                                otra.olvidarEntrada(idReserva);
+                                return true;
+                            }).whenComplete((hecho, error) -> enCurso.decrementAndGet());
+                        } else {
+                            anuladas.increment();
+                            particion.anularSalida(idReserva);
+                        }
+                        return abonada;
+                    }));
+        });
+    }
+
+    /**
+     * Resuelve las transferencias entre particiones que quedaron a medias: cada reserva pendiente se
+     * confirma si alguna partición tiene abonada su entrada y se anula si no. Después olvida todas las
+     * entradas abonadas cuya reserva ya no está pendiente.
+     * Debe llamarse sin transferencias en curso, porque una recién abonada parecería a medias; la fachada
+     * lo hace al crearse.
+     *
+     * @return Número de reservas resueltas (las que se quedan pendientes al anular no cuentan).
+     * @throws UncheckedIOException si falla alguna partición remota; se puede volver a llamar.
+     */
+    public int resolverReservas() {
+        int resueltas = 0;
+        Set<Long> pendientes = new HashSet<>();
+        for (Particion particion : particiones) {
+            for (long idReserva : particion.getReservasPendientes()) {
+                boolean abonada = false;
+                for (Particion otra : particiones) {
+                    abonada = abonada || otra.entradaAbonada(idReserva);
+                }
+                if (abonada) {
+                    particion.confirmarSalida(idReserva);
+                    resueltas++;
+                } else if (particion.anularSalida(idReserva)) {
+                    anuladas.increment();
+                    resueltas++;
+                } else {
+                    pendientes.add(idReserva);
+                }
+            }
+        }
+        for (Particion particion : particiones) {
+            for (long idReserva : particion.getEntradasAbonadas()) {
+                if (!pendientes.contains(idReserva)) {
+                    particion.olvidarEntrada(idReserva);
+                }
+            }
+        }
+        return resueltas;
+    }
+
+    /**
+     * Lanza una operación en los hilos de una partición.
+     *
+     * @param p         Partición.
+     * @param operacion Operación sobre la partición.
+     * @return Futuro con el resultado de la operación.
+     */
+    private CompletableFuture<Boolean> enParticion(int p, Function<Particion, Boolean> operacion) {
+        Particion particion = particiones[p];
+        return CompletableFuture.supplyAsync(() -> operacion.apply(particion), hilos[p]);
+    }
+
+    /**
+     * Lleva la cuenta de una operación en curso y la mide al terminar, si hay métricas.
+     *
+     * @param operacion Operación.
+     * @param resultado Futuro de la operación.
+     * @return El mismo futuro, para encadenar.
+     */
+    private CompletableFuture<Boolean> seguir(MetricasBanco.Operacion operacion, CompletableFuture<Boolean> resultado) {
+        MetricasBanco lasMetricas = metricas;
+        long comienzo = (lasMetricas != null) ? System.nanoTime() : 0;
+        enCurso.incrementAndGet();
+        resultado.whenComplete((hecha, error) -> {
+            if (lasMetricas != null) {
+                lasMetricas.anotar(operacion, comienzo);
+            }
+            enCurso.decrementAndGet();
+        });
+        return resultado;
+    }
+
+    /**
+     * Ingreso en céntimos que espera el resultado.
+     *
+     * @param dni      DNI del titular.
+     * @param centimos Cantidad en céntimos.
+     * @return true si se ha realizado.
+     */
+    public boolean ingresoCentimos(String dni, long centimos) {
+        return esperar(ingreso(dni, centimos));
+    }
+
+    /**
+     * Retirada en céntimos que espera el resultado.
+     *
+     * @param dni      DNI del titular.
+     * @param centimos Cantidad en céntimos.
+     * @return true si se ha realizado.
+     */
+    public boolean retiradaCentimos(String dni, long centimos) {
+        return esperar(retirada(dni, centimos));
+    }
+
+    /**
+     * Transferencia en céntimos que espera el resultado.
+     *
+     * @param dniOrigen  DNI del titular de la cuenta de origen.
+     * @param dniDestino DNI del titular de la cuenta de destino.
+     * @param centimos   Cantidad en céntimos.
+     * @return true si se ha realizado.
+     */
+    public boolean transferenciaCentimos(String dniOrigen, String dniDestino, long centimos) {
+        return esperar(transferencia(dniOrigen, dniDestino, centimos));
+    }
+
+    /**
+     * Espera el resultado de un futuro y relanza tal cual la excepción que lo haya hecho fallar.
+     *
+     * @param futuro Futuro de una operación.
+     * @param <T>    Tipo del resultado.
+     * @return Resultado de la operación.
+     */
+    private static <T> T esperar(CompletableFuture<T> futuro) {
+        try {
+            return futuro.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Devuelve el número de particiones.
+     *
+     * @return Número de particiones.
+     */
+    public int getNumParticiones() {
+        return particiones.length;
+    }
+
+    /**
+     * Devuelve el número de cuentas de todas las particiones.
+     *
+     * @return Número de cuentas.
+     */
+    public long getNumCuentas() {
+        long total = 0;
+        for (Particion particion : particiones) {
+            total += particion.getNumCuentas();
+        }
+        return total;
+    }
+
+    /**
+     * Suma de los saldos de todas las cuentas y de las reservas pendientes. Sin operaciones en curso
+     * solo cambia por las comisiones y los intereses; con operaciones en curso es aproximada.
+     *
+     * @return Total en céntimos.
+     */
+    public long getCentimosTotales() {
+        long total = 0;
+        for (Particion particion : particiones) {
+            total += particion.getCentimosTotales();
+        }
+        return total;
+    }
+
+    /**
+     * Devuelve el número de reservas pendientes en todas las particiones: transferencias entre
+     * particiones en curso o que quedaron a medias por un fallo.
+     *
+     * @return Reservas pendientes.
+     */
+    public int getNumReservas() {
+        int total = 0;
+        for (Particion particion : particiones) {
+            total += particion.getNumReservas();
+        }
+        return total;
+    }
+
+    /**
+     * Resumen de las transferencias: dentro de una partición, entre particiones y anuladas.
+     *
+     * @return Texto del resumen.
+     */
+    public String informe() {
+        return String.format("Particiones: %d, transferencias locales: %d, entre particiones: %d (%d anuladas), reservas pendientes: %d%n",
+                particiones.length, locales.sum(), entreParticiones.sum(), anuladas.sum(), getNumReservas());
+    }
+
+    /**
+     * Espera a que terminen las operaciones en curso, para los hilos de las particiones y cierra sus
+     * conexiones. Los bancos de las particiones en memoria siguen siendo de quien los creó.
+     */
+    @Override
+    public void close() {
+        boolean interrumpido = false;
+        while (enCurso.get() > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                interrumpido = true;
+            }
+        }
+        for (ExecutorService ejecutor : hilos) {
+            ejecutor.shutdown();
+        }
+        for (Particion particion : particiones) {
+            particion.close();
+        }
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,682 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Guardado incremental de las cuentas de un Banco: un fichero base de texto con el formato de
+ * Banco.cargarFichero y un fichero de cambios al que cada guardado añade solo las cuentas que han
+ * cambiado desde el anterior (ver Banco.guardarCambios). Así guardar cuesta en proporción a las cuentas
+ * modificadas, no al total.
+ *
+ * Cada cuenta de la base se identifica por su posición (ranura): la de su línea entre las cuentas
+ * cargadas. Las cuentas nuevas reciben las ranuras siguientes, en el orden en que se guardan.
+ *
+ * Formato del fichero de cambios (big-endian):
+ * - Cabecera: marca, versión, longitud y CRC32 de la base (como en DiarioTransacciones) y número de
+ *   cuentas de la base.
+ * - Segmentos, uno por guardado: longitud comprimida (int), longitud sin comprimir (int), registros
+ *   comprimidos con Deflater y CRC32 de los bytes comprimidos (int).
+ * - Dentro de un segmento: interés de ahorro (double), número de registros y los registros en orden de
+ *   ranura. Cada registro empieza con la distancia a la ranura del anterior y su tipo:
+ *   - SALDO: diferencia con el saldo guardado la vez anterior y retiradas del mes.
+ *   - ALTA: cuenta nueva completa (DNI, nombre, tipo, saldo y retiradas del mes).
+ *   - BAJA: cuenta eliminada.
+ *   Los números van en varint (los con signo, en zigzag), así que una cuenta con un cambio pequeño
+ *   ocupa unos pocos bytes antes de comprimir.
+ * Al leer, un segmento cortado o con CRC erróneo marca el final del fichero (guardado cortado por una
+ * caída) y se descarta junto con lo que venga detrás.
+ *
+ * Cuando el fichero de cambios crece más de la mitad que la base, Banco.guardarCambios vuelve a escribir
+ * la base con todas las cuentas y empieza un fichero de cambios nuevo (consolidación). Los dos nuevos se
+ * escriben enteros en ficheros .tmp antes de sustituir a los anteriores (ver crear).
+ */
+public class CambiosCuentas {
+
+    /**
+     * Atributos:
+     * - Marca y versión del formato, tamaño de la cabecera y de lo que ocupa cada segmento además de los
+     *   registros comprimidos.
+     * - Tamaño mínimo del fichero de cambios a partir del cual se consolida.
+     * - Tipos de registro.
+     * - Base y fichero de cambios, longitud y huella de la base y número de cuentas de la base.
+     * - Tamaño válido del fichero de cambios, siguiente ranura libre e interés de ahorro del último segmento.
+     */
+    private static final int MARCA = 0x43414D42; // "CAMB"
+    private static final int VERSION = 1;
+    private static final int TAMANYO_CABECERA = 4 + 4 + 8 + 8 + 4;
+    private static final int TAMANYO_MARCO = 4 + 4 + 4;
+    private static final long MINIMO_CONSOLIDAR = 64 * 1024;
+
+    static final byte SALDO = 0;
+    static final byte ALTA = 1;
+    static final byte BAJA = 2;
+
+    private final Path base;
+    private final Path fichero;
+    private final long longitudBase;
+    private final long huellaBase;
+    private final int numCuentasBase;
+    private long tamanyo;
+    private int siguienteRanura;
+    private double interesGuardado;
+
+    /**
+     * Cambio de una cuenta dentro de un segmento.
+     */
+    static final class Registro {
+        final byte tipo;
+        final int ranura;
+        final long saldoCentimos;
+        final int retiradas;
+        final Cliente titular;
+        final char tipoCuenta;
+
+        /**
+         * @param tipo          SALDO, ALTA o BAJA.
+         * @param ranura        Ranura de la cuenta.
+         * @param saldoCentimos Diferencia de saldo (SALDO) o saldo (ALTA), en céntimos.
+         * @param retiradas     Retiradas del mes de la cuenta.
+         * @param titular       Titular (solo ALTA).
+         * @param tipoCuenta    'A' o 'C' (solo ALTA).
+         */
+        private Registro(byte tipo, int ranura, long saldoCentimos, int retiradas, Cliente titular, char tipoCuenta) {
+            this.tipo = tipo;
+            this.ranura = ranura;
+            this.saldoCentimos = saldoCentimos;
+            this.retiradas = retiradas;
+            this.titular = titular;
+            this.tipoCuenta = tipoCuenta;
+        }
+
+        /**
+         * Cambio de saldo de una cuenta que ya estaba guardada.
+         *
+         * @param ranura     Ranura de la cuenta.
+         * @param diferencia Saldo actual menos el guardado la vez anterior, en céntimos.
+         * @param retiradas  Retiradas del mes de la cuenta.
+         * @return Registro SALDO.
+         */
+        static Registro saldo(int ranura, long diferencia, int retiradas) {
+            return new Registro(SALDO, ranura, diferencia, retiradas, null, ' ');
+        }
+
+        /**
+         * Cuenta nueva.
+         *
+         * @param ranura Ranura asignada a la cuenta.
+         * @param cuenta Cuenta.
+         * @return Registro ALTA.
+         */
+        static Registro alta(int ranura, Cuenta cuenta) {
+            return new Registro(ALTA, ranura, cuenta.getSaldoCentimos(), cuenta.getRetiradasMes(), cuenta.getTitular(),
+                    tipoCuenta(cuenta));
+        }
+
+        /**
+         * Cuenta eliminada.
+         *
+         * @param ranura Ranura de la cuenta.
+         * @return Registro BAJA.
+         */
+        static Registro baja(int ranura) {
+            return new Registro(BAJA, ranura, 0, 0, null, ' ');
+        }
+    }
+
+    /**
+     * Cambios de un guardado.
+     */
+    static final class Segmento {
+        final double interesAhorro;
+        final List<Registro> registros;
+
+        /**
+         * @param interesAhorro Interés de las cuentas de ahorro al guardar.
+         * @param registros     Registros en orden de ranura.
+         */
+        Segmento(double interesAhorro, List<Registro> registros) {
+            this.interesAhorro = interesAhorro;
+            this.registros = registros;
+        }
+    }
+
+    /**
+     * Constructor privado; se obtienen con crear o abrir.
+     */
+    private CambiosCuentas(Path base, Path fichero, long longitudBase, long huellaBase, int numCuentasBase, long tamanyo) {
+        this.base = base;
+        this.fichero = fichero;
+        this.longitudBase = longitudBase;
+        this.huellaBase = huellaBase;
+        this.numCuentasBase = numCuentasBase;
+        this.tamanyo = tamanyo;
+        this.siguienteRanura = numCuentasBase;
+        this.interesGuardado = Double.NaN;
+    }
+
+    /**
+     * Consolida: escribe una base nueva con todas las cuentas y un fichero de cambios nuevo para ella con
+     * un primer segmento, y los pone en lugar de los anteriores.
+     * Los dos se escriben enteros en ficheros temporales antes de publicar ninguno, y se publica primero
+     * el de cambios: si el programa se para antes, quedan la base y los cambios anteriores; si se para
+     * entre los dos renombrados, los cambios nuevos no corresponden a la base anterior y abrir termina de
+     * publicar la base nueva. Nunca se cargan unos cambios con una base que no es la suya.
+     * El llamante debe garantizar que las cuentas no cambian mientras se escribe.
+     *
+     * @param base    Fichero base.
+     * @param fichero Fichero de cambios.
+     * @param cuentas Cuentas en orden; la de cada posición ocupa esa ranura.
+     * @param primero Primer segmento, que se aplica sobre la base al cargar.
+     * @return Fichero de cambios listo para añadir segmentos.
+     * @throws IOException si no se pueden escribir. Si falla antes de publicar, los ficheros anteriores
+     *                     no cambian.
+     */
+    static CambiosCuentas crear(Path base, Path fichero, List<Cuenta> cuentas, Segmento primero) throws IOException {
+        Path baseTemporal = temporal(base);
+        Path cambiosTemporal = temporal(fichero);
+        long[] escrita = escribirBase(baseTemporal, cuentas);
+        ByteBuffer marco = marco(primero);
+        try (FileChannel canal = FileChannel.open(cambiosTemporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer cabecera = ByteBuffer.allocate(TAMANYO_CABECERA);
+            cabecera.putInt(MARCA).putInt(VERSION).putLong(escrita[0]).putLong(escrita[1]).putInt(cuentas.size()).flip();
+            while (cabecera.hasRemaining()) {
+                canal.write(cabecera);
+            }
+            while (marco.hasRemaining()) {
+                canal.write(marco);
+            }
+            canal.force(true);
+        }
+        Files.move(cambiosTemporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(baseTemporal, base, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        CambiosCuentas cambios = new CambiosCuentas(base, fichero, escrita[0], escrita[1], cuentas.size(),
+                TAMANYO_CABECERA + marco.limit());
+        cambios.interesGuardado = primero.interesAhorro;
+        return cambios;
+    }
+
+    /**
+     * Escribe la base con todas las cuentas, una por línea con el formato de Banco.cargarFichero, y espera
+     * a que esté en disco.
+     *
+     * @param fichero Fichero donde se escribe (el temporal de la base).
+     * @param cuentas Cuentas en orden.
+     * @return Longitud y huella (CRC32, como DiarioTransacciones.huella) de la base escrita.
+     * @throws IOException si no se puede escribir.
+     */
+    private static long[] escribirBase(Path fichero, List<Cuenta> cuentas) throws IOException {
+        CRC32 crc = new CRC32();
+        long longitud;
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream salida = new CheckedOutputStream(Channels.newOutputStream(canal), crc);
+            BufferedWriter escritor = new BufferedWriter(new OutputStreamWriter(salida, StandardCharsets.UTF_8), 1 << 16);
+            StringBuilder linea = new StringBuilder(64);
+            for (Cuenta cuenta : cuentas) {
+                linea.setLength(0);
+                long saldo = cuenta.getSaldoCentimos();
+                long euros = Math.abs(saldo / Dinero.CENTIMOS_POR_EURO);
+                int resto = (int) Math.abs(saldo % Dinero.CENTIMOS_POR_EURO);
+                linea.append(cuenta.getTitular().getDni()).append(' ').append(cuenta.getTitular().getNombre()).append(' ');
+                if (saldo < 0) {
+                    linea.append('-');
+                }
+                linea.append(euros).append('.').append(resto / 10).append(resto % 10)
+                        .append(' ').append(tipoCuenta(cuenta)).append('\n');
+                escritor.append(linea);
+            }
+            escritor.flush();
+            longitud = canal.size();
+            canal.force(true);
+        }
+        return new long[]{longitud, crc.getValue()};
+    }
+
+    /**
+     * Devuelve el fichero temporal donde se escribe un fichero antes de ponerlo en su lugar.
+     *
+     * @param fichero Fichero base o de cambios.
+     * @return Fichero con el mismo nombre y la extensión .tmp.
+     */
+    private static Path temporal(Path fichero) {
+        return fichero.resolveSibling(fichero.getFileName() + ".tmp");
+    }
+
+    /**
+     * Termina una consolidación cortada entre los dos renombrados (ver crear): si la base temporal es la
+     * de los cambios, la pone en lugar de la base.
+     *
+     * @param base         Fichero base.
+     * @param longitudBase Longitud de la base según los cambios.
+     * @param huellaBase   Huella de la base según los cambios.
+     * @return true si la base temporal era la de los cambios y ya está en su lugar.
+     * @throws IOException si no se puede leer o renombrar la base temporal.
+     */
+    private static boolean terminarConsolidacion(Path base, long longitudBase, long huellaBase) throws IOException {
+        Path baseTemporal = temporal(base);
+        if (!Files.exists(baseTemporal) || Files.size(baseTemporal) != longitudBase
+                || DiarioTransacciones.huella(baseTemporal) != huellaBase) {
+            return false;
+        }
+        Files.move(baseTemporal, base, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    /**
+     * Abre un fichero de cambios y lee sus segmentos. Comprueba que corresponde a la base (terminando
+     * antes la consolidación si se cortó después de publicar los cambios, ver crear) y descarta la cola
+     * cortada si la hay, para que el siguiente guardado escriba a continuación de lo válido.
+     *
+     * @param base       Fichero base.
+     * @param fichero    Fichero de cambios.
+     * @param segmentos  Lista donde se dejan los segmentos leídos, en orden.
+     * @return Fichero de cambios listo para añadir segmentos.
+     * @throws IOException si no se puede leer, no es un fichero de cambios o corresponde a otra base.
+     */
+    static CambiosCuentas abrir(Path base, Path fichero, List<Segmento> segmentos) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long tamanyoFichero = canal.size();
+            ByteBuffer cabecera = ByteBuffer.allocate(TAMANYO_CABECERA);
+            if (tamanyoFichero < TAMANYO_CABECERA || canal.read(cabecera, 0) < TAMANYO_CABECERA) {
+                throw new IOException("Fichero de cambios incompleto: " + fichero);
+            }
+            cabecera.flip();
+            if (cabecera.getInt() != MARCA) {
+                throw new IOException("El fichero no es un fichero de cambios del banco: " + fichero);
+            }
+            int version = cabecera.getInt();
+            if (version != VERSION) {
+                throw new IOException("Versión de fichero de cambios no soportada: " + version);
+            }
+            long longitudBase = cabecera.getLong();
+            long huellaBase = cabecera.getLong();
+            int numCuentasBase = cabecera.getInt();
+            boolean esSuBase = Files.exists(base) && longitudBase == Files.size(base)
+                    && huellaBase == DiarioTransacciones.huella(base);
+            if (!esSuBase && !terminarConsolidacion(base, longitudBase, huellaBase)) {
+                throw new IOException("Los cambios corresponden a otra version de " + base);
+            }
+
+            ByteBuffer datos = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, tamanyoFichero - TAMANYO_CABECERA));
+            while (datos.hasRemaining() && canal.read(datos, TAMANYO_CABECERA + datos.position()) > 0) {
+                // Se lee todo lo que queda
+            }
+            datos.flip();
+            long finValido = TAMANYO_CABECERA;
+            Inflater descompresor = new Inflater();
+            try {
+                while (datos.remaining() >= TAMANYO_MARCO) {
+                    int comprimido = datos.getInt();
+                    int original = datos.getInt();
+                    if (comprimido < 0 || original < 0 || datos.remaining() < comprimido + 4) {
+                        break;
+                    }
+                    byte[] bytes = new byte[comprimido];
+                    datos.get(bytes);
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    if (datos.getInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                    segmentos.add(descodificar(descomprimir(descompresor, bytes, original)));
+                    finValido += TAMANYO_MARCO + comprimido;
+                }
+            } finally {
+                descompresor.end();
+            }
+            if (finValido < tamanyoFichero) {
+                canal.truncate(finValido);
+                canal.force(true);
+            }
+            CambiosCuentas cambios = new CambiosCuentas(base, fichero, longitudBase, huellaBase, numCuentasBase, finValido);
+            if (!segmentos.isEmpty()) {
+                cambios.interesGuardado = segmentos.get(segmentos.size() - 1).interesAhorro;
+            }
+            return cambios;
+        }
+    }
+
+    /**
+     * Añade un segmento al final del fichero y espera a que esté en disco.
+     *
+     * @param segmento Cambios del guardado.
+     * @throws IOException si no se puede escribir.
+     */
+    void escribir(Segmento segmento) throws IOException {
+        ByteBuffer marco = marco(segmento);
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.WRITE)) {
+            long posicion = tamanyo;
+            while (marco.hasRemaining()) {
+                posicion += canal.write(marco, posicion);
+            }
+            canal.force(false);
+            tamanyo = posicion;
+        }
+        interesGuardado = segmento.interesAhorro;
+    }
+
+    /**
+     * Comprime un segmento y lo enmarca como se guarda en el fichero.
+     *
+     * @param segmento Cambios del guardado.
+     * @return Longitudes, bytes comprimidos y CRC, listos para escribir.
+     */
+    private static ByteBuffer marco(Segmento segmento) {
+        byte[] original = codificar(segmento);
+        Deflater compresor = new Deflater(Deflater.BEST_SPEED);
+        byte[] comprimido;
+        try {
+            compresor.setInput(original);
+            compresor.finish();
+            comprimido = new byte[Math.max(64, original.length / 2)];
+            int longitud = 0;
+            while (!compresor.finished()) {
+                if (longitud == comprimido.length) {
+                    comprimido = Arrays.copyOf(comprimido, comprimido.length * 2);
+                }
+                longitud += compresor.deflate(comprimido, longitud, comprimido.length - longitud);
+            }
+            comprimido = Arrays.copyOf(comprimido, longitud);
+        } finally {
+            compresor.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(comprimido);
+        ByteBuffer marco = ByteBuffer.allocate(TAMANYO_MARCO + comprimido.length);
+        marco.putInt(comprimido.length).putInt(original.length).put(comprimido).putInt((int) crc.getValue()).flip();
+        return marco;
+    }
+
+    /**
+     * Indica si el fichero de cambios ya ocupa tanto que conviene consolidarlo en la base.
+     *
+     * @return true si los cambios ocupan más de la mitad que la base (y al menos 64 KB).
+     */
+    boolean hayQueConsolidar() {
+        long cambios = tamanyo - TAMANYO_CABECERA;
+        return cambios > MINIMO_CONSOLIDAR && cambios > longitudBase / 2;
+    }
+
+    /**
+     * Indica si este fichero de cambios es el de la base y el fichero indicados.
+     *
+     * @param otraBase    Fichero base.
+     * @param otroFichero Fichero de cambios.
+     * @return true si son los mismos.
+     */
+    boolean esDe(Path otraBase, Path otroFichero) {
+        return base.equals(otraBase) && fichero.equals(otroFichero);
+    }
+
+    /**
+     * Indica si hace falta escribir un segmento: si hay registros o ha cambiado el interés de ahorro.
+     *
+     * @param segmento Cambios del guardado.
+     * @return false si el segmento no cambiaría nada de lo ya guardado.
+     */
+    boolean cambia(Segmento segmento) {
+        return !segmento.registros.isEmpty()
+                || Double.doubleToLongBits(segmento.interesAhorro) != Double.doubleToLongBits(interesGuardado);
+    }
+
+    /**
+     * Devuelve el número de cuentas de la base.
+     *
+     * @return Cuentas de la base.
+     */
+    int getNumCuentasBase() {
+        return numCuentasBase;
+    }
+
+    /**
+     * Fija la siguiente ranura libre, después de aplicar los segmentos leídos.
+     *
+     * @param siguienteRanura Siguiente ranura.
+     */
+    void setSiguienteRanura(int siguienteRanura) {
+        this.siguienteRanura = siguienteRanura;
+    }
+
+    /**
+     * Reserva una ranura para una cuenta nueva.
+     *
+     * @return Ranura asignada.
+     */
+    int nuevaRanura() {
+        return siguienteRanura++;
+    }
+
+    /**
+     * Tipo de una cuenta en el fichero de texto.
+     *
+     * @param cuenta Cuenta.
+     * @return 'C' para las corrientes y 'A' para las de ahorro.
+     */
+    private static char tipoCuenta(Cuenta cuenta) {
+        return (cuenta instanceof CuentaCorriente) ? 'C' : 'A';
+    }
+
+    /**
+     * Pasa un segmento a bytes sin comprimir.
+     *
+     * @param segmento Segmento.
+     * @return Bytes del segmento.
+     */
+    private static byte[] codificar(Segmento segmento) {
+        Bytes salida = new Bytes(16 + segmento.registros.size() * 8);
+        salida.escribirLong(Double.doubleToLongBits(segmento.interesAhorro));
+        salida.escribirVarint(segmento.registros.size());
+        int anterior = 0;
+        for (Registro registro : segmento.registros) {
+            salida.escribirVarint(registro.ranura - anterior);
+            anterior = registro.ranura;
+            salida.escribirByte(registro.tipo);
+            if (registro.tipo == ALTA) {
+                salida.escribirTexto(registro.titular.getDni());
+                salida.escribirTexto(registro.titular.getNombre());
+                salida.escribirByte((byte) registro.tipoCuenta);
+            }
+            if (registro.tipo != BAJA) {
+                salida.escribirVarint(zigzag(registro.saldoCentimos));
+                salida.escribirVarint(registro.retiradas);
+            }
+        }
+        return salida.toArray();
+    }
+
+    /**
+     * Lee un segmento de sus bytes sin comprimir.
+     *
+     * @param bytes Bytes del segmento.
+     * @return Segmento.
+     * @throws IOException si los bytes no son un segmento válido.
+     */
+    private static Segmento descodificar(byte[] bytes) throws IOException {
+        try {
+            ByteBuffer entrada = ByteBuffer.wrap(bytes);
+            double interesAhorro = Double.longBitsToDouble(entrada.getLong());
+            int numRegistros = (int) leerVarint(entrada);
+            List<Registro> registros = new ArrayList<>(numRegistros);
+            int ranura = 0;
+            for (int i = 0; i < numRegistros; i++) {
+                ranura += (int) leerVarint(entrada);
+                byte tipo = entrada.get();
+                Cliente titular = null;
+                char tipoCuenta = ' ';
+                if (tipo == ALTA) {
+                    String dni = leerTexto(entrada);
+                    titular = new Cliente(dni, leerTexto(entrada));
+                    tipoCuenta = (char) entrada.get();
+                } else if (tipo != SALDO && tipo != BAJA) {
+                    throw new IOException("Tipo de registro desconocido en los cambios: " + tipo);
+                }
+                long saldo = 0;
+                int retiradas = 0;
+                if (tipo != BAJA) {
+                    saldo = deshacerZigzag(leerVarint(entrada));
+                    retiradas = (int) leerVarint(entrada);
+                }
+                registros.add(new Registro(tipo, ranura, saldo, retiradas, titular, tipoCuenta));
+            }
+            return new Segmento(interesAhorro, registros);
+        } catch (RuntimeException e) {
+            throw new IOException("Segmento de cambios dañado", e);
+        }
+    }
+
+    /**
+     * Descomprime un segmento.
+     *
+     * @param descompresor Descompresor, que se reinicia antes.
+     * @param comprimido   Bytes comprimidos.
+     * @param original     Longitud sin comprimir.
+     * @return Bytes sin comprimir.
+     * @throws IOException si los bytes no se pueden descomprimir.
+     */
+    private static byte[] descomprimir(Inflater descompresor, byte[] comprimido, int original) throws IOException {
+        descompresor.reset();
+        descompresor.setInput(comprimido);
+        byte[] bytes = new byte[original];
+        try {
+            int longitud = 0;
+            while (longitud < original && !descompresor.finished()) {
+                int leidos = descompresor.inflate(bytes, longitud, original - longitud);
+                if (leidos == 0 && (descompresor.needsInput() || descompresor.needsDictionary())) {
+                    break;
+                }
+                longitud += leidos;
+            }
+            if (longitud != original) {
+                throw new IOException("Segmento de cambios incompleto");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Segmento de cambios dañado", e);
+        }
+        return bytes;
+    }
+
+    /**
+     * Codifica un número con signo para que los valores pequeños, positivos o negativos, ocupen poco en varint.
+     *
+     * @param valor Número.
+     * @return Número sin signo.
+     */
+    private static long zigzag(long valor) {
+        return (valor << 1) ^ (valor >> 63);
+    }
+
+    /**
+     * Deshace zigzag.
+     *
+     * @param valor Número sin signo.
+     * @return Número con signo.
+     */
+    private static long deshacerZigzag(long valor) {
+        return (valor >>> 1) ^ -(valor & 1);
+    }
+
+    /**
+     * Lee un número en varint: 7 bits por byte, con el bit alto a 1 si siguen más.
+     *
+     * @param entrada Bytes.
+     * @return Número.
+     */
+    private static long leerVarint(ByteBuffer entrada) {
+        long valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+            byte b = entrada.get();
+            valor |= (long) (b & 0x7F) << desplazamiento;
+            if (b >= 0) {
+                return valor;
+            }
+        }
+        throw new IllegalArgumentException("Varint demasiado largo");
+    }
+
+    /**
+     * Lee un texto escrito como longitud en varint y bytes UTF-8.
+     *
+     * @param entrada Bytes.
+     * @return Texto.
+     */
+    private static String leerTexto(ByteBuffer entrada) {
+        byte[] bytes = new byte[(int) leerVarint(entrada)];
+        entrada.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Array de bytes que crece según se escribe.
+     */
+    private static final class Bytes {
+        private byte[] bytes;
+        private int longitud;
+
+        /**
+         * @param capacidad Capacidad inicial.
+         */
+        private Bytes(int capacidad) {
+            bytes = new byte[capacidad];
+        }
+
+        /**
+         * Garantiza que caben n bytes más.
+         *
+         * @param n Bytes que se van a escribir.
+         */
+        private void asegurar(int n) {
+            if (longitud + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, longitud + n));
+            }
+        }
+
+        private void escribirByte(byte valor) {
+            asegurar(1);
+            bytes[longitud++] = valor;
+        }
+
+        private void escribirLong(long valor) {
+            for (int desplazamiento = 56; desplazamiento >= 0; desplazamiento -= 8) {
+                escribirByte((byte) (valor >>> desplazamiento));
+            }
+        }
+
+        private void escribirVarint(long valor) {
+            while ((valor & ~0x7FL) != 0) {
+                escribirByte((byte) ((valor & 0x7F) | 0x80));
+                valor >>>= 7;
+            }
+            escribirByte((byte) valor);
+        }
+
+        private void escribirTexto(String texto) {
+            byte[] utf8 = texto.getBytes(StandardCharsets.UTF_8);
+            escribirVarint(utf8.length);
+            asegurar(utf8.length);
+            System.arraycopy(utf8, 0, bytes, longitud, utf8.length);
+            longitud += utf8.length;
+        }
+
+        private byte[] toArray() {
+            return Arrays.copyOf(bytes, longitud);
+        }
+    }
+}
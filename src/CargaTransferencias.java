@@ -0,0 +1,285 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prueba de carga: lanza transferencias contra un Banco desde varios hilos y mide la productividad y la
+ * latencia, para reproducir en local la contención de producción.
+ *
+ * El tráfico está sesgado como el real: el origen y el destino de cada transferencia se eligen con una
+ * distribución de Zipf sobre los clientes, así que unos pocos clientes "calientes" reciben la mayoría
+ * de las transferencias y sus franjas de cerrojo se disputan. Las cantidades siguen una log-normal.
+ *
+ * Con un ritmo objetivo, las transferencias se lanzan en instantes fijos (bucle abierto) y la latencia se
+ * mide desde el instante en que tocaba lanzar cada una, no desde que se lanzó: si el banco se atasca, las
+ * transferencias que esperan cuentan su espera, en lugar de esconderla (omisión coordinada).
+ * Con ritmo 0 cada hilo lanza la siguiente en cuanto termina la anterior.
+ */
+public class CargaTransferencias {
+
+    /**
+     * Destino de las transferencias de la prueba: un Banco o un BancoParticionado.
+     */
+    @FunctionalInterface
+    public interface Transferidor {
+        /**
+         * Ver Banco.transferenciaCentimos.
+         *
+         * @param dniOrigen  DNI del titular de la cuenta de origen.
+         * @param dniDestino DNI del titular de la cuenta de destino.
+         * @param centimos   Cantidad en céntimos.
+         * @return true si se ha realizado.
+         */
+        boolean transferenciaCentimos(String dniOrigen, String dniDestino, long centimos);
+    }
+
+    /**
+     * Atributos:
+     * - Mediana y dispersión (en escala logarítmica) de las cantidades, en euros.
+     * - Destino de las transferencias, DNI de los clientes (del más al menos caliente) y probabilidad acumulada de cada uno.
+     * - Latencias y resultados de las transferencias.
+     */
+    private static final double CANTIDAD_MEDIANA = 50;
+    private static final double DISPERSION_CANTIDAD = 1.0;
+
+    private final Transferidor banco;
+    private final String[] dnis;
+    private final double[] acumulada;
+    private final HistogramaLatencias latencias;
+    private final LongAdder realizadas;
+    private final LongAdder rechazadas;
+
+    /**
+     * Prepara una prueba de carga.
+     *
+     * @param banco Banco con las cuentas ya cargadas.
+     * @param dnis  DNI de los clientes que participan en las transferencias.
+     * @param sesgo Exponente de la distribución de Zipf: 0 reparte por igual y cuanto mayor, más se
+     *              concentran las transferencias en pocos clientes (1 es lo habitual).
+     * @param semilla Semilla para decidir qué clientes son los calientes.
+     */
+    public CargaTransferencias(Banco banco, List<String> dnis, double sesgo, long semilla) {
+        this(banco::transferenciaCentimos, dnis, sesgo, semilla);
+    }
+
+    /**
+     * Prepara una prueba de carga contra cualquier destino, por ejemplo un BancoParticionado.
+     *
+     * @param banco   Destino de las transferencias, con las cuentas ya cargadas.
+     * @param dnis    DNI de los clientes que participan en las transferencias.
+     * @param sesgo   Exponente de la distribución de Zipf (ver el otro constructor).
+     * @param semilla Semilla para decidir qué clientes son los calientes.
+     */
+    public CargaTransferencias(Transferidor banco, List<String> dnis, double sesgo, long semilla) {
+        if (dnis.size() < 2) {
+            throw new IllegalArgumentException("Hacen falta al menos dos clientes");
+        }
+        this.banco = banco;
+        this.dnis = dnis.toArray(new String[0]);
+        // Los calientes se eligen al azar para que no sean los primeros del fichero
+        SplittableRandom aleatorio = new SplittableRandom(semilla);
+        for (int i = this.dnis.length - 1; i > 0; i--) {
+            int j = aleatorio.nextInt(i + 1);
+            String dni = this.dnis[i];
+            this.dnis[i] = this.dnis[j];
+            this.dnis[j] = dni;
+        }
+        acumulada = new double[this.dnis.length];
+        double suma = 0;
+        for (int i = 0; i < acumulada.length; i++) {
+            suma += 1 / Math.pow(i + 1, sesgo);
+            acumulada[i] = suma;
+        }
+        for (int i = 0; i < acumulada.length; i++) {
+            acumulada[i] /= suma;
+        }
+        latencias = new HistogramaLatencias();
+        realizadas = new LongAdder();
+        rechazadas = new LongAdder();
+    }
+
+    /**
+     * Lee los DNI distintos de un fichero de cuentas, en el orden en que aparecen.
+     *
+     * @param fichero Fichero con el formato de Banco.cargarFichero.
+     * @return DNI de los clientes.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    public static List<String> leerDnis(Path fichero) throws IOException {
+        Set<String> dnis = new LinkedHashSet<>();
+        try (BufferedReader entrada = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = entrada.readLine()) != null) {
+                String limpia = linea.trim();
+                int espacio = limpia.indexOf(' ');
+                if (espacio > 0) {
+                    dnis.add(limpia.substring(0, espacio));
+                }
+            }
+        }
+        return new ArrayList<>(dnis);
+    }
+
+    /**
+     * Elige un cliente con la distribución de Zipf.
+     *
+     * @param aleatorio Generador de números aleatorios del hilo.
+     * @return DNI del cliente.
+     */
+    private String elegirCliente(SplittableRandom aleatorio) {
+        int posicion = Arrays.binarySearch(acumulada, aleatorio.nextDouble());
+        // Sin coincidencia exacta, binarySearch devuelve -(primera posición mayor) - 1
+        return dnis[Math.min((posicion < 0) ? -posicion - 1 : posicion, dnis.length - 1)];
+    }
+
+    /**
+     * Cantidad de una transferencia, con distribución log-normal.
+     *
+     * @param aleatorio Generador de números aleatorios del hilo.
+     * @return Cantidad en céntimos (al menos 1€).
+     */
+    private static long cantidad(SplittableRandom aleatorio) {
+        double u = 1 - aleatorio.nextDouble();
+        double normal = Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * aleatorio.nextDouble());
+        return Math.max(Dinero.CENTIMOS_POR_EURO, Dinero.aCentimos(CANTIDAD_MEDIANA * Math.exp(DISPERSION_CANTIDAD * normal)));
+    }
+
+    /**
+     * Lanza transferencias durante el tiempo indicado y espera a que terminen.
+     *
+     * @param ritmo    Transferencias por segundo entre todos los hilos, o 0 para ir lo más rápido posible.
+     * @param duracion Duración de la prueba.
+     * @param unidad   Unidad de la duración.
+     * @param hilos    Número de hilos que lanzan transferencias.
+     * @param semilla  Semilla de los números aleatorios.
+     * @return Tiempo que ha durado la prueba, en nanosegundos.
+     * @throws InterruptedException si se interrumpe la espera.
+     */
+    public long ejecutar(double ritmo, long duracion, TimeUnit unidad, int hilos, long semilla) throws InterruptedException {
+        long inicio = System.nanoTime();
+        long fin = inicio + unidad.toNanos(duracion);
+        // Cada hilo lanza una de cada "hilos" transferencias del calendario común
+        double intervalo = (ritmo > 0) ? 1e9 / ritmo * hilos : 0;
+        SplittableRandom raiz = new SplittableRandom(semilla);
+        Thread[] lanzadores = new Thread[hilos];
+        for (int h = 0; h < hilos; h++) {
+            SplittableRandom aleatorio = raiz.split();
+            long desfase = (long) (intervalo * h / hilos);
+            lanzadores[h] = new Thread(() -> lanzar(aleatorio, inicio + desfase, fin, intervalo), "carga-" + h);
+            lanzadores[h].start();
+        }
+        for (Thread lanzador : lanzadores) {
+            lanzador.join();
+        }
+        return System.nanoTime() - inicio;
+    }
+
+    /**
+     * Bucle de un hilo de la prueba.
+     *
+     * @param aleatorio Generador de números aleatorios del hilo.
+     * @param primera   Instante en que toca lanzar la primera transferencia.
+     * @param fin       Instante a partir del cual ya no se lanzan más.
+     * @param intervalo Nanosegundos entre dos transferencias del hilo, o 0 para no esperar.
+     */
+    private void lanzar(SplittableRandom aleatorio, long primera, long fin, double intervalo) {
+        long numero = 0;
+        while (true) {
+            long previsto = (intervalo > 0) ? primera + (long) (numero * intervalo) : System.nanoTime();
+            if (previsto >= fin) {
+                return;
+            }
+            long espera = previsto - System.nanoTime();
+            if (espera > 0) {
+                LockSupport.parkNanos(espera);
+            }
+            String origen = elegirCliente(aleatorio);
+            String destino;
+            do {
+                destino = elegirCliente(aleatorio);
+            } while (destino.equals(origen));
+            if (banco.transferenciaCentimos(origen, destino, cantidad(aleatorio))) {
+                realizadas.increment();
+            } else {
+                rechazadas.increment();
+            }
+            latencias.anotar(System.nanoTime() - previsto);
+            numero++;
+        }
+    }
+
+    /**
+     * Resumen de la prueba: productividad y percentiles de latencia.
+     *
+     * @param nanos Tiempo que ha durado la prueba (devuelto por ejecutar).
+     * @return Informe de texto.
+     */
+    public String informe(long nanos) {
+        long total = latencias.getNumero();
+        return String.format(Locale.ROOT,
+                "Transferencias: %d (%d realizadas, %d rechazadas) en %.1f s%n"
+                        + "Productividad: %.0f transferencias/s%n"
+                        + "Latencia (us): media %.1f, p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                total, realizadas.sum(), rechazadas.sum(), nanos / 1e9, total / (nanos / 1e9),
+                latencias.getMedia() / 1000, latencias.getPercentil(50) / 1000.0, latencias.getPercentil(90) / 1000.0,
+                latencias.getPercentil(99) / 1000.0, latencias.getPercentil(99.9) / 1000.0, latencias.getMaximo() / 1000.0);
+    }
+
+    /**
+     * Prueba de carga sobre un fichero de cuentas (por ejemplo, uno de GeneradorCuentas):
+     * java CargaTransferencias fichero-de-cuentas ritmo segundos [hilos [sesgo]]
+     *
+     * Carga las cuentas en un Banco nuevo (sin diario, el fichero no se modifica), lanza transferencias al
+     * ritmo indicado (0 para el máximo) y escribe la productividad, la latencia y las métricas del banco.
+     * Con -Dbanco.particiones=N las cuentas se reparten en un BancoParticionado de N particiones en
+     * memoria, con tantos hilos por partición como hilos de la prueba.
+     *
+     * @param args Fichero de cuentas, ritmo, segundos y, opcionalmente, hilos (4) y sesgo (1.0).
+     * @throws IOException si no se puede leer el fichero.
+     * @throws InterruptedException si se interrumpe la prueba.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3 || args.length > 5) {
+            System.err.println("Uso: java CargaTransferencias fichero-de-cuentas ritmo segundos [hilos [sesgo]]");
+            System.exit(2);
+        }
+        Path fichero = Paths.get(args[0]);
+        double ritmo = Double.parseDouble(args[1]);
+        long segundos = Long.parseLong(args[2]);
+        int hilos = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+        double sesgo = (args.length > 4) ? Double.parseDouble(args[4]) : 1.0;
+
+        int numParticiones = Integer.getInteger("banco.particiones", 0);
+        MetricasBanco metricas = new MetricasBanco();
+        if (numParticiones > 0) {
+            try (BancoParticionado banco = BancoParticionado.enMemoria(fichero, numParticiones, hilos)) {
+                CargaTransferencias carga = new CargaTransferencias(banco::transferenciaCentimos, leerDnis(fichero), sesgo, 1);
+                banco.setMetricas(metricas);
+                long nanos = carga.ejecutar(ritmo, segundos, TimeUnit.SECONDS, hilos, 2);
+                System.out.print(carga.informe(nanos));
+                System.out.print(banco.informe());
+            }
+        } else {
+            Banco banco = new Banco();
+            banco.cargarFichero(fichero);
+            CargaTransferencias carga = new CargaTransferencias(banco, leerDnis(fichero), sesgo, 1);
+            banco.setMetricas(metricas);
+            long nanos = carga.ejecutar(ritmo, segundos, TimeUnit.SECONDS, hilos, 2);
+            System.out.print(carga.informe(nanos));
+        }
+        System.out.print(metricas.informe());
+    }
+}
@@ -56,7 +56,7 @@ public class Cliente {
 	 */
 	@Override
 	public String toString() {
-		return String.format("%s (%s)", dni, nombre);
+		return dni + " (" + nombre + ")";
 	}
 
 	/**
@@ -74,4 +74,15 @@ public class Cliente {
 		}
 		return false;
 	}
+
+	/**
+	 * Sobrescribe el metodo hashCode de forma coherente con equals (DNI y nombre),
+	 * para poder usar clientes como clave de un HashMap.
+	 *
+	 * @return Código hash del cliente.
+	 */
+	@Override
+	public int hashCode() {
+		return 31 * dni.hashCode() + nombre.hashCode();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,323 @@
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Cuentas de un banco guardadas por columnas (ver Banco(boolean)): una fila por cuenta, con el saldo, el tipo,
+ * las retiradas del mes y el último cierre de mes en arrays de tipos primitivos, y el titular como número de
+ * cliente. Los recorridos del banco sobre todas las cuentas (intereses, reseteo, cierre de mes, resúmenes y
+ * ordenaciones) leen así memoria contigua en lugar de ir de objeto en objeto.
+ *
+ * Cada fila tiene además su Cuenta, que es la que guardan el índice por DNI y los conjuntos ordenados y la que
+ * reciben los que usan el banco. Mientras está en una fila, sus métodos leen y escriben la fila (ver
+ * Cuenta.getSaldoCentimos); al quitarla se le devuelven sus datos y la fila queda libre para otra cuenta.
+ *
+ * Concurrencia: la protege Banco igual que a las cuentas. Cada fila se lee o modifica con el cerrojo de la
+ * franja de su DNI; las filas se añaden y se quitan con el monitor del ArrayList, y los arrays solo crecen
+ * con el monitor y además todas las franjas tomadas.
+ */
+final class ColumnasCuentas {
+
+    /**
+     * Tipo de una fila: libre, cuenta de ahorro o cuenta corriente.
+     */
+    static final byte LIBRE = 0;
+    static final byte AHORRO = 'A';
+    static final byte CORRIENTE = 'C';
+
+    private static final int CAPACIDAD_INICIAL = 16;
+
+    /**
+     * Columnas, por fila:
+     * - Saldo en céntimos, tipo, retiradas del mes (0 en las de ahorro) y último cierre de mes aplicado.
+     * - Número del titular (ver numeroCliente), identificador de la cuenta y franja de su DNI en el banco.
+     * - La cuenta de la fila, o null si está libre.
+     * Solo hay filas en uso por debajo de numFilas; las libres de en medio se reutilizan antes de pasar de ahí.
+     */
+    long[] saldos;
+    byte[] tipos;
+    int[] retiradas;
+    int[] meses;
+    int[] clientes;
+    long[] ids;
+    short[] franjas;
+    Cuenta[] cuentas;
+    int numFilas;
+    private int[] filasLibres;
+    private int numFilasLibres;
+
+    /**
+     * Clientes internados: número de cada titular (por referencia, porque el banco comparte la instancia
+     * entre las cuentas de un cliente), titular y número de filas de cada número, y números libres.
+     */
+    private final IdentityHashMap<Cliente, Integer> numeros;
+    private Cliente[] titulares;
+    private int[] usos;
+    private int numClientes;
+    private int[] numerosLibres;
+    private int numNumerosLibres;
+
+    /**
+     * Orden entre dos filas, sin crear objetos.
+     */
+    private interface OrdenFilas {
+        int comparar(int fila, int otra);
+    }
+
+    /**
+     * Constructor: columnas vacías con capacidad para unas pocas cuentas.
+     */
+    ColumnasCuentas() {
+        saldos = new long[CAPACIDAD_INICIAL];
+        tipos = new byte[CAPACIDAD_INICIAL];
+        retiradas = new int[CAPACIDAD_INICIAL];
+        meses = new int[CAPACIDAD_INICIAL];
+        clientes = new int[CAPACIDAD_INICIAL];
+        ids = new long[CAPACIDAD_INICIAL];
+        franjas = new short[CAPACIDAD_INICIAL];
+        cuentas = new Cuenta[CAPACIDAD_INICIAL];
+        filasLibres = new int[CAPACIDAD_INICIAL];
+        numeros = new IdentityHashMap<>();
+        titulares = new Cliente[CAPACIDAD_INICIAL];
+        usos = new int[CAPACIDAD_INICIAL];
+        numerosLibres = new int[CAPACIDAD_INICIAL];
+    }
+
+    /**
+     * Indica si caben más cuentas sin que crezcan los arrays.
+     *
+     * @param n Número de cuentas que se van a añadir.
+     * @return true si hay al menos n filas libres.
+     */
+    boolean caben(int n) {
+        return numFilasLibres + (saldos.length - numFilas) >= n;
+    }
+
+    /**
+     * Hace sitio para n cuentas más, al menos duplicando la capacidad.
+     * Debe llamarse con el monitor del ArrayList y todas las franjas tomados: las operaciones sobre
+     * saldos escriben en los arrays.
+     *
+     * @param n Número de cuentas que se van a añadir.
+     */
+    void crecer(int n) {
+        if (caben(n)) {
+            return;
+        }
+        int capacidad = (int) Math.min(Integer.MAX_VALUE - 8,
+                Math.max(2L * saldos.length, (long) numFilas + Math.max(0, n - numFilasLibres)));
+        saldos = Arrays.copyOf(saldos, capacidad);
+        tipos = Arrays.copyOf(tipos, capacidad);
+        retiradas = Arrays.copyOf(retiradas, capacidad);
+        meses = Arrays.copyOf(meses, capacidad);
+        clientes = Arrays.copyOf(clientes, capacidad);
+        ids = Arrays.copyOf(ids, capacidad);
+        franjas = Arrays.copyOf(franjas, capacidad);
+        cuentas = Arrays.copyOf(cuentas, capacidad);
+        filasLibres = Arrays.copyOf(filasLibres, capacidad);
+    }
+
+    /**
+     * Pasa una cuenta a una fila libre (ver caben) con sus datos actuales; a partir de aquí la cuenta
+     * trabaja sobre la fila. El identificador, el mes y el titular compartido ya deben estar asignados.
+     * Debe llamarse con el monitor del ArrayList y el cerrojo de la franja del DNI tomados.
+     *
+     * @param cuenta Cuenta que se añade al banco.
+     * @param franja Franja del DNI de la cuenta en el banco.
+     */
+    void anyadir(Cuenta cuenta, int franja) {
+        int fila = (numFilasLibres > 0) ? filasLibres[--numFilasLibres] : numFilas++;
+        saldos[fila] = cuenta.getSaldoCentimos();
+        tipos[fila] = (cuenta instanceof CuentaCorriente) ? CORRIENTE : AHORRO;
+        retiradas[fila] = cuenta.getRetiradasMes();
+        meses[fila] = cuenta.getMes();
+        clientes[fila] = numeroCliente(cuenta.titular);
+        ids[fila] = cuenta.id;
+        franjas[fila] = (short) franja;
+        cuentas[fila] = cuenta;
+        cuenta.fila = fila;
+        cuenta.columnas = this;
+    }
+
+    /**
+     * Devuelve a una cuenta los datos de su fila y deja la fila libre. La cuenta sigue funcionando por su
+     * cuenta, como antes de añadirla.
+     * Debe llamarse con el monitor del ArrayList y el cerrojo de la franja del DNI tomados.
+     *
+     * @param cuenta Cuenta que se quita del banco.
+     */
+    void quitar(Cuenta cuenta) {
+        int fila = cuenta.fila;
+        cuenta.columnas = null;
+        cuenta.setSaldoCentimos(saldos[fila]);
+        cuenta.restaurarRetiradasMes(retiradas[fila]);
+        cuenta.setMes(meses[fila]);
+        liberarCliente(clientes[fila]);
+        tipos[fila] = LIBRE;
+        cuentas[fila] = null;
+        filasLibres[numFilasLibres++] = fila;
+    }
+
+    /**
+     * Número de un titular, que se reserva la primera vez que llega y se libera al quitar su última cuenta.
+     *
+     * @param titular Titular compartido por las cuentas del cliente.
+     * @return Número del cliente.
+     */
+    private int numeroCliente(Cliente titular) {
+        Integer numero = numeros.get(titular);
+        if (numero == null) {
+            if (numNumerosLibres > 0) {
+                numero = numerosLibres[--numNumerosLibres];
+            } else {
+                if (numClientes == titulares.length) {
+                    titulares = Arrays.copyOf(titulares, 2 * numClientes);
+                    usos = Arrays.copyOf(usos, 2 * numClientes);
+                    numerosLibres = Arrays.copyOf(numerosLibres, 2 * numClientes);
+                }
+                numero = numClientes++;
+            }
+            numeros.put(titular, numero);
+            titulares[numero] = titular;
+        }
+        usos[numero]++;
+        return numero;
+    }
+
+    /**
+     * Descuenta una fila de un cliente y libera su número si era la última.
+     *
+     * @param numero Número del cliente.
+     */
+    private void liberarCliente(int numero) {
+        if (--usos[numero] == 0) {
+            numeros.remove(titulares[numero]);
+            titulares[numero] = null;
+            numerosLibres[numNumerosLibres++] = numero;
+        }
+    }
+
+    /**
+     * Paga intereses al saldo de una fila de ahorro, con la misma regla que CuentaAhorro.addInteresCentimos.
+     * Debe llamarse con el cerrojo de la franja de la fila tomado.
+     *
+     * @param fila    Fila de una cuenta de ahorro.
+     * @param tasaPpm Tasa de interés en partes por millón.
+     * @return Intereses añadidos al saldo, en céntimos.
+     * @throws ArithmeticException si el saldo resultante no cabe en un long (el saldo no cambia).
+     */
+    long pagarIntereses(int fila, long tasaPpm) {
+        long intereses = Dinero.intereses(saldos[fila], tasaPpm);
+        saldos[fila] = Math.addExact(saldos[fila], intereses);
+        return intereses;
+    }
+
+    /**
+     * Filas en el orden de Banco.ORDEN: DNI, saldo de mayor a menor e identificador. Los DNI se comparan una
+     * vez por cliente y las filas, por la posición de su cliente en ese orden.
+     *
+     * @return Filas en uso, ordenadas.
+     */
+    int[] filasPorDni() {
+        int[] orden = new int[numClientes];
+        int vivos = 0;
+        for (int numero = 0; numero < numClientes; numero++) {
+            if (titulares[numero] != null) {
+                orden[vivos++] = numero;
+            }
+        }
+        orden = Arrays.copyOf(orden, vivos);
+        ordenar(orden, (numero, otro) -> titulares[numero].getDni().compareTo(titulares[otro].getDni()));
+        // Dos clientes con el mismo DNI y distinto nombre comparten posición: el orden solo mira el DNI
+        int[] posiciones = new int[numClientes];
+        for (int i = 1; i < vivos; i++) {
+            boolean mismoDni = titulares[orden[i]].getDni().equals(titulares[orden[i - 1]].getDni());
+            posiciones[orden[i]] = mismoDni ? posiciones[orden[i - 1]] : i;
+        }
+        int[] filas = filasEnUso();
+        ordenar(filas, (fila, otra) -> {
+            int comparacion = Integer.compare(posiciones[clientes[fila]], posiciones[clientes[otra]]);
+            if (comparacion == 0) {
+                comparacion = Long.compare(saldos[otra], saldos[fila]);
+            }
+            return (comparacion != 0) ? comparacion : Long.compare(ids[fila], ids[otra]);
+        });
+        return filas;
+    }
+
+    /**
+     * Filas en el orden de Banco.POR_SALDO: saldo de menor a mayor e identificador.
+     *
+     * @return Filas en uso, ordenadas.
+     */
+    int[] filasPorSaldo() {
+        int[] filas = filasEnUso();
+        ordenar(filas, (fila, otra) -> {
+            int comparacion = Long.compare(saldos[fila], saldos[otra]);
+            return (comparacion != 0) ? comparacion : Long.compare(ids[fila], ids[otra]);
+        });
+        return filas;
+    }
+
+    /**
+     * Filas en uso, de menor a mayor.
+     *
+     * @return Array nuevo con las filas.
+     */
+    private int[] filasEnUso() {
+        int[] filas = new int[numFilas - numFilasLibres];
+        int n = 0;
+        for (int fila = 0; fila < numFilas; fila++) {
+            if (tipos[fila] != LIBRE) {
+                filas[n++] = fila;
+            }
+        }
+        return filas;
+    }
+
+    /**
+     * Ordena un array de enteros con un orden propio: mezcla estable de abajo arriba, con tramos iniciales
+     * ordenados por inserción.
+     *
+     * @param valores Valores que se ordenan.
+     * @param orden   Orden entre dos valores.
+     */
+    private static void ordenar(int[] valores, OrdenFilas orden) {
+        final int tramo = 32;
+        int n = valores.length;
+        for (int inicio = 0; inicio < n; inicio += tramo) {
+            int fin = Math.min(inicio + tramo, n);
+            for (int i = inicio + 1; i < fin; i++) {
+                int valor = valores[i];
+                int j = i - 1;
+                while (j >= inicio && orden.comparar(valores[j], valor) > 0) {
+                    valores[j + 1] = valores[j];
+                    j--;
+                }
+                valores[j + 1] = valor;
+            }
+        }
+        int[] origen = valores;
+        int[] destino = new int[n];
+        for (int ancho = tramo; ancho < n; ancho *= 2) {
+            for (int inicio = 0; inicio < n; inicio += 2 * ancho) {
+                int medio = Math.min(inicio + ancho, n);
+                int fin = Math.min(inicio + 2 * ancho, n);
+                int i = inicio;
+                int j = medio;
+                for (int k = inicio; k < fin; k++) {
+                    if (i < medio && (j >= fin || orden.comparar(origen[i], origen[j]) <= 0)) {
+                        destino[k] = origen[i++];
+                    } else {
+                        destino[k] = origen[j++];
+                    }
+                }
+            }
+            int[] intercambio = origen;
+            origen = destino;
+            destino = intercambio;
+        }
+        if (origen != valores) {
+            System.arraycopy(origen, 0, valores, 0, n);
+        }
+    }
+}
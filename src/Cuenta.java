@@ -3,46 +3,152 @@ abstract class Cuenta implements Comparable<Cuenta> {
 
 	/**
 	 * Atributos
-	 *  - Titular de la cuenta (protegido para acceso desde subclases).
-	 *  - Saldo actual de la cuenta (protegido para acceso desde subclases).
+	 *  - Titular de la cuenta (protegido para acceso desde subclases). Cliente es inmutable, así que
+	 *    se comparte sin copiarlo; Banco hace que todas las cuentas de un mismo cliente compartan la
+	 *    misma instancia (ver Banco.anyadirCuentaBloqueada).
+	 *  - Saldo actual de la cuenta en céntimos. Las subclases lo leen y cambian con getSaldoCentimos y
+	 *    setSaldoCentimos, porque en un banco por columnas está en la fila de la cuenta.
 	 *  - Comisión fija aplicada en operaciones de retirada (2 euros).
+	 *  - Identificador de la cuenta dentro del banco (0 mientras no pertenece a ninguno).
+	 *    Lo asigna Banco al añadirla y desempata cuentas con el mismo DNI y saldo.
+	 *  - Último cierre de mes aplicado a la cuenta (ver Banco.cierreMesCentimos), con getMes y setMes.
+	 *  - Marca de borrado: la cuenta ya no está en el índice del banco, pero sigue en sus listas hasta que
+	 *    se compacten (ver Banco.eliminarCliente).
+	 *  - Historial de movimientos en el libro mayor del banco, si tiene (ver LibroMayor).
+	 *  - Guardado incremental (ver Banco.guardarCambios): banco al que pertenece la cuenta, posición de
+	 *    la cuenta en los ficheros de cambios (-1 si aún no se ha guardado), saldo con el que se guardó
+	 *    la última vez y marca de cuenta modificada desde entonces. La marca la ponen los propios métodos
+	 *    que cambian el saldo o las retiradas del mes (ver cambiada).
+	 *  - Columnas del banco donde están el saldo, las retiradas y el mes de la cuenta, y su fila en ellas,
+	 *    si el banco guarda las cuentas por columnas (ver ColumnasCuentas); si no, null, y la cuenta los
+	 *    guarda en sus propios atributos.
 	 *
 	 */
 	protected Cliente titular;
-	protected double saldo;
+	private long saldoCentimos;
+	long id;
+	private int mes;
+	boolean borrada;
+	LibroMayor.Historial historial;
+	Banco banco;
+	int ranura = -1;
+	long saldoGuardado;
+	boolean modificada;
+	ColumnasCuentas columnas;
+	int fila;
 	protected static final int COMISION_RETIRADA = 2;
+	protected static final long COMISION_RETIRADA_CENTIMOS = COMISION_RETIRADA * Dinero.CENTIMOS_POR_EURO;
 
 	/**
 	 * Constructor de cuenta.
-	 * Crea una copia del titular para garantizar inmutabilidad.
+	 * Guarda el titular sin copiarlo: Cliente es inmutable.
 	 *
-	 * @param titular Titular de la cuenta
-	 * @param saldo   Saldo inicial de la cuenta
+	 * @param titular       Titular de la cuenta
+	 * @param saldoCentimos Saldo inicial de la cuenta en céntimos
 	 */
-	public Cuenta(Cliente titular, double saldo) {
-		this.titular = new Cliente(titular);
-		this.saldo = saldo;
+	protected Cuenta(Cliente titular, long saldoCentimos) {
+		this.titular = titular;
+		this.saldoCentimos = saldoCentimos;
 	}
 
 	/**
-	 * Devuelve una copia del titular para evitar modificaciones externas.
+	 * Devuelve el titular de la cuenta. No hace falta copiarlo porque Cliente es inmutable.
 	 *
-	 * @return Copia del objeto Cliente titular
+	 * @return Titular de la cuenta
 	 */
 	public Cliente getTitular() {
-		return new Cliente(titular);
+		return titular;
+	}
+
+	/**
+	 * Verifica si el titular de la cuenta es el cliente indicado (mismo DNI y nombre), sin crear objetos.
+	 * Con los clientes compartidos del banco basta casi siempre con comparar las referencias.
+	 *
+	 * @param cliente Cliente a comparar
+	 * @return true si el cliente es el titular de la cuenta
+	 */
+	public boolean esDe(Cliente cliente) {
+		return titular == cliente || titular.equals(cliente);
+	}
+
+	/**
+	 * Devuelve el saldo actual en euros.
+	 *
+	 * @return Saldo de la cuenta en euros
+	 */
+	public double getSaldo() {
+		return Dinero.aEuros(getSaldoCentimos());
+	}
+
+	/**
+	 * Devuelve el saldo actual en céntimos.
+	 *
+	 * @return Saldo de la cuenta en céntimos
+	 */
+	public long getSaldoCentimos() {
+		ColumnasCuentas lasColumnas = columnas;
+		return (lasColumnas == null) ? saldoCentimos : lasColumnas.saldos[fila];
+	}
+
+	/**
+	 * Cambia el saldo, en la fila de la cuenta si el banco la guarda por columnas.
+	 * No avisa al banco: quien cambia el saldo llama después a cambiada si corresponde.
+	 *
+	 * @param saldoCentimos Saldo nuevo en céntimos
+	 */
+	final void setSaldoCentimos(long saldoCentimos) {
+		ColumnasCuentas lasColumnas = columnas;
+		if (lasColumnas == null) {
+			this.saldoCentimos = saldoCentimos;
+		} else {
+			lasColumnas.saldos[fila] = saldoCentimos;
+		}
+	}
+
+	/**
+	 * Devuelve el último cierre de mes aplicado a la cuenta.
+	 *
+	 * @return Número del cierre de mes
+	 */
+	final int getMes() {
+		ColumnasCuentas lasColumnas = columnas;
+		return (lasColumnas == null) ? mes : lasColumnas.meses[fila];
+	}
+
+	/**
+	 * Anota el último cierre de mes aplicado a la cuenta.
+	 *
+	 * @param mes Número del cierre de mes
+	 */
+	final void setMes(int mes) {
+		ColumnasCuentas lasColumnas = columnas;
+		if (lasColumnas == null) {
+			this.mes = mes;
+		} else {
+			lasColumnas.meses[fila] = mes;
+		}
+	}
+
+	/**
+	 * Devuelve el identificador de la cuenta dentro del banco.
+	 *
+	 * @return Identificador de la cuenta, o 0 si no pertenece a ningún banco
+	 */
+	public long getId() {
+		return id;
 	}
 
 	/**
 	 * Representación textual de la cuenta.
 	 * Formato: "NombreClase: DNI (Nombre) Saldo XXXX.XX".
 	 *
+	 * Equivale a String.format("%-15s: %-20s Saldo%8.2f", ...), pero lo compone InformeBanco a mano.
+	 *
 	 * @return Cadena formateada con los datos de la cuenta
 	 */
 	@Override
 	public String toString() {
-		return String.format("%-15s: %-20s Saldo%8.2f",
-				this.getClass().getSimpleName(), titular, saldo);
+		return InformeBanco.formatear(this);
 	}
 
 	/**
@@ -85,21 +191,128 @@ abstract class Cuenta implements Comparable<Cuenta> {
 		//Si son iguales (comparacionDNI != 0) , devuelve el valor de la comparación del saldo
 		return (comparacionDNI != 0)
 				? comparacionDNI
-				: Double.compare(otraCuenta.saldo, this.saldo);
+				: Long.compare(otraCuenta.getSaldoCentimos(), this.getSaldoCentimos());
+	}
+
+	/**
+	 * Retira fondos indicando la cantidad en euros.
+	 * Convierte la cantidad a céntimos y delega en retiradaCentimos.
+	 *
+	 * @param cantidad Cantidad a retirar en euros
+	 * @return true si la operación fue exitosa
+	 */
+	public boolean retirada(double cantidad) {
+		return retiradaCentimos(Dinero.aCentimos(cantidad));
+	}
+
+	/**
+	 * Ingresa fondos indicando la cantidad en euros.
+	 * Convierte la cantidad a céntimos y delega en ingresoCentimos.
+	 *
+	 * @param cantidad Cantidad a ingresar en euros
+	 */
+	public void ingreso(double cantidad) {
+		ingresoCentimos(Dinero.aCentimos(cantidad));
 	}
 
 	/**
 	 * Metodo abstracto para retirar fondos.
 	 *
-	 * @param cantidad Cantidad a retirar
+	 * @param centimos Cantidad a retirar en céntimos
 	 * @return true si la operación fue exitosa
 	 */
-	public abstract boolean retirada(double cantidad);
+	public abstract boolean retiradaCentimos(long centimos);
 
 	/**
 	 * Metodo abstracto para ingresar fondos.
 	 *
-	 * @param cantidad Cantidad a ingresar
+	 * @param centimos Cantidad a ingresar en céntimos
+	 * @throws ArithmeticException si el saldo resultante no cabe en un long; el saldo no cambia
+	 */
+	public abstract void ingresoCentimos(long centimos);
+
+	/**
+	 * Metodo abstracto para el cierre de mes de la cuenta, según su tipo.
+	 *
+	 * @param tasaPpm Interés de las cuentas de ahorro en partes por millón
+	 * @return Intereses añadidos al saldo, en céntimos
+	 * @throws ArithmeticException si el saldo con los intereses no cabe en un long; el saldo no cambia
+	 */
+	public abstract long cierreMesCentimos(long tasaPpm);
+
+	/**
+	 * Deshace una retirada ya hecha devolviendo todo lo que se descontó del saldo, comisión incluida.
+	 * La usa Banco para anular una transferencia entre particiones cuya salida ya se había reservado
+	 * (ver BancoParticionado).
+	 *
+	 * @param debito   Cantidad que descontó la retirada, en céntimos (cantidad más comisión)
+	 * @param mismoMes true si no ha habido un cierre de mes desde la retirada
+	 */
+	void deshacerRetirada(long debito, boolean mismoMes) {
+		setSaldoCentimos(getSaldoCentimos() + debito);
+		cambiada();
+	}
+
+	/**
+	 * Avisa al banco de la cuenta de que ha cambiado, para que el siguiente guardado incremental la
+	 * incluya. La llaman, después del cambio, todos los métodos que cambian el saldo o las retiradas
+	 * del mes; los que restauran lo guardado no.
+	 */
+	protected final void cambiada() {
+		Banco elBanco = banco;
+		if (elBanco != null) {
+			elBanco.anotarCambio(this);
+		}
+	}
+
+	/**
+	 * Saldo con el que quedaría una cuenta de este tipo abierta con el saldo actual como depósito
+	 * inicial, que es lo que da Banco.cargarFichero al leer una línea con ese saldo.
+	 *
+	 * @return Saldo al abrirla, en céntimos
+	 */
+	long saldoAlAbrir() {
+		return getSaldoCentimos();
+	}
+
+	/**
+	 * Devuelve las retiradas hechas en el mes actual, para guardarlas junto al saldo.
+	 * Solo las cuentan las cuentas corrientes.
+	 *
+	 * @return Retiradas del mes, o 0 si la cuenta no las cuenta
+	 */
+	int getRetiradasMes() {
+		return 0;
+	}
+
+	/**
+	 * Restaura las retiradas del mes al cargar cambios guardados (ver Banco.cargarCambios).
+	 *
+	 * @param retiradas Retiradas del mes guardadas
+	 */
+	void restaurarRetiradasMes(int retiradas) {
+	}
+
+	/**
+	 * Motivo por el que la cuenta ha rechazado una retirada, para las métricas del banco.
+	 * Se llama justo después de que retiradaCentimos devuelva false, con la misma cantidad.
+	 *
+	 * @param centimos Cantidad rechazada en céntimos
+	 * @return Motivo del rechazo
+	 */
+	abstract MetricasBanco.Motivo motivoRechazo(long centimos);
+
+	/**
+	 * Indica si la última retirada realizada con éxito ha cobrado comisión, para las métricas del banco.
+	 *
+	 * @return true si se cobró comisión
+	 */
+	abstract boolean comisionEnRetirada();
+
+	/**
+	 * Indica si los ingresos en la cuenta cobran comisión, para las métricas del banco.
+	 *
+	 * @return true si cada ingreso cobra comisión
 	 */
-	public abstract void ingreso(double cantidad);
+	abstract boolean comisionEnIngreso();
 }
\ No newline at end of file
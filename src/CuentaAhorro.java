@@ -12,6 +12,9 @@ public class CuentaAhorro extends Cuenta {
     public static final int SALDO_MINIMO = 10;
     public static final int DEPOSITO_BONIFICABLE = 3000;
     public static final int BONIFICACION_DEPOSITO = 100;
+    private static final long SALDO_MINIMO_CENTIMOS = SALDO_MINIMO * Dinero.CENTIMOS_POR_EURO;
+    private static final long DEPOSITO_BONIFICABLE_CENTIMOS = DEPOSITO_BONIFICABLE * Dinero.CENTIMOS_POR_EURO;
+    private static final long BONIFICACION_DEPOSITO_CENTIMOS = BONIFICACION_DEPOSITO * Dinero.CENTIMOS_POR_EURO;
 
     /**
      * Constructor de cuenta de ahorro.
@@ -21,9 +24,56 @@ public class CuentaAhorro extends Cuenta {
      * @param depositoInicial  Depósito inicial para abrir la cuenta.
      */
     public CuentaAhorro (Cliente titular, double depositoInicial) {
-        super (titular, (depositoInicial > DEPOSITO_BONIFICABLE
-                ? depositoInicial + BONIFICACION_DEPOSITO
-                : depositoInicial));
+        this(titular, Dinero.aCentimos(depositoInicial));
+    }
+
+    /**
+     * Constructor de cuenta de ahorro con el depósito inicial en céntimos.
+     * Es privado para que una llamada con un literal entero, como new CuentaAhorro(cliente, 3000),
+     * siga resolviéndose al constructor en euros. Desde fuera se usa deCentimos.
+     *
+     * @param titular                  Titular de la cuenta.
+     * @param depositoInicialCentimos  Depósito inicial en céntimos.
+     */
+    private CuentaAhorro (Cliente titular, long depositoInicialCentimos) {
+        super (titular, conBonificacion(depositoInicialCentimos));
+    }
+
+    /**
+     * Saldo inicial de una cuenta de ahorro: el depósito más el bonus si supera 3000€.
+     *
+     * @param depositoInicialCentimos Depósito inicial en céntimos.
+     * @return Saldo inicial en céntimos.
+     */
+    private static long conBonificacion(long depositoInicialCentimos) {
+        return depositoInicialCentimos > DEPOSITO_BONIFICABLE_CENTIMOS
+                ? depositoInicialCentimos + BONIFICACION_DEPOSITO_CENTIMOS
+                : depositoInicialCentimos;
+    }
+
+    /**
+     * Crea una cuenta de ahorro con el depósito inicial en céntimos.
+     *
+     * @param titular                  Titular de la cuenta.
+     * @param depositoInicialCentimos  Depósito inicial en céntimos.
+     * @return La nueva cuenta de ahorro.
+     */
+    public static CuentaAhorro deCentimos(Cliente titular, long depositoInicialCentimos) {
+        return new CuentaAhorro(titular, depositoInicialCentimos);
+    }
+
+    /**
+     * Crea una cuenta de ahorro con un saldo ya existente, por ejemplo al restaurar una instantánea.
+     * No es una apertura: no se aplica la bonificación del depósito inicial.
+     *
+     * @param titular        Titular de la cuenta.
+     * @param saldoCentimos  Saldo de la cuenta en céntimos.
+     * @return La cuenta de ahorro restaurada.
+     */
+    static CuentaAhorro restaurar(Cliente titular, long saldoCentimos) {
+        CuentaAhorro cuenta = new CuentaAhorro(titular, 0L);
+        cuenta.setSaldoCentimos(saldoCentimos);
+        return cuenta;
     }
 
     /**
@@ -31,15 +81,18 @@ public class CuentaAhorro extends Cuenta {
      * Verifica que el saldo no quede por debajo del mínimo permitido (10€).
      * Aplica una comisión de 2€ por operación.
      *
-     * @param cantidad Cantidad a retirar.
+     * @param centimos Cantidad a retirar en céntimos.
      * @return true si la operación es exitosa, false si no se cumple el saldo mínimo.
      */
     @Override
-    public boolean retirada(double cantidad) {
-        if (saldo <= SALDO_MINIMO || (saldo - cantidad - COMISION_RETIRADA) < SALDO_MINIMO) {
+    public boolean retiradaCentimos(long centimos) {
+        long saldoCentimos = getSaldoCentimos();
+        if (saldoCentimos <= SALDO_MINIMO_CENTIMOS
+                || (saldoCentimos - centimos - COMISION_RETIRADA_CENTIMOS) < SALDO_MINIMO_CENTIMOS) {
             return false;
         } else {
-            saldo -= cantidad + COMISION_RETIRADA;
+            setSaldoCentimos(saldoCentimos - (centimos + COMISION_RETIRADA_CENTIMOS));
+            cambiada();
             return true;
         }
     }
@@ -48,12 +101,14 @@ public class CuentaAhorro extends Cuenta {
      * Realiza un ingreso sin comisiones.
      * Acepta cualquier cantidad positiva.
      *
-     * @param cantidad Cantidad a ingresar.
+     * @param centimos Cantidad a ingresar en céntimos.
+     * @throws ArithmeticException si el saldo resultante no cabe en un long.
      */
     @Override
-    public void ingreso(double cantidad) {
-        if (cantidad > 0){
-            saldo += cantidad;
+    public void ingresoCentimos(long centimos) {
+        if (centimos > 0){
+            setSaldoCentimos(Math.addExact(getSaldoCentimos(), centimos));
+            cambiada();
         }
     }
 
@@ -62,12 +117,82 @@ public class CuentaAhorro extends Cuenta {
      *
      * @param tasa Tasa de interés en porcentaje (ej: 5.5 para 5.5%).
      * @return Cantidad de intereses añadidos al saldo.
+     * @throws ArithmeticException si el saldo resultante no cabe en un long (el saldo no cambia).
      */
     public double addInteres(double tasa) {
+        return Dinero.aEuros(addInteresCentimos(Dinero.tasaEnPpm(tasa)));
+    }
+
+    /**
+     * Calcula y añade intereses al saldo de la cuenta con aritmética entera.
+     * El redondeo al céntimo sigue la política de Dinero.intereses.
+     *
+     * @param tasaPpm Tasa de interés en partes por millón (ej: 55000 para 5.5%).
+     * @return Intereses añadidos al saldo, en céntimos.
+     * @throws ArithmeticException si el saldo resultante no cabe en un long (el saldo no cambia).
+     */
+    public long addInteresCentimos(long tasaPpm) {
         // El interés se aplica sobre el saldo actual antes de añadirlo.
-        double intereses = (tasa / 100) * saldo;
-        saldo += intereses;
+        long saldoCentimos = getSaldoCentimos();
+        long intereses = Dinero.intereses(saldoCentimos, tasaPpm);
+        setSaldoCentimos(Math.addExact(saldoCentimos, intereses));
+        if (intereses != 0) {
+            cambiada();
+        }
 
         return intereses;
     }
+
+    /**
+     * Al abrir una cuenta de ahorro con el saldo actual se le sumaría el bonus del depósito inicial.
+     *
+     * @return Saldo al abrirla, en céntimos.
+     */
+    @Override
+    long saldoAlAbrir() {
+        return conBonificacion(getSaldoCentimos());
+    }
+
+    /**
+     * Cierre de mes de una cuenta de ahorro: paga los intereses.
+     *
+     * @param tasaPpm Tasa de interés en partes por millón.
+     * @return Intereses añadidos al saldo, en céntimos.
+     * @throws ArithmeticException si el saldo resultante no cabe en un long (el saldo no cambia).
+     */
+    @Override
+    public long cierreMesCentimos(long tasaPpm) {
+        return addInteresCentimos(tasaPpm);
+    }
+
+    /**
+     * Una cuenta de ahorro solo rechaza retiradas que la dejarían por debajo del saldo mínimo.
+     *
+     * @param centimos Cantidad rechazada en céntimos.
+     * @return SALDO_MINIMO.
+     */
+    @Override
+    MetricasBanco.Motivo motivoRechazo(long centimos) {
+        return MetricasBanco.Motivo.SALDO_MINIMO;
+    }
+
+    /**
+     * Todas las retiradas de una cuenta de ahorro cobran comisión.
+     *
+     * @return true.
+     */
+    @Override
+    boolean comisionEnRetirada() {
+        return true;
+    }
+
+    /**
+     * Los ingresos en una cuenta de ahorro no cobran comisión.
+     *
+     * @return false.
+     */
+    @Override
+    boolean comisionEnIngreso() {
+        return false;
+    }
 }
\ No newline at end of file
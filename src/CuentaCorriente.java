@@ -9,10 +9,13 @@ public class CuentaCorriente extends Cuenta {
      * Atributos
      * - Número máximo de retiradas sin comisión (3 primeras retiradas).
      * - Comisión aplicada en cada ingreso (1 euro).
-     * - Contador de retiradas realizadas en el mes actual.
+     * - Contador de retiradas realizadas en el mes actual. Se lee y cambia con getNumeroRetiradas y
+     *   setNumeroRetiradas, porque en un banco por columnas está en la fila de la cuenta.
      */
     public static final int RETIRADAS_SIN_COMISION = 3;
     public static final int COMISION_INGRESO = 1;
+    static final long COMISION_INGRESO_CENTIMOS = COMISION_INGRESO * Dinero.CENTIMOS_POR_EURO;
+    private static final long RETIRADA_MINIMA_CENTIMOS = Dinero.CENTIMOS_POR_EURO;
     private int numeroRetiradas;
 
     /**
@@ -23,15 +26,111 @@ public class CuentaCorriente extends Cuenta {
      * @param depositoInicial Depósito inicial para abrir la cuenta.
      */
     public CuentaCorriente(Cliente titular, double depositoInicial) {
-        super(titular, depositoInicial);
+        this(titular, Dinero.aCentimos(depositoInicial));
+    }
+
+    /**
+     * Constructor de cuenta corriente con el depósito inicial en céntimos.
+     * Es privado por el mismo motivo que en CuentaAhorro; desde fuera se usa deCentimos.
+     *
+     * @param titular                 Titular de la cuenta.
+     * @param depositoInicialCentimos Depósito inicial en céntimos.
+     */
+    private CuentaCorriente(Cliente titular, long depositoInicialCentimos) {
+        super(titular, depositoInicialCentimos);
         numeroRetiradas = 0;
     }
 
+    /**
+     * Crea una cuenta corriente con el depósito inicial en céntimos.
+     *
+     * @param titular                 Titular de la cuenta.
+     * @param depositoInicialCentimos Depósito inicial en céntimos.
+     * @return La nueva cuenta corriente.
+     */
+    public static CuentaCorriente deCentimos(Cliente titular, long depositoInicialCentimos) {
+        return new CuentaCorriente(titular, depositoInicialCentimos);
+    }
+
+    /**
+     * Crea una cuenta corriente con un saldo y un contador de retiradas ya existentes,
+     * por ejemplo al restaurar una instantánea. No es una apertura: no pasa por el depósito inicial.
+     *
+     * @param titular         Titular de la cuenta.
+     * @param saldoCentimos   Saldo de la cuenta en céntimos.
+     * @param numeroRetiradas Retiradas realizadas en el mes actual.
+     * @return La cuenta corriente restaurada.
+     */
+    static CuentaCorriente restaurar(Cliente titular, long saldoCentimos, int numeroRetiradas) {
+        CuentaCorriente cuenta = new CuentaCorriente(titular, saldoCentimos);
+        cuenta.numeroRetiradas = numeroRetiradas;
+        return cuenta;
+    }
+
     /**
      * Reinicia el contador de retiradas mensuales a 0.
      */
     public void reseteaNumeroRetiradas() {
-        numeroRetiradas = 0;
+        if (getNumeroRetiradas() != 0) {
+            setNumeroRetiradas(0);
+            cambiada();
+        }
+    }
+
+    /**
+     * Cierre de mes de una cuenta corriente: resetea el contador de retiradas. No paga intereses.
+     *
+     * @param tasaPpm Interés de las cuentas de ahorro (no se usa).
+     * @return 0, porque no se pagan intereses.
+     */
+    @Override
+    public long cierreMesCentimos(long tasaPpm) {
+        reseteaNumeroRetiradas();
+        return 0;
+    }
+
+    /**
+     * Devuelve el número de retiradas realizadas en el mes actual.
+     *
+     * @return Contador de retiradas.
+     */
+    public int getNumeroRetiradas() {
+        ColumnasCuentas lasColumnas = columnas;
+        return (lasColumnas == null) ? numeroRetiradas : lasColumnas.retiradas[fila];
+    }
+
+    /**
+     * Cambia el contador de retiradas, en la fila de la cuenta si el banco la guarda por columnas.
+     *
+     * @param retiradas Retiradas del mes.
+     */
+    private void setNumeroRetiradas(int retiradas) {
+        ColumnasCuentas lasColumnas = columnas;
+        if (lasColumnas == null) {
+            numeroRetiradas = retiradas;
+        } else {
+            lasColumnas.retiradas[fila] = retiradas;
+        }
+    }
+
+    /**
+     * Las retiradas del mes son las del contador.
+     *
+     * @return Contador de retiradas.
+     */
+    @Override
+    int getRetiradasMes() {
+        return getNumeroRetiradas();
+    }
+
+    /**
+     * Restaura el contador de retiradas guardado.
+     *
+     * @param retiradas Retiradas del mes guardadas.
+     */
+    @Override
+    void restaurarRetiradasMes(int retiradas) {
+        setNumeroRetiradas(retiradas);
     }
 
     /**
@@ -39,36 +138,90 @@ public class CuentaCorriente extends Cuenta {
      * Aplica comisión de 2€ a partir de la cuarta retirada.
      * No permite saldos negativos ni cantidades inválidas.
      *
-     * @param cantidad Cantidad a retirar.
+     * @param centimos Cantidad a retirar en céntimos (al menos 1€).
      * @return true si la operación es exitosa, false si no hay saldo suficiente o cantidad inválida.
      */
     @Override
-    public boolean retirada(double cantidad) {
-        if (cantidad > saldo || cantidad < 1) {
+    public boolean retiradaCentimos(long centimos) {
+        long saldoCentimos = getSaldoCentimos();
+        if (centimos > saldoCentimos || centimos < RETIRADA_MINIMA_CENTIMOS) {
             return false;
         }
 
-        numeroRetiradas++;
+        int numeroRetiradas = getNumeroRetiradas() + 1;
+        setNumeroRetiradas(numeroRetiradas);
 
         if (numeroRetiradas > RETIRADAS_SIN_COMISION) {
-            saldo -= cantidad + COMISION_RETIRADA;
+            setSaldoCentimos(saldoCentimos - (centimos + COMISION_RETIRADA_CENTIMOS));
         } else {
-            saldo -= cantidad;
+            setSaldoCentimos(saldoCentimos - centimos);
         }
+        cambiada();
 
         return true;
     }
 
+    /**
+     * Deshace una retirada: devuelve lo descontado y, si sigue siendo el mismo mes, también la retirada
+     * del contador (tras un cierre de mes el contador ya se ha reseteado).
+     *
+     * @param debito   Cantidad que descontó la retirada, en céntimos (cantidad más comisión).
+     * @param mismoMes true si no ha habido un cierre de mes desde la retirada.
+     */
+    @Override
+    void deshacerRetirada(long debito, boolean mismoMes) {
+        super.deshacerRetirada(debito, mismoMes);
+        int numeroRetiradas = getNumeroRetiradas();
+        if (mismoMes && numeroRetiradas > 0) {
+            setNumeroRetiradas(numeroRetiradas - 1);
+        }
+    }
+
     /**
      * Sobrescribe el metodo ingreso de la clase padre.
      * Aplica una comisión de 1€ por cada ingreso.
      *
-     * @param cantidad Cantidad a ingresar (debe ser positiva).
+     * @param centimos Cantidad a ingresar en céntimos (debe ser positiva).
+     * @throws ArithmeticException si el saldo resultante no cabe en un long.
      */
     @Override
-    public void ingreso(double cantidad) {
-        if (cantidad > 0) {
-            saldo += cantidad - COMISION_INGRESO;
+    public void ingresoCentimos(long centimos) {
+        if (centimos > 0) {
+            setSaldoCentimos(Math.addExact(getSaldoCentimos(), centimos - COMISION_INGRESO_CENTIMOS));
+            cambiada();
         }
     }
+
+    /**
+     * Una cuenta corriente rechaza las retiradas de menos de 1€ y las que superan el saldo.
+     *
+     * @param centimos Cantidad rechazada en céntimos.
+     * @return IMPORTE_NO_VALIDO o SALDO_INSUFICIENTE.
+     */
+    @Override
+    MetricasBanco.Motivo motivoRechazo(long centimos) {
+        return (centimos < RETIRADA_MINIMA_CENTIMOS)
+                ? MetricasBanco.Motivo.IMPORTE_NO_VALIDO
+                : MetricasBanco.Motivo.SALDO_INSUFICIENTE;
+    }
+
+    /**
+     * La retirada cobra comisión a partir de la cuarta del mes.
+     *
+     * @return true si la última retirada superó las retiradas sin comisión.
+     */
+    @Override
+    boolean comisionEnRetirada() {
+        return getNumeroRetiradas() > RETIRADAS_SIN_COMISION;
+    }
+
+    /**
+     * Todos los ingresos en una cuenta corriente cobran comisión.
+     *
+     * @return true.
+     */
+    @Override
+    boolean comisionEnIngreso() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,517 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * Diario binario de solo escritura al final (write-ahead log) con las operaciones que modifican el Banco.
+ * Cada operación se anota en memoria con el cerrojo que la protege todavía tomado, de modo que el orden del
+ * diario coincide con el orden en que se aplicaron las operaciones que comparten cuenta.
+ * Después, fuera de los cerrojos, sincronizar espera a que la operación esté en disco.
+ *
+ * Confirmación en grupo (group commit): el hilo que encuentra el disco libre escribe de una vez todo lo
+ * anotado hasta ese momento y hace un único force; los hilos que esperaban con una secuencia ya cubierta
+ * vuelven sin hacer nada. Así muchas operaciones concurrentes comparten cada fsync.
+ *
+ * Formato del fichero:
+ * - Cabecera: marca, versión, longitud y CRC32 del fichero de cuentas (la instantánea) sobre el que se aplica.
+ * - Registros: longitud (int), tipo (byte), datos y CRC32 de tipo y datos (int).
+ * Al recuperar, un registro incompleto o con CRC erróneo marca el final del diario (escritura cortada por
+ * una caída) y se descarta junto con todo lo que venga detrás.
+ */
+public class DiarioTransacciones implements Closeable {
+
+    /**
+     * Atributos:
+     * - Marca y versión del formato.
+     * - Tipos de registro.
+     * - Canal del fichero, abierto para escribir al final.
+     * - Buffer con lo anotado y aún no escrito, y buffer libre para el intercambio.
+     * - Secuencia de la última operación anotada y de la última que está en disco.
+     * - Indica si algún hilo está escribiendo en este momento.
+     * - Error de la última escritura fallida: a partir de ahí el diario ya no es fiable y no se usa más.
+     * - Número de operaciones recuperadas al abrir el diario.
+     */
+    private static final int MARCA = 0x44494152; // "DIAR"
+    private static final int VERSION = 1;
+    private static final int TAMANYO_CABECERA = 4 + 4 + 8 + 8;
+    private static final int TAMANYO_BUFFER = 64 * 1024;
+
+    static final byte TRANSFERENCIA = 1;
+    static final byte INGRESO = 2;
+    static final byte RETIRADA = 3;
+    static final byte INTERES = 4;
+    static final byte RESET = 5;
+    static final byte ELIMINAR = 6;
+    static final byte ORDENAR = 7;
+    static final byte CIERRE_MES = 8;
+    static final byte RESERVA = 9;
+    static final byte ABONO = 10;
+    static final byte CONFIRMAR_RESERVA = 11;
+    static final byte ANULAR_RESERVA = 12;
+
+    private final FileChannel canal;
+    private final CRC32 crc;
+    private ByteBuffer pendiente;
+    private ByteBuffer libre;
+    private long anotada;
+    private long persistida;
+    private boolean escribiendo;
+    private IOException averia;
+    private int recuperadas;
+
+    /**
+     * Constructor privado; los diarios se obtienen con abrir.
+     *
+     * @param canal Canal del fichero, ya posicionado al final de los registros válidos.
+     */
+    private DiarioTransacciones(FileChannel canal) {
+        this.canal = canal;
+        this.crc = new CRC32();
+        this.pendiente = ByteBuffer.allocate(TAMANYO_BUFFER);
+        this.libre = ByteBuffer.allocate(TAMANYO_BUFFER);
+    }
+
+    /**
+     * Calcula la huella (CRC32) de un fichero de cuentas, que identifica la instantánea sobre la que se
+     * aplica un diario.
+     *
+     * @param fichero Fichero de cuentas.
+     * @return CRC32 del contenido del fichero.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    public static long huella(Path fichero) throws IOException {
+        CRC32 crcFichero = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        try (FileChannel lectura = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            while (lectura.read(buffer) != -1) {
+                buffer.flip();
+                crcFichero.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crcFichero.getValue();
+    }
+
+    /**
+     * Abre el diario asociado a un fichero de cuentas.
+     * Si el diario ya existe, reproduce sus operaciones sobre el banco (que debe tener ya cargada la
+     * instantánea y ningún diario asignado), descarta la cola cortada si la hay y deja el diario listo
+     * para seguir anotando. Si no existe, lo crea con la cabecera de la instantánea.
+     *
+     * @param fichero          Fichero del diario.
+     * @param longitudBase     Longitud en bytes del fichero de cuentas.
+     * @param huellaBase       Huella del fichero de cuentas, calculada con huella.
+     * @param banco            Banco sobre el que se reproducen las operaciones.
+     * @return El diario abierto.
+     * @throws IOException si no se puede leer o escribir el diario, o si corresponde a otro fichero de cuentas.
+     */
+    public static DiarioTransacciones abrir(Path fichero, long longitudBase, long huellaBase, Banco banco)
+            throws IOException {
+        FileChannel canal = FileChannel.open(fichero,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            int recuperadas = 0;
+            if (canal.size() == 0) {
+                ByteBuffer cabecera = ByteBuffer.allocate(TAMANYO_CABECERA);
+                cabecera.putInt(MARCA).putInt(VERSION).putLong(longitudBase).putLong(huellaBase).flip();
+                while (cabecera.hasRemaining()) {
+                    canal.write(cabecera);
+                }
+                canal.force(true);
+            } else {
+                comprobarCabecera(canal, longitudBase, huellaBase);
+                long finValido = TAMANYO_CABECERA;
+                DataInputStream entrada = new DataInputStream(new BufferedInputStream(
+                        Channels.newInputStream(canal.position(TAMANYO_CABECERA)), 1 << 16));
+                CRC32 crcLectura = new CRC32();
+                byte[] registro = new byte[256];
+                while (true) {
+                    int longitud;
+                    try {
+                        longitud = entrada.readInt();
+                        if (longitud <= 0 || longitud > canal.size()) {
+                            break;
+                        }
+                        if (registro.length < longitud) {
+                            registro = new byte[longitud];
+                        }
+                        entrada.readFully(registro, 0, longitud);
+                        crcLectura.reset();
+                        crcLectura.update(registro, 0, longitud);
+                        if ((int) crcLectura.getValue() != entrada.readInt()) {
+                            break;
+                        }
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    aplicar(ByteBuffer.wrap(registro, 0, longitud), banco);
+                    finValido += 4 + longitud + 4;
+                    recuperadas++;
+                }
+                // Se descarta la cola cortada para que las nuevas anotaciones queden detrás de registros válidos
+                canal.truncate(finValido);
+            }
+            canal.position(canal.size());
+
+            DiarioTransacciones diario = new DiarioTransacciones(canal);
+            diario.recuperadas = recuperadas;
+            return diario;
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Comprueba que la cabecera del diario es válida y corresponde al fichero de cuentas indicado.
+     *
+     * @param canal        Canal del diario.
+     * @param longitudBase Longitud del fichero de cuentas.
+     * @param huellaBase   Huella del fichero de cuentas.
+     * @throws IOException si la cabecera no es válida o es de otro fichero de cuentas.
+     */
+    private static void comprobarCabecera(FileChannel canal, long longitudBase, long huellaBase) throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(TAMANYO_CABECERA);
+        canal.position(0);
+        while (cabecera.hasRemaining() && canal.read(cabecera) != -1) {
+            // Se sigue leyendo hasta completar la cabecera
+        }
+        cabecera.flip();
+        if (cabecera.remaining() < TAMANYO_CABECERA || cabecera.getInt() != MARCA) {
+            throw new IOException("El fichero no es un diario de transacciones");
+        }
+        int version = cabecera.getInt();
+        if (version != VERSION) {
+            throw new IOException("Versión de diario no soportada: " + version);
+        }
+        if (cabecera.getLong() != longitudBase || cabecera.getLong() != huellaBase) {
+            throw new IOException("El diario no corresponde al fichero de cuentas cargado");
+        }
+    }
+
+    /**
+     * Aplica al banco la operación de un registro del diario.
+     *
+     * @param registro Tipo y datos del registro.
+     * @param banco    Banco sobre el que se aplica.
+     * @throws IOException si el tipo de registro es desconocido.
+     */
+    private static void aplicar(ByteBuffer registro, Banco banco) throws IOException {
+        byte tipo = registro.get();
+        switch (tipo) {
+            case TRANSFERENCIA:
+                banco.transferenciaCentimos(leerTexto(registro), leerTexto(registro), registro.getLong());
+                break;
+            case INGRESO:
+                banco.ingresoCentimos(leerTexto(registro), registro.getLong());
+                break;
+            case RETIRADA:
+                banco.retiradaCentimos(leerTexto(registro), registro.getLong());
+                break;
+            case INTERES:
+                banco.addInteresCentimos(registro.getLong());
+                break;
+            case RESET:
+                banco.reset();
+                break;
+            case ELIMINAR:
+                banco.eliminarCliente(new Cliente(leerTexto(registro), leerTexto(registro)));
+                break;
+            case ORDENAR:
+                banco.ordenarCuentas();
+                break;
+            case CIERRE_MES:
+                banco.cierreMesCentimos(registro.getLong());
+                break;
+            case RESERVA: {
+                long idReserva = registro.getLong();
+                banco.reservarSalida(idReserva, leerTexto(registro), registro.getLong());
+                break;
+            }
+            case ABONO: {
+                long idReserva = registro.getLong();
+                banco.abonarEntrada(idReserva, leerTexto(registro), registro.getLong());
+                break;
+            }
+            case CONFIRMAR_RESERVA:
+                banco.confirmarSalida(registro.getLong());
+                break;
+            case ANULAR_RESERVA:
+                banco.anularSalida(registro.getLong());
+                break;
+            default:
+                throw new IOException("Tipo de registro desconocido en el diario: " + tipo);
+        }
+    }
+
+    /**
+     * Devuelve el número de operaciones reproducidas al abrir el diario.
+     *
+     * @return Operaciones recuperadas.
+     */
+    public int getRecuperadas() {
+        return recuperadas;
+    }
+
+    /**
+     * Anota una transferencia realizada.
+     *
+     * @param dniOrigen  DNI de la cuenta de origen.
+     * @param dniDestino DNI de la cuenta de destino.
+     * @param centimos   Cantidad transferida en céntimos.
+     * @return Secuencia de la anotación, para sincronizar.
+     */
+    public synchronized long anotarTransferencia(String dniOrigen, String dniDestino, long centimos) {
+        int inicio = empezar(TRANSFERENCIA, longitudTexto(dniOrigen) + longitudTexto(dniDestino) + 8);
+        escribirTexto(dniOrigen);
+        escribirTexto(dniDestino);
+        pendiente.putLong(centimos);
+        return terminar(inicio);
+    }
+
+    /**
+     * Anota un ingreso o una retirada realizados.
+     *
+     * @param tipo     INGRESO o RETIRADA.
+     * @param dni      DNI de la cuenta.
+     * @param centimos Cantidad en céntimos.
+     * @return Secuencia de la anotación, para sincronizar.
+     */
+    public synchronized long anotarMovimiento(byte tipo, String dni, long centimos) {
+        int inicio = empezar(tipo, longitudTexto(dni) + 8);
+        escribirTexto(dni);
+        pendiente.putLong(centimos);
+        return terminar(inicio);
+    }
+
+    /**
+     * Anota una de las fases de una transferencia entre particiones con su reserva: la reserva de la salida
+     * (ver Banco.reservarSalida) o el abono de la entrada (ver Banco.abonarEntrada).
+     *
+     * @param tipo      RESERVA o ABONO.
+     * @param idReserva Identificador de la reserva.
+     * @param dni       DNI de la cuenta de origen o de destino.
+     * @param centimos  Cantidad reservada o abonada en céntimos.
+     * @return Secuencia de la anotación, para sincronizar.
+     */
+    public synchronized long anotarReserva(byte tipo, long idReserva, String dni, long centimos) {
+        int inicio = empezar(tipo, 8 + longitudTexto(dni) + 8);
+        pendiente.putLong(idReserva);
+        escribirTexto(dni);
+        pendiente.putLong(centimos);
+        return terminar(inicio);
+    }
+
+    /**
+     * Anota el final de una reserva: su confirmación o su anulación.
+     *
+     * @param tipo      CONFIRMAR_RESERVA o ANULAR_RESERVA.
+     * @param idReserva Identificador de la reserva.
+     * @return Secuencia de la anotación, para sincronizar.
+     */
+    public synchronized long anotarFinReserva(byte tipo, long idReserva) {
+        int inicio = empezar(tipo, 8);
+        pendiente.putLong(idReserva);
+        return terminar(inicio);
+    }
+
+    /**
+     * Anota un pago de intereses a las cuentas de ahorro.
+     *
+     * @param tasaPpm Tasa aplicada en partes por millón.
+     * @return Secuencia de la anotación, para sincronizar.
+     */
+    public synchronized long anotarInteres(long tasaPpm) {
+        int inicio = empezar(INTERES, 8);
+        pendiente.putLong(tasaPpm);
+        return terminar(inicio);
+    }
+
+    /**
+     * Anota el punto de corte de un cierre de mes. Las operaciones anotadas antes se aplicaron a las
+     * cuentas antes de su cierre y las anotadas después, tras él (ver Banco.cierreMesCentimos).
+     *
+     * @param tasaPpm Tasa de las cuentas de ahorro en partes por millón.
+     * @return Secuencia de la anotación, para sincronizar.
+     */
+    public synchronized long anotarCierreMes(long tasaPpm) {
+        int inicio = empezar(CIERRE_MES, 8);
+        pendiente.putLong(tasaPpm);
+        return terminar(inicio);
+    }
+
+    /**
+     * Anota una operación sin datos (RESET u ORDENAR).
+     *
+     * @param tipo Tipo de la operación.
+     * @return Secuencia de la anotación, para sincronizar.
+     */
+    public synchronized long anotar(byte tipo) {
+        return terminar(empezar(tipo, 0));
+    }
+
+    /**
+     * Anota la eliminación de un cliente.
+     *
+     * @param elCliente Cliente eliminado.
+     * @return Secuencia de la anotación, para sincronizar.
+     */
+    public synchronized long anotarEliminacion(Cliente elCliente) {
+        int inicio = empezar(ELIMINAR, longitudTexto(elCliente.getDni()) + longitudTexto(elCliente.getNombre()));
+        escribirTexto(elCliente.getDni());
+        escribirTexto(elCliente.getNombre());
+        return terminar(inicio);
+    }
+
+    /**
+     * Espera a que la operación con la secuencia indicada (y todas las anteriores) esté en disco.
+     * Si nadie está escribiendo, este hilo escribe todo lo anotado hasta ahora con un único force.
+     *
+     * @param secuencia Secuencia devuelta al anotar.
+     * @throws IOException si falla la escritura o el hilo es interrumpido mientras espera.
+     */
+    public void sincronizar(long secuencia) throws IOException {
+        ByteBuffer lote;
+        long hasta;
+        synchronized (this) {
+            while (persistida < secuencia && escribiendo) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrumpido esperando al diario");
+                }
+            }
+            if (persistida >= secuencia) {
+                return;
+            }
+            if (averia != null) {
+                throw new IOException("El diario dejó de escribirse por un error anterior", averia);
+            }
+            escribiendo = true;
+            lote = pendiente;
+            pendiente = libre;
+            libre = null;
+            hasta = anotada;
+        }
+
+        boolean escrito = false;
+        try {
+            lote.flip();
+            while (lote.hasRemaining()) {
+                canal.write(lote);
+            }
+            canal.force(false);
+            escrito = true;
+        } catch (IOException e) {
+            synchronized (this) {
+                averia = e;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                lote.clear();
+                libre = lote;
+                if (escrito) {
+                    persistida = hasta;
+                }
+                escribiendo = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Escribe lo pendiente y cierra el diario.
+     *
+     * @throws IOException si falla la escritura.
+     */
+    @Override
+    public void close() throws IOException {
+        long ultima;
+        synchronized (this) {
+            ultima = anotada;
+        }
+        try {
+            sincronizar(ultima);
+        } finally {
+            canal.close();
+        }
+    }
+
+    /**
+     * Reserva espacio para un registro y escribe su tipo, dejando hueco para la longitud.
+     *
+     * @param tipo  Tipo del registro.
+     * @param datos Tamaño máximo de los datos del registro.
+     * @return Posición del registro dentro del buffer pendiente.
+     */
+    private int empezar(byte tipo, int datos) {
+        int necesario = 4 + 1 + datos + 4;
+        if (pendiente.remaining() < necesario) {
+            ByteBuffer mayor = ByteBuffer.allocate(Math.max(pendiente.capacity() * 2, pendiente.position() + necesario));
+            pendiente.flip();
+            mayor.put(pendiente);
+            pendiente = mayor;
+        }
+        int inicio = pendiente.position();
+        pendiente.putInt(0);
+        pendiente.put(tipo);
+        return inicio;
+    }
+
+    /**
+     * Completa la longitud y el CRC del registro empezado en la posición indicada.
+     *
+     * @param inicio Posición del registro dentro del buffer pendiente.
+     * @return Secuencia asignada al registro.
+     */
+    private long terminar(int inicio) {
+        int longitud = pendiente.position() - inicio - 4;
+        pendiente.putInt(inicio, longitud);
+        crc.reset();
+        crc.update(pendiente.array(), inicio + 4, longitud);
+        pendiente.putInt((int) crc.getValue());
+        return ++anotada;
+    }
+
+    /**
+     * Tamaño máximo que ocupa un texto al escribirlo con escribirTexto.
+     *
+     * @param texto Texto a escribir.
+     * @return Bytes necesarios como mucho.
+     */
+    private static int longitudTexto(String texto) {
+        // En UTF-8 cada char ocupa como mucho 3 bytes
+        return 2 + 3 * texto.length();
+    }
+
+    /**
+     * Escribe un texto en el buffer pendiente como longitud (short) y bytes UTF-8.
+     *
+     * @param texto Texto a escribir.
+     */
+    private void escribirTexto(String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        pendiente.putShort((short) bytes.length);
+        pendiente.put(bytes);
+    }
+
+    /**
+     * Lee un texto escrito con escribirTexto.
+     *
+     * @param registro Buffer del registro.
+     * @return Texto leído.
+     */
+    private static String leerTexto(ByteBuffer registro) {
+        int longitud = registro.getShort() & 0xFFFF;
+        String texto = new String(registro.array(), registro.arrayOffset() + registro.position(),
+                longitud, StandardCharsets.UTF_8);
+        registro.position(registro.position() + longitud);
+        return texto;
+    }
+}
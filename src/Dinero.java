@@ -0,0 +1,74 @@
+/**
+ * Utilidades para trabajar con cantidades de dinero en céntimos.
+ * Los saldos y las cantidades se guardan como long en céntimos, así que sumas, restas
+ * y comparaciones son exactas y no acumulan errores de redondeo.
+ * La API en euros (double) de las cuentas se convierte aquí a céntimos una sola vez.
+ */
+public final class Dinero {
+
+    /**
+     * Atributos:
+     * - Céntimos que tiene un euro.
+     * - Escala de las tasas de interés: una tasa se guarda en partes por millón (5.5% = 55000).
+     */
+    public static final int CENTIMOS_POR_EURO = 100;
+    public static final long PARTES_POR_MILLON = 1_000_000;
+
+    private Dinero() {
+    }
+
+    /**
+     * Convierte una cantidad en euros a céntimos, redondeando al céntimo más cercano.
+     *
+     * @param euros Cantidad en euros.
+     * @return Cantidad en céntimos.
+     */
+    public static long aCentimos(double euros) {
+        return Math.round(euros * CENTIMOS_POR_EURO);
+    }
+
+    /**
+     * Convierte una cantidad en céntimos a euros.
+     *
+     * @param centimos Cantidad en céntimos.
+     * @return Cantidad en euros.
+     */
+    public static double aEuros(long centimos) {
+        return (double) centimos / CENTIMOS_POR_EURO;
+    }
+
+    /**
+     * Convierte una tasa en porcentaje (ej: 5.5 para 5.5%) a partes por millón.
+     *
+     * @param tasa Tasa en porcentaje.
+     * @return Tasa en partes por millón, redondeada a la parte más cercana.
+     */
+    public static long tasaEnPpm(double tasa) {
+        return Math.round(tasa * (PARTES_POR_MILLON / 100));
+    }
+
+    /**
+     * Calcula los intereses de un saldo con aritmética entera.
+     * Política de redondeo: al céntimo más cercano y, si el resultado queda exactamente
+     * a medio céntimo, al céntimo par (redondeo bancario, HALF_EVEN).
+     * El saldo se parte en millones y resto para que el producto no desborde con tasas de hasta el 100%.
+     *
+     * @param saldoCentimos Saldo en céntimos sobre el que se calculan los intereses.
+     * @param tasaPpm       Tasa en partes por millón.
+     * @return Intereses en céntimos.
+     * @throws ArithmeticException si los intereses no caben en un long.
+     */
+    public static long intereses(long saldoCentimos, long tasaPpm) {
+        long millones = Math.floorDiv(saldoCentimos, PARTES_POR_MILLON);
+        long producto = Math.multiplyExact(Math.floorMod(saldoCentimos, PARTES_POR_MILLON), tasaPpm);
+        long cociente = Math.addExact(Math.multiplyExact(millones, tasaPpm),
+                Math.floorDiv(producto, PARTES_POR_MILLON));
+        long resto = Math.floorMod(producto, PARTES_POR_MILLON);
+        long mitad = PARTES_POR_MILLON / 2;
+
+        if (resto > mitad || (resto == mitad && (cociente & 1) != 0)) {
+            cociente++;
+        }
+        return cociente;
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Genera ficheros de cuentas con el formato de Banco.cargarFichero y distribuciones parecidas a las reales,
+ * para pruebas de carga (ver CargaTransferencias):
+ * - DNI de 8 cifras distintas para cada cliente, con su letra de control.
+ * - Varias cuentas por cliente: la mayoría tiene una, bastantes dos y unos pocos hasta cinco.
+ * - Algo más de cuentas corrientes que de ahorro.
+ * - Saldos sesgados (distribución log-normal): la mayoría de unos cientos o miles de euros y unas pocas
+ *   cuentas con cientos de miles.
+ * Con la misma semilla se genera siempre el mismo fichero.
+ */
+public class GeneradorCuentas {
+
+    /**
+     * Atributos:
+     * - Letras de control del DNI, por el resto de dividir el número entre 23.
+     * - Nombres de los clientes (una sola palabra, porque el formato separa los campos por espacios).
+     * - Probabilidad acumulada de tener 1, 2, 3, 4 y 5 cuentas.
+     * - Probabilidad de que una cuenta sea de ahorro.
+     * - Mediana y dispersión (en escala logarítmica) del saldo, y saldo máximo en euros.
+     */
+    private static final String LETRAS_DNI = "TRWAGMYFPDXBNJZSQVHLCKE";
+    private static final int NUMEROS_DNI = 100_000_000;
+    private static final String[] NOMBRES = {
+        "Lucas", "Alicia", "Peio", "Isabel", "Asier", "Maria", "Jon", "Ane", "Hugo", "Lucia", "Mikel", "Paula",
+        "Daniel", "Sara", "Iker", "Laura", "Pablo", "Carmen", "Unai", "Marta", "Javier", "Elena", "Aitor",
+        "Nerea", "Sergio", "Irene", "David", "Amaia", "Alvaro", "Julia", "Diego", "Leire", "Mario", "Claudia",
+        "Adrian", "Ainhoa", "Jorge", "Noelia", "Ruben", "Miren"
+    };
+    private static final double[] CUENTAS_POR_CLIENTE = {0.60, 0.85, 0.95, 0.98, 1.0};
+    private static final double PROBABILIDAD_AHORRO = 0.45;
+    private static final double SALDO_MEDIANO = 1500;
+    private static final double DISPERSION_SALDO = 1.3;
+    private static final double SALDO_MAXIMO = 10_000_000;
+
+    private final SplittableRandom aleatorio;
+    private final BitSet dnisUsados;
+
+    /**
+     * Crea un generador.
+     *
+     * @param semilla Semilla de los números aleatorios.
+     */
+    public GeneradorCuentas(long semilla) {
+        aleatorio = new SplittableRandom(semilla);
+        dnisUsados = new BitSet(NUMEROS_DNI);
+    }
+
+    /**
+     * Escribe un fichero con el número de cuentas indicado. La última cuenta puede quedar como la única
+     * de su cliente aunque le tocaran más.
+     *
+     * @param fichero    Fichero de cuentas.
+     * @param numCuentas Número de cuentas.
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    public void generar(Path fichero, int numCuentas) throws IOException {
+        try (BufferedWriter salida = Files.newBufferedWriter(fichero, StandardCharsets.UTF_8)) {
+            StringBuilder linea = new StringBuilder(64);
+            int escritas = 0;
+            while (escritas < numCuentas) {
+                String dni = nuevoDni();
+                String nombre = NOMBRES[aleatorio.nextInt(NOMBRES.length)];
+                int cuentas = Math.min(cuentasCliente(), numCuentas - escritas);
+                for (int i = 0; i < cuentas; i++) {
+                    linea.setLength(0);
+                    long centimos = saldoCentimos();
+                    int resto = (int) (centimos % Dinero.CENTIMOS_POR_EURO);
+                    linea.append(dni).append(' ').append(nombre).append(' ')
+                            .append(centimos / Dinero.CENTIMOS_POR_EURO).append('.').append(resto / 10).append(resto % 10)
+                            .append(' ').append(aleatorio.nextDouble() < PROBABILIDAD_AHORRO ? 'A' : 'C');
+                    salida.write(linea.toString());
+                    salida.newLine();
+                }
+                escritas += cuentas;
+            }
+        }
+    }
+
+    /**
+     * Devuelve un DNI que todavía no tiene ningún cliente.
+     *
+     * @return DNI de 8 cifras y su letra de control.
+     */
+    private String nuevoDni() {
+        int numero;
+        do {
+            numero = aleatorio.nextInt(NUMEROS_DNI);
+        } while (dnisUsados.get(numero));
+        dnisUsados.set(numero);
+        return dni(numero);
+    }
+
+    /**
+     * Forma el DNI de un número, con su letra de control.
+     *
+     * @param numero Número del DNI, entre 0 y 99999999.
+     * @return DNI de 8 cifras y una letra.
+     */
+    static String dni(int numero) {
+        return String.format(Locale.ROOT, "%08d%c", numero, LETRAS_DNI.charAt(numero % LETRAS_DNI.length()));
+    }
+
+    /**
+     * Número de cuentas de un cliente nuevo.
+     *
+     * @return Entre 1 y 5 cuentas.
+     */
+    private int cuentasCliente() {
+        double u = aleatorio.nextDouble();
+        int cuentas = 1;
+        while (u >= CUENTAS_POR_CLIENTE[cuentas - 1]) {
+            cuentas++;
+        }
+        return cuentas;
+    }
+
+    /**
+     * Saldo de una cuenta nueva, con distribución log-normal.
+     *
+     * @return Saldo en céntimos, entre 0 y SALDO_MAXIMO euros.
+     */
+    private long saldoCentimos() {
+        return Dinero.aCentimos(Math.min(SALDO_MAXIMO, SALDO_MEDIANO * Math.exp(DISPERSION_SALDO * normal())));
+    }
+
+    /**
+     * Número aleatorio con distribución normal estándar (método de Box-Muller).
+     *
+     * @return Valor normal de media 0 y desviación 1.
+     */
+    private double normal() {
+        double u = 1 - aleatorio.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * aleatorio.nextDouble());
+    }
+
+    /**
+     * Genera un fichero de cuentas:
+     * java GeneradorCuentas numero-de-cuentas fichero [semilla]
+     *
+     * @param args Número de cuentas, fichero y, opcionalmente, semilla (por defecto 1).
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Uso: java GeneradorCuentas numero-de-cuentas fichero [semilla]");
+            System.exit(2);
+        }
+        int numCuentas = Integer.parseInt(args[0]);
+        long semilla = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+        new GeneradorCuentas(semilla).generar(Paths.get(args[1]), numCuentas);
+        System.out.println("Se han generado " + numCuentas + " cuentas en " + args[1]);
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias en nanosegundos, con precisión relativa fija, al estilo de HdrHistogram.
+ *
+ * Cada potencia de dos se divide en SUBCUBOS cubos iguales, así que un valor se guarda con un error
+ * de como mucho 1/SUBCUBOS (un 3%) sea cual sea su magnitud, y todo el rango de un long cabe en
+ * menos de 2000 contadores. Anotar un valor no reserva memoria ni toma cerrojos: solo incrementa
+ * un contador atómico. Se puede anotar desde varios hilos a la vez.
+ */
+public class HistogramaLatencias {
+
+    /**
+     * Atributos:
+     * - Bits y número de subcubos por potencia de dos.
+     * - Número total de cubos: los SUBCUBOS primeros valores van cada uno en su cubo, y después
+     *   SUBCUBOS cubos por cada potencia de dos hasta 2^63.
+     * - Contadores de cada cubo, número de valores, suma y máximo.
+     */
+    private static final int BITS_SUBCUBO = 5;
+    private static final int SUBCUBOS = 1 << BITS_SUBCUBO;
+    private static final int NUM_CUBOS = (64 - BITS_SUBCUBO) * SUBCUBOS;
+
+    private final AtomicLongArray cubos;
+    private final LongAdder numero;
+    private final LongAdder suma;
+    private final AtomicLong maximo;
+
+    /**
+     * Constructor del histograma, vacío.
+     */
+    public HistogramaLatencias() {
+        cubos = new AtomicLongArray(NUM_CUBOS);
+        numero = new LongAdder();
+        suma = new LongAdder();
+        maximo = new AtomicLong();
+    }
+
+    /**
+     * Anota un valor. Los negativos se anotan como 0.
+     *
+     * @param nanos Latencia en nanosegundos.
+     */
+    public void anotar(long nanos) {
+        long valor = Math.max(0, nanos);
+        cubos.incrementAndGet(cubo(valor));
+        numero.increment();
+        suma.add(valor);
+        if (valor > maximo.get()) {
+            maximo.accumulateAndGet(valor, Math::max);
+        }
+    }
+
+    /**
+     * Devuelve el cubo de un valor.
+     *
+     * @param valor Valor no negativo.
+     * @return Índice del cubo.
+     */
+    static int cubo(long valor) {
+        if (valor < SUBCUBOS) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int subcubo = (int) (valor >>> (exponente - BITS_SUBCUBO)) & (SUBCUBOS - 1);
+        return (exponente - BITS_SUBCUBO + 1) * SUBCUBOS + subcubo;
+    }
+
+    /**
+     * Devuelve el mayor valor que se guarda en un cubo.
+     *
+     * @param cubo Índice del cubo.
+     * @return Límite superior del cubo (incluido).
+     */
+    static long limiteSuperior(int cubo) {
+        if (cubo < SUBCUBOS) {
+            return cubo;
+        }
+        int exponente = cubo / SUBCUBOS + BITS_SUBCUBO - 1;
+        long subcubo = cubo % SUBCUBOS;
+        long inicio = (SUBCUBOS + subcubo) << (exponente - BITS_SUBCUBO);
+        return inicio + (1L << (exponente - BITS_SUBCUBO)) - 1;
+    }
+
+    /**
+     * Devuelve el número de valores anotados.
+     *
+     * @return Número de valores.
+     */
+    public long getNumero() {
+        return numero.sum();
+    }
+
+    /**
+     * Devuelve la media de los valores anotados.
+     *
+     * @return Media en nanosegundos, o 0 si no hay valores.
+     */
+    public double getMedia() {
+        long cuantos = numero.sum();
+        return (cuantos == 0) ? 0 : (double) suma.sum() / cuantos;
+    }
+
+    /**
+     * Devuelve el mayor valor anotado.
+     *
+     * @return Máximo en nanosegundos, o 0 si no hay valores.
+     */
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    /**
+     * Devuelve el percentil indicado: el valor por debajo del cual (o igual) está esa fracción de los
+     * valores anotados. Es el límite superior de su cubo, sin pasar del máximo.
+     * Si se anota a la vez que se consulta, el resultado es aproximado.
+     *
+     * @param percentil Percentil entre 0 y 100 (ej: 99.9).
+     * @return Valor del percentil en nanosegundos, o 0 si no hay valores.
+     */
+    public long getPercentil(double percentil) {
+        long total = 0;
+        for (int i = 0; i < NUM_CUBOS; i++) {
+            total += cubos.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long posicion = Math.max(1, (long) Math.ceil(total * Math.min(percentil, 100) / 100));
+        long acumulado = 0;
+        for (int i = 0; i < NUM_CUBOS; i++) {
+            acumulado += cubos.get(i);
+            if (acumulado >= posicion) {
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    /**
+     * Vacía el histograma. Los valores que se anoten a la vez pueden perderse o quedarse a medias.
+     */
+    public void reiniciar() {
+        for (int i = 0; i < NUM_CUBOS; i++) {
+            cubos.set(i, 0);
+        }
+        numero.reset();
+        suma.reset();
+        maximo.set(0);
+    }
+}
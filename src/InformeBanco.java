@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Escribe el listado de cuentas del banco directamente sobre un Appendable (un Writer, un PrintStream,
+ * un StringBuilder...), sin construir el informe completo en memoria.
+ *
+ * Cada línea reproduce exactamente el formato de Cuenta.toString ("%-15s: %-20s Saldo%8.2f"), pero
+ * se compone a mano en un buffer reutilizable en lugar de con String.format: el saldo se escribe a
+ * partir de los céntimos, sin pasar por double. Las líneas se acumulan en bloques de TAMANYO_BLOQUE
+ * caracteres antes de pasarlas al destino.
+ */
+public class InformeBanco {
+
+    /**
+     * Anchos de las columnas del listado.
+     */
+    private static final int ANCHO_TIPO = 15;
+    private static final int ANCHO_TITULAR = 20;
+    private static final int ANCHO_SALDO = 8;
+
+    /**
+     * Caracteres que se acumulan antes de escribirlos en el destino.
+     */
+    private static final int TAMANYO_BLOQUE = 64 * 1024;
+
+    /**
+     * Hasta este valor (en céntimos, sin incluir) el saldo en euros tiene como mucho 15 cifras
+     * significativas, y String.format lo escribe igual que los céntimos con la coma desplazada.
+     * Por encima se deja el formato a String.format para no cambiar ni un carácter.
+     */
+    private static final long MAXIMO_EXACTO = 1_000_000_000_000_000L;
+
+    private final Appendable destino;
+    private final StringBuilder bloque;
+    private final char separadorDecimal;
+    private final boolean digitosAscii;
+
+    /**
+     * Crea un informe que escribe sobre el destino indicado.
+     * El separador decimal es el de la configuración regional por defecto, el mismo que usa String.format.
+     *
+     * @param destino Destino donde se escribe el informe.
+     */
+    public InformeBanco(Appendable destino) {
+        this.destino = destino;
+        // Sobre un StringBuilder se escribe directamente, sin bloque intermedio
+        this.bloque = destino instanceof StringBuilder ? (StringBuilder) destino : new StringBuilder(TAMANYO_BLOQUE + 128);
+        DecimalFormatSymbols simbolos = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        this.separadorDecimal = simbolos.getDecimalSeparator();
+        this.digitosAscii = simbolos.getZeroDigit() == '0';
+    }
+
+    /**
+     * Escribe la cabecera del informe: el título y el interés de las cuentas de ahorro.
+     *
+     * @param interesAhorro Interés en porcentaje de las cuentas de ahorro.
+     * @throws IOException Si no se puede escribir en el destino.
+     */
+    public void cabecera(double interesAhorro) throws IOException {
+        bloque.append(String.format("%25s\n", "B A N C O"));
+        bloque.append(String.format("Intereses de las cuentas de ahorro: %.1f%% \n\n", interesAhorro));
+        vaciarSiLleno();
+    }
+
+    /**
+     * Escribe una línea del informe con los datos de una cuenta.
+     *
+     * @param cuenta Cuenta a escribir.
+     * @throws IOException Si no se puede escribir en el destino.
+     */
+    public void cuenta(Cuenta cuenta) throws IOException {
+        anyadirCuenta(bloque, cuenta, separadorDecimal, digitosAscii);
+        bloque.append('\n');
+        vaciarSiLleno();
+    }
+
+    /**
+     * Escribe en el destino lo que quede en el bloque. Hay que llamarlo al acabar el informe.
+     *
+     * @throws IOException Si no se puede escribir en el destino.
+     */
+    public void terminar() throws IOException {
+        if (bloque != destino && bloque.length() > 0) {
+            destino.append(bloque);
+            bloque.setLength(0);
+        }
+    }
+
+    /**
+     * Devuelve la representación textual de una cuenta, la misma que escribe cuenta(Cuenta).
+     *
+     * @param cuenta Cuenta a representar.
+     * @return Línea con los datos de la cuenta, sin salto de línea.
+     */
+    static String formatear(Cuenta cuenta) {
+        DecimalFormatSymbols simbolos = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+        StringBuilder linea = new StringBuilder(ANCHO_TIPO + ANCHO_TITULAR + ANCHO_SALDO + 8);
+        anyadirCuenta(linea, cuenta, simbolos.getDecimalSeparator(), simbolos.getZeroDigit() == '0');
+        return linea.toString();
+    }
+
+    /**
+     * Pasa el bloque al destino cuando llega a TAMANYO_BLOQUE caracteres.
+     *
+     * @throws IOException Si no se puede escribir en el destino.
+     */
+    private void vaciarSiLleno() throws IOException {
+        if (bloque.length() >= TAMANYO_BLOQUE) {
+            terminar();
+        }
+    }
+
+    /**
+     * Añade al buffer la línea de una cuenta con el formato "%-15s: %-20s Saldo%8.2f".
+     *
+     * @param linea            Buffer donde se escribe.
+     * @param cuenta           Cuenta a escribir.
+     * @param separadorDecimal Separador decimal de la configuración regional.
+     * @param digitosAscii     Si la configuración regional usa los dígitos 0-9.
+     */
+    private static void anyadirCuenta(StringBuilder linea, Cuenta cuenta, char separadorDecimal, boolean digitosAscii) {
+        String tipo = cuenta.getClass().getSimpleName();
+        linea.append(tipo);
+        rellenar(linea, ANCHO_TIPO - tipo.length());
+        linea.append(": ");
+
+        // Equivale a %-20s sobre Cliente.toString, sin copiar el titular
+        Cliente titular = cuenta.titular;
+        int inicio = linea.length();
+        linea.append(titular.getDni()).append(" (").append(titular.getNombre()).append(')');
+        rellenar(linea, ANCHO_TITULAR - (linea.length() - inicio));
+        linea.append(" Saldo");
+
+        long centimos = cuenta.getSaldoCentimos();
+        if (!digitosAscii || centimos <= -MAXIMO_EXACTO || centimos >= MAXIMO_EXACTO) {
+            linea.append(String.format("%8.2f", cuenta.getSaldo()));
+            return;
+        }
+        long absoluto = Math.abs(centimos);
+        long euros = absoluto / Dinero.CENTIMOS_POR_EURO;
+        int resto = (int) (absoluto % Dinero.CENTIMOS_POR_EURO);
+        int longitud = cifras(euros) + 3 + (centimos < 0 ? 1 : 0);
+        rellenar(linea, ANCHO_SALDO - longitud);
+        if (centimos < 0) {
+            linea.append('-');
+        }
+        linea.append(euros).append(separadorDecimal).append((char) ('0' + resto / 10)).append((char) ('0' + resto % 10));
+    }
+
+    /**
+     * Añade espacios al buffer.
+     *
+     * @param linea    Buffer donde se escribe.
+     * @param espacios Número de espacios (si es negativo o cero no se añade nada).
+     */
+    private static void rellenar(StringBuilder linea, int espacios) {
+        for (int i = 0; i < espacios; i++) {
+            linea.append(' ');
+        }
+    }
+
+    /**
+     * Devuelve el número de cifras decimales de un valor no negativo.
+     *
+     * @param valor Valor no negativo.
+     * @return Número de cifras (1 para el 0).
+     */
+    private static int cifras(long valor) {
+        int cifras = 1;
+        while (valor >= 10) {
+            valor /= 10;
+            cifras++;
+        }
+        return cifras;
+    }
+}
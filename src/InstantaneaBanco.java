@@ -0,0 +1,360 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Instantánea binaria compacta de todas las cuentas de un Banco, para guardarlo y restaurarlo
+ * mucho más deprisa que volviendo a analizar el fichero de texto.
+ *
+ * Formato (big-endian):
+ * - Cabecera: marca, versión, número de clientes, número de cuentas e interés de ahorro.
+ * - Tabla de clientes sin repetir: DNI y nombre, cada uno como longitud (short) y bytes UTF-8.
+ * - Cuentas, en el orden del banco, con tamaño fijo: tipo ('A' o 'C'), identificador de la cuenta,
+ *   posición del cliente en la tabla, saldo en céntimos y número de retiradas del mes (solo significativo
+ *   en las cuentas corrientes). La versión 1 no guardaba el identificador; al leerla se deja a 0 y
+ *   el banco asigna uno nuevo.
+ * - CRC32 de todo lo anterior.
+ *
+ * Se escribe a un fichero temporal a través de un FileChannel y se renombra al final, así que una
+ * instantánea a medio escribir nunca sustituye a la anterior. Al leer se mapea el fichero en memoria
+ * y se comprueba el CRC antes de crear ninguna cuenta: una instantánea cortada se rechaza entera.
+ */
+public class InstantaneaBanco {
+
+    /**
+     * Atributos:
+     * - Marca y versión del formato.
+     * - Tamaño de la cabecera, de cada cuenta y del buffer de escritura.
+     * - Tamaño máximo de cada región mapeada al leer.
+     * - Cuentas e interés de ahorro de la instantánea.
+     */
+    private static final int MARCA = 0x42494E53; // "BINS"
+    private static final int VERSION = 2;
+    private static final int VERSION_SIN_ID = 1;
+    private static final int TAMANYO_CABECERA = 4 + 4 + 4 + 4 + 8;
+    private static final int TAMANYO_CUENTA = 1 + 8 + 4 + 8 + 4;
+    private static final int TAMANYO_CUENTA_SIN_ID = 1 + 4 + 8 + 4;
+    private static final int TAMANYO_BUFFER = 1 << 20;
+    private static final long TAMANYO_REGION = 1L << 30;
+
+    private final List<Cuenta> cuentas;
+    private final double interesAhorro;
+
+    /**
+     * Constructor de la instantánea leída.
+     *
+     * @param cuentas       Cuentas restauradas, en el orden en que se guardaron.
+     * @param interesAhorro Interés de las cuentas de ahorro guardado.
+     */
+    private InstantaneaBanco(List<Cuenta> cuentas, double interesAhorro) {
+        this.cuentas = cuentas;
+        this.interesAhorro = interesAhorro;
+    }
+
+    /**
+     * Devuelve las cuentas restauradas, en el orden en que se guardaron.
+     *
+     * @return Lista de cuentas.
+     */
+    public List<Cuenta> getCuentas() {
+        return cuentas;
+    }
+
+    /**
+     * Devuelve el interés de las cuentas de ahorro guardado.
+     *
+     * @return Interés en porcentaje.
+     */
+    public double getInteresAhorro() {
+        return interesAhorro;
+    }
+
+    /**
+     * Escribe una instantánea de las cuentas indicadas.
+     * El llamante debe garantizar que las cuentas no cambian mientras se escribe.
+     *
+     * @param fichero       Fichero de la instantánea; se sustituye al terminar.
+     * @param cuentas       Cuentas a guardar, en orden.
+     * @param interesAhorro Interés de las cuentas de ahorro.
+     * @throws IOException si no se puede escribir el fichero.
+     */
+    public static void escribir(Path fichero, List<Cuenta> cuentas, double interesAhorro) throws IOException {
+        // Tabla de clientes sin repetir: las cuentas de un mismo cliente comparten entrada
+        HashMap<Cliente, Integer> posiciones = new HashMap<>();
+        List<Cliente> clientes = new ArrayList<>();
+        for (Cuenta cuenta : cuentas) {
+            if (!posiciones.containsKey(cuenta.titular)) {
+                posiciones.put(cuenta.titular, clientes.size());
+                clientes.add(cuenta.titular);
+            }
+        }
+
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            EscritorBloques escritor = new EscritorBloques(canal);
+
+            escritor.asegurar(TAMANYO_CABECERA).putInt(MARCA).putInt(VERSION)
+                    .putInt(clientes.size()).putInt(cuentas.size()).putDouble(interesAhorro);
+
+            for (Cliente cliente : clientes) {
+                escritor.texto(cliente.getDni());
+                escritor.texto(cliente.getNombre());
+            }
+
+            for (Cuenta cuenta : cuentas) {
+                ByteBuffer buffer = escritor.asegurar(TAMANYO_CUENTA);
+                if (cuenta instanceof CuentaCorriente) {
+                    buffer.put((byte) 'C');
+                    buffer.putLong(cuenta.id);
+                    buffer.putInt(posiciones.get(cuenta.titular));
+                    buffer.putLong(cuenta.getSaldoCentimos());
+                    buffer.putInt(((CuentaCorriente) cuenta).getNumeroRetiradas());
+                } else {
+                    buffer.put((byte) 'A');
+                    buffer.putLong(cuenta.id);
+                    buffer.putInt(posiciones.get(cuenta.titular));
+                    buffer.putLong(cuenta.getSaldoCentimos());
+                    buffer.putInt(0);
+                }
+            }
+
+            escritor.terminar();
+            canal.force(true);
+        }
+        Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lee una instantánea mapeando el fichero en memoria.
+     *
+     * @param fichero Fichero de la instantánea.
+     * @return La instantánea con las cuentas restauradas.
+     * @throws IOException si no se puede leer, si el formato o la versión no son válidos, o si el CRC
+     *                     no coincide (instantánea cortada o dañada).
+     */
+    public static InstantaneaBanco leer(Path fichero) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            long tamanyo = canal.size();
+            if (tamanyo < TAMANYO_CABECERA + 4) {
+                throw new IOException("Instantánea incompleta: " + fichero);
+            }
+            comprobarCrc(canal, tamanyo);
+
+            LectorMapeado lector = new LectorMapeado(canal, tamanyo - 4);
+            ByteBuffer cabecera = lector.asegurar(TAMANYO_CABECERA);
+            if (cabecera.getInt() != MARCA) {
+                throw new IOException("El fichero no es una instantánea del banco: " + fichero);
+            }
+            int version = cabecera.getInt();
+            if (version != VERSION && version != VERSION_SIN_ID) {
+                throw new IOException("Versión de instantánea no soportada: " + version);
+            }
+            int numClientes = cabecera.getInt();
+            int numCuentas = cabecera.getInt();
+            double interesAhorro = cabecera.getDouble();
+            // Cada cliente ocupa al menos sus dos longitudes y cada cuenta su tamaño fijo
+            if (numClientes < 0 || numCuentas < 0 || numClientes > tamanyo / 4 || numCuentas > tamanyo / TAMANYO_CUENTA_SIN_ID) {
+                throw new IOException("Número de clientes o de cuentas no válido en la instantánea");
+            }
+
+            Cliente[] clientes = new Cliente[numClientes];
+            for (int i = 0; i < numClientes; i++) {
+                clientes[i] = new Cliente(lector.texto(), lector.texto());
+            }
+
+            boolean conId = version != VERSION_SIN_ID;
+            List<Cuenta> cuentas = new ArrayList<>(numCuentas);
+            for (int i = 0; i < numCuentas; i++) {
+                ByteBuffer buffer = lector.asegurar(conId ? TAMANYO_CUENTA : TAMANYO_CUENTA_SIN_ID);
+                byte tipo = buffer.get();
+                long id = conId ? buffer.getLong() : 0;
+                int cliente = buffer.getInt();
+                if (cliente < 0 || cliente >= numClientes) {
+                    throw new IOException("Cliente fuera de rango en la instantánea: " + cliente);
+                }
+                Cliente titular = clientes[cliente];
+                long saldoCentimos = buffer.getLong();
+                int numeroRetiradas = buffer.getInt();
+                Cuenta cuenta;
+                if (tipo == 'C') {
+                    cuenta = CuentaCorriente.restaurar(titular, saldoCentimos, numeroRetiradas);
+                } else if (tipo == 'A') {
+                    cuenta = CuentaAhorro.restaurar(titular, saldoCentimos);
+                } else {
+                    throw new IOException("Tipo de cuenta desconocido en la instantánea: " + tipo);
+                }
+                cuenta.id = id;
+                cuentas.add(cuenta);
+            }
+            return new InstantaneaBanco(cuentas, interesAhorro);
+        }
+    }
+
+    /**
+     * Comprueba que el CRC guardado al final del fichero coincide con el de su contenido.
+     *
+     * @param canal   Canal del fichero.
+     * @param tamanyo Tamaño del fichero.
+     * @throws IOException si el CRC no coincide.
+     */
+    private static void comprobarCrc(FileChannel canal, long tamanyo) throws IOException {
+        CRC32 crc = new CRC32();
+        long datos = tamanyo - 4;
+        for (long posicion = 0; posicion < datos; posicion += TAMANYO_REGION) {
+            crc.update(canal.map(FileChannel.MapMode.READ_ONLY, posicion, Math.min(TAMANYO_REGION, datos - posicion)));
+        }
+        ByteBuffer guardado = canal.map(FileChannel.MapMode.READ_ONLY, datos, 4);
+        if (guardado.getInt() != (int) crc.getValue()) {
+            throw new IOException("La instantánea está cortada o dañada (CRC erróneo)");
+        }
+    }
+
+    /**
+     * Escritura por bloques en un FileChannel que va calculando el CRC de lo escrito.
+     */
+    private static class EscritorBloques {
+
+        private final FileChannel canal;
+        private final ByteBuffer buffer;
+        private final CRC32 crc;
+
+        /**
+         * Constructor del escritor.
+         *
+         * @param canal Canal donde se escribe.
+         */
+        EscritorBloques(FileChannel canal) {
+            this.canal = canal;
+            this.buffer = ByteBuffer.allocateDirect(TAMANYO_BUFFER);
+            this.crc = new CRC32();
+        }
+
+        /**
+         * Garantiza que caben n bytes en el buffer, vaciándolo al canal si hace falta.
+         *
+         * @param n Bytes que se van a escribir.
+         * @return El buffer, listo para escribir n bytes.
+         * @throws IOException si falla la escritura.
+         */
+        ByteBuffer asegurar(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                vaciar();
+            }
+            return buffer;
+        }
+
+        /**
+         * Escribe un texto como longitud (short) y bytes UTF-8.
+         *
+         * @param texto Texto a escribir.
+         * @throws IOException si falla la escritura.
+         */
+        void texto(String texto) throws IOException {
+            byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+            asegurar(2 + bytes.length).putShort((short) bytes.length).put(bytes);
+        }
+
+        /**
+         * Escribe lo pendiente seguido del CRC de todo el contenido.
+         *
+         * @throws IOException si falla la escritura.
+         */
+        void terminar() throws IOException {
+            vaciar();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+        }
+
+        /**
+         * Escribe el contenido del buffer en el canal y lo acumula en el CRC.
+         *
+         * @throws IOException si falla la escritura.
+         */
+        private void vaciar() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Lectura secuencial de un fichero mapeado en memoria por regiones, para no depender del
+     * límite de 2 GB de un único MappedByteBuffer.
+     */
+    private static class LectorMapeado {
+
+        private final FileChannel canal;
+        private final long fin;
+        private long inicioRegion;
+        private MappedByteBuffer region;
+
+        /**
+         * Constructor del lector.
+         *
+         * @param canal Canal del fichero.
+         * @param fin   Posición hasta la que se lee.
+         * @throws IOException si no se puede mapear el fichero.
+         */
+        LectorMapeado(FileChannel canal, long fin) throws IOException {
+            this.canal = canal;
+            this.fin = fin;
+            mapear(0);
+        }
+
+        /**
+         * Garantiza que hay n bytes disponibles en la región mapeada, mapeando la siguiente si hace falta.
+         *
+         * @param n Bytes que se van a leer.
+         * @return La región, posicionada en los siguientes n bytes.
+         * @throws IOException si el fichero se acaba antes o no se puede mapear.
+         */
+        ByteBuffer asegurar(int n) throws IOException {
+            if (region.remaining() < n) {
+                long posicion = inicioRegion + region.position();
+                if (fin - posicion < n) {
+                    throw new IOException("La instantánea se acaba antes de lo indicado en la cabecera");
+                }
+                mapear(posicion);
+            }
+            return region;
+        }
+
+        /**
+         * Lee un texto escrito como longitud (short) y bytes UTF-8.
+         *
+         * @return Texto leído.
+         * @throws IOException si el fichero se acaba antes.
+         */
+        String texto() throws IOException {
+            int longitud = asegurar(2).getShort() & 0xFFFF;
+            byte[] bytes = new byte[longitud];
+            asegurar(longitud).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Mapea la región que empieza en la posición indicada.
+         *
+         * @param posicion Posición en el fichero.
+         * @throws IOException si no se puede mapear.
+         */
+        private void mapear(long posicion) throws IOException {
+            inicioRegion = posicion;
+            region = canal.map(FileChannel.MapMode.READ_ONLY, posicion, Math.min(TAMANYO_REGION, fin - posicion));
+        }
+    }
+}
@@ -0,0 +1,465 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Lector rápido de ficheros de cuentas con el formato de Banco.cargarFichero:
+ * DNI NombreCliente SaldoInicial TipoCuenta
+ *
+ * Lee el fichero por bloques grandes a través de un FileChannel y analiza cada línea a mano sobre
+ * el mismo array de bytes, sin expresiones regulares ni un String por campo: solo se crean el DNI y el
+ * nombre de cada cuenta. El saldo se convierte directamente a céntimos.
+ * Las líneas mal formadas no detienen la carga: se guardan con su número de línea en getErrores.
+ * Las líneas en blanco se ignoran.
+ *
+ * leerEnParalelo divide el fichero en trozos que acaban en un salto de línea, analiza cada trozo con su
+ * propio lector en un ForkJoinPool y junta después los resultados en el orden del fichero, renumerando
+ * las líneas erróneas, de modo que el resultado es el mismo que el de leer.
+ */
+public class LectorCuentas {
+
+    /**
+     * Línea del fichero que no se ha podido cargar.
+     */
+    public static class LineaErronea {
+
+        /**
+         * Atributos:
+         * - Número de línea en el fichero (empezando en 1).
+         * - Motivo por el que no se ha cargado.
+         */
+        private final long linea;
+        private final String motivo;
+
+        /**
+         * Constructor de la línea errónea.
+         *
+         * @param linea  Número de línea.
+         * @param motivo Motivo del error.
+         */
+        public LineaErronea(long linea, String motivo) {
+            this.linea = linea;
+            this.motivo = motivo;
+        }
+
+        /**
+         * Devuelve el número de línea.
+         *
+         * @return Número de línea, empezando en 1.
+         */
+        public long getLinea() {
+            return linea;
+        }
+
+        /**
+         * Devuelve el motivo del error.
+         *
+         * @return Motivo del error.
+         */
+        public String getMotivo() {
+            return motivo;
+        }
+
+        /**
+         * Representación textual con el formato del informe de carga.
+         *
+         * @return Texto "Cuenta erronea en la linea N: motivo".
+         */
+        @Override
+        public String toString() {
+            return String.format("Cuenta erronea en la linea %d: %s", linea, motivo);
+        }
+    }
+
+    /**
+     * Atributos:
+     * - Tamaño del bloque de lectura, y tamaño máximo aproximado de un trozo en la lectura en paralelo.
+     * - Valor que devuelve leerCentimos cuando el importe no es válido.
+     * - Cuentas leídas y líneas erróneas, en el orden del fichero.
+     * - Número de la última línea analizada.
+     */
+    static final int TAMANYO_BLOQUE = 4 * 1024 * 1024;
+    static final int TAMANYO_TROZO = 64 * 1024 * 1024;
+    private static final long IMPORTE_ERRONEO = Long.MIN_VALUE;
+
+    private final List<Cuenta> cuentas;
+    private final List<LineaErronea> errores;
+    private long linea;
+
+    /**
+     * Constructor del lector.
+     *
+     * @param primeraLinea Número que tendrá la primera línea analizada (1 para un fichero completo).
+     */
+    public LectorCuentas(long primeraLinea) {
+        this.cuentas = new ArrayList<>();
+        this.errores = new ArrayList<>();
+        this.linea = primeraLinea - 1;
+    }
+
+    /**
+     * Lee todas las cuentas de un fichero.
+     *
+     * @param fichero Fichero de cuentas.
+     * @return El lector con las cuentas y las líneas erróneas del fichero.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    public static LectorCuentas leer(Path fichero) throws IOException {
+        LectorCuentas lector = new LectorCuentas(1);
+        byte[] datos = new byte[TAMANYO_BLOQUE];
+        int lleno = 0;
+
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            while (true) {
+                int leidos = canal.read(ByteBuffer.wrap(datos, lleno, datos.length - lleno));
+                boolean finFichero = leidos == -1;
+                if (!finFichero) {
+                    lleno += leidos;
+                }
+
+                int analizado = lector.analizar(datos, 0, lleno, finFichero);
+                if (finFichero) {
+                    break;
+                }
+                if (analizado == 0 && lleno == datos.length) {
+                    // Una línea no cabe en el bloque: se amplía para poder leerla entera
+                    datos = Arrays.copyOf(datos, datos.length * 2);
+                    continue;
+                }
+                // Lo que queda tras la última línea completa pasa al principio del bloque
+                System.arraycopy(datos, analizado, datos, 0, lleno - analizado);
+                lleno -= analizado;
+            }
+        }
+        return lector;
+    }
+
+    /**
+     * Lee todas las cuentas de un fichero analizando trozos del fichero en paralelo.
+     * Las cuentas y las líneas erróneas quedan en el mismo orden, y con los mismos números de línea,
+     * que con leer.
+     *
+     * @param fichero Fichero de cuentas.
+     * @param pool    Pool donde se analizan los trozos.
+     * @return El lector con las cuentas y las líneas erróneas del fichero.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    public static LectorCuentas leerEnParalelo(Path fichero, ForkJoinPool pool) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            long tamanyo = canal.size();
+            // Varios trozos por hilo para repartir bien la carga, y ninguno mayor que TAMANYO_TROZO
+            long numTrozos = Math.max(pool.getParallelism() * 4L, (tamanyo + TAMANYO_TROZO - 1) / TAMANYO_TROZO);
+            numTrozos = Math.max(1, Math.min(numTrozos, tamanyo / TAMANYO_BLOQUE + 1));
+            long[] limites = limitesDeTrozos(canal, tamanyo, (int) numTrozos);
+
+            List<Callable<LectorCuentas>> tareas = new ArrayList<>(limites.length - 1);
+            for (int i = 0; i + 1 < limites.length; i++) {
+                long inicio = limites[i];
+                long fin = limites[i + 1];
+                tareas.add(() -> leerTrozo(canal, inicio, fin));
+            }
+
+            LectorCuentas lector = new LectorCuentas(1);
+            for (Future<LectorCuentas> resultado : pool.invokeAll(tareas)) {
+                lector.anyadirTrozo(resultado.get());
+            }
+            return lector;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException("Lectura en paralelo interrumpida");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error al leer " + fichero, e.getCause());
+        }
+    }
+
+    /**
+     * Calcula dónde empieza cada trozo: justo después de un salto de línea cercano al reparto equitativo.
+     *
+     * @param canal     Canal del fichero.
+     * @param tamanyo   Tamaño del fichero.
+     * @param numTrozos Número de trozos deseado.
+     * @return Posiciones de inicio de cada trozo, más el tamaño del fichero al final.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    private static long[] limitesDeTrozos(FileChannel canal, long tamanyo, int numTrozos) throws IOException {
+        long[] limites = new long[numTrozos + 1];
+        ByteBuffer ventana = ByteBuffer.allocate(64 * 1024);
+        limites[numTrozos] = tamanyo;
+
+        for (int i = 1; i < numTrozos; i++) {
+            long posicion = Math.max(limites[i - 1], tamanyo / numTrozos * i);
+            long limite = tamanyo;
+            // Se busca el siguiente salto de línea, ventana a ventana por si la línea es muy larga
+            buscar:
+            while (posicion < tamanyo) {
+                ventana.clear();
+                int leidos = canal.read(ventana, posicion);
+                if (leidos <= 0) {
+                    break;
+                }
+                for (int j = 0; j < leidos; j++) {
+                    if (ventana.get(j) == '\n') {
+                        limite = posicion + j + 1;
+                        break buscar;
+                    }
+                }
+                posicion += leidos;
+            }
+            limites[i] = limite;
+        }
+        return limites;
+    }
+
+    /**
+     * Lee y analiza un trozo del fichero con un lector propio, numerando sus líneas desde 1.
+     *
+     * @param canal  Canal del fichero (las lecturas con posición se pueden hacer desde varios hilos).
+     * @param inicio Primer byte del trozo.
+     * @param fin    Byte siguiente al último del trozo.
+     * @return Lector con las cuentas y los errores del trozo.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    private static LectorCuentas leerTrozo(FileChannel canal, long inicio, long fin) throws IOException {
+        byte[] datos = new byte[Math.toIntExact(fin - inicio)];
+        ByteBuffer buffer = ByteBuffer.wrap(datos);
+        while (buffer.hasRemaining()) {
+            if (canal.read(buffer, inicio + buffer.position()) < 0) {
+                throw new java.io.EOFException("El fichero ha cambiado durante la lectura");
+            }
+        }
+
+        LectorCuentas trozo = new LectorCuentas(1);
+        trozo.analizar(datos, 0, datos.length, true);
+        return trozo;
+    }
+
+    /**
+     * Añade al final los resultados de un trozo leído a continuación del último, desplazando
+     * sus números de línea.
+     *
+     * @param trozo Lector del trozo, con las líneas numeradas desde 1.
+     */
+    private void anyadirTrozo(LectorCuentas trozo) {
+        long desplazamiento = linea;
+        cuentas.addAll(trozo.cuentas);
+        for (LineaErronea error : trozo.errores) {
+            errores.add(new LineaErronea(error.getLinea() + desplazamiento, error.getMotivo()));
+        }
+        linea += trozo.linea;
+    }
+
+    /**
+     * Analiza las líneas completas de un fragmento de bytes.
+     *
+     * @param datos  Array con los bytes.
+     * @param inicio Primer byte del fragmento.
+     * @param fin    Byte siguiente al último del fragmento.
+     * @param ultimo true si el fragmento acaba el fichero, y la última línea no necesita salto de línea.
+     * @return Posición siguiente a la última línea analizada.
+     */
+    public int analizar(byte[] datos, int inicio, int fin, boolean ultimo) {
+        int inicioLinea = inicio;
+        for (int i = inicio; i < fin; i++) {
+            if (datos[i] == '\n') {
+                analizarLinea(datos, inicioLinea, i);
+                inicioLinea = i + 1;
+            }
+        }
+        if (ultimo && inicioLinea < fin) {
+            analizarLinea(datos, inicioLinea, fin);
+            inicioLinea = fin;
+        }
+        return inicioLinea;
+    }
+
+    /**
+     * Analiza una línea y añade su cuenta o su error.
+     *
+     * @param datos  Array con los bytes.
+     * @param inicio Primer byte de la línea.
+     * @param fin    Byte siguiente al último de la línea (sin el salto de línea).
+     */
+    private void analizarLinea(byte[] datos, int inicio, int fin) {
+        linea++;
+
+        int inicioDni = saltarBlancos(datos, inicio, fin);
+        if (inicioDni == fin) {
+            return; // Línea en blanco
+        }
+        int finDni = saltarCampo(datos, inicioDni, fin);
+        int inicioNombre = saltarBlancos(datos, finDni, fin);
+        int finNombre = saltarCampo(datos, inicioNombre, fin);
+        int inicioImporte = saltarBlancos(datos, finNombre, fin);
+        int finImporte = saltarCampo(datos, inicioImporte, fin);
+        int inicioTipo = saltarBlancos(datos, finImporte, fin);
+        int finTipo = saltarCampo(datos, inicioTipo, fin);
+
+        if (inicioTipo == finTipo) {
+            errores.add(new LineaErronea(linea, "faltan campos"));
+            return;
+        }
+        if (saltarBlancos(datos, finTipo, fin) != fin) {
+            errores.add(new LineaErronea(linea, "sobran campos"));
+            return;
+        }
+
+        long centimos = leerCentimos(datos, inicioImporte, finImporte);
+        if (centimos == IMPORTE_ERRONEO) {
+            errores.add(new LineaErronea(linea, "saldo no valido "
+                    + new String(datos, inicioImporte, finImporte - inicioImporte, StandardCharsets.UTF_8)));
+            return;
+        }
+
+        byte tipo = datos[inicioTipo];
+        if (tipo != 'A' && tipo != 'C') {
+            errores.add(new LineaErronea(linea, "tipo de cuenta "
+                    + new String(datos, inicioTipo, finTipo - inicioTipo, StandardCharsets.UTF_8)));
+            return;
+        }
+
+        // El DNI es ASCII, así que ISO-8859-1 lo decodifica sin pasar por el decodificador UTF-8
+        String dni = new String(datos, inicioDni, finDni - inicioDni, StandardCharsets.ISO_8859_1);
+        String nombre = new String(datos, inicioNombre, finNombre - inicioNombre, StandardCharsets.UTF_8);
+        Cliente unCliente = new Cliente(dni, nombre);
+
+        cuentas.add(tipo == 'A'
+                ? CuentaAhorro.deCentimos(unCliente, centimos)
+                : CuentaCorriente.deCentimos(unCliente, centimos));
+    }
+
+    /**
+     * Convierte un importe en euros (ej: 1000.50, -3, 7.5) a céntimos sin crear objetos.
+     * Los formatos poco habituales que también acepta Double.parseDouble (exponentes, más de dos
+     * decimales...) se delegan en él, con el mismo redondeo que Dinero.aCentimos.
+     *
+     * @param datos  Array con los bytes.
+     * @param inicio Primer byte del importe.
+     * @param fin    Byte siguiente al último del importe.
+     * @return Importe en céntimos, o IMPORTE_ERRONEO si no es un número válido.
+     */
+    static long leerCentimos(byte[] datos, int inicio, int fin) {
+        int i = inicio;
+        boolean negativo = false;
+        if (i < fin && (datos[i] == '-' || datos[i] == '+')) {
+            negativo = datos[i] == '-';
+            i++;
+        }
+
+        long euros = 0;
+        int digitos = 0;
+        while (i < fin && datos[i] >= '0' && datos[i] <= '9' && digitos < 16) {
+            euros = euros * 10 + (datos[i] - '0');
+            digitos++;
+            i++;
+        }
+
+        long centimos = 0;
+        int decimales = 0;
+        if (i < fin && datos[i] == '.') {
+            i++;
+            while (i < fin && datos[i] >= '0' && datos[i] <= '9' && decimales < 2) {
+                centimos = centimos * 10 + (datos[i] - '0');
+                decimales++;
+                i++;
+            }
+            if (decimales == 1) {
+                centimos *= 10;
+            }
+        }
+
+        if (i == fin && (digitos > 0 || decimales > 0)) {
+            long total = euros * Dinero.CENTIMOS_POR_EURO + centimos;
+            return negativo ? -total : total;
+        }
+        return leerCentimosLento(datos, inicio, fin);
+    }
+
+    /**
+     * Conversión de importes con Double.parseDouble para los formatos que no cubre leerCentimos.
+     *
+     * @param datos  Array con los bytes.
+     * @param inicio Primer byte del importe.
+     * @param fin    Byte siguiente al último del importe.
+     * @return Importe en céntimos, o IMPORTE_ERRONEO si no es un número finito.
+     */
+    private static long leerCentimosLento(byte[] datos, int inicio, int fin) {
+        try {
+            double euros = Double.parseDouble(new String(datos, inicio, fin - inicio, StandardCharsets.ISO_8859_1));
+            return Double.isFinite(euros) ? Dinero.aCentimos(euros) : IMPORTE_ERRONEO;
+        } catch (NumberFormatException e) {
+            return IMPORTE_ERRONEO;
+        }
+    }
+
+    /**
+     * Avanza sobre espacios, tabuladores y retornos de carro.
+     *
+     * @param datos  Array con los bytes.
+     * @param inicio Posición de partida.
+     * @param fin    Límite de la línea.
+     * @return Primera posición que no es un blanco, o fin.
+     */
+    private static int saltarBlancos(byte[] datos, int inicio, int fin) {
+        int i = inicio;
+        while (i < fin && (datos[i] == ' ' || datos[i] == '\t' || datos[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Avanza hasta el final del campo que empieza en inicio.
+     *
+     * @param datos  Array con los bytes.
+     * @param inicio Primer byte del campo.
+     * @param fin    Límite de la línea.
+     * @return Posición siguiente al último byte del campo.
+     */
+    private static int saltarCampo(byte[] datos, int inicio, int fin) {
+        int i = inicio;
+        while (i < fin && datos[i] != ' ' && datos[i] != '\t' && datos[i] != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Devuelve las cuentas leídas, en el orden del fichero.
+     *
+     * @return Lista de cuentas.
+     */
+    public List<Cuenta> getCuentas() {
+        return cuentas;
+    }
+
+    /**
+     * Devuelve las líneas que no se han podido cargar, en el orden del fichero.
+     *
+     * @return Lista de líneas erróneas.
+     */
+    public List<LineaErronea> getErrores() {
+        return errores;
+    }
+
+    /**
+     * Devuelve el número de la última línea analizada.
+     *
+     * @return Número de línea.
+     */
+    public long getUltimaLinea() {
+        return linea;
+    }
+}
@@ -0,0 +1,451 @@
+import java.time.Clock;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Libro mayor: historial de solo añadir de todos los movimientos de cada cuenta del banco (ingresos,
+ * retiradas, comisiones, intereses y las dos patas de cada transferencia), para auditar sin comparar
+ * ficheros completos. Se activa con Banco.setLibroMayor y vive en memoria; la recuperación tras un corte
+ * sigue siendo cosa del diario de transacciones.
+ *
+ * Cada cuenta tiene su propio historial, guardado en segmentos de hasta EVENTOS_POR_SEGMENTO movimientos
+ * compactados en un long[] (instante, tipo con contrapartida e importe: 24 bytes por movimiento). Cada
+ * segmento empieza con un punto de control: el saldo antes de su primer movimiento. Los instantes de
+ * inicio de los segmentos son un índice disperso, así que el saldo en un instante se calcula buscando
+ * su segmento por bisección y sumando como mucho EVENTOS_POR_SEGMENTO importes, sin reproducir el
+ * historial entero; un extracto mensual empieza en el segmento del primer día del mes.
+ *
+ * Los instantes son milisegundos del reloj indicado. Dentro de una cuenta nunca retroceden: si el reloj
+ * va hacia atrás, el movimiento se anota en el instante del anterior.
+ */
+public class LibroMayor {
+
+    /**
+     * Tipos de movimiento. Los importes de RETIRADA, las comisiones y TRANSFERENCIA_SALIDA restan del saldo.
+     * DEVOLUCION es la anulación de una TRANSFERENCIA_SALIDA a otra partición que no se pudo completar
+     * (ver BancoParticionado), con su comisión.
+     */
+    public enum Tipo {
+        INGRESO, RETIRADA, COMISION_INGRESO, COMISION_RETIRADA, INTERESES, TRANSFERENCIA_ENTRADA, TRANSFERENCIA_SALIDA,
+        DEVOLUCION
+    }
+
+    /**
+     * Movimiento de una cuenta, tal como lo devuelven los extractos.
+     */
+    public static final class Movimiento {
+        private final long instante;
+        private final long idCuenta;
+        private final Tipo tipo;
+        private final long importeCentimos;
+        private final long saldoCentimos;
+        private final long contrapartida;
+
+        /**
+         * Constructor del movimiento.
+         *
+         * @param instante        Instante del movimiento, en milisegundos.
+         * @param idCuenta        Identificador de la cuenta.
+         * @param tipo            Tipo de movimiento.
+         * @param importeCentimos Cambio del saldo en céntimos (negativo si resta).
+         * @param saldoCentimos   Saldo de la cuenta después del movimiento.
+         * @param contrapartida   Identificador de la otra cuenta de una transferencia, o 0.
+         */
+        Movimiento(long instante, long idCuenta, Tipo tipo, long importeCentimos, long saldoCentimos, long contrapartida) {
+            this.instante = instante;
+            this.idCuenta = idCuenta;
+            this.tipo = tipo;
+            this.importeCentimos = importeCentimos;
+            this.saldoCentimos = saldoCentimos;
+            this.contrapartida = contrapartida;
+        }
+
+        /**
+         * Devuelve el instante del movimiento.
+         *
+         * @return Instante del movimiento.
+         */
+        public Instant getInstante() {
+            return Instant.ofEpochMilli(instante);
+        }
+
+        /**
+         * Devuelve el identificador de la cuenta.
+         *
+         * @return Identificador de la cuenta.
+         */
+        public long getIdCuenta() {
+            return idCuenta;
+        }
+
+        /**
+         * Devuelve el tipo de movimiento.
+         *
+         * @return Tipo de movimiento.
+         */
+        public Tipo getTipo() {
+            return tipo;
+        }
+
+        /**
+         * Devuelve el cambio del saldo.
+         *
+         * @return Importe en céntimos (negativo si resta).
+         */
+        public long getImporteCentimos() {
+            return importeCentimos;
+        }
+
+        /**
+         * Devuelve el saldo de la cuenta después del movimiento.
+         *
+         * @return Saldo en céntimos.
+         */
+        public long getSaldoCentimos() {
+            return saldoCentimos;
+        }
+
+        /**
+         * Devuelve la otra cuenta de una transferencia.
+         *
+         * @return Identificador de la otra cuenta, o 0.
+         */
+        public long getContrapartida() {
+            return contrapartida;
+        }
+
+        /**
+         * Línea del extracto: instante, cuenta, tipo, importe, saldo resultante y, en las transferencias,
+         * la otra cuenta.
+         *
+         * @return Representación textual del movimiento.
+         */
+        @Override
+        public String toString() {
+            return String.format("%s cuenta %d %-21s %10.2f saldo %10.2f%s", getInstante(), idCuenta, tipo,
+                    Dinero.aEuros(importeCentimos), Dinero.aEuros(saldoCentimos),
+                    (contrapartida != 0) ? " con la cuenta " + contrapartida : "");
+        }
+    }
+
+    /**
+     * Atributos:
+     * - Movimientos por segmento y longs que ocupa cada movimiento.
+     * - Bits del tipo dentro del long que lo guarda junto con la contrapartida.
+     * - Reloj de los instantes e historiales de cada DNI (incluidas las cuentas ya eliminadas).
+     */
+    static final int EVENTOS_POR_SEGMENTO = 64;
+    private static final int LONGS_POR_EVENTO = 3;
+    private static final int DESPLAZAMIENTO_TIPO = 56;
+    private static final long MASCARA_CONTRAPARTIDA = (1L << DESPLAZAMIENTO_TIPO) - 1;
+    private static final Tipo[] TIPOS = Tipo.values();
+    private static final Historial[] NINGUNO = new Historial[0];
+
+    private final Clock reloj;
+    private final ConcurrentHashMap<String, Historial[]> porDni;
+
+    /**
+     * Crea un libro vacío con el reloj del sistema.
+     */
+    public LibroMayor() {
+        this(Clock.systemDefaultZone());
+    }
+
+    /**
+     * Crea un libro vacío con el reloj indicado (su zona horaria decide a qué mes pertenece cada instante).
+     *
+     * @param reloj Reloj de los instantes de los movimientos.
+     */
+    public LibroMayor(Clock reloj) {
+        this.reloj = reloj;
+        this.porDni = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Historial de una cuenta. Solo lo modifica el banco, con el cerrojo de la franja del DNI tomado;
+     * las consultas pueden llegar desde cualquier hilo, así que los métodos están sincronizados.
+     */
+    static final class Historial {
+        private final LibroMayor libro;
+        private final long idCuenta;
+        private final long apertura;
+        private final long saldoApertura;
+        private long[][] segmentos;
+        private long[] iniciosSegmento;
+        private long[] saldosSegmento;
+        private int numSegmentos;
+        private int eventosUltimo;
+        private long saldo;
+        private long ultimoInstante;
+
+        /**
+         * Abre el historial de una cuenta.
+         *
+         * @param libro         Libro al que pertenece.
+         * @param idCuenta      Identificador de la cuenta.
+         * @param apertura      Instante desde el que se registra la cuenta.
+         * @param saldoApertura Saldo de la cuenta en ese instante.
+         */
+        private Historial(LibroMayor libro, long idCuenta, long apertura, long saldoApertura) {
+            this.libro = libro;
+            this.idCuenta = idCuenta;
+            this.apertura = apertura;
+            this.saldoApertura = saldoApertura;
+            this.saldo = saldoApertura;
+            this.ultimoInstante = apertura;
+        }
+
+        /**
+         * Añade un movimiento al final del historial.
+         *
+         * @param instante      Instante del reloj, en milisegundos.
+         * @param tipo          Tipo de movimiento.
+         * @param importe       Cambio del saldo en céntimos.
+         * @param contrapartida Identificador de la otra cuenta, o 0.
+         */
+        private synchronized void anotar(long instante, Tipo tipo, long importe, long contrapartida) {
+            long momento = Math.max(instante, ultimoInstante);
+            if (numSegmentos == 0 || eventosUltimo == EVENTOS_POR_SEGMENTO) {
+                nuevoSegmento(momento);
+            }
+            long[] segmento = segmentos[numSegmentos - 1];
+            int posicion = eventosUltimo * LONGS_POR_EVENTO;
+            if (posicion == segmento.length) {
+                // Los segmentos crecen poco a poco: la mayoría de las cuentas tienen pocos movimientos
+                segmento = Arrays.copyOf(segmento, Math.min(segmento.length * 2, EVENTOS_POR_SEGMENTO * LONGS_POR_EVENTO));
+                segmentos[numSegmentos - 1] = segmento;
+            }
+            segmento[posicion] = momento;
+            segmento[posicion + 1] = ((long) tipo.ordinal() << DESPLAZAMIENTO_TIPO) | (contrapartida & MASCARA_CONTRAPARTIDA);
+            segmento[posicion + 2] = importe;
+            eventosUltimo++;
+            saldo += importe;
+            ultimoInstante = momento;
+        }
+
+        /**
+         * Empieza un segmento con el punto de control del saldo actual.
+         *
+         * @param inicio Instante de su primer movimiento.
+         */
+        private void nuevoSegmento(long inicio) {
+            if (segmentos == null) {
+                segmentos = new long[1][];
+                iniciosSegmento = new long[1];
+                saldosSegmento = new long[1];
+            } else if (numSegmentos == segmentos.length) {
+                int capacidad = numSegmentos * 2;
+                segmentos = Arrays.copyOf(segmentos, capacidad);
+                iniciosSegmento = Arrays.copyOf(iniciosSegmento, capacidad);
+                saldosSegmento = Arrays.copyOf(saldosSegmento, capacidad);
+            }
+            segmentos[numSegmentos] = new long[2 * LONGS_POR_EVENTO];
+            iniciosSegmento[numSegmentos] = inicio;
+            saldosSegmento[numSegmentos] = saldo;
+            numSegmentos++;
+            eventosUltimo = 0;
+        }
+
+        /**
+         * Busca en el índice el último segmento que empieza en el instante indicado o antes.
+         *
+         * @param instante Instante en milisegundos.
+         * @return Posición del segmento, o -1 si todos empiezan después.
+         */
+        private int segmentoEn(long instante) {
+            // Con instantes repetidos hay que quedarse con el último segmento que empieza en ese instante
+            int bajo = 0;
+            int alto = numSegmentos - 1;
+            int encontrado = -1;
+            while (bajo <= alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (iniciosSegmento[medio] <= instante) {
+                    encontrado = medio;
+                    bajo = medio + 1;
+                } else {
+                    alto = medio - 1;
+                }
+            }
+            return encontrado;
+        }
+
+        /**
+         * Número de movimientos de un segmento.
+         *
+         * @param segmento Posición del segmento.
+         * @return Movimientos guardados en él.
+         */
+        private int eventos(int segmento) {
+            return (segmento == numSegmentos - 1) ? eventosUltimo : EVENTOS_POR_SEGMENTO;
+        }
+
+        /**
+         * Saldo de la cuenta al final del instante indicado (incluidos los movimientos de ese milisegundo).
+         *
+         * @param instante Instante en milisegundos.
+         * @return Saldo en céntimos, o null si la cuenta todavía no estaba en el libro.
+         */
+        private synchronized Long saldoEn(long instante) {
+            if (instante < apertura) {
+                return null;
+            }
+            int segmento = segmentoEn(instante);
+            if (segmento < 0) {
+                return saldoApertura;
+            }
+            long[] datos = segmentos[segmento];
+            long saldoEn = saldosSegmento[segmento];
+            int eventos = eventos(segmento);
+            for (int i = 0; i < eventos && datos[i * LONGS_POR_EVENTO] <= instante; i++) {
+                saldoEn += datos[i * LONGS_POR_EVENTO + 2];
+            }
+            return saldoEn;
+        }
+
+        /**
+         * Añade los movimientos de un intervalo de instantes, con el saldo después de cada uno.
+         *
+         * @param desde       Primer instante incluido, en milisegundos.
+         * @param hasta       Primer instante no incluido, en milisegundos.
+         * @param movimientos Lista donde se añaden.
+         */
+        private synchronized void movimientos(long desde, long hasta, List<Movimiento> movimientos) {
+            // El punto de control es el saldo antes del primer movimiento de su segmento
+            int segmento = Math.max(0, segmentoEn(desde - 1));
+            for (; segmento < numSegmentos && iniciosSegmento[segmento] < hasta; segmento++) {
+                long[] datos = segmentos[segmento];
+                long saldoTras = saldosSegmento[segmento];
+                int eventos = eventos(segmento);
+                for (int i = 0; i < eventos; i++) {
+                    int posicion = i * LONGS_POR_EVENTO;
+                    long instante = datos[posicion];
+                    saldoTras += datos[posicion + 2];
+                    if (instante >= hasta) {
+                        return;
+                    }
+                    if (instante >= desde) {
+                        long tipoYContrapartida = datos[posicion + 1];
+                        movimientos.add(new Movimiento(instante, idCuenta, TIPOS[(int) (tipoYContrapartida >>> DESPLAZAMIENTO_TIPO)],
+                                datos[posicion + 2], saldoTras, tipoYContrapartida & MASCARA_CONTRAPARTIDA));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Abre el historial de una cuenta con su saldo actual. Si la cuenta ya tenía historial en este libro
+     * no hace nada. Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta Cuenta que se empieza a registrar.
+     */
+    void abrir(Cuenta cuenta) {
+        if (cuenta.historial != null && cuenta.historial.libro == this) {
+            return;
+        }
+        Historial historial = new Historial(this, cuenta.id, reloj.millis(), cuenta.getSaldoCentimos());
+        cuenta.historial = historial;
+        porDni.merge(cuenta.titular.getDni(), new Historial[] {historial}, (anteriores, nuevo) -> {
+            Historial[] todos = Arrays.copyOf(anteriores, anteriores.length + 1);
+            todos[anteriores.length] = nuevo[0];
+            return todos;
+        });
+    }
+
+    /**
+     * Anota un movimiento de una cuenta. No hace nada si el importe es 0 (por ejemplo, unos intereses
+     * que redondean a 0). Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta        Cuenta del movimiento.
+     * @param tipo          Tipo de movimiento.
+     * @param importe       Cambio del saldo en céntimos (negativo si resta).
+     * @param contrapartida Otra cuenta de una transferencia, o null.
+     */
+    void anotar(Cuenta cuenta, Tipo tipo, long importe, Cuenta contrapartida) {
+        if (importe == 0) {
+            return;
+        }
+        abrir(cuenta);
+        cuenta.historial.anotar(reloj.millis(), tipo, importe, (contrapartida == null) ? 0 : contrapartida.id);
+    }
+
+    /**
+     * Anota un ingreso (o la pata de entrada de una transferencia) y su comisión, si la hay.
+     * La comisión se deduce del saldo, así que no depende de cómo la calcule cada tipo de cuenta.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta        Cuenta del ingreso.
+     * @param tipo          INGRESO o TRANSFERENCIA_ENTRADA.
+     * @param centimos      Cantidad ingresada.
+     * @param saldoAntes    Saldo antes del ingreso.
+     * @param contrapartida Cuenta de origen de una transferencia, o null.
+     */
+    void anotarIngreso(Cuenta cuenta, Tipo tipo, long centimos, long saldoAntes, Cuenta contrapartida) {
+        anotar(cuenta, tipo, centimos, contrapartida);
+        anotar(cuenta, Tipo.COMISION_INGRESO, cuenta.getSaldoCentimos() - saldoAntes - centimos, null);
+    }
+
+    /**
+     * Anota una retirada (o la pata de salida de una transferencia) y su comisión, si la hay.
+     * Debe llamarse con el cerrojo de la franja del DNI tomado.
+     *
+     * @param cuenta        Cuenta de la retirada.
+     * @param tipo          RETIRADA o TRANSFERENCIA_SALIDA.
+     * @param centimos      Cantidad retirada.
+     * @param saldoAntes    Saldo antes de la retirada.
+     * @param contrapartida Cuenta de destino de una transferencia, o null.
+     */
+    void anotarRetirada(Cuenta cuenta, Tipo tipo, long centimos, long saldoAntes, Cuenta contrapartida) {
+        anotar(cuenta, tipo, -centimos, contrapartida);
+        anotar(cuenta, Tipo.COMISION_RETIRADA, cuenta.getSaldoCentimos() - saldoAntes + centimos, null);
+    }
+
+    /**
+     * Saldo de cada cuenta de un DNI en un instante, incluidos los movimientos de ese milisegundo.
+     * Las cuentas eliminadas después siguen apareciendo; las que aún no estaban en el libro, no.
+     *
+     * @param dni      DNI del titular.
+     * @param instante Instante de la consulta.
+     * @return Saldo en céntimos por identificador de cuenta, en el orden en que se abrieron.
+     */
+    public Map<Long, Long> saldosEn(String dni, Instant instante) {
+        Map<Long, Long> saldos = new LinkedHashMap<>();
+        long milisegundos = instante.toEpochMilli();
+        for (Historial historial : porDni.getOrDefault(dni, NINGUNO)) {
+            Long saldo = historial.saldoEn(milisegundos);
+            if (saldo != null) {
+                saldos.put(historial.idCuenta, saldo);
+            }
+        }
+        return saldos;
+    }
+
+    /**
+     * Extracto de un mes de todas las cuentas de un DNI (incluidas las eliminadas), según la zona
+     * horaria del reloj del libro.
+     *
+     * @param dni DNI del titular.
+     * @param mes Mes del extracto.
+     * @return Movimientos del mes ordenados por instante (y, en el mismo instante, cuenta a cuenta).
+     */
+    public List<Movimiento> extracto(String dni, YearMonth mes) {
+        ZoneId zona = reloj.getZone();
+        long desde = mes.atDay(1).atStartOfDay(zona).toInstant().toEpochMilli();
+        long hasta = mes.plusMonths(1).atDay(1).atStartOfDay(zona).toInstant().toEpochMilli();
+        List<Movimiento> movimientos = new ArrayList<>();
+        for (Historial historial : porDni.getOrDefault(dni, NINGUNO)) {
+            historial.movimientos(desde, hasta, movimientos);
+        }
+        // Cada cuenta ya viene en orden; la ordenación estable mantiene el orden de sus movimientos
+        movimientos.sort((uno, otro) -> Long.compare(uno.instante, otro.instante));
+        return Collections.unmodifiableList(movimientos);
+    }
+}
@@ -0,0 +1,474 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Ejecuta sobre un banco un fichero de transferencias (por ejemplo, un fichero de liquidación) con el formato:
+ * DNIOrigen DNIDestino Cantidad
+ * Ejemplo: 12345678A 87654321B 150.25
+ *
+ * Las transferencias pasan por un proceso en cadena, por bloques de TAMANYO_BLOQUE líneas:
+ * - Análisis y validación: se separan los campos, se comprueba el formato de los DNI (8 dígitos y una
+ *   letra mayúscula, como en BancoMain.leerDni) y se convierte la cantidad a céntimos.
+ * - Resolución: se descartan las transferencias cuyo origen o destino no tiene cuentas en el banco.
+ * - Ejecución: las transferencias del bloque se reparten en rondas en las que ningún DNI aparece dos
+ *   veces. Cada ronda se ejecuta en paralelo en el ForkJoinPool común y las rondas van una detrás de
+ *   otra, así que las transferencias de un mismo DNI se aplican en el orden del fichero.
+ * Mientras se ejecuta un bloque se analiza el siguiente, y nunca hay más de dos bloques en memoria.
+ *
+ * El resultado de cada línea se entrega en el orden del fichero a quien lo pida, y al final se devuelve
+ * un resumen con el número de transferencias en cada estado. Las líneas en blanco se ignoran.
+ */
+public class LoteTransferencias {
+
+    /**
+     * Resultado posible de una transferencia del lote.
+     */
+    public enum Estado {
+        REALIZADA("Transferencia realizada"),
+        MAL_FORMADA("Linea mal formada"),
+        DNI_NO_VALIDO("DNI no valido"),
+        IMPORTE_NO_VALIDO("Importe no valido"),
+        SIN_CUENTA("DNI sin cuentas en el banco"),
+        RECHAZADA("Transferencia rechazada por la cuenta de origen");
+
+        private final String texto;
+
+        /**
+         * Constructor del enum.
+         *
+         * @param texto Descripción textual del estado.
+         */
+        Estado(String texto) {
+            this.texto = texto;
+        }
+
+        /**
+         * Devuelve la descripción textual del estado.
+         *
+         * @return Texto asociado al estado.
+         */
+        public String getTexto() {
+            return texto;
+        }
+    }
+
+    /**
+     * Una transferencia del lote y lo que ha pasado con ella.
+     */
+    public static class Resultado {
+
+        /**
+         * Atributos:
+         * - Número de línea en el fichero (empezando en 1).
+         * - DNI de origen y de destino (null si la línea está mal formada).
+         * - Cantidad en céntimos.
+         * - Estado de la transferencia (null mientras no se ha ejecutado).
+         */
+        private final long linea;
+        private final String dniOrigen;
+        private final String dniDestino;
+        private final long centimos;
+        private Estado estado;
+
+        /**
+         * Constructor del resultado.
+         *
+         * @param linea      Número de línea.
+         * @param dniOrigen  DNI de origen.
+         * @param dniDestino DNI de destino.
+         * @param centimos   Cantidad en céntimos.
+         * @param estado     Estado, o null si la transferencia está pendiente de ejecutar.
+         */
+        Resultado(long linea, String dniOrigen, String dniDestino, long centimos, Estado estado) {
+            this.linea = linea;
+            this.dniOrigen = dniOrigen;
+            this.dniDestino = dniDestino;
+            this.centimos = centimos;
+            this.estado = estado;
+        }
+
+        /**
+         * Devuelve el número de línea.
+         *
+         * @return Número de línea, empezando en 1.
+         */
+        public long getLinea() {
+            return linea;
+        }
+
+        /**
+         * Devuelve el DNI de origen.
+         *
+         * @return DNI de origen, o null si la línea está mal formada.
+         */
+        public String getDniOrigen() {
+            return dniOrigen;
+        }
+
+        /**
+         * Devuelve el DNI de destino.
+         *
+         * @return DNI de destino, o null si la línea está mal formada.
+         */
+        public String getDniDestino() {
+            return dniDestino;
+        }
+
+        /**
+         * Devuelve la cantidad transferida o que se intentó transferir.
+         *
+         * @return Cantidad en céntimos.
+         */
+        public long getCentimos() {
+            return centimos;
+        }
+
+        /**
+         * Devuelve el estado de la transferencia.
+         *
+         * @return Estado de la transferencia.
+         */
+        public Estado getEstado() {
+            return estado;
+        }
+
+        /**
+         * Representación textual con el formato del informe del lote.
+         *
+         * @return Texto "Linea N: estado".
+         */
+        @Override
+        public String toString() {
+            return "Linea " + linea + ": " + estado.getTexto();
+        }
+    }
+
+    /**
+     * Totales de un lote de transferencias.
+     */
+    public static class Resumen {
+
+        /**
+         * Atributos:
+         * - Número de transferencias en cada estado.
+         * - Céntimos movidos por las transferencias realizadas.
+         */
+        private final EnumMap<Estado, Long> porEstado;
+        private long centimosTransferidos;
+
+        /**
+         * Constructor del resumen, con todos los totales a cero.
+         */
+        Resumen() {
+            porEstado = new EnumMap<>(Estado.class);
+            for (Estado estado : Estado.values()) {
+                porEstado.put(estado, 0L);
+            }
+        }
+
+        /**
+         * Suma una transferencia a los totales.
+         *
+         * @param resultado Transferencia ya ejecutada o descartada.
+         */
+        void anyadir(Resultado resultado) {
+            porEstado.merge(resultado.estado, 1L, Long::sum);
+            if (resultado.estado == Estado.REALIZADA) {
+                centimosTransferidos += resultado.centimos;
+            }
+        }
+
+        /**
+         * Devuelve el número de transferencias leídas del lote (líneas no vacías).
+         *
+         * @return Número de transferencias.
+         */
+        public long getTotal() {
+            long total = 0;
+            for (long numero : porEstado.values()) {
+                total += numero;
+            }
+            return total;
+        }
+
+        /**
+         * Devuelve el número de transferencias que acabaron en un estado.
+         *
+         * @param estado Estado.
+         * @return Número de transferencias en ese estado.
+         */
+        public long getNumero(Estado estado) {
+            return porEstado.get(estado);
+        }
+
+        /**
+         * Devuelve la suma de las cantidades de las transferencias realizadas.
+         *
+         * @return Total transferido en céntimos.
+         */
+        public long getCentimosTransferidos() {
+            return centimosTransferidos;
+        }
+
+        /**
+         * Representación textual: total de transferencias, número en cada estado con alguna y total transferido.
+         *
+         * @return Resumen del lote en varias líneas.
+         */
+        @Override
+        public String toString() {
+            StringBuilder texto = new StringBuilder();
+            texto.append("Transferencias leidas: ").append(getTotal()).append('\n');
+            for (Map.Entry<Estado, Long> entrada : porEstado.entrySet()) {
+                if (entrada.getValue() > 0) {
+                    texto.append(entrada.getKey().getTexto()).append(": ").append(entrada.getValue()).append('\n');
+                }
+            }
+            texto.append(String.format("Total transferido: %.2f euros", Dinero.aEuros(centimosTransferidos)));
+            return texto.toString();
+        }
+    }
+
+    /**
+     * Atributos:
+     * - Líneas de cada bloque del proceso.
+     * - Transferencias de una ronda a partir de las cuales se reparte entre los hilos, y tramos por hilo.
+     * - Banco sobre el que se ejecutan, fichero de entrada y número de la última línea leída.
+     * - Pool donde se analizan los bloques y se ejecutan las rondas.
+     */
+    static final int TAMANYO_BLOQUE = 16 * 1024;
+    private static final int UMBRAL_PARALELO = 512;
+    private static final int TRAMOS_POR_HILO = 4;
+
+    private final Banco banco;
+    private final BufferedReader entrada;
+    private long linea;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor del lote.
+     *
+     * @param banco   Banco sobre el que se ejecutan las transferencias.
+     * @param entrada Entrada con las transferencias, una por línea.
+     */
+    private LoteTransferencias(Banco banco, BufferedReader entrada) {
+        this.banco = banco;
+        this.entrada = entrada;
+        this.linea = 0;
+        this.pool = ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Ejecuta las transferencias de un fichero.
+     *
+     * @param banco      Banco sobre el que se ejecutan las transferencias.
+     * @param fichero    Fichero de transferencias.
+     * @param resultados Receptor del resultado de cada línea, en el orden del fichero, o null si solo
+     *                   interesa el resumen.
+     * @return Resumen del lote.
+     * @throws IOException si no se puede leer el fichero.
+     */
+    public static Resumen ejecutar(Banco banco, Path fichero, Consumer<Resultado> resultados) throws IOException {
+        try (BufferedReader entrada = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+            return ejecutar(banco, entrada, resultados);
+        }
+    }
+
+    /**
+     * Ejecuta las transferencias que se van leyendo de una entrada, hasta que se acaba.
+     *
+     * @param banco      Banco sobre el que se ejecutan las transferencias.
+     * @param entrada    Entrada con las transferencias, una por línea.
+     * @param resultados Receptor del resultado de cada línea, en el orden de la entrada, o null si solo
+     *                   interesa el resumen.
+     * @return Resumen del lote.
+     * @throws IOException si no se puede leer la entrada.
+     */
+    public static Resumen ejecutar(Banco banco, BufferedReader entrada, Consumer<Resultado> resultados) throws IOException {
+        return new LoteTransferencias(banco, entrada).ejecutar(resultados);
+    }
+
+    /**
+     * Proceso en cadena: analiza el bloque siguiente en el pool mientras ejecuta el actual.
+     *
+     * @param resultados Receptor del resultado de cada línea, o null.
+     * @return Resumen del lote.
+     * @throws IOException si no se puede leer la entrada.
+     */
+    private Resumen ejecutar(Consumer<Resultado> resultados) throws IOException {
+        Resumen resumen = new Resumen();
+        List<Resultado> bloque = leerBloque();
+        while (!bloque.isEmpty()) {
+            ForkJoinTask<List<Resultado>> siguiente = pool.submit(() -> {
+                try {
+                    return leerBloque();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            ejecutarBloque(bloque);
+            for (Resultado resultado : bloque) {
+                resumen.anyadir(resultado);
+                if (resultados != null) {
+                    resultados.accept(resultado);
+                }
+            }
+            try {
+                bloque = siguiente.join();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return resumen;
+    }
+
+    /**
+     * Lee y analiza hasta TAMANYO_BLOQUE líneas no vacías de la entrada.
+     *
+     * @return Transferencias del bloque; vacío si se ha acabado la entrada.
+     * @throws IOException si no se puede leer la entrada.
+     */
+    private List<Resultado> leerBloque() throws IOException {
+        List<Resultado> bloque = new ArrayList<>(TAMANYO_BLOQUE);
+        String texto;
+        while (bloque.size() < TAMANYO_BLOQUE && (texto = entrada.readLine()) != null) {
+            linea++;
+            if (!texto.isBlank()) {
+                bloque.add(analizar(texto, linea));
+            }
+        }
+        return bloque;
+    }
+
+    /**
+     * Analiza y valida una línea del lote.
+     *
+     * @param texto  Línea del fichero, no vacía.
+     * @param numero Número de la línea.
+     * @return Transferencia pendiente de ejecutar, o ya descartada si la línea no es válida.
+     */
+    static Resultado analizar(String texto, long numero) {
+        String[] campos = texto.trim().split("\\s+");
+        if (campos.length != 3) {
+            return new Resultado(numero, null, null, 0, Estado.MAL_FORMADA);
+        }
+        long centimos;
+        try {
+            centimos = Dinero.aCentimos(Double.parseDouble(campos[2]));
+        } catch (NumberFormatException e) {
+            return new Resultado(numero, campos[0], campos[1], 0, Estado.MAL_FORMADA);
+        }
+        if (!dniValido(campos[0]) || !dniValido(campos[1])) {
+            return new Resultado(numero, campos[0], campos[1], centimos, Estado.DNI_NO_VALIDO);
+        }
+        if (centimos <= 0) {
+            return new Resultado(numero, campos[0], campos[1], centimos, Estado.IMPORTE_NO_VALIDO);
+        }
+        return new Resultado(numero, campos[0], campos[1], centimos, null);
+    }
+
+    /**
+     * Comprueba el formato de un DNI: 8 dígitos seguidos de una letra mayúscula.
+     * Es la misma regla que BancoMain.leerDni, sin expresión regular.
+     *
+     * @param dni DNI a comprobar.
+     * @return true si el formato es válido.
+     */
+    static boolean dniValido(String dni) {
+        if (dni.length() != 9) {
+            return false;
+        }
+        for (int i = 0; i < 8; i++) {
+            char c = dni.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        char letra = dni.charAt(8);
+        return letra >= 'A' && letra <= 'Z';
+    }
+
+    /**
+     * Resuelve y ejecuta las transferencias pendientes de un bloque.
+     * Cada transferencia va a la ronda siguiente a la última en la que aparecen su origen o su destino,
+     * así que en una ronda no se repite ningún DNI y cada DNI ve sus transferencias en orden.
+     *
+     * @param bloque Transferencias del bloque, en el orden del fichero.
+     */
+    private void ejecutarBloque(List<Resultado> bloque) {
+        HashMap<String, Integer> ultimaRonda = new HashMap<>();
+        List<List<Resultado>> rondas = new ArrayList<>();
+        for (Resultado transferencia : bloque) {
+            if (transferencia.estado != null) {
+                continue;
+            }
+            if (!banco.tieneCuenta(transferencia.dniOrigen) || !banco.tieneCuenta(transferencia.dniDestino)) {
+                transferencia.estado = Estado.SIN_CUENTA;
+                continue;
+            }
+            int ronda = 1 + Math.max(ultimaRonda.getOrDefault(transferencia.dniOrigen, -1),
+                    ultimaRonda.getOrDefault(transferencia.dniDestino, -1));
+            ultimaRonda.put(transferencia.dniOrigen, ronda);
+            ultimaRonda.put(transferencia.dniDestino, ronda);
+            if (ronda == rondas.size()) {
+                rondas.add(new ArrayList<>());
+            }
+            rondas.get(ronda).add(transferencia);
+        }
+        for (List<Resultado> ronda : rondas) {
+            ejecutarRonda(ronda);
+        }
+    }
+
+    /**
+     * Ejecuta una ronda, repartida en tramos entre los hilos del pool si es grande.
+     * join garantiza que los estados escritos por las tareas son visibles al terminar.
+     *
+     * @param ronda Transferencias sin ningún DNI repetido.
+     */
+    private void ejecutarRonda(List<Resultado> ronda) {
+        int numTransferencias = ronda.size();
+        if (numTransferencias < UMBRAL_PARALELO) {
+            ejecutar(ronda, 0, numTransferencias);
+            return;
+        }
+        int tramos = pool.getParallelism() * TRAMOS_POR_HILO;
+        List<ForkJoinTask<?>> tareas = new ArrayList<>(tramos);
+        for (int t = 0; t < tramos; t++) {
+            int desde = (int) ((long) numTransferencias * t / tramos);
+            int hasta = (int) ((long) numTransferencias * (t + 1) / tramos);
+            tareas.add(pool.submit(() -> ejecutar(ronda, desde, hasta)));
+        }
+        for (ForkJoinTask<?> tarea : tareas) {
+            tarea.join();
+        }
+    }
+
+    /**
+     * Ejecuta un tramo de una ronda.
+     *
+     * @param ronda Transferencias de la ronda.
+     * @param desde Posición de la primera transferencia del tramo.
+     * @param hasta Posición siguiente a la última transferencia del tramo.
+     */
+    private void ejecutar(List<Resultado> ronda, int desde, int hasta) {
+        for (int i = desde; i < hasta; i++) {
+            Resultado transferencia = ronda.get(i);
+            boolean realizada = banco.transferenciaCentimos(transferencia.dniOrigen, transferencia.dniDestino,
+                    transferencia.centimos);
+            transferencia.estado = realizada ? Estado.REALIZADA : Estado.RECHAZADA;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Métricas de funcionamiento de un banco: latencia de cada operación (ver HistogramaLatencias),
+ * fallos clasificados por motivo y comisiones cobradas.
+ *
+ * Se activan con Banco.setMetricas. Sin métricas, cada operación del banco solo comprueba que el
+ * campo es null; con ellas, anotar una operación son dos llamadas a System.nanoTime y unos pocos
+ * incrementos atómicos, sin cerrojos ni memoria nueva.
+ *
+ * Se pueden consultar con informe, escribir cada cierto tiempo con volcarPeriodicamente o publicar
+ * por JMX con registrarJmx.
+ */
+public class MetricasBanco implements MetricasBancoMXBean {
+
+    /**
+     * Operaciones del banco que se miden.
+     */
+    public enum Operacion {
+        CARGA, INGRESO, RETIRADA, TRANSFERENCIA, INTERESES, RESET, CIERRE_MES, ORDENAR, ELIMINAR,
+        INFORME, INSTANTANEA, CONSULTA
+    }
+
+    /**
+     * Motivos por los que una operación sobre saldos no se hace.
+     */
+    public enum Motivo {
+        DNI_DESCONOCIDO("DNI desconocido"),
+        IMPORTE_NO_VALIDO("Importe no valido"),
+        SALDO_MINIMO("Saldo minimo de la cuenta de ahorro"),
+        SALDO_INSUFICIENTE("Saldo insuficiente");
+
+        private final String texto;
+
+        /**
+         * Constructor del enum.
+         *
+         * @param texto Descripción textual del motivo.
+         */
+        Motivo(String texto) {
+            this.texto = texto;
+        }
+
+        /**
+         * Devuelve la descripción textual del motivo.
+         *
+         * @return Texto asociado al motivo.
+         */
+        public String getTexto() {
+            return texto;
+        }
+    }
+
+    /**
+     * Nombre con el que se publican por JMX las métricas del primer banco.
+     */
+    public static final String NOMBRE_JMX = "banco:type=MetricasBanco";
+
+    /**
+     * Atributos:
+     * - Latencias de cada operación, en el orden de Operacion.
+     * - Fallos por operación y motivo, en el orden de Operacion y Motivo.
+     * - Comisiones cobradas.
+     */
+    private final HistogramaLatencias[] latencias;
+    private final LongAdder[][] fallos;
+    private final LongAdder comisiones;
+
+    /**
+     * Constructor de las métricas, todas a cero.
+     */
+    public MetricasBanco() {
+        latencias = new HistogramaLatencias[Operacion.values().length];
+        fallos = new LongAdder[Operacion.values().length][Motivo.values().length];
+        for (Operacion operacion : Operacion.values()) {
+            latencias[operacion.ordinal()] = new HistogramaLatencias();
+            for (Motivo motivo : Motivo.values()) {
+                fallos[operacion.ordinal()][motivo.ordinal()] = new LongAdder();
+            }
+        }
+        comisiones = new LongAdder();
+    }
+
+    /**
+     * Anota que ha terminado una operación, con éxito o no.
+     *
+     * @param operacion Operación terminada.
+     * @param inicio    Instante en que empezó (System.nanoTime).
+     */
+    public void anotar(Operacion operacion, long inicio) {
+        latencias[operacion.ordinal()].anotar(System.nanoTime() - inicio);
+    }
+
+    /**
+     * Anota que una operación no se ha hecho y por qué. La operación se anota además con anotar.
+     *
+     * @param operacion Operación fallida.
+     * @param motivo    Motivo del fallo.
+     */
+    public void anotarFallo(Operacion operacion, Motivo motivo) {
+        fallos[operacion.ordinal()][motivo.ordinal()].increment();
+    }
+
+    /**
+     * Anota que se ha cobrado una comisión.
+     */
+    public void anotarComision() {
+        comisiones.increment();
+    }
+
+    /**
+     * Devuelve el histograma de latencias de una operación.
+     *
+     * @param operacion Operación.
+     * @return Histograma de latencias en nanosegundos.
+     */
+    public HistogramaLatencias getLatencias(Operacion operacion) {
+        return latencias[operacion.ordinal()];
+    }
+
+    /**
+     * Devuelve cuántas veces ha fallado una operación por un motivo.
+     *
+     * @param operacion Operación.
+     * @param motivo    Motivo del fallo.
+     * @return Número de fallos.
+     */
+    public long getFallos(Operacion operacion, Motivo motivo) {
+        return fallos[operacion.ordinal()][motivo.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getNumeroOperaciones() {
+        Map<String, Long> numeros = new LinkedHashMap<>();
+        for (Operacion operacion : Operacion.values()) {
+            numeros.put(operacion.name(), latencias[operacion.ordinal()].getNumero());
+        }
+        return numeros;
+    }
+
+    @Override
+    public Map<String, Long> getFallos() {
+        Map<String, Long> porMotivo = new LinkedHashMap<>();
+        for (Motivo motivo : Motivo.values()) {
+            long total = 0;
+            for (Operacion operacion : Operacion.values()) {
+                total += getFallos(operacion, motivo);
+            }
+            porMotivo.put(motivo.name(), total);
+        }
+        return porMotivo;
+    }
+
+    @Override
+    public long getComisiones() {
+        return comisiones.sum();
+    }
+
+    @Override
+    public Map<String, Double> getLatenciaMediaMicros() {
+        return porOperacion(HistogramaLatencias::getMedia);
+    }
+
+    @Override
+    public Map<String, Double> getLatenciaP99Micros() {
+        return porOperacion(histograma -> histograma.getPercentil(99));
+    }
+
+    @Override
+    public Map<String, Double> getLatenciaMaximaMicros() {
+        return porOperacion(histograma -> histograma.getMaximo());
+    }
+
+    /**
+     * Calcula un valor en microsegundos del histograma de cada operación.
+     *
+     * @param valor Valor en nanosegundos que se saca del histograma.
+     * @return Valor en microsegundos por operación.
+     */
+    private Map<String, Double> porOperacion(ToDoubleFunction<HistogramaLatencias> valor) {
+        Map<String, Double> valores = new LinkedHashMap<>();
+        for (Operacion operacion : Operacion.values()) {
+            valores.put(operacion.name(), valor.applyAsDouble(latencias[operacion.ordinal()]) / 1000);
+        }
+        return valores;
+    }
+
+    @Override
+    public String getInforme() {
+        return informe();
+    }
+
+    @Override
+    public void reiniciar() {
+        for (Operacion operacion : Operacion.values()) {
+            latencias[operacion.ordinal()].reiniciar();
+            for (Motivo motivo : Motivo.values()) {
+                fallos[operacion.ordinal()][motivo.ordinal()].reset();
+            }
+        }
+        comisiones.reset();
+    }
+
+    /**
+     * Informe de texto con una línea por operación hecha alguna vez (número, latencia media, percentiles
+     * 50, 99 y 99.9 y máxima, en microsegundos), los fallos por operación y motivo y las comisiones.
+     *
+     * @return Informe de las métricas.
+     */
+    public String informe() {
+        StringBuilder texto = new StringBuilder();
+        texto.append(String.format("%-14s %10s %10s %10s %10s %10s %10s%n",
+                "Operacion", "Numero", "Media(us)", "p50(us)", "p99(us)", "p99.9(us)", "Max(us)"));
+        for (Operacion operacion : Operacion.values()) {
+            HistogramaLatencias histograma = latencias[operacion.ordinal()];
+            if (histograma.getNumero() > 0) {
+                texto.append(String.format("%-14s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", operacion,
+                        histograma.getNumero(), histograma.getMedia() / 1000, histograma.getPercentil(50) / 1000.0,
+                        histograma.getPercentil(99) / 1000.0, histograma.getPercentil(99.9) / 1000.0,
+                        histograma.getMaximo() / 1000.0));
+            }
+        }
+        for (Operacion operacion : Operacion.values()) {
+            for (Motivo motivo : Motivo.values()) {
+                long numero = getFallos(operacion, motivo);
+                if (numero > 0) {
+                    texto.append(String.format("Fallos de %s (%s): %d%n", operacion, motivo.getTexto(), numero));
+                }
+            }
+        }
+        texto.append("Comisiones cobradas: ").append(comisiones.sum()).append(System.lineSeparator());
+        return texto.toString();
+    }
+
+    /**
+     * Escribe el informe de las métricas cada cierto tiempo, desde un hilo propio que no impide que
+     * termine el programa. Se para cancelando el resultado.
+     *
+     * @param destino Destino del informe (por ejemplo, System.err).
+     * @param periodo Tiempo entre informes.
+     * @param unidad  Unidad del periodo.
+     * @return Tarea periódica, para cancelarla.
+     */
+    public ScheduledFuture<?> volcarPeriodicamente(PrintStream destino, long periodo, TimeUnit unidad) {
+        ScheduledThreadPoolExecutor programador = new ScheduledThreadPoolExecutor(1, tarea -> {
+            Thread hilo = new Thread(tarea, "metricas-banco");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        // El programador se cierra ya: sigue con la tarea periódica y termina cuando se cancela
+        programador.setContinueExistingPeriodicTasksAfterShutdownPolicy(true);
+        programador.setRemoveOnCancelPolicy(true);
+        ScheduledFuture<?> volcado = programador.scheduleAtFixedRate(() -> {
+            destino.print(informe());
+            destino.flush();
+        }, periodo, periodo, unidad);
+        programador.shutdown();
+        return volcado;
+    }
+
+    /**
+     * Publica las métricas en el servidor JMX de la plataforma con el nombre NOMBRE_JMX.
+     *
+     * @throws JMException si no se pueden publicar (por ejemplo, si ya hay otras con ese nombre).
+     */
+    public void registrarJmx() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(NOMBRE_JMX));
+    }
+}
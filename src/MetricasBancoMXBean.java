@@ -0,0 +1,62 @@
+import java.util.Map;
+
+/**
+ * Interfaz de gestión de MetricasBanco, para consultarlas por JMX (por ejemplo con jconsole).
+ * Las latencias van en microsegundos y los mapas tienen como clave el nombre de la operación o del motivo.
+ */
+public interface MetricasBancoMXBean {
+
+    /**
+     * Devuelve cuántas veces se ha hecho cada operación, con éxito o no.
+     *
+     * @return Número de operaciones por operación.
+     */
+    Map<String, Long> getNumeroOperaciones();
+
+    /**
+     * Devuelve cuántas operaciones han fallado por cada motivo.
+     *
+     * @return Número de fallos por motivo.
+     */
+    Map<String, Long> getFallos();
+
+    /**
+     * Devuelve cuántas comisiones se han cobrado en ingresos y retiradas.
+     *
+     * @return Número de comisiones.
+     */
+    long getComisiones();
+
+    /**
+     * Devuelve la latencia media de cada operación.
+     *
+     * @return Media en microsegundos por operación.
+     */
+    Map<String, Double> getLatenciaMediaMicros();
+
+    /**
+     * Devuelve el percentil 99 de la latencia de cada operación.
+     *
+     * @return Percentil 99 en microsegundos por operación.
+     */
+    Map<String, Double> getLatenciaP99Micros();
+
+    /**
+     * Devuelve la latencia máxima de cada operación.
+     *
+     * @return Máximo en microsegundos por operación.
+     */
+    Map<String, Double> getLatenciaMaximaMicros();
+
+    /**
+     * Devuelve el informe de texto de las métricas (ver MetricasBanco.informe).
+     *
+     * @return Informe de las métricas.
+     */
+    String getInforme();
+
+    /**
+     * Pone a cero todas las métricas.
+     */
+    void reiniciar();
+}
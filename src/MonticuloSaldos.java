@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Montículo acotado para quedarse con las n cuentas de mayor saldo de un recorrido sin ordenar ni copiar
+ * la lista entera: guarda como mucho n cuentas y cada cuenta nueva cuesta O(log n), o nada si no supera
+ * a la menor de las guardadas.
+ *
+ * El saldo de cada cuenta se guarda al anotarla, porque puede cambiar mientras dura el recorrido y el
+ * montículo no debe desordenarse. A igual saldo gana la cuenta de identificador menor, así que el
+ * resultado no depende del orden del recorrido.
+ */
+final class MonticuloSaldos {
+
+    /**
+     * Atributos:
+     * - Saldos y cuentas guardados, como montículo de mínimos: la raíz es la menor de las guardadas.
+     * - Número de cuentas guardadas.
+     */
+    private final long[] saldos;
+    private final Cuenta[] cuentas;
+    private int tamanyo;
+
+    /**
+     * Crea un montículo vacío.
+     *
+     * @param capacidad Número de cuentas que se quieren (n), como mucho las que se van a recorrer:
+     *                  reserva sus arrays de golpe.
+     */
+    MonticuloSaldos(int capacidad) {
+        saldos = new long[capacidad];
+        cuentas = new Cuenta[capacidad];
+    }
+
+    /**
+     * Ofrece una cuenta al montículo. Se queda si todavía no hay n o si supera a la menor de las guardadas.
+     *
+     * @param cuenta Cuenta del recorrido.
+     * @param saldo  Saldo de la cuenta en céntimos, leído una sola vez.
+     */
+    void anotar(Cuenta cuenta, long saldo) {
+        if (tamanyo < saldos.length) {
+            saldos[tamanyo] = saldo;
+            cuentas[tamanyo] = cuenta;
+            subir(tamanyo++);
+        } else if (tamanyo > 0 && menor(0, saldo, cuenta)) {
+            saldos[0] = saldo;
+            cuentas[0] = cuenta;
+            bajar(0);
+        }
+    }
+
+    /**
+     * Vacía el montículo.
+     *
+     * @return Cuentas guardadas, de mayor a menor saldo.
+     */
+    List<Cuenta> extraer() {
+        Cuenta[] ordenadas = new Cuenta[tamanyo];
+        while (tamanyo > 0) {
+            // La raíz es la menor que queda: se coloca al final
+            ordenadas[tamanyo - 1] = cuentas[0];
+            tamanyo--;
+            saldos[0] = saldos[tamanyo];
+            cuentas[0] = cuentas[tamanyo];
+            cuentas[tamanyo] = null;
+            bajar(0);
+        }
+        return new ArrayList<>(Arrays.asList(ordenadas));
+    }
+
+    /**
+     * Indica si la cuenta guardada en una posición va antes que otra en el orden de menor a mayor.
+     *
+     * @param posicion Posición en el montículo.
+     * @param saldo    Saldo de la otra cuenta.
+     * @param cuenta   Otra cuenta.
+     * @return true si la guardada tiene menos saldo o, con el mismo, mayor identificador.
+     */
+    private boolean menor(int posicion, long saldo, Cuenta cuenta) {
+        return (saldos[posicion] != saldo) ? saldos[posicion] < saldo : cuentas[posicion].id > cuenta.id;
+    }
+
+    /**
+     * Sube una cuenta hasta su sitio.
+     *
+     * @param posicion Posición de la cuenta.
+     */
+    private void subir(int posicion) {
+        while (posicion > 0) {
+            int padre = (posicion - 1) >>> 1;
+            if (!menor(posicion, saldos[padre], cuentas[padre])) {
+                return;
+            }
+            intercambiar(posicion, padre);
+            posicion = padre;
+        }
+    }
+
+    /**
+     * Baja una cuenta hasta su sitio.
+     *
+     * @param posicion Posición de la cuenta.
+     */
+    private void bajar(int posicion) {
+        while (true) {
+            int hijo = 2 * posicion + 1;
+            if (hijo >= tamanyo) {
+                return;
+            }
+            if (hijo + 1 < tamanyo && menor(hijo + 1, saldos[hijo], cuentas[hijo])) {
+                hijo++;
+            }
+            if (!menor(hijo, saldos[posicion], cuentas[posicion])) {
+                return;
+            }
+            intercambiar(posicion, hijo);
+            posicion = hijo;
+        }
+    }
+
+    /**
+     * Intercambia dos posiciones del montículo.
+     *
+     * @param una  Primera posición.
+     * @param otra Segunda posición.
+     */
+    private void intercambiar(int una, int otra) {
+        long saldo = saldos[una];
+        saldos[una] = saldos[otra];
+        saldos[otra] = saldo;
+        Cuenta cuenta = cuentas[una];
+        cuentas[una] = cuentas[otra];
+        cuentas[otra] = cuenta;
+    }
+}
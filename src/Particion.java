@@ -0,0 +1,141 @@
+import java.io.Closeable;
+
+/**
+ * Una de las particiones de un BancoParticionado: un Banco con parte de las cuentas, en el mismo proceso
+ * (ParticionLocal) o en otro proceso de la misma máquina (ParticionRemota, ver ServidorParticion).
+ *
+ * Las operaciones son las del Banco que necesita la fachada: las de siempre sobre DNI de la partición
+ * y las dos fases de las transferencias entre particiones (ver Banco.reservarSalida). Son bloqueantes;
+ * la fachada las lanza desde los hilos propios de cada partición.
+ * Las implementaciones remotas lanzan UncheckedIOException si se pierde la conexión.
+ */
+interface Particion extends Closeable {
+
+    /**
+     * Ver Banco.ingresoCentimos.
+     *
+     * @param dni      DNI del titular.
+     * @param centimos Cantidad en céntimos.
+     * @return true si se ha realizado.
+     */
+    boolean ingreso(String dni, long centimos);
+
+    /**
+     * Ver Banco.retiradaCentimos.
+     *
+     * @param dni      DNI del titular.
+     * @param centimos Cantidad en céntimos.
+     * @return true si se ha realizado.
+     */
+    boolean retirada(String dni, long centimos);
+
+    /**
+     * Transferencia entre dos DNI de esta partición (ver Banco.transferenciaCentimos).
+     *
+     * @param dniOrigen  DNI del titular de la cuenta de origen.
+     * @param dniDestino DNI del titular de la cuenta de destino.
+     * @param centimos   Cantidad en céntimos.
+     * @return true si se ha realizado.
+     */
+    boolean transferencia(String dniOrigen, String dniDestino, long centimos);
+
+    /**
+     * Ver Banco.tieneCuenta.
+     *
+     * @param dni DNI del titular.
+     * @return true si el DNI tiene al menos una cuenta.
+     */
+    boolean tieneCuenta(String dni);
+
+    /**
+     * Ver Banco.reservarSalida.
+     *
+     * @param idReserva Identificador de la reserva.
+     * @param dni       DNI del titular de la cuenta de origen.
+     * @param centimos  Cantidad en céntimos.
+     * @return true si se ha reservado.
+     */
+    boolean reservarSalida(long idReserva, String dni, long centimos);
+
+    /**
+     * Ver Banco.abonarEntrada.
+     *
+     * @param idReserva Identificador de la reserva de la partición de origen.
+     * @param dni       DNI del titular de la cuenta de destino.
+     * @param centimos  Cantidad en céntimos.
+     * @return true si se ha ingresado.
+     */
+    boolean abonarEntrada(long idReserva, String dni, long centimos);
+
+    /**
+     * Ver Banco.entradaAbonada.
+     *
+     * @param idReserva Identificador de la reserva de la partición de origen.
+     * @return true si se ha abonado.
+     */
+    boolean entradaAbonada(long idReserva);
+
+    /**
+     * Ver Banco.olvidarEntrada.
+     *
+     * @param idReserva Identificador de la reserva de la partición de origen.
+     */
+    void olvidarEntrada(long idReserva);
+
+    /**
+     * Ver Banco.getEntradasAbonadas.
+     *
+     * @return Identificadores de reserva.
+     */
+    long[] getEntradasAbonadas();
+
+    /**
+     * Ver Banco.getReservasPendientes.
+     *
+     * @return Identificadores de reserva.
+     */
+    long[] getReservasPendientes();
+
+    /**
+     * Ver Banco.confirmarSalida.
+     *
+     * @param idReserva Identificador de la reserva.
+     */
+    void confirmarSalida(long idReserva);
+
+    /**
+     * Ver Banco.anularSalida.
+     *
+     * @param idReserva Identificador de la reserva.
+     * @return true si se ha devuelto o no existía, false si sigue pendiente.
+     */
+    boolean anularSalida(long idReserva);
+
+    /**
+     * Saldo total de las cuentas de la partición más el dinero de sus reservas pendientes.
+     * Solo es exacto si no hay operaciones en curso.
+     *
+     * @return Total en céntimos.
+     */
+    long getCentimosTotales();
+
+    /**
+     * Ver Banco.getNumReservas.
+     *
+     * @return Reservas pendientes.
+     */
+    int getNumReservas();
+
+    /**
+     * Ver Banco.getNumCuentas.
+     *
+     * @return Número de cuentas de la partición.
+     */
+    int getNumCuentas();
+
+    /**
+     * Libera los recursos de la partición (conexiones, en las remotas). No cierra el banco.
+     */
+    @Override
+    void close();
+}
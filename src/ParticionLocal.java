@@ -0,0 +1,119 @@
+import java.util.LongSummaryStatistics;
+
+/**
+ * Partición de un BancoParticionado en el mismo proceso: delega directamente en su Banco.
+ */
+class ParticionLocal implements Particion {
+
+    private final Banco banco;
+
+    /**
+     * @param banco Banco con las cuentas de la partición.
+     */
+    ParticionLocal(Banco banco) {
+        this.banco = banco;
+    }
+
+    /**
+     * Devuelve el banco de la partición.
+     *
+     * @return Banco con las cuentas de la partición.
+     */
+    Banco getBanco() {
+        return banco;
+    }
+
+    @Override
+    public boolean ingreso(String dni, long centimos) {
+        return banco.ingresoCentimos(dni, centimos);
+    }
+
+    @Override
+    public boolean retirada(String dni, long centimos) {
+        return banco.retiradaCentimos(dni, centimos);
+    }
+
+    @Override
+    public boolean transferencia(String dniOrigen, String dniDestino, long centimos) {
+        return banco.transferenciaCentimos(dniOrigen, dniDestino, centimos);
+    }
+
+    @Override
+    public boolean tieneCuenta(String dni) {
+        return banco.tieneCuenta(dni);
+    }
+
+    @Override
+    public boolean reservarSalida(long idReserva, String dni, long centimos) {
+        return banco.reservarSalida(idReserva, dni, centimos);
+    }
+
+    @Override
+    public boolean abonarEntrada(long idReserva, String dni, long centimos) {
+        return banco.abonarEntrada(idReserva, dni, centimos);
+    }
+
+    @Override
+    public boolean entradaAbonada(long idReserva) {
+        return banco.entradaAbonada(idReserva);
+    }
+
+    @Override
+    public void olvidarEntrada(long idReserva) {
+        banco.olvidarEntrada(idReserva);
+    }
+
+    @Override
+    public long[] getEntradasAbonadas() {
+        return banco.getEntradasAbonadas();
+    }
+
+    @Override
+    public long[] getReservasPendientes() {
+        return banco.getReservasPendientes();
+    }
+
+    @Override
+    public void confirmarSalida(long idReserva) {
+        banco.confirmarSalida(idReserva);
+    }
+
+    @Override
+    public boolean anularSalida(long idReserva) {
+        return banco.anularSalida(idReserva);
+    }
+
+    @Override
+    public long getCentimosTotales() {
+        return centimosTotales(banco);
+    }
+
+    /**
+     * Saldo total de las cuentas de un banco más el dinero de sus reservas pendientes.
+     *
+     * @param banco Banco de una partición.
+     * @return Total en céntimos.
+     */
+    static long centimosTotales(Banco banco) {
+        long total = banco.getCentimosReservados();
+        for (LongSummaryStatistics saldos : banco.resumenPorTipo().values()) {
+            total += saldos.getSum();
+        }
+        return total;
+    }
+
+    @Override
+    public int getNumReservas() {
+        return banco.getNumReservas();
+    }
+
+    @Override
+    public int getNumCuentas() {
+        return banco.getNumCuentas();
+    }
+
+    @Override
+    public void close() {
+        // El banco sigue siendo de quien lo creó
+    }
+}
@@ -0,0 +1,252 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Partición de un BancoParticionado en otro proceso de la misma máquina, a la que se habla por TCP con
+ * el protocolo de ServidorParticion.
+ *
+ * Cada petición usa una conexión libre del grupo (o abre una nueva) y la devuelve al terminar, así que
+ * hay como mucho tantas conexiones como hilos llaman a la vez. Si una petición falla, su conexión se
+ * cierra y se lanza UncheckedIOException: la operación puede haberse hecho o no.
+ */
+class ParticionRemota implements Particion {
+
+    /**
+     * Conexión con el servidor de la partición y sus flujos.
+     */
+    private static final class Conexion {
+        private final Socket socket;
+        private final DataInputStream entrada;
+        private final DataOutputStream salida;
+
+        /**
+         * @param direccion Dirección del servidor.
+         * @throws IOException si no se puede conectar.
+         */
+        private Conexion(InetSocketAddress direccion) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(direccion);
+            entrada = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            salida = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        /**
+         * Cierra la conexión sin lanzar excepciones.
+         */
+        private void cerrar() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // No hay nada más que hacer con ella
+            }
+        }
+    }
+
+    /**
+     * Escritura de los datos de una petición.
+     */
+    @FunctionalInterface
+    private interface Datos {
+        void escribir(DataOutputStream salida) throws IOException;
+    }
+
+    private final InetSocketAddress direccion;
+    private final ConcurrentLinkedQueue<Conexion> libres;
+    private volatile boolean cerrada;
+
+    /**
+     * Crea la partición y comprueba que el servidor responde.
+     *
+     * @param direccion Dirección del servidor de la partición.
+     * @throws IOException si no se puede conectar.
+     */
+    ParticionRemota(InetSocketAddress direccion) throws IOException {
+        this.direccion = direccion;
+        this.libres = new ConcurrentLinkedQueue<>();
+        libres.add(new Conexion(direccion));
+    }
+
+    /**
+     * Lectura de la respuesta de una petición.
+     */
+    @FunctionalInterface
+    private interface Respuesta<T> {
+        T leer(DataInputStream entrada) throws IOException;
+    }
+
+    /**
+     * Envía una petición y espera su respuesta.
+     *
+     * @param operacion Código de la operación.
+     * @param datos     Escritura de sus datos.
+     * @return Respuesta del servidor.
+     * @throws UncheckedIOException si falla la conexión.
+     */
+    private long pedir(byte operacion, Datos datos) {
+        return pedir(operacion, datos, DataInputStream::readLong);
+    }
+
+    /**
+     * Envía una petición sin datos cuya respuesta es una lista: su longitud y cada elemento.
+     *
+     * @param operacion Código de la operación.
+     * @return Elementos de la lista.
+     * @throws UncheckedIOException si falla la conexión.
+     */
+    private long[] pedirLista(byte operacion) {
+        return pedir(operacion, salida -> { }, entrada -> {
+            long[] lista = new long[entrada.readInt()];
+            for (int i = 0; i < lista.length; i++) {
+                lista[i] = entrada.readLong();
+            }
+            return lista;
+        });
+    }
+
+    /**
+     * Envía una petición y lee su respuesta.
+     *
+     * @param operacion Código de la operación.
+     * @param datos     Escritura de sus datos.
+     * @param lectura   Lectura de la respuesta.
+     * @param <T>       Tipo de la respuesta.
+     * @return Respuesta del servidor.
+     * @throws UncheckedIOException si falla la conexión.
+     */
+    private <T> T pedir(byte operacion, Datos datos, Respuesta<T> lectura) {
+        Conexion conexion = libres.poll();
+        try {
+            if (conexion == null) {
+                conexion = new Conexion(direccion);
+            }
+            conexion.salida.writeByte(operacion);
+            datos.escribir(conexion.salida);
+            conexion.salida.flush();
+            T respuesta = lectura.leer(conexion.entrada);
+            if (cerrada) {
+                conexion.cerrar();
+            } else {
+                libres.add(conexion);
+            }
+            return respuesta;
+        } catch (IOException e) {
+            if (conexion != null) {
+                conexion.cerrar();
+            }
+            throw new UncheckedIOException("Fallo en la particion " + direccion, e);
+        }
+    }
+
+    @Override
+    public boolean ingreso(String dni, long centimos) {
+        return pedir(ServidorParticion.INGRESO, salida -> {
+            salida.writeUTF(dni);
+            salida.writeLong(centimos);
+        }) != 0;
+    }
+
+    @Override
+    public boolean retirada(String dni, long centimos) {
+        return pedir(ServidorParticion.RETIRADA, salida -> {
+            salida.writeUTF(dni);
+            salida.writeLong(centimos);
+        }) != 0;
+    }
+
+    @Override
+    public boolean transferencia(String dniOrigen, String dniDestino, long centimos) {
+        return pedir(ServidorParticion.TRANSFERENCIA, salida -> {
+            salida.writeUTF(dniOrigen);
+            salida.writeUTF(dniDestino);
+            salida.writeLong(centimos);
+        }) != 0;
+    }
+
+    @Override
+    public boolean tieneCuenta(String dni) {
+        return pedir(ServidorParticion.TIENE_CUENTA, salida -> salida.writeUTF(dni)) != 0;
+    }
+
+    @Override
+    public boolean reservarSalida(long idReserva, String dni, long centimos) {
+        return pedir(ServidorParticion.RESERVAR_SALIDA, salida -> {
+            salida.writeLong(idReserva);
+            salida.writeUTF(dni);
+            salida.writeLong(centimos);
+        }) != 0;
+    }
+
+    @Override
+    public boolean abonarEntrada(long idReserva, String dni, long centimos) {
+        return pedir(ServidorParticion.ABONAR_ENTRADA, salida -> {
+            salida.writeLong(idReserva);
+            salida.writeUTF(dni);
+            salida.writeLong(centimos);
+        }) != 0;
+    }
+
+    @Override
+    public boolean entradaAbonada(long idReserva) {
+        return pedir(ServidorParticion.ENTRADA_ABONADA, salida -> salida.writeLong(idReserva)) != 0;
+    }
+
+    @Override
+    public void olvidarEntrada(long idReserva) {
+        pedir(ServidorParticion.OLVIDAR_ENTRADA, salida -> salida.writeLong(idReserva));
+    }
+
+    @Override
+    public long[] getEntradasAbonadas() {
+        return pedirLista(ServidorParticion.ENTRADAS_ABONADAS);
+    }
+
+    @Override
+    public long[] getReservasPendientes() {
+        return pedirLista(ServidorParticion.RESERVAS_PENDIENTES);
+    }
+
+    @Override
+    public void confirmarSalida(long idReserva) {
+        pedir(ServidorParticion.CONFIRMAR_SALIDA, salida -> salida.writeLong(idReserva));
+    }
+
+    @Override
+    public boolean anularSalida(long idReserva) {
+        return pedir(ServidorParticion.ANULAR_SALIDA, salida -> salida.writeLong(idReserva)) != 0;
+    }
+
+    @Override
+    public long getCentimosTotales() {
+        return pedir(ServidorParticion.CENTIMOS_TOTALES, salida -> { });
+    }
+
+    @Override
+    public int getNumReservas() {
+        return (int) pedir(ServidorParticion.NUM_RESERVAS, salida -> { });
+    }
+
+    @Override
+    public int getNumCuentas() {
+        return (int) pedir(ServidorParticion.NUM_CUENTAS, salida -> { });
+    }
+
+    /**
+     * Cierra las conexiones libres; las que están en uso se cierran al terminar su petición.
+     */
+    @Override
+    public void close() {
+        cerrada = true;
+        Conexion conexion;
+        while ((conexion = libres.poll()) != null) {
+            conexion.cerrar();
+        }
+    }
+}
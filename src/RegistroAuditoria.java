@@ -0,0 +1,419 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registro de auditoría de los movimientos de dinero del banco, en ficheros de texto que rotan por tamaño.
+ *
+ * Las operaciones del banco no escriben en disco: anotar deja el movimiento en un buffer circular
+ * acotado y sin cerrojos (cada hilo reserva un hueco con un compareAndSet y lo publica con su número
+ * de secuencia) y vuelve. Un hilo escritor propio vacía el buffer por lotes y escribe cada lote con una
+ * sola llamada al FileChannel y un force, así que la latencia del disco no llega a las transferencias.
+ *
+ * Si el buffer se llena porque el disco no da abasto, la política decide:
+ * - BLOQUEAR: la operación espera a que haya sitio. No se pierde ningún movimiento.
+ * - DESCARTAR: el movimiento no se anota y se cuenta en getDescartados. La operación no espera nunca.
+ *
+ * Cada línea del fichero es: instante (ISO-8601), tipo, DNI, DNI de destino (o "-") y céntimos, separados
+ * por espacios. Cuando el fichero pasa del tamaño máximo se renombra a fichero.1 (el .1 anterior pasa a .2,
+ * y así hasta el número de ficheros guardados; el más antiguo se borra) y se empieza uno nuevo.
+ *
+ * close escribe todo lo pendiente; si no se llama, lo hace un gancho de apagado de la JVM.
+ */
+public class RegistroAuditoria implements Closeable {
+
+    /**
+     * Qué hacer con un movimiento si el buffer está lleno.
+     */
+    public enum Politica {
+        BLOQUEAR, DESCARTAR
+    }
+
+    /**
+     * Tipos de movimiento que se auditan. Las reservas son las dos fases de las transferencias entre
+     * particiones (ver Banco.reservarSalida). Los intereses se anotan por cuenta abonada, las comisiones
+     * aparte de la operación que las cobra, y la baja de un cliente con el saldo de cada cuenta eliminada.
+     */
+    public enum Tipo {
+        INGRESO, RETIRADA, TRANSFERENCIA, RESERVA, ABONO, CONFIRMAR_RESERVA, ANULAR_RESERVA, INTERESES, COMISION, BAJA
+    }
+
+    /**
+     * Atributos:
+     * - Valores por defecto: huecos del buffer, tamaño máximo de cada fichero y ficheros rotados que se guardan.
+     * - Movimientos por lote y espera máxima del escritor sin nada que hacer.
+     * - Política y fichero actual, con su canal y tamaño.
+     * - Buffer circular: secuencia de cada hueco y sus datos, siguiente hueco a reservar y siguiente a leer
+     *   (solo lo cambia el escritor), y último instante formateado por el escritor.
+     * - Hilo escritor, si está esperando trabajo, y si se ha pedido cerrar.
+     * - Movimientos escritos y descartados, y error de escritura, tras el cual ya no se escribe más.
+     */
+    public static final int CAPACIDAD_POR_DEFECTO = 1 << 16;
+    public static final long TAMANYO_MAXIMO_POR_DEFECTO = 64L << 20;
+    public static final int FICHEROS_GUARDADOS_POR_DEFECTO = 5;
+
+    private static final int TAMANYO_LOTE = 4096;
+    private static final long ESPERA_ESCRITOR = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final Tipo[] TIPOS = Tipo.values();
+
+    private final Politica politica;
+    private final Path fichero;
+    private final long tamanyoMaximo;
+    private final int ficherosGuardados;
+    private FileChannel canal;
+    private long tamanyo;
+
+    private final int mascara;
+    private final AtomicLongArray secuencias;
+    private final long[] instantes;
+    private final byte[] tipos;
+    private final String[] dnis;
+    private final String[] destinos;
+    private final long[] centimos;
+    private final AtomicLong siguiente;
+    private volatile long leido;
+    private long ultimoInstante;
+    private String ultimoInstanteTexto;
+
+    private final Thread escritor;
+    private final Thread ganchoApagado;
+    private volatile boolean esperando;
+    private volatile boolean cerrado;
+
+    private final LongAdder escritos;
+    private final LongAdder descartados;
+    private volatile IOException averia;
+
+    /**
+     * Abre un registro con los valores por defecto.
+     *
+     * @param fichero  Fichero del registro; se añade al final si ya existe.
+     * @param politica Qué hacer si el buffer se llena.
+     * @throws IOException si no se puede abrir el fichero.
+     */
+    public RegistroAuditoria(Path fichero, Politica politica) throws IOException {
+        this(fichero, politica, CAPACIDAD_POR_DEFECTO, TAMANYO_MAXIMO_POR_DEFECTO, FICHEROS_GUARDADOS_POR_DEFECTO);
+    }
+
+    /**
+     * Abre un registro y arranca su hilo escritor.
+     *
+     * @param fichero           Fichero del registro; se añade al final si ya existe.
+     * @param politica          Qué hacer si el buffer se llena.
+     * @param capacidad         Movimientos que caben en el buffer (se redondea a potencia de 2).
+     * @param tamanyoMaximo     Tamaño en bytes a partir del cual se rota el fichero.
+     * @param ficherosGuardados Ficheros rotados que se guardan, además del actual.
+     * @throws IOException si no se puede abrir el fichero.
+     */
+    public RegistroAuditoria(Path fichero, Politica politica, int capacidad, long tamanyoMaximo, int ficherosGuardados)
+            throws IOException {
+        if (capacidad < 2 || capacidad > (1 << 30) || tamanyoMaximo <= 0 || ficherosGuardados < 0) {
+            throw new IllegalArgumentException("Capacidad, tamaño maximo o ficheros guardados no validos");
+        }
+        this.politica = politica;
+        this.fichero = fichero;
+        this.tamanyoMaximo = tamanyoMaximo;
+        this.ficherosGuardados = ficherosGuardados;
+        abrirFichero();
+
+        int huecos = Integer.highestOneBit(capacidad - 1) << 1;
+        mascara = huecos - 1;
+        secuencias = new AtomicLongArray(huecos);
+        for (int i = 0; i < huecos; i++) {
+            secuencias.set(i, i);
+        }
+        instantes = new long[huecos];
+        tipos = new byte[huecos];
+        dnis = new String[huecos];
+        destinos = new String[huecos];
+        centimos = new long[huecos];
+        siguiente = new AtomicLong();
+        ultimoInstante = -1;
+        escritos = new LongAdder();
+        descartados = new LongAdder();
+
+        escritor = new Thread(this::escribir, "auditoria-escritor");
+        escritor.setDaemon(true);
+        ganchoApagado = new Thread(this::close, "auditoria-apagado");
+        Runtime.getRuntime().addShutdownHook(ganchoApagado);
+        escritor.start();
+    }
+
+    /**
+     * Anota un movimiento. No escribe en disco ni toma cerrojos; con la política BLOQUEAR espera si el
+     * buffer está lleno.
+     *
+     * @param tipo     Tipo de movimiento.
+     * @param dni      DNI del titular (de origen en las transferencias), o null.
+     * @param destino  DNI de destino en las transferencias, o null.
+     * @param cantidad Cantidad en céntimos.
+     * @return true si se ha anotado, false si se ha descartado o el registro está cerrado.
+     */
+    public boolean anotar(Tipo tipo, String dni, String destino, long cantidad) {
+        long instante = System.currentTimeMillis();
+        int vueltas = 0;
+        while (true) {
+            if (cerrado) {
+                descartados.increment();
+                return false;
+            }
+            long posicion = siguiente.get();
+            int hueco = (int) posicion & mascara;
+            long diferencia = secuencias.get(hueco) - posicion;
+            if (diferencia == 0) {
+                if (siguiente.compareAndSet(posicion, posicion + 1)) {
+                    instantes[hueco] = instante;
+                    tipos[hueco] = (byte) tipo.ordinal();
+                    dnis[hueco] = dni;
+                    destinos[hueco] = destino;
+                    centimos[hueco] = cantidad;
+                    // Publica el hueco: el escritor lo lee cuando ve esta secuencia
+                    secuencias.set(hueco, posicion + 1);
+                    if (esperando) {
+                        LockSupport.unpark(escritor);
+                    }
+                    return true;
+                }
+            } else if (diferencia < 0) {
+                // Lleno: el hueco todavía tiene el movimiento de la vuelta anterior
+                if (politica == Politica.DESCARTAR) {
+                    descartados.increment();
+                    return false;
+                }
+                LockSupport.unpark(escritor);
+                if (++vueltas < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(50_000);
+                }
+            }
+            // Si no, otro hilo acaba de reservar este hueco: se vuelve a intentar con el siguiente
+        }
+    }
+
+    /**
+     * Bucle del hilo escritor: vacía el buffer por lotes hasta que se cierra el registro.
+     */
+    private void escribir() {
+        StringBuilder texto = new StringBuilder(TAMANYO_LOTE * 64);
+        while (true) {
+            boolean cerrando = cerrado;
+            int leidos = leerLote(texto);
+            if (leidos > 0) {
+                escribirLote(texto, leidos);
+            } else if (cerrando && leido == siguiente.get()) {
+                return;
+            } else {
+                esperando = true;
+                // Se vuelve a mirar después de avisar, para no dormirse con un movimiento recién publicado
+                if (!hayPendientes()) {
+                    LockSupport.parkNanos(this, ESPERA_ESCRITOR);
+                }
+                esperando = false;
+            }
+        }
+    }
+
+    /**
+     * Indica si el siguiente hueco a leer ya está publicado.
+     *
+     * @return true si hay algún movimiento por leer.
+     */
+    private boolean hayPendientes() {
+        return secuencias.get((int) leido & mascara) == leido + 1;
+    }
+
+    /**
+     * Lee del buffer un lote de movimientos y los pasa a texto, liberando sus huecos.
+     *
+     * @param texto Texto del lote, que se vacía antes.
+     * @return Movimientos leídos.
+     */
+    private int leerLote(StringBuilder texto) {
+        texto.setLength(0);
+        int leidos = 0;
+        while (leidos < TAMANYO_LOTE) {
+            int hueco = (int) leido & mascara;
+            if (secuencias.get(hueco) != leido + 1) {
+                break;
+            }
+            // Los movimientos seguidos suelen ser del mismo milisegundo: se formatea solo cuando cambia
+            if (instantes[hueco] != ultimoInstante) {
+                ultimoInstante = instantes[hueco];
+                ultimoInstanteTexto = Instant.ofEpochMilli(ultimoInstante).toString();
+            }
+            texto.append(ultimoInstanteTexto).append(' ')
+                    .append(TIPOS[tipos[hueco]]).append(' ')
+                    .append(dnis[hueco] != null ? dnis[hueco] : "-").append(' ')
+                    .append(destinos[hueco] != null ? destinos[hueco] : "-").append(' ')
+                    .append(centimos[hueco]).append('\n');
+            dnis[hueco] = null;
+            destinos[hueco] = null;
+            // Libra el hueco para la siguiente vuelta del buffer
+            secuencias.set(hueco, leido + mascara + 1);
+            leido++;
+            leidos++;
+        }
+        return leidos;
+    }
+
+    /**
+     * Escribe un lote en el fichero, rotándolo antes si no cabe. Tras un error de escritura ya no se
+     * escribe nada más y los movimientos se cuentan como descartados.
+     *
+     * @param texto  Texto del lote.
+     * @param leidos Movimientos del lote.
+     */
+    private void escribirLote(CharSequence texto, int leidos) {
+        if (averia != null) {
+            descartados.add(leidos);
+            return;
+        }
+        try {
+            ByteBuffer lote = StandardCharsets.UTF_8.encode(CharBuffer.wrap(texto));
+            if (tamanyo > 0 && tamanyo + lote.remaining() > tamanyoMaximo) {
+                rotar();
+            }
+            while (lote.hasRemaining()) {
+                tamanyo += canal.write(lote);
+            }
+            canal.force(false);
+            escritos.add(leidos);
+        } catch (IOException e) {
+            averia = e;
+            descartados.add(leidos);
+            System.err.println("La auditoria ha dejado de escribirse en " + fichero + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Abre el fichero actual para añadir al final.
+     *
+     * @throws IOException si no se puede abrir.
+     */
+    private void abrirFichero() throws IOException {
+        canal = FileChannel.open(fichero, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        tamanyo = canal.size();
+    }
+
+    /**
+     * Cierra el fichero actual, desplaza los rotados (el más antiguo se borra) y abre uno nuevo.
+     *
+     * @throws IOException si no se puede renombrar o abrir algún fichero.
+     */
+    private void rotar() throws IOException {
+        canal.close();
+        if (ficherosGuardados == 0) {
+            Files.delete(fichero);
+        } else {
+            Files.deleteIfExists(rotado(ficherosGuardados));
+            for (int n = ficherosGuardados - 1; n >= 1; n--) {
+                if (Files.exists(rotado(n))) {
+                    Files.move(rotado(n), rotado(n + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(fichero, rotado(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        abrirFichero();
+    }
+
+    /**
+     * Nombre del fichero rotado con el número indicado.
+     *
+     * @param n Número del fichero rotado (1 es el más reciente).
+     * @return Ruta del fichero.
+     */
+    private Path rotado(int n) {
+        return fichero.resolveSibling(fichero.getFileName() + "." + n);
+    }
+
+    /**
+     * Devuelve el número de movimientos escritos en disco.
+     *
+     * @return Movimientos escritos.
+     */
+    public long getEscritos() {
+        return escritos.sum();
+    }
+
+    /**
+     * Devuelve el número de movimientos descartados: por buffer lleno con la política DESCARTAR,
+     * por llegar con el registro cerrado o por un error de escritura.
+     *
+     * @return Movimientos descartados.
+     */
+    public long getDescartados() {
+        return descartados.sum();
+    }
+
+    /**
+     * Devuelve el número de movimientos anotados y aún no leídos por el escritor (aproximado si hay
+     * hilos anotando).
+     *
+     * @return Movimientos pendientes.
+     */
+    public long getPendientes() {
+        return Math.max(0, siguiente.get() - leido);
+    }
+
+    /**
+     * Devuelve el error que hizo dejar de escribir, si lo hubo.
+     *
+     * @return Error de escritura, o null.
+     */
+    public IOException getAveria() {
+        return averia;
+    }
+
+    /**
+     * Deja de aceptar movimientos, espera a que el escritor escriba todo lo pendiente y cierra el fichero.
+     * Se puede llamar más de una vez. Hay que quitarlo antes del banco (Banco.setAuditoria(null)): un
+     * movimiento que se anote justo mientras se cierra puede perderse.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (cerrado) {
+                return;
+            }
+            cerrado = true;
+        }
+        if (Thread.currentThread() != ganchoApagado) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(ganchoApagado);
+            } catch (IllegalStateException e) {
+                // La JVM ya se está apagando
+            }
+        }
+        LockSupport.unpark(escritor);
+        boolean interrumpido = false;
+        while (escritor.isAlive()) {
+            try {
+                escritor.join();
+            } catch (InterruptedException e) {
+                interrumpido = true;
+            }
+        }
+        try {
+            canal.close();
+        } catch (IOException e) {
+            System.err.println("Error al cerrar la auditoria: " + e.getMessage());
+        }
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,669 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * API HTTP/JSON local sobre un Banco, con el servidor HTTP del JDK (sin dependencias externas).
+ *
+ * Los datos de cada petición van en la query o, en los POST, también en el cuerpo como formulario
+ * (application/x-www-form-urlencoded); las respuestas son JSON. Las cantidades van en euros.
+ *   GET  /cuentas?desde=0&limite=100&ordenar=true   Página del listado (ordenar: en el orden de
+ *                                                   MOSTRAR, sin reordenar el banco).
+ *   GET  /cuentas/{dni}                             Cuentas y saldos de un DNI, leídos en un mismo instante.
+ *   POST /ingresos        dni, cantidad
+ *   POST /retiradas       dni, cantidad
+ *   POST /transferencias  origen, destino, cantidad
+ *   POST /cierre-mes      interes                   Cierre de mes, como la opción INTERESES.
+ *   GET  /informes/mayores?n=100&tipo=ahorro         Las n cuentas de mayor saldo (tipo: ahorro, corriente o todas).
+ *   GET  /informes/saldos?minimo=0&maximo=60&tipo=ahorro&limite=100
+ *                                                   Cuentas con saldo en el rango, de menor a mayor.
+ *   GET  /informes/tipos                            Número de cuentas y saldo total, mínimo, máximo y medio por tipo.
+ *   GET  /metricas                                  Informe de MetricasBanco en texto, si el banco las tiene.
+ * Una operación que el banco rechaza (saldo insuficiente, DNI sin cuentas...) responde 200 con
+ * "realizada": false; los datos mal formados responden 400.
+ *
+ * Cada petición se atiende en su propio hilo virtual si la JVM los tiene (Java 21 o posterior), de modo
+ * que miles de clientes a la vez no necesitan miles de hilos del sistema. En Java 17 se usa un pool
+ * fijo de HILOS_SIN_VIRTUALES hilos: las operaciones del banco son cortas y solo se bloquean en sus
+ * cerrojos de franja y en el fsync del diario, así que no hace falta uno por cliente.
+ */
+public class ServidorBanco {
+
+    /**
+     * Atributos:
+     * - Puerto por defecto y conexiones pendientes de aceptar que admite el sistema (para pruebas de carga).
+     * - Hilos del pool cuando no hay hilos virtuales.
+     * - Tamaño de página por defecto y máximo del listado.
+     * - Cantidad máxima de un ingreso, retirada o transferencia (mil millones de euros, en céntimos).
+     * - Interés máximo del cierre de mes, en porcentaje.
+     * - Banco, servidor HTTP y ejecutor de las peticiones.
+     */
+    public static final int PUERTO_POR_DEFECTO = 8080;
+    private static final int CONEXIONES_PENDIENTES = 1024;
+    private static final int HILOS_SIN_VIRTUALES = 64;
+    private static final int LIMITE_POR_DEFECTO = 100;
+    private static final int LIMITE_MAXIMO = 10_000;
+    private static final long CANTIDAD_MAXIMA_CENTIMOS = 100_000_000_000L;
+    private static final double INTERES_MAXIMO = 100;
+
+    private final Banco banco;
+    private final HttpServer servidor;
+    private final ExecutorService hilos;
+
+    /**
+     * Respuesta a una petición: código HTTP y cuerpo JSON.
+     */
+    private static final class Respuesta {
+        private final int codigo;
+        private final String cuerpo;
+
+        private Respuesta(int codigo, String cuerpo) {
+            this.codigo = codigo;
+            this.cuerpo = cuerpo;
+        }
+    }
+
+    /**
+     * Crea el servidor sobre un banco, sin arrancarlo.
+     *
+     * @param banco     Banco sobre el que se ejecutan las peticiones.
+     * @param direccion Dirección y puerto donde escucha (puerto 0 para uno libre cualquiera).
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    public ServidorBanco(Banco banco, InetSocketAddress direccion) throws IOException {
+        this.banco = banco;
+        servidor = HttpServer.create(direccion, CONEXIONES_PENDIENTES);
+        servidor.createContext("/cuentas", intercambio -> atender(intercambio, "GET",
+                parametros -> cuentas(intercambio.getRequestURI().getPath(), parametros)));
+        servidor.createContext("/ingresos", intercambio -> atender(intercambio, "POST", this::ingreso));
+        servidor.createContext("/retiradas", intercambio -> atender(intercambio, "POST", this::retirada));
+        servidor.createContext("/transferencias", intercambio -> atender(intercambio, "POST", this::transferencia));
+        servidor.createContext("/cierre-mes", intercambio -> atender(intercambio, "POST", this::cierreMes));
+        servidor.createContext("/informes", intercambio -> atender(intercambio, "GET",
+                parametros -> informe(intercambio.getRequestURI().getPath(), parametros)));
+        servidor.createContext("/metricas", this::metricas);
+        hilos = hilosPeticiones();
+        servidor.setExecutor(hilos);
+    }
+
+    /**
+     * Crea el ejecutor de las peticiones: un hilo virtual por petición si la JVM los tiene y, si no,
+     * un pool fijo. Se busca por reflexión para que el código compile y funcione también en Java 17.
+     *
+     * @return Ejecutor de las peticiones.
+     */
+    static ExecutorService hilosPeticiones() {
+        try {
+            Method virtuales = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtuales.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger contador = new AtomicInteger();
+            return Executors.newFixedThreadPool(HILOS_SIN_VIRTUALES, tarea -> {
+                Thread hilo = new Thread(tarea, "servidor-banco-" + contador.incrementAndGet());
+                hilo.setDaemon(true);
+                return hilo;
+            });
+        }
+    }
+
+    /**
+     * Empieza a atender peticiones.
+     */
+    public void iniciar() {
+        servidor.start();
+    }
+
+    /**
+     * Deja de atender peticiones: espera como mucho los segundos indicados a que terminen las que
+     * están en curso y cierra el ejecutor.
+     *
+     * @param segundos Espera máxima en segundos.
+     */
+    public void parar(int segundos) {
+        servidor.stop(segundos);
+        hilos.shutdown();
+    }
+
+    /**
+     * Devuelve el puerto donde escucha el servidor (útil si se creó con el puerto 0).
+     *
+     * @return Puerto del servidor.
+     */
+    public int getPuerto() {
+        return servidor.getAddress().getPort();
+    }
+
+    /**
+     * Atiende una petición: comprueba el método, lee los parámetros, ejecuta la acción y envía su respuesta.
+     * Los IllegalArgumentException de la acción (datos mal formados) y los ArithmeticException (importes
+     * que desbordan) se responden con 400.
+     *
+     * @param intercambio Petición y respuesta HTTP.
+     * @param metodo      Método HTTP que admite la ruta.
+     * @param accion      Acción de la ruta, que recibe los parámetros de la petición.
+     * @throws IOException si no se puede leer la petición o enviar la respuesta.
+     */
+    private void atender(HttpExchange intercambio, String metodo, Function<Map<String, String>, Respuesta> accion)
+            throws IOException {
+        try (intercambio) {
+            Respuesta respuesta;
+            if (!intercambio.getRequestMethod().equals(metodo)) {
+                intercambio.getResponseHeaders().set("Allow", metodo);
+                respuesta = new Respuesta(405, error("Metodo no permitido: " + intercambio.getRequestMethod()));
+            } else {
+                try {
+                    respuesta = accion.apply(parametros(intercambio));
+                } catch (IllegalArgumentException | ArithmeticException e) {
+                    respuesta = new Respuesta(400, error(e.getMessage()));
+                }
+            }
+            enviar(intercambio, respuesta.codigo, "application/json", respuesta.cuerpo);
+        }
+    }
+
+    /**
+     * Lee los parámetros de la query y, en un POST, los del cuerpo en formato de formulario.
+     *
+     * @param intercambio Petición HTTP.
+     * @return Parámetros por nombre (si se repite, vale el último).
+     * @throws IOException si no se puede leer el cuerpo.
+     */
+    private static Map<String, String> parametros(HttpExchange intercambio) throws IOException {
+        Map<String, String> parametros = new HashMap<>();
+        anyadirParametros(intercambio.getRequestURI().getRawQuery(), parametros);
+        try (InputStream cuerpo = intercambio.getRequestBody()) {
+            // Se lee siempre entero para que la conexión se pueda reutilizar
+            String formulario = new String(cuerpo.readAllBytes(), StandardCharsets.UTF_8);
+            if (intercambio.getRequestMethod().equals("POST")) {
+                anyadirParametros(formulario, parametros);
+            }
+        }
+        return parametros;
+    }
+
+    /**
+     * Añade los parámetros de una cadena nombre=valor&amp;nombre=valor, decodificándolos.
+     *
+     * @param texto      Query o cuerpo del formulario (puede ser null).
+     * @param parametros Mapa donde se añaden.
+     */
+    private static void anyadirParametros(String texto, Map<String, String> parametros) {
+        if (texto == null || texto.isEmpty()) {
+            return;
+        }
+        for (String par : texto.split("&")) {
+            int igual = par.indexOf('=');
+            String nombre = (igual < 0) ? par : par.substring(0, igual);
+            String valor = (igual < 0) ? "" : par.substring(igual + 1);
+            parametros.put(URLDecoder.decode(nombre, StandardCharsets.UTF_8), URLDecoder.decode(valor, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Envía la respuesta y la cierra.
+     *
+     * @param intercambio Petición y respuesta HTTP.
+     * @param codigo      Código HTTP.
+     * @param tipo        Tipo del contenido, sin juego de caracteres.
+     * @param cuerpo      Cuerpo de la respuesta.
+     * @throws IOException si no se puede enviar.
+     */
+    private static void enviar(HttpExchange intercambio, int codigo, String tipo, String cuerpo) throws IOException {
+        byte[] bytes = cuerpo.getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", tipo + "; charset=utf-8");
+        intercambio.sendResponseHeaders(codigo, bytes.length);
+        try (OutputStream salida = intercambio.getResponseBody()) {
+            salida.write(bytes);
+        }
+    }
+
+    /**
+     * GET /cuentas y GET /cuentas/{dni}.
+     *
+     * @param ruta       Ruta de la petición.
+     * @param parametros Parámetros de la petición.
+     * @return Página del listado o cuentas del DNI.
+     */
+    private Respuesta cuentas(String ruta, Map<String, String> parametros) {
+        if (ruta.length() > "/cuentas/".length()) {
+            return cuentasDni(ruta.substring("/cuentas/".length()));
+        }
+        if (!ruta.equals("/cuentas") && !ruta.equals("/cuentas/")) {
+            return new Respuesta(404, error("Ruta desconocida: " + ruta));
+        }
+        int desde = entero(parametros, "desde", 0);
+        int limite = Math.min(entero(parametros, "limite", LIMITE_POR_DEFECTO), LIMITE_MAXIMO);
+        StringBuilder json = new StringBuilder();
+        json.append("{\"desde\":").append(desde).append(",\"cuentas\":[");
+        Consumer<Cuenta> escribir = cuenta -> {
+            if (json.charAt(json.length() - 1) != '[') {
+                json.append(',');
+            }
+            anyadirCuenta(json, cuenta);
+        };
+        // GET no cambia el banco: se lee la página en orden en vez de llamar a ordenarCuentas
+        int escritas = Boolean.parseBoolean(parametros.get("ordenar"))
+                ? banco.recorrerCuentasOrdenadas(desde, limite, escribir)
+                : banco.recorrerCuentas(desde, limite, escribir);
+        json.append("],\"numero\":").append(escritas).append(",\"total\":").append(banco.getNumCuentas()).append('}');
+        return new Respuesta(200, json.toString());
+    }
+
+    /**
+     * GET /cuentas/{dni}: las cuentas del DNI con sus saldos, leídos en un mismo instante.
+     *
+     * @param dni DNI del titular.
+     * @return Cuentas del DNI, o 404 si no tiene ninguna.
+     */
+    private Respuesta cuentasDni(String dni) {
+        comprobarDni(dni);
+        List<String> cuentas = banco.consultarCuentas(dni, cuenta -> {
+            StringBuilder json = new StringBuilder();
+            anyadirCuenta(json, cuenta);
+            return json.toString();
+        });
+        if (cuentas.isEmpty()) {
+            return new Respuesta(404, error("No hay cuentas con el DNI " + dni));
+        }
+        return new Respuesta(200, "{\"dni\":\"" + dni + "\",\"cuentas\":[" + String.join(",", cuentas) + "]}");
+    }
+
+    /**
+     * GET /informes/mayores, /informes/saldos y /informes/tipos.
+     *
+     * @param ruta       Ruta de la petición.
+     * @param parametros Parámetros de la petición.
+     * @return Resultado del informe.
+     */
+    private Respuesta informe(String ruta, Map<String, String> parametros) {
+        switch (ruta) {
+            case "/informes/mayores": {
+                int n = Math.min(entero(parametros, "n", LIMITE_POR_DEFECTO), LIMITE_MAXIMO);
+                StringBuilder json = new StringBuilder("{\"cuentas\":[");
+                for (Cuenta cuenta : banco.mayoresSaldos(n, tipo(parametros))) {
+                    if (json.charAt(json.length() - 1) != '[') {
+                        json.append(',');
+                    }
+                    anyadirCuenta(json, cuenta);
+                }
+                return new Respuesta(200, json.append("]}").toString());
+            }
+            case "/informes/saldos": {
+                long minimo = centimos(parametros, "minimo");
+                long maximo = centimos(parametros, "maximo");
+                int limite = Math.min(entero(parametros, "limite", LIMITE_POR_DEFECTO), LIMITE_MAXIMO);
+                StringBuilder json = new StringBuilder("{\"cuentas\":[");
+                AtomicInteger escritas = new AtomicInteger();
+                // Se cuentan todas las del rango, pero solo se escriben las primeras
+                int total = banco.recorrerPorSaldo(minimo, maximo, tipo(parametros), cuenta -> {
+                    if (escritas.get() < limite) {
+                        if (escritas.getAndIncrement() > 0) {
+                            json.append(',');
+                        }
+                        anyadirCuenta(json, cuenta);
+                    }
+                });
+                json.append("],\"numero\":").append(escritas.get()).append(",\"total\":").append(total).append('}');
+                return new Respuesta(200, json.toString());
+            }
+            case "/informes/tipos": {
+                StringBuilder json = new StringBuilder("{");
+                for (Map.Entry<Class<? extends Cuenta>, LongSummaryStatistics> resumen : banco.resumenPorTipo().entrySet()) {
+                    LongSummaryStatistics saldos = resumen.getValue();
+                    if (json.length() > 1) {
+                        json.append(',');
+                    }
+                    anyadirTexto(json, resumen.getKey().getSimpleName());
+                    json.append(":{\"cuentas\":").append(saldos.getCount()).append(",\"total\":");
+                    anyadirImporte(json, saldos.getSum());
+                    if (saldos.getCount() > 0) {
+                        json.append(",\"minimo\":");
+                        anyadirImporte(json, saldos.getMin());
+                        json.append(",\"maximo\":");
+                        anyadirImporte(json, saldos.getMax());
+                        json.append(",\"medio\":");
+                        anyadirImporte(json, Math.round(saldos.getAverage()));
+                    }
+                    json.append('}');
+                }
+                return new Respuesta(200, json.append('}').toString());
+            }
+            default:
+                return new Respuesta(404, error("Ruta desconocida: " + ruta));
+        }
+    }
+
+    /**
+     * POST /ingresos.
+     *
+     * @param parametros dni y cantidad.
+     * @return Si se ha realizado.
+     */
+    private Respuesta ingreso(Map<String, String> parametros) {
+        String dni = dni(parametros, "dni");
+        return realizada(banco.ingresoCentimos(dni, cantidad(parametros)));
+    }
+
+    /**
+     * POST /retiradas.
+     *
+     * @param parametros dni y cantidad.
+     * @return Si se ha realizado.
+     */
+    private Respuesta retirada(Map<String, String> parametros) {
+        String dni = dni(parametros, "dni");
+        return realizada(banco.retiradaCentimos(dni, cantidad(parametros)));
+    }
+
+    /**
+     * POST /transferencias.
+     *
+     * @param parametros origen, destino y cantidad.
+     * @return Si se ha realizado.
+     */
+    private Respuesta transferencia(Map<String, String> parametros) {
+        String origen = dni(parametros, "origen");
+        String destino = dni(parametros, "destino");
+        return realizada(banco.transferenciaCentimos(origen, destino, cantidad(parametros)));
+    }
+
+    /**
+     * POST /cierre-mes: paga el interés y lo deja como interés de ahorro, como la opción INTERESES.
+     *
+     * @param parametros interes, en porcentaje (entre 0 e INTERES_MAXIMO).
+     * @return Intereses pagados.
+     * @throws IllegalArgumentException si el interés está fuera de rango.
+     */
+    private Respuesta cierreMes(Map<String, String> parametros) {
+        double interes = numero(parametros, "interes");
+        if (interes < 0 || interes > INTERES_MAXIMO) {
+            throw new IllegalArgumentException("interes fuera de rango (0 a " + INTERES_MAXIMO + "): " + interes);
+        }
+        long total = banco.cierreMesCentimos(Dinero.tasaEnPpm(interes));
+        banco.setInteresAhorro(interes);
+        StringBuilder json = new StringBuilder("{\"intereses\":");
+        anyadirImporte(json, total);
+        return new Respuesta(200, json.append('}').toString());
+    }
+
+    /**
+     * GET /metricas: informe de texto de las métricas del banco.
+     *
+     * @param intercambio Petición y respuesta HTTP.
+     * @throws IOException si no se puede enviar la respuesta.
+     */
+    private void metricas(HttpExchange intercambio) throws IOException {
+        try (intercambio) {
+            intercambio.getRequestBody().readAllBytes();
+            MetricasBanco lasMetricas = banco.getMetricas();
+            if (lasMetricas == null) {
+                enviar(intercambio, 404, "application/json", error("El banco no tiene metricas"));
+            } else {
+                enviar(intercambio, 200, "text/plain", lasMetricas.informe());
+            }
+        }
+    }
+
+    /**
+     * Respuesta de una operación sobre saldos.
+     *
+     * @param hecha Resultado de la operación.
+     * @return Respuesta 200 con "realizada".
+     */
+    private static Respuesta realizada(boolean hecha) {
+        return new Respuesta(200, "{\"realizada\":" + hecha + "}");
+    }
+
+    /**
+     * Cuerpo JSON de un error.
+     *
+     * @param mensaje Mensaje del error.
+     * @return Objeto JSON con el mensaje.
+     */
+    private static String error(String mensaje) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        anyadirTexto(json, String.valueOf(mensaje));
+        return json.append('}').toString();
+    }
+
+    /**
+     * Añade una cuenta como objeto JSON.
+     *
+     * @param json   Buffer donde se escribe.
+     * @param cuenta Cuenta a escribir.
+     */
+    private static void anyadirCuenta(StringBuilder json, Cuenta cuenta) {
+        json.append("{\"id\":").append(cuenta.getId()).append(",\"tipo\":");
+        anyadirTexto(json, cuenta.getClass().getSimpleName());
+        json.append(",\"dni\":");
+        anyadirTexto(json, cuenta.titular.getDni());
+        json.append(",\"nombre\":");
+        anyadirTexto(json, cuenta.titular.getNombre());
+        json.append(",\"saldo\":");
+        anyadirImporte(json, cuenta.getSaldoCentimos());
+        json.append('}');
+    }
+
+    /**
+     * Añade un importe en euros con dos decimales exactos, a partir de los céntimos.
+     *
+     * @param json     Buffer donde se escribe.
+     * @param centimos Importe en céntimos.
+     */
+    private static void anyadirImporte(StringBuilder json, long centimos) {
+        if (centimos < 0) {
+            json.append('-');
+        }
+        long absoluto = Math.abs(centimos);
+        int resto = (int) (absoluto % Dinero.CENTIMOS_POR_EURO);
+        json.append(absoluto / Dinero.CENTIMOS_POR_EURO).append('.').append(resto / 10).append(resto % 10);
+    }
+
+    /**
+     * Añade una cadena JSON entre comillas, escapando lo necesario.
+     *
+     * @param json  Buffer donde se escribe.
+     * @param texto Texto a escribir.
+     */
+    private static void anyadirTexto(StringBuilder json, String texto) {
+        json.append('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Lee un DNI obligatorio y comprueba su formato.
+     *
+     * @param parametros Parámetros de la petición.
+     * @param nombre     Nombre del parámetro.
+     * @return DNI.
+     * @throws IllegalArgumentException si falta o no es válido.
+     */
+    private static String dni(Map<String, String> parametros, String nombre) {
+        String dni = obligatorio(parametros, nombre);
+        comprobarDni(dni);
+        return dni;
+    }
+
+    /**
+     * Comprueba el formato de un DNI, con la misma regla que el resto del programa.
+     *
+     * @param dni DNI a comprobar.
+     * @throws IllegalArgumentException si no es válido.
+     */
+    private static void comprobarDni(String dni) {
+        if (!LoteTransferencias.dniValido(dni)) {
+            throw new IllegalArgumentException("DNI no valido " + dni);
+        }
+    }
+
+    /**
+     * Lee la cantidad obligatoria de una operación y la pasa a céntimos.
+     *
+     * @param parametros Parámetros de la petición.
+     * @return Cantidad en céntimos.
+     * @throws IllegalArgumentException si falta, no es positiva o supera CANTIDAD_MAXIMA_CENTIMOS.
+     */
+    private static long cantidad(Map<String, String> parametros) {
+        long centimos = centimos(parametros, "cantidad");
+        if (centimos <= 0 || centimos > CANTIDAD_MAXIMA_CENTIMOS) {
+            throw new IllegalArgumentException("Cantidad fuera de rango " + parametros.get("cantidad"));
+        }
+        return centimos;
+    }
+
+    /**
+     * Lee una cantidad obligatoria en euros y la pasa a céntimos.
+     *
+     * @param parametros Parámetros de la petición.
+     * @param nombre     Nombre del parámetro.
+     * @return Cantidad en céntimos.
+     * @throws IllegalArgumentException si falta o no es un número.
+     */
+    private static long centimos(Map<String, String> parametros, String nombre) {
+        return Dinero.aCentimos(numero(parametros, nombre));
+    }
+
+    /**
+     * Lee un número obligatorio.
+     *
+     * @param parametros Parámetros de la petición.
+     * @param nombre     Nombre del parámetro.
+     * @return Valor del parámetro.
+     * @throws IllegalArgumentException si falta o no es un número finito.
+     */
+    private static double numero(Map<String, String> parametros, String nombre) {
+        String texto = obligatorio(parametros, nombre);
+        double valor;
+        try {
+            valor = Double.parseDouble(texto);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(nombre + " no es un numero: " + texto);
+        }
+        if (!Double.isFinite(valor)) {
+            throw new IllegalArgumentException(nombre + " no es un numero: " + texto);
+        }
+        return valor;
+    }
+
+    /**
+     * Lee un entero no negativo opcional.
+     *
+     * @param parametros  Parámetros de la petición.
+     * @param nombre      Nombre del parámetro.
+     * @param porDefecto  Valor si no está.
+     * @return Valor del parámetro.
+     * @throws IllegalArgumentException si no es un entero no negativo.
+     */
+    private static int entero(Map<String, String> parametros, String nombre, int porDefecto) {
+        String texto = parametros.get(nombre);
+        if (texto == null) {
+            return porDefecto;
+        }
+        try {
+            int valor = Integer.parseInt(texto);
+            if (valor >= 0) {
+                return valor;
+            }
+        } catch (NumberFormatException e) {
+            // Se informa abajo
+        }
+        throw new IllegalArgumentException(nombre + " no es un entero no negativo: " + texto);
+    }
+
+    /**
+     * Lee el tipo de cuenta opcional de un informe.
+     *
+     * @param parametros Parámetros de la petición.
+     * @return Clase de las cuentas del tipo (todas si no está).
+     * @throws IllegalArgumentException si no es ahorro, corriente ni todas.
+     */
+    private static Class<? extends Cuenta> tipo(Map<String, String> parametros) {
+        String texto = parametros.getOrDefault("tipo", "todas");
+        switch (texto) {
+            case "ahorro":
+                return CuentaAhorro.class;
+            case "corriente":
+                return CuentaCorriente.class;
+            case "todas":
+                return Cuenta.class;
+            default:
+                throw new IllegalArgumentException("tipo no valido (ahorro, corriente o todas): " + texto);
+        }
+    }
+
+    /**
+     * Lee un parámetro obligatorio.
+     *
+     * @param parametros Parámetros de la petición.
+     * @param nombre     Nombre del parámetro.
+     * @return Valor del parámetro.
+     * @throws IllegalArgumentException si falta.
+     */
+    private static String obligatorio(Map<String, String> parametros, String nombre) {
+        String valor = parametros.get(nombre);
+        if (valor == null || valor.isEmpty()) {
+            throw new IllegalArgumentException("Falta el parametro " + nombre);
+        }
+        return valor;
+    }
+
+    /**
+     * Arranca el servidor sobre un fichero de cuentas, escuchando solo en localhost:
+     * java ServidorBanco fichero-de-cuentas [puerto]
+     *
+     * Carga las cuentas y el diario como BancoMain, mide las operaciones con MetricasBanco y, al parar
+     * el proceso (Ctrl+C), deja de atender peticiones y guarda la instantánea como la opción FIN.
+     *
+     * @param args Fichero de cuentas y, opcionalmente, puerto (por defecto PUERTO_POR_DEFECTO).
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Uso: java ServidorBanco fichero-de-cuentas [puerto]");
+            System.exit(2);
+        }
+        File fichero = new File(args[0]);
+        int puerto = (args.length > 1) ? Integer.parseInt(args[1]) : PUERTO_POR_DEFECTO;
+
+        Banco unBanco = new Banco();
+        unBanco.setMetricas(new MetricasBanco());
+        BancoMain.cargarCuentas(unBanco, fichero);
+        DiarioTransacciones diario = BancoMain.abrirDiario(unBanco, fichero);
+
+        ServidorBanco servidor = new ServidorBanco(unBanco, new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.parar(1);
+            BancoMain.guardarCuentas(unBanco, diario, fichero);
+        }));
+        servidor.iniciar();
+        System.out.println("Escuchando en http://localhost:" + servidor.getPuerto() + "/");
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Servidor de una partición de un BancoParticionado en su propio proceso: atiende por TCP, solo en
+ * localhost, las operaciones de Particion sobre un Banco (ver ParticionRemota, que es el cliente).
+ *
+ * Protocolo binario con DataInputStream/DataOutputStream, una petición detrás de otra en cada conexión:
+ * - Petición: código de la operación (byte) y sus datos (DNI con writeUTF, identificadores y céntimos con writeLong).
+ * - Respuesta: un long (1 o 0 en las que devuelven boolean), salvo en las que devuelven una lista de
+ *   identificadores: su longitud (int) y cada identificador (long).
+ * Cada conexión se atiende en su propio hilo; el cliente abre tantas como hilos tiene la partición.
+ * Si una petición falla, se cierra su conexión y el cliente lo ve como UncheckedIOException.
+ */
+public class ServidorParticion {
+
+    /**
+     * Códigos de las operaciones del protocolo.
+     */
+    static final byte INGRESO = 1;
+    static final byte RETIRADA = 2;
+    static final byte TRANSFERENCIA = 3;
+    static final byte TIENE_CUENTA = 4;
+    static final byte RESERVAR_SALIDA = 5;
+    static final byte ABONAR_ENTRADA = 6;
+    static final byte CONFIRMAR_SALIDA = 7;
+    static final byte ANULAR_SALIDA = 8;
+    static final byte CENTIMOS_TOTALES = 9;
+    static final byte NUM_RESERVAS = 10;
+    static final byte NUM_CUENTAS = 11;
+    static final byte ENTRADA_ABONADA = 12;
+    static final byte OLVIDAR_ENTRADA = 13;
+    static final byte ENTRADAS_ABONADAS = 14;
+    static final byte RESERVAS_PENDIENTES = 15;
+
+    /**
+     * Atributos:
+     * - Banco de la partición y socket donde se aceptan las conexiones.
+     * - Número de conexiones aceptadas, para nombrar sus hilos.
+     */
+    private final Banco banco;
+    private final ServerSocket servidor;
+    private final AtomicInteger conexiones;
+
+    /**
+     * @param banco     Banco con las cuentas de la partición.
+     * @param direccion Dirección y puerto donde escucha (puerto 0 para uno libre cualquiera).
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    public ServidorParticion(Banco banco, InetSocketAddress direccion) throws IOException {
+        this.banco = banco;
+        this.servidor = new ServerSocket();
+        this.servidor.bind(direccion);
+        this.conexiones = new AtomicInteger();
+    }
+
+    /**
+     * Empieza a aceptar conexiones desde un hilo propio.
+     */
+    public void iniciar() {
+        Thread aceptador = new Thread(this::aceptar, "particion-aceptador");
+        aceptador.setDaemon(true);
+        aceptador.start();
+    }
+
+    /**
+     * Deja de aceptar conexiones. Las abiertas se cierran cuando el cliente las cierra o termina el proceso.
+     */
+    public void parar() {
+        try {
+            servidor.close();
+        } catch (IOException e) {
+            // Ya no se aceptan más conexiones, que es lo que se quería
+        }
+    }
+
+    /**
+     * Devuelve el puerto donde escucha el servidor (útil si se creó con el puerto 0).
+     *
+     * @return Puerto del servidor.
+     */
+    public int getPuerto() {
+        return servidor.getLocalPort();
+    }
+
+    /**
+     * Bucle del hilo que acepta conexiones.
+     */
+    private void aceptar() {
+        while (!servidor.isClosed()) {
+            try {
+                Socket conexion = servidor.accept();
+                conexion.setTcpNoDelay(true);
+                Thread hilo = new Thread(() -> atender(conexion), "particion-conexion-" + conexiones.incrementAndGet());
+                hilo.setDaemon(true);
+                hilo.start();
+            } catch (IOException e) {
+                if (!servidor.isClosed()) {
+                    System.err.println("Error al aceptar una conexion: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Atiende las peticiones de una conexión hasta que el cliente la cierra.
+     *
+     * @param conexion Conexión aceptada.
+     */
+    private void atender(Socket conexion) {
+        try (Socket laConexion = conexion;
+             DataInputStream entrada = new DataInputStream(new BufferedInputStream(laConexion.getInputStream()));
+             DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(laConexion.getOutputStream()))) {
+            while (true) {
+                byte operacion;
+                try {
+                    operacion = entrada.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (!responderLista(operacion, salida)) {
+                    salida.writeLong(ejecutar(operacion, entrada));
+                }
+                salida.flush();
+            }
+        } catch (SocketException e) {
+            // El cliente ha cerrado la conexión a mitad de una petición
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error en una conexion de la particion: " + e);
+        }
+    }
+
+    /**
+     * Lee los datos de una petición y la ejecuta sobre el banco.
+     *
+     * @param operacion Código de la operación.
+     * @param entrada   Entrada de la conexión, con los datos de la petición.
+     * @return Respuesta de la petición.
+     * @throws IOException si no se pueden leer los datos o la operación es desconocida.
+     */
+    private long ejecutar(byte operacion, DataInputStream entrada) throws IOException {
+        switch (operacion) {
+            case INGRESO:
+                return respuesta(banco.ingresoCentimos(entrada.readUTF(), entrada.readLong()));
+            case RETIRADA:
+                return respuesta(banco.retiradaCentimos(entrada.readUTF(), entrada.readLong()));
+            case TRANSFERENCIA:
+                return respuesta(banco.transferenciaCentimos(entrada.readUTF(), entrada.readUTF(), entrada.readLong()));
+            case TIENE_CUENTA:
+                return respuesta(banco.tieneCuenta(entrada.readUTF()));
+            case RESERVAR_SALIDA: {
+                long idReserva = entrada.readLong();
+                return respuesta(banco.reservarSalida(idReserva, entrada.readUTF(), entrada.readLong()));
+            }
+            case ABONAR_ENTRADA: {
+                long idReserva = entrada.readLong();
+                return respuesta(banco.abonarEntrada(idReserva, entrada.readUTF(), entrada.readLong()));
+            }
+            case ENTRADA_ABONADA:
+                return respuesta(banco.entradaAbonada(entrada.readLong()));
+            case OLVIDAR_ENTRADA:
+                banco.olvidarEntrada(entrada.readLong());
+                return 1;
+            case CONFIRMAR_SALIDA:
+                banco.confirmarSalida(entrada.readLong());
+                return 1;
+            case ANULAR_SALIDA:
+                return respuesta(banco.anularSalida(entrada.readLong()));
+            case CENTIMOS_TOTALES:
+                return ParticionLocal.centimosTotales(banco);
+            case NUM_RESERVAS:
+                return banco.getNumReservas();
+            case NUM_CUENTAS:
+                return banco.getNumCuentas();
+            default:
+                throw new IOException("Operacion desconocida: " + operacion);
+        }
+    }
+
+    /**
+     * Responde las operaciones que devuelven una lista de identificadores, que no tienen datos.
+     *
+     * @param operacion Código de la operación.
+     * @param salida    Salida de la conexión.
+     * @return true si la operación era de lista y se ha respondido, false si no.
+     * @throws IOException si no se puede escribir la respuesta.
+     */
+    private boolean responderLista(byte operacion, DataOutputStream salida) throws IOException {
+        long[] lista;
+        if (operacion == ENTRADAS_ABONADAS) {
+            lista = banco.getEntradasAbonadas();
+        } else if (operacion == RESERVAS_PENDIENTES) {
+            lista = banco.getReservasPendientes();
+        } else {
+            return false;
+        }
+        salida.writeInt(lista.length);
+        for (long id : lista) {
+            salida.writeLong(id);
+        }
+        return true;
+    }
+
+    /**
+     * Respuesta de una operación que devuelve boolean.
+     *
+     * @param hecha Resultado de la operación.
+     * @return 1 si es true, 0 si es false.
+     */
+    private static long respuesta(boolean hecha) {
+        return hecha ? 1 : 0;
+    }
+
+    /**
+     * Arranca una partición sobre su fichero de cuentas (ver BancoParticionado.repartirFichero),
+     * escuchando solo en localhost:
+     * java ServidorParticion fichero-de-la-particion puerto
+     *
+     * Carga las cuentas, el diario y la auditoría como BancoMain y, al parar el proceso, guarda la instantánea como la
+     * opción FIN. Si en ese momento quedan reservas pendientes o entradas abonadas (transferencias a medias
+     * porque el coordinador se ha caído), no se guarda la instantánea y se conserva el diario, que las
+     * recupera al volver a arrancar para que el coordinador las resuelva (ver BancoMain.guardarCuentas).
+     *
+     * @param args Fichero de cuentas de la partición y puerto.
+     * @throws IOException si no se puede abrir el puerto.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Uso: java ServidorParticion fichero-de-la-particion puerto");
+            System.exit(2);
+        }
+        File fichero = new File(args[0]);
+        int puerto = Integer.parseInt(args[1]);
+
+        Banco unBanco = new Banco();
+        BancoMain.cargarCuentas(unBanco, fichero);
+        DiarioTransacciones diario = BancoMain.abrirDiario(unBanco, fichero);
+        RegistroAuditoria auditoria = BancoMain.abrirAuditoria(unBanco);
+
+        ServidorParticion servidor = new ServidorParticion(unBanco, new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.parar();
+            BancoMain.cerrarAuditoria(unBanco, auditoria);
+            BancoMain.guardarCuentas(unBanco, diario, fichero);
+        }));
+        System.out.println("Particion escuchando en localhost:" + servidor.getPuerto());
+        // Se aceptan conexiones en el hilo principal para que el proceso siga vivo hasta que lo paren
+        servidor.aceptar();
+    }
+}
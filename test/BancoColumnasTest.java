@@ -0,0 +1,172 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Banco por columnas: las mismas operaciones dan los mismos resultados que en un banco sin columnas, también
+ * los recorridos que van por las columnas (intereses, reseteo, cierre de mes, resúmenes, mayores saldos y
+ * ordenaciones) y después de borrar cuentas y reutilizar sus filas.
+ */
+class BancoColumnasTest {
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void mismasOperacionesQueSinColumnas() throws IOException {
+        Path fichero = directorio.resolve("cuentas.txt");
+        new GeneradorCuentas(11).generar(fichero, 400);
+        // Otro cliente con el DNI del primero: comparte posición en la ordenación por DNI
+        String primera = Files.readAllLines(fichero).get(0);
+        Files.writeString(fichero, primera.split(" ")[0] + " Homonimo 250.00 C\n",
+                StandardOpenOption.APPEND);
+        List<String[]> lineas = new ArrayList<>();
+        for (String linea : Files.readAllLines(fichero)) {
+            lineas.add(linea.split(" "));
+        }
+        Banco normal = new Banco();
+        Banco columnas = new Banco(true);
+        normal.cargarFichero(fichero);
+        columnas.cargarFichero(fichero);
+        comparar(normal, columnas);
+
+        Random azar = new Random(5);
+        for (int i = 1; i <= 4000; i++) {
+            String dni = lineas.get(azar.nextInt(lineas.size()))[0];
+            String otroDni = lineas.get(azar.nextInt(lineas.size()))[0];
+            long centimos = 100 + azar.nextInt(200_000);
+            switch (azar.nextInt(4)) {
+                case 0:
+                    assertEquals(normal.ingresoCentimos(dni, centimos), columnas.ingresoCentimos(dni, centimos));
+                    break;
+                case 1:
+                    assertEquals(normal.retiradaCentimos(dni, centimos), columnas.retiradaCentimos(dni, centimos));
+                    break;
+                default:
+                    assertEquals(normal.transferenciaCentimos(dni, otroDni, centimos),
+                            columnas.transferenciaCentimos(dni, otroDni, centimos));
+                    break;
+            }
+            if (i % 400 == 0) {
+                assertEquals(normal.cierreMesCentimos(25_000), columnas.cierreMesCentimos(25_000));
+            }
+            if (i % 700 == 0) {
+                assertEquals(normal.addInteresCentimos(10_000), columnas.addInteresCentimos(10_000));
+                assertEquals(normal.reset(), columnas.reset());
+            }
+            if (i % 250 == 0) {
+                // Borra un cliente y abre cuentas nuevas, que ocupan las filas que ha dejado
+                String[] cliente = lineas.remove(azar.nextInt(lineas.size()));
+                Cliente borrado = new Cliente(cliente[0], cliente[1]);
+                List<Cuenta> suyas = columnas.buscarCuentas(borrado);
+                List<Long> saldos = new ArrayList<>();
+                for (Cuenta cuenta : suyas) {
+                    saldos.add(cuenta.getSaldoCentimos());
+                }
+                assertEquals(normal.eliminarCliente(borrado), columnas.eliminarCliente(borrado));
+                // Las cuentas borradas conservan su saldo fuera de las columnas
+                for (int j = 0; j < suyas.size(); j++) {
+                    assertEquals(saldos.get(j), suyas.get(j).getSaldoCentimos());
+                }
+                String nueva = String.format("%08dZ Nuevo%d %d.%02d %s%n", i, i, azar.nextInt(5000), azar.nextInt(100),
+                        azar.nextBoolean() ? "A" : "C");
+                normal.cargarFichero(new Scanner(nueva));
+                columnas.cargarFichero(new Scanner(nueva));
+                lineas.add(nueva.trim().split(" "));
+            }
+            if (i == 1000) {
+                normal.ordenarCuentas();
+                columnas.ordenarCuentas();
+            }
+            if (i == 2000) {
+                // Construye el índice por saldo, que a partir de aquí se mantiene en cada operación
+                assertEquals(normal.recorrerPorSaldo(0, 100_000, Cuenta.class, cuenta -> { }),
+                        columnas.recorrerPorSaldo(0, 100_000, Cuenta.class, cuenta -> { }));
+            }
+            if (i % 500 == 0) {
+                comparar(normal, columnas);
+            }
+        }
+        normal.ordenarCuentas();
+        columnas.ordenarCuentas();
+        comparar(normal, columnas);
+    }
+
+    @Test
+    void cierreDeMesEnParaleloYGuardadosPorColumnas() throws IOException {
+        Path fichero = directorio.resolve("cuentas.txt");
+        // Por encima de Banco.UMBRAL_PARALELO, para que el barrido se reparta en tramos
+        new GeneradorCuentas(3).generar(fichero, 12_000);
+        Banco normal = new Banco();
+        Banco columnas = new Banco(true);
+        normal.cargarFicheroParalelo(fichero);
+        columnas.cargarFicheroParalelo(fichero);
+        for (String linea : Files.readAllLines(fichero).subList(0, 2000)) {
+            String dni = linea.split(" ")[0];
+            assertEquals(normal.retiradaCentimos(dni, 1_500), columnas.retiradaCentimos(dni, 1_500));
+        }
+        assertEquals(normal.cierreMesCentimos(30_000), columnas.cierreMesCentimos(30_000));
+        comparar(normal, columnas);
+
+        Path instantanea = directorio.resolve("cuentas.instantanea");
+        columnas.guardarInstantanea(instantanea);
+        Banco restaurado = new Banco(true);
+        restaurado.cargarInstantanea(instantanea);
+        comparar(normal, restaurado);
+
+        Path base = directorio.resolve("cuentas.base");
+        Path cambios = directorio.resolve("cuentas.cambios");
+        columnas.guardarCambios(base, cambios);
+        columnas.retiradaCentimos(Files.readAllLines(fichero).get(0).split(" ")[0], 2_000);
+        columnas.cierreMesCentimos(10_000);
+        columnas.guardarCambios(base, cambios);
+        Banco cargado = new Banco(true);
+        cargado.cargarCambios(base, cambios);
+        comparar(columnas, cargado);
+    }
+
+    /**
+     * Comprueba que dos bancos tienen las mismas cuentas con los mismos saldos y que los recorridos de todo
+     * el banco dan lo mismo.
+     */
+    private static void comparar(Banco esperado, Banco banco) {
+        assertEquals(esperado.toString(), banco.toString());
+        assertEquals(esperado.getNumCuentas(), banco.getNumCuentas());
+        Map<Class<? extends Cuenta>, LongSummaryStatistics> resumenEsperado = esperado.resumenPorTipo();
+        Map<Class<? extends Cuenta>, LongSummaryStatistics> resumen = banco.resumenPorTipo();
+        assertEquals(resumenEsperado.keySet(), resumen.keySet());
+        for (Class<? extends Cuenta> tipo : resumenEsperado.keySet()) {
+            assertEquals(resumenEsperado.get(tipo).toString(), resumen.get(tipo).toString());
+        }
+        for (Class<? extends Cuenta> tipo : List.of(Cuenta.class, CuentaAhorro.class, CuentaCorriente.class)) {
+            assertEquals(ids(esperado.mayoresSaldos(25, tipo)), ids(banco.mayoresSaldos(25, tipo)));
+        }
+        assertEquals(enOrden(esperado), enOrden(banco));
+    }
+
+    private static List<Long> ids(List<Cuenta> cuentas) {
+        List<Long> ids = new ArrayList<>();
+        for (Cuenta cuenta : cuentas) {
+            ids.add(cuenta.getId());
+        }
+        return ids;
+    }
+
+    private static List<Long> enOrden(Banco banco) {
+        List<Long> ids = new ArrayList<>();
+        banco.recorrerCuentasOrdenadas(0, Integer.MAX_VALUE, cuenta -> ids.add(cuenta.getId()));
+        return ids;
+    }
+}
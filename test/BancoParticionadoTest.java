@@ -0,0 +1,165 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Scanner;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Transferencias en dos fases entre particiones: el dinero de las cuentas y las reservas no cambia al
+ * confirmar, al anular ni cuando una partición falla a mitad y se resuelve después.
+ *
+ * La cuenta de origen es corriente (sus tres primeras retiradas no cobran comisión) y la de destino de
+ * ahorro (los ingresos no cobran), así que el total se conserva exactamente.
+ */
+class BancoParticionadoTest {
+
+    private static final long SALDO_ORIGEN = 100_000;
+    private static final long SALDO_DESTINO = 50_000;
+    private static final long CANTIDAD = 12_345;
+
+    private String dniOrigen;
+    private String dniDestino;
+    private Banco origen;
+    private Banco destino;
+
+    @BeforeEach
+    void preparar() {
+        dniOrigen = dniDeParticion(0);
+        dniDestino = dniDeParticion(1);
+        origen = banco(dniOrigen + " Origen " + Dinero.aEuros(SALDO_ORIGEN) + " C");
+        destino = banco(dniDestino + " Destino " + Dinero.aEuros(SALDO_DESTINO) + " A");
+    }
+
+    @Test
+    void confirmadaMueveElDineroSinCrearNiPerder() {
+        BancoParticionado banco = BancoParticionado.deBancos(List.of(origen, destino), 1);
+        long total = banco.getCentimosTotales();
+
+        assertTrue(banco.transferenciaCentimos(dniOrigen, dniDestino, CANTIDAD));
+        banco.close();
+
+        assertEquals(total, banco.getCentimosTotales());
+        assertEquals(SALDO_ORIGEN - CANTIDAD, saldo(origen, dniOrigen));
+        assertEquals(SALDO_DESTINO + CANTIDAD, saldo(destino, dniDestino));
+        assertEquals(0, banco.getNumReservas());
+        // close espera también a que el destino olvide la entrada abonada
+        assertArrayEquals(new long[0], destino.getEntradasAbonadas());
+    }
+
+    @Test
+    void anuladaDevuelveTodoAlOrigen() {
+        BancoParticionado banco = BancoParticionado.deBancos(List.of(origen, destino), 1);
+        long total = banco.getCentimosTotales();
+        String dniInexistente = otroDniDeParticion(1, dniDestino);
+
+        assertFalse(banco.transferenciaCentimos(dniOrigen, dniInexistente, CANTIDAD));
+        banco.close();
+
+        assertEquals(total, banco.getCentimosTotales());
+        assertEquals(SALDO_ORIGEN, saldo(origen, dniOrigen));
+        assertEquals(0, banco.getNumReservas());
+    }
+
+    @Test
+    void falloAntesDelAbonoSeResuelveAnulando() {
+        BancoParticionado banco = new BancoParticionado(
+                List.of(new ParticionLocal(origen), new ParticionQueFalla(destino, false)), 1);
+        long total = banco.getCentimosTotales();
+
+        assertThrows(UncheckedIOException.class, () -> banco.transferenciaCentimos(dniOrigen, dniDestino, CANTIDAD));
+        // A medias, la cantidad está en la reserva de la partición de origen
+        assertEquals(1, banco.getNumReservas());
+        assertEquals(total, banco.getCentimosTotales());
+
+        assertEquals(1, banco.resolverReservas());
+        banco.close();
+
+        assertEquals(0, banco.getNumReservas());
+        assertEquals(total, banco.getCentimosTotales());
+        assertEquals(SALDO_ORIGEN, saldo(origen, dniOrigen));
+        assertEquals(SALDO_DESTINO, saldo(destino, dniDestino));
+    }
+
+    @Test
+    void falloDespuesDelAbonoSeResuelveConfirmando() {
+        BancoParticionado banco = new BancoParticionado(
+                List.of(new ParticionLocal(origen), new ParticionQueFalla(destino, true)), 1);
+        long total = banco.getCentimosTotales();
+
+        assertThrows(UncheckedIOException.class, () -> banco.transferenciaCentimos(dniOrigen, dniDestino, CANTIDAD));
+        assertEquals(1, banco.getNumReservas());
+        assertEquals(1, destino.getEntradasAbonadas().length);
+
+        assertEquals(1, banco.resolverReservas());
+        banco.close();
+
+        assertEquals(0, banco.getNumReservas());
+        assertArrayEquals(new long[0], destino.getEntradasAbonadas());
+        assertEquals(total, banco.getCentimosTotales());
+        assertEquals(SALDO_ORIGEN - CANTIDAD, saldo(origen, dniOrigen));
+        assertEquals(SALDO_DESTINO + CANTIDAD, saldo(destino, dniDestino));
+    }
+
+    @Test
+    void abonarDosVecesLaMismaReservaIngresaUnaVez() {
+        assertTrue(destino.abonarEntrada(7, dniDestino, CANTIDAD));
+        assertTrue(destino.abonarEntrada(7, dniDestino, CANTIDAD));
+
+        assertEquals(SALDO_DESTINO + CANTIDAD, saldo(destino, dniDestino));
+        assertTrue(destino.entradaAbonada(7));
+        destino.olvidarEntrada(7);
+        assertFalse(destino.entradaAbonada(7));
+    }
+
+    /**
+     * Partición en memoria cuyo abono falla como una remota que pierde la conexión, antes o después
+     * de hacerlo.
+     */
+    private static final class ParticionQueFalla extends ParticionLocal {
+        private final boolean abonarAntes;
+
+        private ParticionQueFalla(Banco banco, boolean abonarAntes) {
+            super(banco);
+            this.abonarAntes = abonarAntes;
+        }
+
+        @Override
+        public boolean abonarEntrada(long idReserva, String dni, long centimos) {
+            if (abonarAntes) {
+                super.abonarEntrada(idReserva, dni, centimos);
+            }
+            throw new UncheckedIOException(new IOException("Conexion perdida"));
+        }
+    }
+
+    private static Banco banco(String linea) {
+        Banco banco = new Banco();
+        banco.cargarFichero(new Scanner(linea));
+        return banco;
+    }
+
+    private static long saldo(Banco banco, String dni) {
+        return banco.consultarCuentas(dni, Cuenta::getSaldoCentimos).get(0);
+    }
+
+    private static String dniDeParticion(int particion) {
+        return otroDniDeParticion(particion, null);
+    }
+
+    private static String otroDniDeParticion(int particion, String distinto) {
+        for (int i = 0; ; i++) {
+            String dni = String.format("%08dA", i);
+            if (BancoParticionado.particion(dni, 2) == particion && !dni.equals(distinto)) {
+                return dni;
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Scanner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Guardado incremental: lo que carga cargarCambios es lo que se guardó, también después de consolidar y
+ * cuando el programa se para a mitad de una consolidación.
+ *
+ * La cuenta de ahorro empieza con más de 3000€, así que abrirla con su saldo le sumaría el bonus otra
+ * vez: el primer segmento de cada consolidación tiene que corregirlo.
+ */
+class CambiosCuentasTest {
+
+    private static final String CUENTAS = "11111111A Ana 5000.00 A\n"
+            + "22222222B Beto 1200.50 C\n"
+            + "33333333C Carla 80.00 C\n";
+    private static final String[] DNIS = {"11111111A", "22222222B", "33333333C"};
+
+    @TempDir
+    Path directorio;
+
+    private Path base;
+    private Path cambios;
+
+    @BeforeEach
+    void preparar() {
+        base = directorio.resolve("cuentas.txt.base");
+        cambios = directorio.resolve("cuentas.txt.cambios");
+    }
+
+    @Test
+    void consolidarYCargarConservaLosSaldos() throws IOException {
+        Banco banco = banco(CUENTAS);
+        long ahorro = saldo(banco, "11111111A");
+
+        banco.guardarCambios(base, cambios);
+        Banco cargado = cargar(base, cambios);
+
+        assertEquals(ahorro, saldo(cargado, "11111111A"));
+        assertEquals(total(banco), total(cargado));
+        assertEquals(3, cargado.getNumCuentas());
+
+        // Se vuelve a consolidar el banco cargado en otros ficheros: el bonus tampoco se suma dos veces
+        Path otraBase = directorio.resolve("otra.base");
+        Path otrosCambios = directorio.resolve("otra.cambios");
+        cargado.guardarCambios(otraBase, otrosCambios);
+        assertEquals(ahorro, saldo(cargar(otraBase, otrosCambios), "11111111A"));
+    }
+
+    @Test
+    void guardadosIncrementalesSeCarganEnOrden() throws IOException {
+        Banco banco = banco(CUENTAS);
+        banco.guardarCambios(base, cambios);
+        banco.ingresoCentimos("11111111A", 12_345);
+        banco.retiradaCentimos("22222222B", 5_000);
+        banco.cargarFichero(new Scanner("44444444D Dani 10.00 C\n"));
+        banco.guardarCambios(base, cambios);
+        banco.eliminarCliente(new Cliente("33333333C", "Carla"));
+        banco.setInteresAhorro(2.5);
+        banco.guardarCambios(base, cambios);
+
+        Banco cargado = cargar(base, cambios);
+
+        assertEquals(3, cargado.getNumCuentas());
+        assertFalse(cargado.tieneCuenta("33333333C"));
+        assertEquals(saldo(banco, "11111111A"), saldo(cargado, "11111111A"));
+        assertEquals(saldo(banco, "22222222B"), saldo(cargado, "22222222B"));
+        assertEquals(saldo(banco, "44444444D"), saldo(cargado, "44444444D"));
+        assertEquals(1, (int) cargado.consultarCuentas("22222222B", Cuenta::getRetiradasMes).get(0));
+        assertEquals(banco.toString(), cargado.toString());
+    }
+
+    @Test
+    void losCambiosQueNoPasanPorIngresosNiRetiradasTambienSeGuardan() throws IOException {
+        Banco banco = banco(CUENTAS);
+        banco.retiradaCentimos("22222222B", 5_000);
+        banco.reservarSalida(1, "33333333C", 2_000);
+        banco.guardarCambios(base, cambios);
+        // Devolver una reserva anulada, pagar intereses y resetear las retiradas cambian las cuentas por dentro
+        banco.anularSalida(1);
+        banco.cierreMesCentimos(10_000);
+        banco.guardarCambios(base, cambios);
+
+        Banco cargado = cargar(base, cambios);
+
+        assertEquals(banco.toString(), cargado.toString());
+        assertEquals(0, (int) cargado.consultarCuentas("22222222B", Cuenta::getRetiradasMes).get(0));
+        assertEquals(saldo(banco, "33333333C"), saldo(cargado, "33333333C"));
+    }
+
+    @Test
+    void ultimoSegmentoCortadoSeDescarta() throws IOException {
+        Banco banco = banco(CUENTAS);
+        banco.guardarCambios(base, cambios);
+        banco.ingresoCentimos("11111111A", 12_345);
+        banco.guardarCambios(base, cambios);
+        long guardado = saldo(banco, "11111111A");
+        long tamanyo = Files.size(cambios);
+        banco.ingresoCentimos("11111111A", 99_999);
+        banco.guardarCambios(base, cambios);
+
+        // El programa se paró mientras escribía el último segmento
+        try (FileChannel canal = FileChannel.open(cambios, StandardOpenOption.WRITE)) {
+            canal.truncate(Files.size(cambios) - 3);
+        }
+        Banco cargado = cargar(base, cambios);
+
+        assertEquals(guardado, saldo(cargado, "11111111A"));
+        assertEquals(tamanyo, Files.size(cambios));
+
+        // Los siguientes guardados escriben a continuación de lo válido
+        cargado.ingresoCentimos("11111111A", 1_000);
+        cargado.guardarCambios(base, cambios);
+        assertEquals(guardado + 1_000, saldo(cargar(base, cambios), "11111111A"));
+    }
+
+    @Test
+    void caidaAntesDePublicarCargaLoAnterior() throws IOException {
+        Banco banco = banco(CUENTAS);
+        banco.guardarCambios(base, cambios);
+        long total = total(banco);
+
+        // Consolidación completa de un estado posterior en ficheros temporales sin publicar
+        banco.ingresoCentimos("11111111A", 70_000);
+        Path otraBase = directorio.resolve("otra.base");
+        Path otrosCambios = directorio.resolve("otra.cambios");
+        banco.guardarCambios(otraBase, otrosCambios);
+        Files.copy(otraBase, temporal(base));
+        Files.copy(otrosCambios, temporal(cambios));
+
+        Banco cargado = cargar(base, cambios);
+
+        assertEquals(total, total(cargado));
+    }
+
+    @Test
+    void caidaEntreLosRenombradosTerminaLaConsolidacion() throws IOException {
+        Banco banco = banco(CUENTAS);
+        banco.guardarCambios(base, cambios);
+
+        // Los cambios nuevos ya están publicados y la base nueva sigue en el temporal
+        banco.ingresoCentimos("11111111A", 70_000);
+        Path otraBase = directorio.resolve("otra.base");
+        Path otrosCambios = directorio.resolve("otra.cambios");
+        banco.guardarCambios(otraBase, otrosCambios);
+        Files.copy(otraBase, temporal(base));
+        Files.copy(otrosCambios, cambios, StandardCopyOption.REPLACE_EXISTING);
+
+        Banco cargado = cargar(base, cambios);
+
+        assertEquals(total(banco), total(cargado));
+        assertEquals(saldo(banco, "11111111A"), saldo(cargado, "11111111A"));
+        assertFalse(Files.exists(temporal(base)));
+    }
+
+    private static Banco banco(String lineas) {
+        Banco banco = new Banco();
+        banco.cargarFichero(new Scanner(lineas));
+        return banco;
+    }
+
+    private static Banco cargar(Path base, Path cambios) throws IOException {
+        Banco banco = new Banco();
+        banco.cargarCambios(base, cambios);
+        return banco;
+    }
+
+    private static long saldo(Banco banco, String dni) {
+        return banco.consultarCuentas(dni, Cuenta::getSaldoCentimos).get(0);
+    }
+
+    private static long total(Banco banco) {
+        long total = 0;
+        for (String dni : DNIS) {
+            total += banco.consultarCuentas(dni, Cuenta::getSaldoCentimos).stream().mapToLong(Long::longValue).sum();
+        }
+        return total;
+    }
+
+    private static Path temporal(Path fichero) {
+        return fichero.resolveSibling(fichero.getFileName() + ".tmp");
+    }
+}